@@ -10,6 +10,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.model.migration.WikiMigrationResult;
 import org.sagebionetworks.repo.model.status.StackStatus;
@@ -44,6 +45,32 @@ public interface SynapseAdminClient extends SynapseClient {
 	 */
 	public RowMetadataResult getRowMetadata(MigrationType migrationType, Long limit, Long offset) throws SynapseException, JSONObjectAdapterException;
 	
+	/**
+	 * Get one page of metadata for the given MigrationType with IDs in a range, ordered by ID.
+	 * The next page starts at one more than the last ID of this page.
+	 * 
+	 * @param migrationType
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @param limit
+	 * @return
+	 * @throws SynapseException
+	 * @throws JSONObjectAdapterException
+	 */
+	public RowMetadataResult getRowMetadataByRange(MigrationType migrationType, Long minId, Long maxId, Long limit) throws SynapseException, JSONObjectAdapterException;
+	
+	/**
+	 * Get the count and aggregate checksum of the rows of the given MigrationType with IDs in a range.
+	 * 
+	 * @param migrationType
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @return
+	 * @throws SynapseException
+	 * @throws JSONObjectAdapterException
+	 */
+	public RangeChecksum getChecksumForIdRange(MigrationType migrationType, Long minId, Long maxId) throws SynapseException, JSONObjectAdapterException;
+	
 	/**
 	 * Get the counts for all types
 	 * @return
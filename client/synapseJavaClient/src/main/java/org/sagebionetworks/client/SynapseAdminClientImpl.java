@@ -18,6 +18,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.model.migration.WikiMigrationResult;
 import org.sagebionetworks.repo.model.status.StackStatus;
@@ -44,6 +45,8 @@ public class SynapseAdminClientImpl extends SynapseClientImpl implements Synapse
 	private static final String MIGRATION_COUNTS = MIGRATION + "/counts";
 	private static final String MIGRATION_ROWS = MIGRATION + "/rows";
 	private static final String MIGRATION_DELTA = MIGRATION + "/delta";
+	private static final String MIGRATION_RANGE_ROWS = MIGRATION + "/rangerows";
+	private static final String MIGRATION_RANGE_CHECKSUM = MIGRATION + "/rangechecksum";
 	private static final String MIGRATION_BACKUP = MIGRATION + "/backup";
 	private static final String MIGRATION_RESTORE = MIGRATION + "/restore";
 	private static final String MIGRATION_DELETE = MIGRATION + "/delete";
@@ -164,6 +167,30 @@ public class SynapseAdminClientImpl extends SynapseClientImpl implements Synapse
 		return results;
 	}
 	
+	/*
+	 * 
+	 */
+	public RowMetadataResult getRowMetadataByRange(MigrationType migrationType, Long minId, Long maxId, Long limit) throws SynapseException, JSONObjectAdapterException {
+		String uri = MIGRATION_RANGE_ROWS + "?type=" + migrationType.name() + "&minId=" + minId + "&maxId=" + maxId + "&limit=" + limit;
+		JSONObject jsonObj = getSharedClientConnection().getJson(repoEndpoint, uri, getUserAgent());
+		JSONObjectAdapter adapter = new JSONObjectAdapterImpl(jsonObj);
+		RowMetadataResult results = new RowMetadataResult(); 
+		results.initializeFromJSONObject(adapter);
+		return results;
+	}
+	
+	/*
+	 * 
+	 */
+	public RangeChecksum getChecksumForIdRange(MigrationType migrationType, Long minId, Long maxId) throws SynapseException, JSONObjectAdapterException {
+		String uri = MIGRATION_RANGE_CHECKSUM + "?type=" + migrationType.name() + "&minId=" + minId + "&maxId=" + maxId;
+		JSONObject jsonObj = getSharedClientConnection().getJson(repoEndpoint, uri, getUserAgent());
+		JSONObjectAdapter adapter = new JSONObjectAdapterImpl(jsonObj);
+		RangeChecksum checksum = new RangeChecksum();
+		checksum.initializeFromJSONObject(adapter);
+		return checksum;
+	}
+	
 	/*
 	 * 
 	 */
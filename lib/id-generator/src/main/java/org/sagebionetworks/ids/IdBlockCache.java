@@ -0,0 +1,200 @@
+package org.sagebionetworks.ids;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.ids.IdGenerator.TYPE;
+
+/**
+ * Hands out IDs of a single type from blocks that are reserved from the ID
+ * database in one round trip. Taking an ID from the current block is a single
+ * atomic increment. When the current block runs low the next block is
+ * reserved in the background so callers rarely wait on the database.
+ * 
+ */
+public class IdBlockCache {
+
+	static private Log log = LogFactory.getLog(IdBlockCache.class);
+
+	/**
+	 * A contiguous range of reserved IDs.
+	 */
+	static class IdBlock {
+		final long end;
+		final AtomicLong next;
+
+		IdBlock(long first, long end) {
+			this.next = new AtomicLong(first);
+			this.end = end;
+		}
+
+		/**
+		 * @return The next ID or -1 if the block is used up.
+		 */
+		long take() {
+			// Check first so a used up block does not keep counting.
+			if (next.get() > end) {
+				return -1;
+			}
+			long id = next.getAndIncrement();
+			return id <= end ? id : -1;
+		}
+
+		long remaining() {
+			return Math.max(0, end - next.get() + 1);
+		}
+	}
+
+	private static final IdBlock EMPTY = new IdBlock(1, 0);
+
+	private final TYPE type;
+	private final int blockSize;
+	private final int lowWaterMark;
+	private final IdBlockReserver reserver;
+	private final Executor prefetchExecutor;
+
+	private volatile IdBlock current = EMPTY;
+	/**
+	 * The following are guarded by this.
+	 */
+	private IdBlock prefetched = null;
+	private boolean prefetching = false;
+	private long generation = 0;
+
+	private final AtomicLong reservedBlockCount = new AtomicLong(0);
+
+	/**
+	 * @param type
+	 * @param blockSize The number of IDs reserved with each round trip.
+	 * @param lowWaterMark The next block is prefetched once the current block has this many IDs left.
+	 * @param reserver
+	 * @param prefetchExecutor Runs the background reservations.
+	 */
+	public IdBlockCache(TYPE type, int blockSize, int lowWaterMark, IdBlockReserver reserver, Executor prefetchExecutor) {
+		if (type == null) throw new IllegalArgumentException("Type cannot be null");
+		if (blockSize < 1) throw new IllegalArgumentException("Block size must be at least one");
+		if (lowWaterMark < 0 || lowWaterMark >= blockSize) throw new IllegalArgumentException("Low-water mark must be between zero and the block size");
+		if (reserver == null) throw new IllegalArgumentException("Reserver cannot be null");
+		if (prefetchExecutor == null) throw new IllegalArgumentException("Executor cannot be null");
+		this.type = type;
+		this.blockSize = blockSize;
+		this.lowWaterMark = lowWaterMark;
+		this.reserver = reserver;
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * Get the next ID.
+	 * 
+	 * @return
+	 */
+	public long nextId() {
+		while (true) {
+			IdBlock block = current;
+			long id = block.take();
+			if (id >= 0) {
+				if (block.remaining() <= lowWaterMark) {
+					requestPrefetch();
+				}
+				return id;
+			}
+			replaceBlock(block);
+		}
+	}
+
+	/**
+	 * Drop all cached IDs. Any ID handed out after this call was reserved after
+	 * this call.
+	 */
+	public synchronized void invalidate() {
+		current = EMPTY;
+		prefetched = null;
+		// A prefetch that is in flight was reserved before this call so it must not be used.
+		generation++;
+	}
+
+	/**
+	 * The number of blocks reserved from the database.
+	 * 
+	 * @return
+	 */
+	public long getReservedBlockCount() {
+		return reservedBlockCount.get();
+	}
+
+	/**
+	 * Replace a used up block with the prefetched block, or reserve a new block
+	 * if there is no prefetched block.
+	 */
+	private synchronized void replaceBlock(IdBlock usedUp) {
+		// Wait for a prefetch that is already running rather than reserving a second block.
+		while (current == usedUp && prefetching && prefetched == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (current != usedUp) {
+			// Another thread already replaced it.
+			return;
+		}
+		if (prefetched != null) {
+			current = prefetched;
+			prefetched = null;
+		} else {
+			current = reserve();
+		}
+	}
+
+	/**
+	 * Start a background reservation of the next block if one is not already
+	 * running or waiting.
+	 */
+	private void requestPrefetch() {
+		final long startGeneration;
+		synchronized (this) {
+			if (prefetching || prefetched != null) {
+				return;
+			}
+			prefetching = true;
+			startGeneration = generation;
+		}
+		try {
+			prefetchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					IdBlock block = null;
+					try {
+						block = reserve();
+					} catch (Exception e) {
+						log.error("Failed to prefetch a block of " + type.name() + " IDs", e);
+					}
+					synchronized (IdBlockCache.this) {
+						if (generation == startGeneration) {
+							prefetched = block;
+						}
+						prefetching = false;
+						IdBlockCache.this.notifyAll();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// The executor rejected the task so the next block will be reserved on demand.
+			synchronized (this) {
+				prefetching = false;
+				notifyAll();
+			}
+			log.warn("Failed to start a prefetch of " + type.name() + " IDs", e);
+		}
+	}
+
+	private IdBlock reserve() {
+		long first = reserver.reserveBlock(type, blockSize);
+		reservedBlockCount.incrementAndGet();
+		return new IdBlock(first, first + blockSize - 1);
+	}
+}
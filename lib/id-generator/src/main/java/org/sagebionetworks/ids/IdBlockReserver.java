@@ -0,0 +1,19 @@
+package org.sagebionetworks.ids;
+
+import org.sagebionetworks.ids.IdGenerator.TYPE;
+
+/**
+ * Reserves a contiguous range of IDs from the ID database.
+ *
+ */
+public interface IdBlockReserver {
+
+	/**
+	 * Reserve a contiguous range of IDs.
+	 * 
+	 * @param type
+	 * @param count The number of IDs to reserve.
+	 * @return The first ID of the range. The range is first to first+count-1.
+	 */
+	public long reserveBlock(TYPE type, int count);
+}
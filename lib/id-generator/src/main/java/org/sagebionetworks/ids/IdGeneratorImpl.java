@@ -3,8 +3,16 @@ package org.sagebionetworks.ids;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.sql.DataSource;
 
@@ -14,16 +22,26 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * This class creates domain unique ids using a MySql sequence via AUTO_INCREMENT of a primary key.
  * For a full explanation of how this works @See http://dev.mysql.com/doc/refman/5.1/en/information-functions.html#function_last-insert-id.
+ * 
+ * Block allocation is opt-in for each type. When the block size is greater than one, each
+ * of the block types reserves a block of IDs with a single multiple-row insert and hands
+ * them out from memory (see {@link IdBlockCache}). IDs of those types are then unique but
+ * no longer issued in order across machines, so types whose consumers rely on that order
+ * (see {@link #ORDERED_TYPES}) always reserve one ID at a time. A call to
+ * {@link #reserveId(Long, TYPE)} only drops the blocks cached by this machine.
  * @author jmhill
  *
  */
-@Transactional(readOnly = false)
 public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	
 	// Create table template
@@ -33,6 +51,12 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	public static String SCHEMA_FILE = "domain-id-schema.sql";
 	// Insert a single row into the database
 	public static final String INSERT_SQL = "INSERT INTO %1$S (CREATED_ON) VALUES (?)";
+	// Each additional row of a multiple-row insert
+	public static final String INSERT_SQL_ADDITIONAL_ROW = ", (?)";
+	// Multiple-row inserts are only assigned consecutive IDs when the lock mode is 'traditional' (0) or 'consecutive' (1).
+	public static final String AUTO_INCREMENT_LOCK_MODE_SQL = "SELECT @@innodb_autoinc_lock_mode";
+	public static final int INTERLEAVED_LOCK_MODE = 2;
+	private static final String INTERLEAVED_MESSAGE = "The ID database uses innodb_autoinc_lock_mode="+INTERLEAVED_LOCK_MODE+" so multiple-row inserts might not be assigned consecutive IDs";
 	
 	// This version sets the value to insert.  This is used to reserve the ID and all values less than the ID.
 	public static final String INSERT_SQL_INCREMENT = "INSERT INTO %1$S (ID, CREATED_ON) VALUES (?, ?)";
@@ -44,6 +68,12 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	// Determine if the table exists
 	public static final String TABLE_EXISTS_SQL_PERFIX = "SELECT TABLE_NAME FROM Information_schema.tables WHERE table_name = '%1$S' AND table_schema = '%2$s'";
 	
+	/**
+	 * Types that must be issued in increasing order across machines, so they are never block allocated.
+	 * Change numbers are read in order by the change message consumers and the sent and processed watermarks.
+	 */
+	public static final Set<TYPE> ORDERED_TYPES = Collections.unmodifiableSet(EnumSet.of(TYPE.CHANGE_ID));
+	
 	@Autowired
 	JdbcTemplate idGeneratorJdbcTemplate;
 	@Autowired
@@ -52,9 +82,58 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	DataSourceTransactionManager idGeneratorTransactionManager;
 	
 	/**
-	 * This call occurs in its own transaction.
+	 * The number of IDs reserved with each trip to the database. One means IDs are not cached.
 	 */
-	@Transactional(readOnly = false, propagation = Propagation.REQUIRES_NEW)
+	int blockSize = 1;
+	/**
+	 * The next block is prefetched when the current block has this many IDs left.
+	 */
+	int lowWaterMark = 0;
+	/**
+	 * The types that are block allocated. No type is block allocated by default.
+	 */
+	Set<TYPE> blockTypes = EnumSet.noneOf(TYPE.class);
+	
+	/**
+	 * Each reservation runs in its own transaction so the insert and
+	 * LAST_INSERT_ID() use the same connection.
+	 */
+	private TransactionTemplate requiresNewTemplate;
+	private boolean consecutiveMultipleRowInserts;
+	private Map<TYPE, IdBlockCache> blockCaches;
+	private ExecutorService prefetchExecutor;
+	
+	/**
+	 * The number of IDs to reserve with each trip to the database. Injected via Spring.
+	 * @param blockSize
+	 */
+	public void setBlockSize(int blockSize) {
+		if(blockSize < 1) throw new IllegalArgumentException("Block size must be at least one");
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * The next block is reserved in the background when the current block has
+	 * this many IDs left. Injected via Spring.
+	 * @param lowWaterMark
+	 */
+	public void setLowWaterMark(int lowWaterMark) {
+		this.lowWaterMark = lowWaterMark;
+	}
+
+	/**
+	 * The types that reserve blocks of IDs when the block size is greater than one.
+	 * All other types reserve one ID at a time. Injected via Spring.
+	 * @param blockTypes
+	 */
+	public void setBlockTypes(Set<TYPE> blockTypes) {
+		if(blockTypes == null) throw new IllegalArgumentException("Block types cannot be null");
+		for(TYPE type: blockTypes){
+			if(ORDERED_TYPES.contains(type)) throw new IllegalArgumentException("IDs of type "+type+" must be issued in order so they cannot be block allocated");
+		}
+		this.blockTypes = blockTypes.isEmpty() ? EnumSet.noneOf(TYPE.class) : EnumSet.copyOf(blockTypes);
+	}
+
 	@Override
 	public Long generateNewId() {
 		// Use the default domain
@@ -62,21 +141,78 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 	}
 
 	/**
-	 * This call occurs in its own transaction.
+	 * Without a block cache for the type this call reserves a single ID in its own transaction.
 	 */
-	@Transactional(readOnly = false, propagation = Propagation.REQUIRES_NEW)
 	@Override
 	public Long generateNewId(TYPE type) {
-		// Create a new time
-		final long now = System.currentTimeMillis();
-		idGeneratorJdbcTemplate.update(String.format(INSERT_SQL, type.name()), new PreparedStatementSetter(){
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		IdBlockCache cache = getBlockCache(type);
+		if(cache != null){
+			return cache.nextId();
+		}
+		return reserveBlock(type, 1);
+	}
+	
+	/**
+	 * A batch larger than the block size is reserved in a single trip to the database
+	 * and is always contiguous. Smaller batches are taken from the block cache.
+	 */
+	@Override
+	public List<Long> generateNewIds(TYPE type, int count) {
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(count < 1) throw new IllegalArgumentException("Count must be at least one");
+		List<Long> results = new ArrayList<Long>(count);
+		IdBlockCache cache = getBlockCache(type);
+		if(cache != null && count < blockSize){
+			for(int i=0; i<count; i++){
+				results.add(cache.nextId());
+			}
+			return results;
+		}
+		long first = reserveBlock(type, count);
+		for(int i=0; i<count; i++){
+			results.add(first+i);
+		}
+		return results;
+	}
+	
+	/**
+	 * @param type
+	 * @return The block cache of the given type or null if the type is not block allocated.
+	 */
+	private IdBlockCache getBlockCache(TYPE type) {
+		return blockCaches == null ? null : blockCaches.get(type);
+	}
+	
+	/**
+	 * Reserve a contiguous block of IDs with a single multiple-row insert.
+	 * 
+	 * @param type
+	 * @param count
+	 * @return The first ID of the block.
+	 */
+	long reserveBlock(final TYPE type, final int count) {
+		if(count > 1 && !consecutiveMultipleRowInserts) throw new IllegalStateException(INTERLEAVED_MESSAGE);
+		final StringBuilder sql = new StringBuilder(String.format(INSERT_SQL, type.name()));
+		for(int i=1; i<count; i++){
+			sql.append(INSERT_SQL_ADDITIONAL_ROW);
+		}
+		return requiresNewTemplate.execute(new TransactionCallback<Long>() {
 			@Override
-			public void setValues(PreparedStatement ps) throws SQLException {
-				ps.setLong(1, now);
-				
-			}});
-		// Get the ID we just created.
-		return idGeneratorJdbcTemplate.queryForLong(String.format(GET_ID_SQL, type.name()));
+			public Long doInTransaction(TransactionStatus status) {
+				// Create a new time
+				final long now = System.currentTimeMillis();
+				idGeneratorJdbcTemplate.update(sql.toString(), new PreparedStatementSetter(){
+					@Override
+					public void setValues(PreparedStatement ps) throws SQLException {
+						for(int i=1; i<=count; i++){
+							ps.setLong(i, now);
+						}
+					}});
+				// For a multiple-row insert this is the ID of the first row.
+				return idGeneratorJdbcTemplate.queryForLong(String.format(GET_ID_SQL, type.name()));
+			}
+		});
 	}
 	
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRES_NEW)
@@ -94,6 +230,11 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 					ps.setLong(2, now);
 				}});
 		}
+		IdBlockCache cache = getBlockCache(type);
+		if(cache != null){
+			// Cached IDs might be below the reserved ID.
+			cache.invalidate();
+		}
 	}
 
 	@Override
@@ -124,7 +265,41 @@ public class IdGeneratorImpl implements IdGenerator, InitializingBean{
 				}
 			}
 		}
-
+		requiresNewTemplate = new TransactionTemplate(idGeneratorTransactionManager);
+		requiresNewTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		// Multiple-row inserts must be assigned consecutive IDs.
+		consecutiveMultipleRowInserts = idGeneratorJdbcTemplate.queryForInt(AUTO_INCREMENT_LOCK_MODE_SQL) != INTERLEAVED_LOCK_MODE;
+		if(blockSize > 1 && !blockTypes.isEmpty()){
+			if(!consecutiveMultipleRowInserts) throw new IllegalStateException(INTERLEAVED_MESSAGE);
+			if(lowWaterMark < 0 || lowWaterMark >= blockSize) throw new IllegalArgumentException("Low-water mark must be between zero and the block size");
+			prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "id-block-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			IdBlockReserver reserver = new IdBlockReserver() {
+				@Override
+				public long reserveBlock(TYPE type, int count) {
+					return IdGeneratorImpl.this.reserveBlock(type, count);
+				}
+			};
+			blockCaches = new EnumMap<TYPE, IdBlockCache>(TYPE.class);
+			for(TYPE type: blockTypes){
+				blockCaches.put(type, new IdBlockCache(type, blockSize, lowWaterMark, reserver, prefetchExecutor));
+			}
+		}
+	}
+	
+	/**
+	 * Stop the prefetch thread.
+	 */
+	public void shutdown() {
+		if(prefetchExecutor != null){
+			prefetchExecutor.shutdownNow();
+		}
 	}
 	
 	/**
@@ -0,0 +1,126 @@
+package org.sagebionetworks.ids;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.ids.IdGenerator.TYPE;
+
+public class IdBlockCacheTest {
+
+	/**
+	 * Stands in for the ID database.
+	 */
+	private static class StubReserver implements IdBlockReserver {
+		AtomicLong max = new AtomicLong(0);
+		AtomicLong calls = new AtomicLong(0);
+
+		@Override
+		public long reserveBlock(TYPE type, int count) {
+			calls.incrementAndGet();
+			return max.getAndAdd(count) + 1;
+		}
+	}
+
+	/**
+	 * Runs the prefetch on the calling thread.
+	 */
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	StubReserver reserver;
+	ExecutorService executor;
+
+	@Before
+	public void before() {
+		reserver = new StubReserver();
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testLowWaterMarkTooLarge() {
+		new IdBlockCache(TYPE.DOMAIN_IDS, 10, 10, reserver, SAME_THREAD);
+	}
+
+	@Test
+	public void testSequentialWithoutPrefetch() {
+		IdBlockCache cache = new IdBlockCache(TYPE.DOMAIN_IDS, 10, 0, reserver, SAME_THREAD);
+		for (long i = 1; i <= 25; i++) {
+			assertEquals(i, cache.nextId());
+		}
+		assertEquals(3, reserver.calls.get());
+	}
+
+	@Test
+	public void testPrefetchAtLowWaterMark() {
+		IdBlockCache cache = new IdBlockCache(TYPE.DOMAIN_IDS, 10, 3, reserver, SAME_THREAD);
+		for (int i = 0; i < 6; i++) {
+			cache.nextId();
+		}
+		assertEquals(1, reserver.calls.get());
+		// This leaves three in the block so the next block is reserved.
+		cache.nextId();
+		assertEquals(2, reserver.calls.get());
+		// The prefetched block is used once the first is gone.
+		for (long i = 8; i <= 10; i++) {
+			assertEquals(i, cache.nextId());
+		}
+		assertEquals(11, cache.nextId());
+		assertEquals(2, reserver.calls.get());
+	}
+
+	@Test
+	public void testInvalidate() {
+		IdBlockCache cache = new IdBlockCache(TYPE.DOMAIN_IDS, 10, 0, reserver, SAME_THREAD);
+		assertEquals(1, cache.nextId());
+		cache.invalidate();
+		// The rest of the first block is dropped.
+		assertEquals(11, cache.nextId());
+	}
+
+	@Test
+	public void testConcurrentThreads() throws InterruptedException {
+		final IdBlockCache cache = new IdBlockCache(TYPE.DOMAIN_IDS, 100, 25, reserver, executor);
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		int threadCount = 8;
+		final int perThread = 10000;
+		ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			threads.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						assertTrue("Duplicate ID found!", ids.add(cache.nextId()));
+					}
+				}
+			});
+		}
+		threads.shutdown();
+		assertTrue(threads.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(threadCount * perThread, ids.size());
+		// No IDs were skipped.
+		assertEquals(threadCount * perThread, Collections.max(ids).longValue());
+		// Prefetching can leave at most one unused block behind.
+		assertTrue(reserver.calls.get() <= threadCount * perThread / 100 + 1);
+	}
+}
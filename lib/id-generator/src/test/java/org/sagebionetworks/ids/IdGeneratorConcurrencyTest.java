@@ -3,13 +3,20 @@ package org.sagebionetworks.ids;
 import static org.junit.Assert.*;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.sagebionetworks.StackConfiguration;
+import org.sagebionetworks.ids.IdGenerator.TYPE;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -23,8 +30,16 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 @ContextConfiguration(locations = { "classpath:id-generator.spb.xml" })
 public class IdGeneratorConcurrencyTest {
 	
+	static private Log log = LogFactory.getLog(IdGeneratorConcurrencyTest.class);
+	
 	@Autowired
 	IdGenerator idGenerator;
+	@Autowired
+	JdbcTemplate idGeneratorJdbcTemplate;
+	@Autowired
+	StackConfiguration stackConfiguration;
+	@Autowired
+	DataSourceTransactionManager idGeneratorTransactionManager;
 	
 	// The number of ms to allow this test to run before failing.
 	private int TIME_OUT = 1000*10; // ten seconds
@@ -47,7 +62,7 @@ public class IdGeneratorConcurrencyTest {
 						for(int j=0; j<numberIds; j++){
 							Long id = idGenerator.generateNewId();
 							if(j % 25 == 0){
-								System.out.println("Thread.id="+Thread.currentThread().getId()+" generated id: "+id);							
+								log.debug("Thread.id="+Thread.currentThread().getId()+" generated id: "+id);							
 							}
 							assertTrue("Duplicate ID found!", sharedIdSet.add(id));
 							count.incrementAndGet();
@@ -55,7 +70,7 @@ public class IdGeneratorConcurrencyTest {
 							Thread.yield();
 						}
 						// This thread is done
-						System.out.println("Thread.id="+Thread.currentThread().getId()+" finished");
+						log.debug("Thread.id="+Thread.currentThread().getId()+" finished");
 					} catch (Throwable t) {
 						t.printStackTrace();
 					}
@@ -69,11 +84,67 @@ public class IdGeneratorConcurrencyTest {
 		for (Thread thread : threads) {
 			thread.join(TIME_OUT);
 		}
-		System.out.println("Expected: "+numberOfThreads*numberIds);
-		System.out.println("Count: "+count.get());
+		log.debug("Expected: "+numberOfThreads*numberIds);
+		log.debug("Count: "+count.get());
 		// Make sure we have the expected number of IDs
 		assertEquals("Did not get the expceted count of insertions", numberOfThreads*numberIds, count.get());
 		assertEquals("Did not get the expceted count of unique IDs", numberOfThreads*numberIds, sharedIdSet.size());
 	}
 
+	/**
+	 * Compares reserving one ID per trip to the database with reserving blocks, under contention.
+	 */
+	@Test
+	public void testBlockVersusSingle() throws Exception{
+		IdGeneratorImpl blockGenerator = new IdGeneratorImpl();
+		blockGenerator.idGeneratorJdbcTemplate = idGeneratorJdbcTemplate;
+		blockGenerator.stackConfiguration = stackConfiguration;
+		blockGenerator.idGeneratorTransactionManager = idGeneratorTransactionManager;
+		blockGenerator.setBlockSize(1000);
+		blockGenerator.setLowWaterMark(250);
+		blockGenerator.setBlockTypes(EnumSet.of(TYPE.DOMAIN_IDS));
+		blockGenerator.afterPropertiesSet();
+		try{
+			int numberIds = 250;
+			long singleMS = timeConcurrentIds(idGenerator, numberIds);
+			long blockMS = timeConcurrentIds(blockGenerator, numberIds);
+			int total = numberOfThreads*numberIds;
+			log.debug("Single: "+(total*1000L/Math.max(1, singleMS))+" ids/sec, block: "+(total*1000L/Math.max(1, blockMS))+" ids/sec");
+		}finally{
+			blockGenerator.shutdown();
+		}
+	}
+	
+	/**
+	 * Generate IDs from all threads and check they are unique.
+	 * @return The elapsed milliseconds.
+	 */
+	private long timeConcurrentIds(final IdGenerator generator, final int numberIds) throws InterruptedException{
+		final Set<Long> sharedIdSet = Collections.synchronizedSet(new HashSet<Long>());
+		final AtomicInteger count = new AtomicInteger(0);
+		Thread[] threads = new Thread[numberOfThreads];
+		for(int i=0; i< numberOfThreads; i++){
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j=0; j<numberIds; j++){
+						if(sharedIdSet.add(generator.generateNewId())){
+							count.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join(TIME_OUT);
+		}
+		long elapse = System.currentTimeMillis()-start;
+		assertEquals("Did not get the expceted count of unique IDs", numberOfThreads*numberIds, count.get());
+		return elapse;
+	}
+
 }
@@ -4,7 +4,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Test;
@@ -29,6 +31,12 @@ public class IdGeneratorImplTest {
 		assertEquals(schema, results);
 	}
 		
+	@Test (expected=IllegalArgumentException.class)
+	public void testChangeIdsNotBlockAllocated(){
+		// Change numbers must stay in order across machines
+		new IdGeneratorImpl().setBlockTypes(EnumSet.of(TYPE.DOMAIN_IDS, TYPE.CHANGE_ID));
+	}
+	
 	@Test
 	public void testNewId(){
 		assertNotNull(idGenerator);
@@ -69,4 +77,17 @@ public class IdGeneratorImplTest {
 		assertEquals(next.longValue(), id.longValue()+1);
 	}
 
+	@Test
+	public void testGenerateNewIds(){
+		List<Long> ids = idGenerator.generateNewIds(TYPE.DOMAIN_IDS, 50);
+		assertEquals(50, ids.size());
+		// A batch is contiguous
+		for(int i=1; i<ids.size(); i++){
+			assertEquals(ids.get(i-1)+1, ids.get(i).longValue());
+		}
+		// The next ID follows the batch
+		Long next = idGenerator.generateNewId();
+		assertEquals(ids.get(49)+1, next.longValue());
+	}
+
 }
@@ -20,6 +20,8 @@ public class DMLUtils {
 	public static final String BIND_VAR_ID_lIST = "BVIDLIST";
 	public static final String BIND_VAR_OFFSET = "BVOFFSET";
 	public static final String BIND_VAR_LIMIT = "BCLIMIT";
+	public static final String BIND_VAR_MIN_ID = "BVMINID";
+	public static final String BIND_VAR_MAX_ID = "BVMAXID";
 
 	/**
 	 * Create an INSERT statement for a given mapping.
@@ -246,6 +248,20 @@ public class DMLUtils {
 		builder.append("`");
 		builder.append(" IN ( :"+BIND_VAR_ID_lIST+" )");
 	}
+
+	/**
+	 * Build - "`BACKUP_ID` >= :BVMINID AND `BACKUP_ID` <= :BVMAXID"
+	 * @param builder
+	 * @param mapping
+	 */
+	private static void addBackupIdInRange(StringBuilder builder, TableMapping mapping){
+		String backupId = getBackupIdColumnName(mapping).getColumnName();
+		builder.append("`");
+		builder.append(backupId);
+		builder.append("` >= :"+BIND_VAR_MIN_ID+" AND `");
+		builder.append(backupId);
+		builder.append("` <= :"+BIND_VAR_MAX_ID);
+	}
 	
 	/**
 	 * Find the backup column
@@ -351,6 +367,64 @@ public class DMLUtils {
 		return builder.toString();
 	}
 	
+	/**
+	 * List one page of the row data within an ID range. Pages are read by
+	 * setting the minimum ID to one more than the last ID of the previous page,
+	 * so each page is a range scan of the backup ID rather than an OFFSET scan.
+	 * @param mapping
+	 * @return
+	 */
+	public static String listRowMetadataByIdRange(TableMapping mapping) {
+		validateMigratableTableMapping(mapping);
+		StringBuilder builder = new StringBuilder();
+		builder.append("SELECT ");
+		buildSelectIdAndEtag(mapping, builder);
+		builder.append(" FROM ");
+		builder.append(mapping.getTableName());
+		builder.append(" WHERE ");
+		addBackupIdInRange(builder, mapping);
+		buildBackupOrderBy(mapping, builder, true);
+		builder.append(" LIMIT :");
+		builder.append(BIND_VAR_LIMIT);
+		return builder.toString();
+	}
+
+	/**
+	 * The count, first ID, last ID and two aggregate checksums of the rows
+	 * within an ID range. Each row is hashed with CRC32 over its ID and etag,
+	 * then the row hashes are combined with both SUM and BIT_XOR so the result
+	 * does not depend on the order in which the rows are read.
+	 * @param mapping
+	 * @return
+	 */
+	public static String getIdRangeChecksum(TableMapping mapping) {
+		validateMigratableTableMapping(mapping);
+		FieldColumn backupId = getBackupIdColumnName(mapping);
+		FieldColumn etagColumn = getEtagColumn(mapping);
+		String rowHash;
+		if(etagColumn != null){
+			rowHash = "CRC32(CONCAT(`"+backupId.getColumnName()+"`, '@', IFNULL(`"+etagColumn.getColumnName()+"`, 'NULL')))";
+		}else{
+			rowHash = "CRC32(`"+backupId.getColumnName()+"`)";
+		}
+		StringBuilder builder = new StringBuilder();
+		builder.append("SELECT COUNT(`");
+		builder.append(backupId.getColumnName());
+		builder.append("`), MIN(`");
+		builder.append(backupId.getColumnName());
+		builder.append("`), MAX(`");
+		builder.append(backupId.getColumnName());
+		builder.append("`), SUM(");
+		builder.append(rowHash);
+		builder.append("), BIT_XOR(");
+		builder.append(rowHash);
+		builder.append(") FROM ");
+		builder.append(mapping.getTableName());
+		builder.append(" WHERE ");
+		addBackupIdInRange(builder, mapping);
+		return builder.toString();
+	}
+
 	/**
 	 * List all of the row data.
 	 * @param mapping
@@ -11,6 +11,7 @@ import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_RESOUR
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,6 +53,8 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 
 	private static final String SELECT_ALL_RESOURCE_ACCESS = "SELECT * FROM "+TABLE_RESOURCE_ACCESS+" WHERE "+COL_RESOURCE_ACCESS_OWNER+" = ?";
 
+	private static final String DELETE_ACLS_SQL = "DELETE FROM "+TABLE_ACCESS_CONTROL_LIST+" WHERE "+COL_ACL_ID+" IN (:"+COL_ACL_ID+")";
+
 	private static final String SELECT_ETAG_FOR_UPDATE = "SELECT "+COL_ACL_ETAG+" FROM "+TABLE_ACCESS_CONTROL_LIST+" WHERE "+COL_ACL_ID+" = :" + COL_ACL_ID+" FOR UPDATE";
 
 	/**
@@ -176,6 +179,21 @@ public class DBOAccessControlListDaoImpl implements AccessControlListDAO {
 		dboBasicDao.deleteObjectByPrimaryKey(DBOAccessControlList.class, params);
 	}
 
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void delete(List<String> ownerIds) throws DatastoreException {
+		if (ownerIds == null) throw new IllegalArgumentException("Owner IDs cannot be null");
+		if (ownerIds.isEmpty()) return;
+		List<Long> ownerKeys = new ArrayList<Long>(ownerIds.size());
+		for (String ownerId : ownerIds) {
+			ownerKeys.add(KeyFactory.stringToKey(ownerId));
+		}
+		// The resource access rows are deleted by cascade
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(COL_ACL_ID, ownerKeys);
+		simpleJdbcTemplate.update(DELETE_ACLS_SQL, params);
+	}
+
 	@Override
 	public boolean canAccess(Collection<UserGroup> groups, String resourceId,
 			ACCESS_TYPE accessType) throws DatastoreException {
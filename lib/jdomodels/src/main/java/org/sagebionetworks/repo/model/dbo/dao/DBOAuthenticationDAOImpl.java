@@ -14,6 +14,9 @@ import org.sagebionetworks.repo.model.UserGroupDAO;
 import org.sagebionetworks.repo.model.UserGroupInt;
 import org.sagebionetworks.repo.model.auth.Session;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
+import org.sagebionetworks.repo.model.message.ChangeMessageUtils;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
 import org.sagebionetworks.repo.model.query.jdo.SqlConstants;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.securitytools.HMACUtils;
@@ -38,6 +41,9 @@ public class DBOAuthenticationDAOImpl implements AuthenticationDAO {
 	@Autowired
 	private DBOBasicDao basicDAO;
 	
+	@Autowired
+	private TransactionalMessenger transactionalMessenger;
+	
 	/**
 	 * A session token expires after 1 day
 	 */
@@ -303,6 +309,9 @@ public class DBOAuthenticationDAOImpl implements AuthenticationDAO {
 		param.addValue(ID_PARAM_NAME, id);
 		param.addValue(TOU_PARAM_NAME, acceptance);
 		simpleJdbcTemplate.update(UPDATE_TERMS_OF_USE_ACCEPTANCE, param);
+		// The acceptance is part of the cached user.
+		String etag = userGroupDAO.getEtagForUpdate(id);
+		transactionalMessenger.sendMessageAfterCommit(ChangeMessageUtils.createPrincipalMessage(id, etag, ChangeType.UPDATE));
 	}
 	
 	@Override
@@ -44,6 +44,12 @@ public interface DBOChangeDAO extends ProcessedMessageDAO {
 	 * @return The count of change numbers.
 	 */
 	public long getCount();
+	
+	/**
+	 * @param changeNumber
+	 * @return The count of change numbers that are greater than the given change number.
+	 */
+	public long getCountGreaterThan(long changeNumber);
 
 	/**
 	 * Completely remove a change from the DB.
@@ -74,11 +80,20 @@ public interface DBOChangeDAO extends ProcessedMessageDAO {
 	 * @param changeNumber
 	 */
 	public void registerMessageSent(long changeNumber);
+	
+	/**
+	 * Register that a batch of messages have been sent using a single multi-row insert.
+	 * The whole batch will fail if any of the change numbers no longer exist.
+	 * 
+	 * @param changeNumbers
+	 */
+	public void registerMessagesSent(List<Long> changeNumbers);
 
 	
 	/**
 	 * List messages that have been created but not registered as sent (see {@link #registerMessageSent(long)}).
 	 * This is used to detect messages that need to be sent either for the first time or re-sent on a new stacks.
+	 * Only changes at or above the unsent scan start (see {@link #getUnsentScanStart()}) are considered.
 	 * 
 	 * @param limit
 	 * @return
@@ -91,5 +106,39 @@ public interface DBOChangeDAO extends ProcessedMessageDAO {
 	 * This is used to detect messages that need to be sent either for the first time or re-sent on a new stacks.
 	 */
 	public List<ChangeMessage> listUnsentMessages(long lowerBound, long upperBound);
+	
+	/**
+	 * Every change with a change number less than or equal to the sent high-water mark has been registered as sent.
+	 * 
+	 * @return The sent high-water mark or -1 if it has never been advanced.
+	 */
+	public long getSentHighWaterMark();
+	
+	/**
+	 * The smallest change number that might not have been sent: the first gap that the sent
+	 * high-water mark passed, or the change number just above the watermark.
+	 * 
+	 * @return
+	 */
+	public long getUnsentScanStart();
+	
+	/**
+	 * Move the sent high-water mark up to the change just before the first unsent change.
+	 * A change number is issued before its transaction commits, so the missing change numbers
+	 * that the watermark passes below a young change are kept as gaps and scanned until they expire.
+	 * Only this call moves the watermark up.
+	 * 
+	 * @param gapTimeoutMS - A gap expires once a change with a larger change number is older than this number of milliseconds.
+	 * @return The new sent high-water mark.
+	 */
+	public long advanceSentHighWaterMark(long gapTimeoutMS);
+	
+	/**
+	 * Move every watermark that is above the given change number down to it. Call this when
+	 * changes are written with old change numbers, such as by migration, so they are scanned.
+	 * 
+	 * @param changeNumber
+	 */
+	public void lowerWatermarks(long changeNumber);
 
 }
@@ -3,12 +3,18 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGES_CHANGE_NUM;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGES_OBJECT_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGES_OBJECT_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGES_TIME_STAMP;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGE_GAPS_CHANGE_NUM;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGE_WATERMARKS_CHANGE_NUM;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_CHANGE_WATERMARKS_NAME;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_SENT_MESSAGES_CHANGE_NUM;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_SENT_MESSAGES_TIME_STAMP;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PROCESSED_MESSAGES_CHANGE_NUM;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PROCESSED_MESSAGES_TIME_STAMP;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_PROCESSED_MESSAGES_QUEUE_NAME;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_CHANGES;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_CHANGE_GAPS;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_CHANGE_WATERMARKS;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_SENT_MESSAGES;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_PROCESSED_MESSAGES;
 
@@ -16,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -38,6 +45,16 @@ import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The implementation of the change DBOChangeDAO
+ * 
+ * The search for unsent and unprocessed changes starts just above a high-water mark
+ * (CHANGE_WATERMARKS) rather than at the start of the CHANGES table, so it is an index
+ * range scan over the backlog and the sent rows above the watermark, not the whole history.
+ * 
+ * A change number is issued before its transaction commits, so the sent watermark can pass
+ * a change number that has no change yet. Such numbers are kept in a small gap set
+ * (CHANGE_GAPS) and the search for unsent changes starts at the first gap. A gap expires
+ * once a change with a larger change number is older than the gap timeout, since that
+ * change number was issued after the gap.
  * @author John
  *
  */
@@ -45,17 +62,65 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 	
 	static private Logger log = LogManager.getLogger(DBOChangeDAOImpl.class);
 	
+	/**
+	 * The name of the sent high-water mark.
+	 */
+	public static final String SENT_WATERMARK_NAME = "SENT";
+	
+	/**
+	 * Each processed high-water mark is named with this prefix followed by the name of the queue.
+	 */
+	public static final String PROCESSED_WATERMARK_PREFIX = "PROCESSED-";
+	
+	/**
+	 * The value of a watermark that has never been advanced.
+	 */
+	public static final long NO_WATERMARK = -1L;
+	
+	/**
+	 * The maximum number of changes the sent watermark can pass in one call.
+	 */
+	public static final int MAX_CHANGES_PER_ADVANCE = 10000;
+	
+	/**
+	 * The maximum number of gaps recorded below a single change.
+	 */
+	public static final int MAX_GAPS_PER_CHANGE = 1000;
+	
 	private static final String SQL_INSERT_SENT_ON_DUPLICATE_UPDATE = 
 			"INSERT INTO "+TABLE_SENT_MESSAGES+" ( "+COL_SENT_MESSAGES_CHANGE_NUM+", "+COL_SENT_MESSAGES_TIME_STAMP+")"+
 			" VALUES ( ?, ?) ON DUPLICATE KEY UPDATE "+COL_SENT_MESSAGES_TIME_STAMP+" = ?";
 	
+	private static final String SQL_INSERT_SENT_BATCH_PREFIX = 
+			"INSERT INTO "+TABLE_SENT_MESSAGES+" ( "+COL_SENT_MESSAGES_CHANGE_NUM+", "+COL_SENT_MESSAGES_TIME_STAMP+") VALUES ";
+	
+	private static final String SQL_INSERT_SENT_BATCH_SUFFIX = 
+			" ON DUPLICATE KEY UPDATE "+COL_SENT_MESSAGES_TIME_STAMP+" = NULL";
+	
 	private static final String SQL_CHANGES_NOT_SENT_PREFIX = 
 			"SELECT C.* FROM "+TABLE_CHANGES+
 			" C LEFT OUTER JOIN "+TABLE_SENT_MESSAGES+" S ON (C."+COL_CHANGES_CHANGE_NUM+" = S."+COL_SENT_MESSAGES_CHANGE_NUM+")"+
 			"WHERE S."+COL_SENT_MESSAGES_CHANGE_NUM+" IS NULL";
 	
 	private static final String SQL_SELECT_CHANGES_NOT_SENT = 
-			SQL_CHANGES_NOT_SENT_PREFIX + " LIMIT ?";
+			SQL_CHANGES_NOT_SENT_PREFIX+
+			" AND C."+COL_CHANGES_CHANGE_NUM+" >= ?"+
+			" ORDER BY C."+COL_CHANGES_CHANGE_NUM+" ASC LIMIT ?";
+	
+	private static final String COL_SENT_CHANGE_NUM_ALIAS = "SENT_CHANGE_NUM";
+	
+	private static final String SQL_SELECT_CHANGES_AND_SENT = 
+			"SELECT C."+COL_CHANGES_CHANGE_NUM+", C."+COL_CHANGES_TIME_STAMP+", S."+COL_SENT_MESSAGES_CHANGE_NUM+" AS "+COL_SENT_CHANGE_NUM_ALIAS+
+			" FROM "+TABLE_CHANGES+
+			" C LEFT OUTER JOIN "+TABLE_SENT_MESSAGES+" S ON (C."+COL_CHANGES_CHANGE_NUM+" = S."+COL_SENT_MESSAGES_CHANGE_NUM+")"+
+			" WHERE C."+COL_CHANGES_CHANGE_NUM+" > ?"+
+			" ORDER BY C."+COL_CHANGES_CHANGE_NUM+" ASC LIMIT ?";
+	
+	private static final String SQL_SELECT_LAST_CHANGE_OLDER_THAN = 
+			"SELECT "+COL_CHANGES_CHANGE_NUM+" FROM "+TABLE_CHANGES+
+			" WHERE "+COL_CHANGES_CHANGE_NUM+" > ? AND "+COL_CHANGES_CHANGE_NUM+" < ?"+
+			" AND "+COL_CHANGES_TIME_STAMP+" <= ?"+
+			" ORDER BY "+COL_CHANGES_CHANGE_NUM+" DESC LIMIT 1";
 	
 	private static final String SQL_SELECT_CHANGES_NOT_SENT_IN_RANGE = 
 			SQL_CHANGES_NOT_SENT_PREFIX+
@@ -82,6 +147,9 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 	
 	private static final String SQL_SELECT_COUNT_CHANGE_NUMBER = 
 			"SELECT COUNT("+COL_CHANGES_CHANGE_NUM+") FROM "+TABLE_CHANGES;
+	
+	private static final String SQL_SELECT_COUNT_CHANGE_NUMBER_GREATER_THAN = 
+			SQL_SELECT_COUNT_CHANGE_NUMBER+" WHERE "+COL_CHANGES_CHANGE_NUM+" > ?";
 
 	private static final String SQL_DELETE_BY_CHANGE_NUM = 
 			"DELETE FROM "+TABLE_CHANGES+" WHERE "+COL_CHANGES_CHANGE_NUM+" = ?";
@@ -90,7 +158,67 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 			"INSERT INTO "+TABLE_PROCESSED_MESSAGES+" ( "+COL_PROCESSED_MESSAGES_CHANGE_NUM+", "+COL_PROCESSED_MESSAGES_QUEUE_NAME+", "+COL_PROCESSED_MESSAGES_TIME_STAMP+") VALUES ( ?, ?, ?) ON DUPLICATE KEY UPDATE "+COL_SENT_MESSAGES_TIME_STAMP+" = ?";
 
 	private static final String SQL_SELECT_CHANGES_NOT_PROCESSED =
-			"select c.* from " + TABLE_CHANGES + " c join " + TABLE_SENT_MESSAGES + " s on s." + COL_SENT_MESSAGES_CHANGE_NUM + " = c." + COL_CHANGES_CHANGE_NUM + " left join (select * from " + TABLE_PROCESSED_MESSAGES + " where " + COL_PROCESSED_MESSAGES_QUEUE_NAME + " = ?) p on p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " = s." + COL_SENT_MESSAGES_CHANGE_NUM + " where p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " is null limit ?";
+			"select c.* from " + TABLE_CHANGES + " c join " + TABLE_SENT_MESSAGES + " s on s." + COL_SENT_MESSAGES_CHANGE_NUM + " = c." + COL_CHANGES_CHANGE_NUM + " left join " + TABLE_PROCESSED_MESSAGES + " p on (p." + COL_PROCESSED_MESSAGES_QUEUE_NAME + " = ? and p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " = s." + COL_SENT_MESSAGES_CHANGE_NUM + ") where p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " is null and c." + COL_CHANGES_CHANGE_NUM + " > ? order by c." + COL_CHANGES_CHANGE_NUM + " asc limit ?";
+
+	private static final String SQL_SELECT_FIRST_SENT_NOT_PROCESSED =
+			"select s." + COL_SENT_MESSAGES_CHANGE_NUM + " from " + TABLE_SENT_MESSAGES + " s left join " + TABLE_PROCESSED_MESSAGES + " p on (p." + COL_PROCESSED_MESSAGES_QUEUE_NAME + " = ? and p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " = s." + COL_SENT_MESSAGES_CHANGE_NUM + ") where p." + COL_PROCESSED_MESSAGES_CHANGE_NUM + " is null and s." + COL_SENT_MESSAGES_CHANGE_NUM + " > ? order by s." + COL_SENT_MESSAGES_CHANGE_NUM + " asc limit 1";
+
+	private static final String SQL_SELECT_WATERMARK = 
+			"SELECT "+COL_CHANGE_WATERMARKS_CHANGE_NUM+" FROM "+TABLE_CHANGE_WATERMARKS+" WHERE "+COL_CHANGE_WATERMARKS_NAME+" = ?";
+	
+	// A watermark only moves up, even when two callers advance it at the same time.
+	private static final String SQL_ADVANCE_WATERMARK = 
+			"INSERT INTO "+TABLE_CHANGE_WATERMARKS+" ( "+COL_CHANGE_WATERMARKS_NAME+", "+COL_CHANGE_WATERMARKS_CHANGE_NUM+") VALUES ( ?, ?)"+
+			" ON DUPLICATE KEY UPDATE "+COL_CHANGE_WATERMARKS_CHANGE_NUM+" = GREATEST("+COL_CHANGE_WATERMARKS_CHANGE_NUM+", VALUES("+COL_CHANGE_WATERMARKS_CHANGE_NUM+"))";
+	
+	private static final String SQL_DELETE_ALL_WATERMARKS = 
+			"DELETE FROM "+TABLE_CHANGE_WATERMARKS;
+	
+	private static final String SQL_LOWER_WATERMARKS = 
+			"UPDATE "+TABLE_CHANGE_WATERMARKS+" SET "+COL_CHANGE_WATERMARKS_CHANGE_NUM+" = ? WHERE "+COL_CHANGE_WATERMARKS_CHANGE_NUM+" > ?";
+	
+	private static final String SQL_INSERT_GAP = 
+			"INSERT IGNORE INTO "+TABLE_CHANGE_GAPS+" ( "+COL_CHANGE_GAPS_CHANGE_NUM+") VALUES ( ?)";
+	
+	private static final String SQL_SELECT_FIRST_GAP = 
+			"SELECT "+COL_CHANGE_GAPS_CHANGE_NUM+" FROM "+TABLE_CHANGE_GAPS+" ORDER BY "+COL_CHANGE_GAPS_CHANGE_NUM+" ASC LIMIT 1";
+	
+	// A gap that was committed late is kept until its change has been sent.
+	private static final String SQL_DELETE_GAPS_BELOW = 
+			"DELETE G FROM "+TABLE_CHANGE_GAPS+" G"+
+			" LEFT OUTER JOIN "+TABLE_CHANGES+" C ON (G."+COL_CHANGE_GAPS_CHANGE_NUM+" = C."+COL_CHANGES_CHANGE_NUM+")"+
+			" LEFT OUTER JOIN "+TABLE_SENT_MESSAGES+" S ON (G."+COL_CHANGE_GAPS_CHANGE_NUM+" = S."+COL_SENT_MESSAGES_CHANGE_NUM+")"+
+			" WHERE G."+COL_CHANGE_GAPS_CHANGE_NUM+" < ?"+
+			" AND (C."+COL_CHANGES_CHANGE_NUM+" IS NULL OR S."+COL_SENT_MESSAGES_CHANGE_NUM+" IS NOT NULL)";
+	
+	private static final String SQL_DELETE_ALL_GAPS = 
+			"DELETE FROM "+TABLE_CHANGE_GAPS;
+	
+	private static final RowMapper<Long> CHANGE_NUMBER_MAPPER = new RowMapper<Long>(){
+		@Override
+		public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return rs.getLong(1);
+		}};
+	
+	/**
+	 * A change seen by the sent watermark and whether it has been sent.
+	 */
+	private static class ScannedChange {
+		long changeNumber;
+		Timestamp timeStamp;
+		boolean sent;
+	}
+	
+	private static final RowMapper<ScannedChange> SCANNED_CHANGE_MAPPER = new RowMapper<ScannedChange>(){
+		@Override
+		public ScannedChange mapRow(ResultSet rs, int rowNum) throws SQLException {
+			ScannedChange change = new ScannedChange();
+			change.changeNumber = rs.getLong(COL_CHANGES_CHANGE_NUM);
+			change.timeStamp = rs.getTimestamp(COL_CHANGES_TIME_STAMP);
+			rs.getLong(COL_SENT_CHANGE_NUM_ALIAS);
+			change.sent = !rs.wasNull();
+			return change;
+		}};
 
 	@Autowired
 	private DBOBasicDao basicDao;
@@ -177,11 +305,19 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 	public long getCount() {
 		return simpleJdbcTemplate.queryForLong(SQL_SELECT_COUNT_CHANGE_NUMBER);
 	}
+	
+	@Override
+	public long getCountGreaterThan(long changeNumber) {
+		return simpleJdbcTemplate.queryForLong(SQL_SELECT_COUNT_CHANGE_NUMBER_GREATER_THAN, changeNumber);
+	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
 	public void deleteAllChanges() {
 		simpleJdbcTemplate.update("DELETE FROM  "+TABLE_CHANGES+" WHERE "+COL_CHANGES_CHANGE_NUM+" > -1");
+		// The watermarks and gaps are meaningless without the changes.
+		simpleJdbcTemplate.update(SQL_DELETE_ALL_WATERMARKS);
+		simpleJdbcTemplate.update(SQL_DELETE_ALL_GAPS);
 	}
 
 	@Override
@@ -205,10 +341,27 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 		simpleJdbcTemplate.update(SQL_INSERT_SENT_ON_DUPLICATE_UPDATE, changeNumber, null, null);
 	}
 
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRES_NEW)
+	@Override
+	public void registerMessagesSent(List<Long> changeNumbers) {
+		if(changeNumbers == null) throw new IllegalArgumentException("Change numbers cannot be null");
+		if(changeNumbers.isEmpty()) return;
+		// Build a single multi-row insert. A null time stamp is set to the current time by MySQL.
+		StringBuilder sql = new StringBuilder(SQL_INSERT_SENT_BATCH_PREFIX);
+		for(int i=0; i<changeNumbers.size(); i++){
+			if(i > 0){
+				sql.append(", ");
+			}
+			sql.append("(?, NULL)");
+		}
+		sql.append(SQL_INSERT_SENT_BATCH_SUFFIX);
+		simpleJdbcTemplate.update(sql.toString(), changeNumbers.toArray());
+	}
 	
 	@Override
 	public List<ChangeMessage> listUnsentMessages(long limit) {
-		List<DBOChange> dboList = simpleJdbcTemplate.query(SQL_SELECT_CHANGES_NOT_SENT, rowMapper, limit);
+		List<DBOChange> dboList = simpleJdbcTemplate.query(SQL_SELECT_CHANGES_NOT_SENT, rowMapper, getUnsentScanStart(), limit);
 		return ChangeMessageUtils.createDTOList(dboList);
 	}
 
@@ -228,8 +381,131 @@ public class DBOChangeDAOImpl implements DBOChangeDAO {
 
 	@Override
 	public List<ChangeMessage> listNotProcessedMessages(String queueName, long limit) {
-		List<DBOChange> l = simpleJdbcTemplate.query(SQL_SELECT_CHANGES_NOT_PROCESSED, new DBOChange().getTableMapping(), queueName, limit);
+		List<DBOChange> l = simpleJdbcTemplate.query(SQL_SELECT_CHANGES_NOT_PROCESSED, new DBOChange().getTableMapping(), queueName, getProcessedHighWaterMark(queueName), limit);
 		return ChangeMessageUtils.createDTOList(l);
 	}
 
+	@Override
+	public long getSentHighWaterMark() {
+		return getWatermark(SENT_WATERMARK_NAME);
+	}
+
+	@Override
+	public long getUnsentScanStart() {
+		long start = getSentHighWaterMark() + 1;
+		Long firstGap = queryForFirstChangeNumber(SQL_SELECT_FIRST_GAP);
+		return firstGap == null ? start : Math.min(start, firstGap);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public long advanceSentHighWaterMark(long gapTimeoutMS) {
+		if(gapTimeoutMS < 0) throw new IllegalArgumentException("Gap timeout cannot be less than zero");
+		long current = getSentHighWaterMark();
+		Timestamp cutoff = new Timestamp(System.currentTimeMillis() - gapTimeoutMS);
+		expireGaps(current, cutoff);
+		List<ScannedChange> changes = simpleJdbcTemplate.query(SQL_SELECT_CHANGES_AND_SENT, SCANNED_CHANGE_MAPPER, current, MAX_CHANGES_PER_ADVANCE);
+		long newWatermark = current;
+		List<Object[]> gaps = new LinkedList<Object[]>();
+		for(ScannedChange change: changes){
+			// The watermark must stay below the first change that has not been sent.
+			if(!change.sent){
+				break;
+			}
+			// The missing change numbers below a young change might still be committed.
+			if(newWatermark != NO_WATERMARK && change.timeStamp.after(cutoff)){
+				long firstGap = Math.max(newWatermark + 1, change.changeNumber - MAX_GAPS_PER_CHANGE);
+				if(firstGap > newWatermark + 1){
+					log.warn("Only the last "+MAX_GAPS_PER_CHANGE+" missing change numbers below "+change.changeNumber+" are kept as gaps");
+				}
+				for(long gap = firstGap; gap < change.changeNumber; gap++){
+					gaps.add(new Object[]{gap});
+				}
+			}
+			newWatermark = change.changeNumber;
+		}
+		if(newWatermark == current){
+			return current;
+		}
+		if(!gaps.isEmpty()){
+			simpleJdbcTemplate.batchUpdate(SQL_INSERT_GAP, gaps);
+		}
+		simpleJdbcTemplate.update(SQL_ADVANCE_WATERMARK, SENT_WATERMARK_NAME, newWatermark);
+		return newWatermark;
+	}
+
+	/**
+	 * A gap below a change that is older than the cutoff can no longer be committed,
+	 * because its change number was issued before that change.  Gaps that were committed
+	 * late are kept until they are sent.
+	 * @param watermark
+	 * @param cutoff
+	 */
+	private void expireGaps(long watermark, Timestamp cutoff) {
+		Long firstGap = queryForFirstChangeNumber(SQL_SELECT_FIRST_GAP);
+		if(firstGap == null){
+			return;
+		}
+		Long lastOld = queryForFirstChangeNumber(SQL_SELECT_LAST_CHANGE_OLDER_THAN, firstGap, watermark + 1, cutoff);
+		if(lastOld != null){
+			simpleJdbcTemplate.update(SQL_DELETE_GAPS_BELOW, lastOld);
+		}
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void lowerWatermarks(long changeNumber) {
+		simpleJdbcTemplate.update(SQL_LOWER_WATERMARKS, changeNumber, changeNumber);
+	}
+
+	@Override
+	public long getProcessedHighWaterMark(String queueName) {
+		if(queueName == null) throw new IllegalArgumentException("Queue name cannot be null");
+		return getWatermark(PROCESSED_WATERMARK_PREFIX+queueName);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public long advanceProcessedHighWaterMark(String queueName) {
+		long current = getProcessedHighWaterMark(queueName);
+		// Changes above the sent watermark might not have been sent yet.
+		long newWatermark = getSentHighWaterMark();
+		Long firstNotProcessed = queryForFirstChangeNumber(SQL_SELECT_FIRST_SENT_NOT_PROCESSED, queueName, current);
+		if(firstNotProcessed != null){
+			newWatermark = Math.min(newWatermark, firstNotProcessed - 1);
+		}
+		// A gap might still be committed and sent, so it is not passed until it expires.
+		Long firstGap = queryForFirstChangeNumber(SQL_SELECT_FIRST_GAP);
+		if(firstGap != null){
+			newWatermark = Math.min(newWatermark, firstGap - 1);
+		}
+		if(newWatermark <= current){
+			return current;
+		}
+		simpleJdbcTemplate.update(SQL_ADVANCE_WATERMARK, PROCESSED_WATERMARK_PREFIX+queueName, newWatermark);
+		return newWatermark;
+	}
+
+	/**
+	 * Get a watermark by name.
+	 * @param name
+	 * @return The watermark or {@link #NO_WATERMARK} if it does not exist.
+	 */
+	private long getWatermark(String name) {
+		Long watermark = queryForFirstChangeNumber(SQL_SELECT_WATERMARK, name);
+		return watermark == null ? NO_WATERMARK : watermark;
+	}
+
+	/**
+	 * Run a query that selects change numbers.
+	 * @return The first change number or null if there are no results.
+	 */
+	private Long queryForFirstChangeNumber(String sql, Object... args) {
+		List<Long> results = simpleJdbcTemplate.query(sql, CHANGE_NUMBER_MAPPER, args);
+		if(results.isEmpty()){
+			return null;
+		}
+		return results.get(0);
+	}
+
 }
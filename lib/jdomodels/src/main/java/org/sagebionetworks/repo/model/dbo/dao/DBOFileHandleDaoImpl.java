@@ -20,6 +20,7 @@ import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.TagMessenger;
 import org.sagebionetworks.repo.model.backup.FileHandleBackup;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
+import org.sagebionetworks.repo.model.dao.StorageUsageRollupDao;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.model.dbo.FileMetadataUtils;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOFileHandle;
@@ -69,6 +70,9 @@ public class DBOFileHandleDaoImpl implements FileHandleDao {
 	@Autowired
 	private SimpleJdbcTemplate simpleJdbcTemplate;
 
+	@Autowired
+	private StorageUsageRollupDao storageUsageRollupDao;
+
 	@Override
 	public FileHandle get(String id) throws DatastoreException, NotFoundException {
 		DBOFileHandle dbo = getDBO(id);
@@ -91,9 +95,19 @@ public class DBOFileHandleDaoImpl implements FileHandleDao {
 		param.addValue(COL_FILES_ID.toLowerCase(), id);
 		// Send the delete message
 		tagMessenger.sendDeleteMessage(id, ObjectType.FILE);
+		// Needed to update the storage usage rollup
+		DBOFileHandle dbo = null;
+		try{
+			dbo = getDBO(id);
+		}catch (NotFoundException e){
+			// Nothing to delete
+		}
 		// Delete this object
 		try{
-			basicDao.deleteObjectByPrimaryKey(DBOFileHandle.class, param);
+			boolean deleted = basicDao.deleteObjectByPrimaryKey(DBOFileHandle.class, param);
+			if(deleted && dbo != null){
+				storageUsageRollupDao.removeFile(dbo.getCreatedBy(), dbo.getMetadataType(), dbo.getContentType(), dbo.getContentSize());
+			}
 		}catch (DataIntegrityViolationException e){
 			// This occurs when we try to delete a handle that is in use.
 			new DataIntegrityViolationException("Cannot delete a file handle that has been assigned to an owner object. FileHandle id: "+id);
@@ -122,6 +136,7 @@ public class DBOFileHandleDaoImpl implements FileHandleDao {
 		}
 		// Save it to the DB
 		dbo = basicDao.createNew(dbo);
+		storageUsageRollupDao.addFile(dbo.getCreatedBy(), dbo.getMetadataType(), dbo.getContentType(), dbo.getContentSize());
 		// Send the create message
 		tagMessenger.sendMessage(dbo.getId().toString(), dbo.getEtag(), ObjectType.FILE, ChangeType.CREATE);
 		try {
@@ -249,12 +264,21 @@ public class DBOFileHandleDaoImpl implements FileHandleDao {
 		ChangeType changeType = null;
 		// Does this already exist?
 		if(doesExist(dbo.getId().toString())){
+			DBOFileHandle old;
+			try {
+				old = getDBO(dbo.getId().toString());
+			} catch (NotFoundException e) {
+				// This should not occur.
+				throw new RuntimeException(e);
+			}
 			basicDao.update(dbo);
+			storageUsageRollupDao.removeFile(old.getCreatedBy(), old.getMetadataType(), old.getContentType(), old.getContentSize());
 			changeType = ChangeType.UPDATE;
 		}else{
 			basicDao.createNew(dbo);
 			changeType = ChangeType.CREATE;
 		}
+		storageUsageRollupDao.addFile(dbo.getCreatedBy(), dbo.getMetadataType(), dbo.getContentType(), dbo.getContentSize());
 		// Send a message
 		tagMessenger.sendMessage(dbo.getId().toString(), dbo.getEtag(), ObjectType.FILE, changeType);
 		return changeType == ChangeType.CREATE;
@@ -1,9 +1,13 @@
 package org.sagebionetworks.repo.model.dbo.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.sagebionetworks.StackConfiguration;
 import org.sagebionetworks.repo.model.AuthorizationConstants;
@@ -12,6 +16,9 @@ import org.sagebionetworks.repo.model.GroupMembersDAO;
 import org.sagebionetworks.repo.model.UserGroup;
 import org.sagebionetworks.repo.model.UserGroupDAO;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOUserGroup;
+import org.sagebionetworks.repo.model.message.ChangeMessageUtils;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
 import org.sagebionetworks.repo.model.query.jdo.SqlConstants;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,9 +37,13 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 	@Autowired
 	private UserGroupDAO userGroupDAO;
 
+	@Autowired
+	private TransactionalMessenger transactionalMessenger;
+
 	private static final String PRINCIPAL_ID_PARAM_NAME = "principalId";
 	private static final String GROUP_ID_PARAM_NAME     = "groupId";
 	private static final String MEMBER_ID_PARAM_NAME    = "memberId";
+	private static final String LIMIT_PARAM_NAME        = "limit";
 	
 	private static final String SELECT_DIRECT_MEMBERS_OF_GROUP = 
 			"SELECT ug.* FROM "+SqlConstants.TABLE_USER_GROUP+" ug"+
@@ -40,6 +51,15 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 			" WHERE "+SqlConstants.COL_GROUP_MEMBERS_GROUP_ID+"=:"+PRINCIPAL_ID_PARAM_NAME+
 			" AND ug."+SqlConstants.COL_USER_GROUP_ID+"="+SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID;
 	
+	private static final String SELECT_DIRECT_MEMBER_IDS_OF_GROUPS = 
+			"SELECT DISTINCT "+SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID+" FROM "+SqlConstants.TABLE_GROUP_MEMBERS+
+			" WHERE "+SqlConstants.COL_GROUP_MEMBERS_GROUP_ID+" IN (:"+GROUP_ID_PARAM_NAME+")";
+	
+	private static final String SELECT_DIRECT_MEMBER_IDS_OF_GROUPS_AFTER = 
+			SELECT_DIRECT_MEMBER_IDS_OF_GROUPS+
+			" AND "+SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID+">:"+MEMBER_ID_PARAM_NAME+
+			" ORDER BY "+SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID+" ASC LIMIT :"+LIMIT_PARAM_NAME;
+	
 	private static final String SELECT_DIRECT_PARENTS_OF_GROUP = 
 			"SELECT ug.* FROM "+SqlConstants.TABLE_USER_GROUP+" ug"+
 			" INNER JOIN "+SqlConstants.TABLE_GROUP_MEMBERS+
@@ -57,6 +77,13 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 			
 	private static final RowMapper<DBOUserGroup> userGroupRowMapper =  (new DBOUserGroup()).getTableMapping();
 	
+	private static final RowMapper<Long> memberIdRowMapper = new RowMapper<Long>() {
+		@Override
+		public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return rs.getLong(SqlConstants.COL_GROUP_MEMBERS_MEMBER_ID);
+		}
+	};
+	
 	@Override
 	public List<UserGroup> getMembers(String principalId) 
 			throws DatastoreException, NotFoundException {
@@ -70,6 +97,38 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 		return members;
 	}
 
+	@Override
+	public Set<String> getMemberIds(Collection<String> groupIds) 
+			throws DatastoreException {
+		Set<String> memberIds = new HashSet<String>();
+		if (groupIds.isEmpty()) {
+			return memberIds;
+		}
+		
+		MapSqlParameterSource param = new MapSqlParameterSource();
+		param.addValue(GROUP_ID_PARAM_NAME, groupIds);
+		List<Long> ids = simpleJdbcTemplate.query(SELECT_DIRECT_MEMBER_IDS_OF_GROUPS, memberIdRowMapper, param);
+		
+		for (Long id : ids) {
+			memberIds.add(id.toString());
+		}
+		return memberIds;
+	}
+
+	@Override
+	public List<Long> getMemberIdsAfter(Collection<String> groupIds, long afterId, long limit) 
+			throws DatastoreException {
+		if (groupIds.isEmpty()) {
+			return new ArrayList<Long>();
+		}
+		
+		MapSqlParameterSource param = new MapSqlParameterSource();
+		param.addValue(GROUP_ID_PARAM_NAME, groupIds);
+		param.addValue(MEMBER_ID_PARAM_NAME, afterId);
+		param.addValue(LIMIT_PARAM_NAME, limit);
+		return simpleJdbcTemplate.query(SELECT_DIRECT_MEMBER_IDS_OF_GROUPS_AFTER, memberIdRowMapper, param);
+	}
+
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
 	public void addMembers(String groupId, List<String> memberIds) 
@@ -111,6 +170,7 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 		
 		// Update the etag on the parent group
 		userGroupDAO.touch(groupId);
+		sendMembershipMessages(groupId, memberIds);
 	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
@@ -121,8 +181,13 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 			return;
 		}
 		
-		// Use the affected UserGroup row as a lock 
-		userGroupDAO.getEtagForUpdate(groupId);
+		// Lock the group and the members in the same order as addMembers
+		// so the member etags can be read for the change messages
+		List<String> locks = new ArrayList<String>(memberIds);
+		locks.add(groupId);
+		for (Long id : sortIds(locks)) {
+			userGroupDAO.getEtagForUpdate(id.toString());
+		}
 
 		// Delete some members
 		List<Long> sortedMemberIds = sortIds(memberIds);
@@ -136,6 +201,25 @@ public class DBOGroupMembersDAOImpl implements GroupMembersDAO {
 		
 		// Update the etag on the parent group
 		userGroupDAO.touch(groupId);
+		sendMembershipMessages(groupId, memberIds);
+	}
+	
+	/**
+	 * The groups of each member have changed. New members do not have the
+	 * group yet so a message for the group alone would not reach them.
+	 * Each message carries the principal's current etag, as required for
+	 * an UPDATE. The caller must already hold the locks on these rows.
+	 * 
+	 * @param groupId
+	 * @param memberIds
+	 */
+	private void sendMembershipMessages(String groupId, List<String> memberIds) {
+		String groupEtag = userGroupDAO.getEtagForUpdate(groupId);
+		transactionalMessenger.sendMessageAfterCommit(ChangeMessageUtils.createPrincipalMessage(groupId, groupEtag, ChangeType.UPDATE));
+		for (String memberId : memberIds) {
+			String memberEtag = userGroupDAO.getEtagForUpdate(memberId);
+			transactionalMessenger.sendMessageAfterCommit(ChangeMessageUtils.createPrincipalMessage(memberId, memberEtag, ChangeType.UPDATE));
+		}
 	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
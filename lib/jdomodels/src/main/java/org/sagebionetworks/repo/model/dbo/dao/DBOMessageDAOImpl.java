@@ -3,6 +3,7 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -12,6 +13,7 @@ import org.sagebionetworks.ids.IdGenerator.TYPE;
 import org.sagebionetworks.repo.model.MessageDAO;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOMessageContent;
+import org.sagebionetworks.repo.model.dbo.persistence.DBOMessageFanOut;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOMessageRecipient;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOMessageStatus;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOMessageToUser;
@@ -46,6 +48,14 @@ public class DBOMessageDAOImpl implements MessageDAO {
 	private static final String ETAG_PARAM_NAME = "etag";
 	private static final String ROOT_MESSAGE_ID_PARAM_NAME = "rootMessageId";
 	private static final String INBOX_FILTER_PARAM_NAME = "inboxFilter";
+	private static final String LAST_RECIPIENT_ID_PARAM_NAME = "lastRecipientId";
+	private static final String DELIVERED_PARAM_NAME = "delivered";
+	private static final String LIMIT_PARAM_NAME = "limit";
+	
+	/**
+	 * The maximum number of rows in one multi-row insert of message status
+	 */
+	public static final int MESSAGE_STATUS_INSERT_CHUNK_SIZE = 1000;
 	
 	private static final String SELECT_MESSAGE_BY_ID = 
 			"SELECT * FROM " + SqlConstants.TABLE_MESSAGE_CONTENT + "," + SqlConstants.TABLE_MESSAGE_TO_USER +
@@ -111,10 +121,36 @@ public class DBOMessageDAOImpl implements MessageDAO {
 	private static final String COUNT_MESSAGES_SENT = 
 			"SELECT COUNT(*)" + FROM_MESSAGES_SENT_CORE;
 	
+	private static final String INSERT_MESSAGE_STATUS_BATCH_PREFIX = 
+			"INSERT IGNORE INTO " + SqlConstants.TABLE_MESSAGE_STATUS + 
+			" (" + SqlConstants.COL_MESSAGE_STATUS_MESSAGE_ID + "," + SqlConstants.COL_MESSAGE_STATUS_RECIPIENT_ID + "," + SqlConstants.COL_MESSAGE_STATUS + ")" + 
+			" VALUES ";
+	
+	private static final String INSERT_MESSAGE_FAN_OUT = 
+			"INSERT IGNORE INTO " + SqlConstants.TABLE_MESSAGE_FAN_OUT + 
+			" (" + SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID + "," + SqlConstants.COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID + "," + SqlConstants.COL_MESSAGE_FAN_OUT_DELIVERED + ")" + 
+			" VALUES (:" + MESSAGE_ID_PARAM_NAME + ", NULL, 0)";
+	
+	private static final String SELECT_PENDING_FAN_OUTS = 
+			"SELECT " + SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID + " FROM " + SqlConstants.TABLE_MESSAGE_FAN_OUT + 
+			" ORDER BY " + SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID + 
+			" LIMIT :" + LIMIT_PARAM_NAME;
+	
+	private static final String SELECT_MESSAGE_FAN_OUT = 
+			"SELECT * FROM " + SqlConstants.TABLE_MESSAGE_FAN_OUT + 
+			" WHERE " + SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID + "=:" + MESSAGE_ID_PARAM_NAME;
+	
+	private static final String UPDATE_MESSAGE_FAN_OUT = 
+			"UPDATE " + SqlConstants.TABLE_MESSAGE_FAN_OUT + 
+			" SET " + SqlConstants.COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID + "=:" + LAST_RECIPIENT_ID_PARAM_NAME + "," + 
+				SqlConstants.COL_MESSAGE_FAN_OUT_DELIVERED + "=" + SqlConstants.COL_MESSAGE_FAN_OUT_DELIVERED + "+:" + DELIVERED_PARAM_NAME + 
+			" WHERE " + SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID + "=:" + MESSAGE_ID_PARAM_NAME;
+	
 	private static final RowMapper<DBOMessageContent> messageContentRowMapper = new DBOMessageContent().getTableMapping();
 	private static final RowMapper<DBOMessageToUser> messageToUserRowMapper = new DBOMessageToUser().getTableMapping();
 	private static final RowMapper<DBOMessageRecipient> messageRecipientRowMapper = new DBOMessageRecipient().getTableMapping();
 	private static final RowMapper<DBOMessageStatus> messageStatusRowMapper = new DBOMessageStatus().getTableMapping();
+	private static final RowMapper<DBOMessageFanOut> messageFanOutRowMapper = new DBOMessageFanOut().getTableMapping();
 	
 	private static final RowMapper<MessageToUser> messageRowMapper = new RowMapper<MessageToUser>() {
 		@Override
@@ -344,6 +380,123 @@ public class DBOMessageDAOImpl implements MessageDAO {
 		touch(messageId);
 	}
 
+	@Override
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public void createMessageStatusBatch(String messageId, List<String> userIds) {
+		if (userIds == null) {
+			throw new IllegalArgumentException("User IDs cannot be null");
+		}
+		if (userIds.isEmpty()) {
+			return;
+		}
+		
+		// Insert in a consistent order to prevent deadlock
+		List<Long> sortedUserIds = new ArrayList<Long>();
+		for (String userId : userIds) {
+			sortedUserIds.add(Long.parseLong(userId));
+		}
+		Collections.sort(sortedUserIds);
+		
+		Long id = Long.parseLong(messageId);
+		String status = MessageStatusType.UNREAD.name();
+		for (int start = 0; start < sortedUserIds.size(); start += MESSAGE_STATUS_INSERT_CHUNK_SIZE) {
+			List<Long> chunk = sortedUserIds.subList(start, 
+					Math.min(start + MESSAGE_STATUS_INSERT_CHUNK_SIZE, sortedUserIds.size()));
+			StringBuilder sql = new StringBuilder(INSERT_MESSAGE_STATUS_BATCH_PREFIX);
+			Object[] args = new Object[chunk.size() * 3];
+			for (int i = 0; i < chunk.size(); i++) {
+				if (i > 0) {
+					sql.append(",");
+				}
+				sql.append("(?,?,?)");
+				args[i * 3] = id;
+				args[i * 3 + 1] = chunk.get(i);
+				args[i * 3 + 2] = status;
+			}
+			simpleJdbcTemplate.update(sql.toString(), args);
+		}
+		
+		touch(messageId);
+	}
+
+	@Override
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public void createFanOut(String messageId) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(MESSAGE_ID_PARAM_NAME, messageId);
+		simpleJdbcTemplate.update(INSERT_MESSAGE_FAN_OUT, params);
+	}
+
+	@Override
+	public List<String> getPendingFanOuts(long limit) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(LIMIT_PARAM_NAME, limit);
+		List<Long> ids = simpleJdbcTemplate.query(SELECT_PENDING_FAN_OUTS, new RowMapper<Long>() {
+			@Override
+			public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
+				return rs.getLong(SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID);
+			}
+		}, params);
+		List<String> messageIds = new ArrayList<String>();
+		for (Long id : ids) {
+			messageIds.add(id.toString());
+		}
+		return messageIds;
+	}
+	
+	/**
+	 * Retrieves the fan-out of a message
+	 */
+	private DBOMessageFanOut getFanOut(String messageId) throws NotFoundException {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(MESSAGE_ID_PARAM_NAME, messageId);
+		List<DBOMessageFanOut> fanOuts = simpleJdbcTemplate.query(SELECT_MESSAGE_FAN_OUT, messageFanOutRowMapper, params);
+		if (fanOuts.isEmpty()) {
+			throw new NotFoundException("Message (" + messageId + ") is not being delivered by a worker");
+		}
+		return fanOuts.get(0);
+	}
+
+	@Override
+	public Long getFanOutResumePoint(String messageId) throws NotFoundException {
+		return getFanOut(messageId).getLastRecipientId();
+	}
+
+	@Override
+	public long getFanOutDelivered(String messageId) throws NotFoundException {
+		return getFanOut(messageId).getDelivered();
+	}
+
+	@Override
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public void createFanOutBatch(String messageId, List<String> userIds) {
+		createMessageStatusBatch(messageId, userIds);
+		if (userIds.isEmpty()) {
+			return;
+		}
+		
+		Long lastRecipientId = null;
+		for (String userId : userIds) {
+			Long id = Long.parseLong(userId);
+			if (lastRecipientId == null || id > lastRecipientId) {
+				lastRecipientId = id;
+			}
+		}
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(MESSAGE_ID_PARAM_NAME, messageId);
+		params.addValue(LAST_RECIPIENT_ID_PARAM_NAME, lastRecipientId);
+		params.addValue(DELIVERED_PARAM_NAME, userIds.size());
+		simpleJdbcTemplate.update(UPDATE_MESSAGE_FAN_OUT, params);
+	}
+
+	@Override
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public void deleteFanOut(String messageId) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(MESSAGE_ID_PARAM_NAME, Long.parseLong(messageId));
+		basicDAO.deleteObjectByPrimaryKey(DBOMessageFanOut.class, params);
+	}
+
 	@Override
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public void updateMessageStatus(String messageId, String userId,
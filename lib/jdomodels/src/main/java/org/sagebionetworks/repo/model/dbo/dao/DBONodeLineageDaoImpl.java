@@ -0,0 +1,241 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_ANCESTOR_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_DESCENDANT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_DISTANCE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_PARENT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_NODE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_NODE_LINEAGE;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Keeps the node closure table in sync with the parent IDs of JDONODE.
+ *
+ * Rows are removed by the foreign keys to JDONODE when a node is deleted.
+ */
+public class DBONodeLineageDaoImpl implements NodeLineageDAO {
+
+	static private Log log = LogFactory.getLog(DBONodeLineageDaoImpl.class);
+
+	private static final String A = COL_NODE_LINEAGE_ANCESTOR_ID;
+	private static final String D = COL_NODE_LINEAGE_DESCENDANT_ID;
+	private static final String DIST = COL_NODE_LINEAGE_DISTANCE;
+
+	private static final String SQL_INSERT_SELF =
+			"INSERT INTO " + TABLE_NODE_LINEAGE + " (" + A + ", " + D + ", " + DIST + ") VALUES (?, ?, 0)";
+
+	// Every ancestor of the parent is an ancestor of the child one generation further away
+	private static final String SQL_INSERT_FROM_PARENT =
+			"INSERT INTO " + TABLE_NODE_LINEAGE + " (" + A + ", " + D + ", " + DIST + ")"
+			+ " SELECT " + A + ", ?, " + DIST + " + 1 FROM " + TABLE_NODE_LINEAGE + " WHERE " + D + " = ?";
+
+	private static final String SQL_COUNT_PAIR =
+			"SELECT COUNT(*) FROM " + TABLE_NODE_LINEAGE + " WHERE " + A + " = ? AND " + D + " = ?";
+
+	private static final String SQL_SELECT_DISTANCE =
+			"SELECT " + DIST + " FROM " + TABLE_NODE_LINEAGE + " WHERE " + A + " = ? AND " + D + " = ?";
+
+	// Remove the pairs between the old ancestors of the node and everything in its subtree
+	private static final String SQL_DELETE_OLD_ANCESTORS =
+			"DELETE L FROM " + TABLE_NODE_LINEAGE + " L, " + TABLE_NODE_LINEAGE + " S, " + TABLE_NODE_LINEAGE + " P"
+			+ " WHERE S." + A + " = ? AND L." + D + " = S." + D
+			+ " AND P." + D + " = ? AND P." + DIST + " > 0 AND L." + A + " = P." + A;
+
+	// Pair every ancestor of the new parent (including the parent) with everything in the subtree
+	private static final String SQL_INSERT_NEW_ANCESTORS =
+			"INSERT INTO " + TABLE_NODE_LINEAGE + " (" + A + ", " + D + ", " + DIST + ")"
+			+ " SELECT P." + A + ", S." + D + ", P." + DIST + " + S." + DIST + " + 1"
+			+ " FROM " + TABLE_NODE_LINEAGE + " P, " + TABLE_NODE_LINEAGE + " S"
+			+ " WHERE P." + D + " = ? AND S." + A + " = ?";
+
+	private static final String SQL_SELECT_ANCESTORS =
+			"SELECT " + A + " FROM " + TABLE_NODE_LINEAGE + " WHERE " + D + " = ? AND " + DIST + " > 0 ORDER BY " + DIST + " DESC";
+
+	private static final String SQL_SELECT_PARENT =
+			"SELECT " + A + " FROM " + TABLE_NODE_LINEAGE + " WHERE " + D + " = ? AND " + DIST + " = 1";
+
+	private static final String SQL_SELECT_GENERATION =
+			"SELECT " + D + " FROM " + TABLE_NODE_LINEAGE
+			+ " WHERE " + A + " = ? AND " + DIST + " = ? AND " + D + " > ? ORDER BY " + D + " LIMIT ?";
+
+	private static final String SQL_SELECT_DESCENDANTS_AFTER_DISTANCE =
+			"SELECT " + D + " FROM " + TABLE_NODE_LINEAGE
+			+ " WHERE " + A + " = ? AND " + DIST + " > ? ORDER BY " + DIST + ", " + D + " LIMIT ?";
+
+	private static final String SQL_SELECT_NODE_PARENT =
+			"SELECT " + COL_NODE_PARENT_ID + " FROM " + TABLE_NODE + " WHERE " + COL_NODE_ID + " = ?";
+
+	private static final String SQL_SELECT_NODE_PARENT_FOR_UPDATE = SQL_SELECT_NODE_PARENT + " FOR UPDATE";
+
+	private static final String SQL_DELETE_ALL = "DELETE FROM " + TABLE_NODE_LINEAGE;
+
+	private static final String SQL_INSERT_ALL_SELF =
+			"INSERT INTO " + TABLE_NODE_LINEAGE + " (" + A + ", " + D + ", " + DIST + ")"
+			+ " SELECT " + COL_NODE_ID + ", " + COL_NODE_ID + ", 0 FROM " + TABLE_NODE;
+
+	// One generation at a time: the ancestors at distance k-1 of a parent are at distance k from its children
+	private static final String SQL_INSERT_GENERATION =
+			"INSERT INTO " + TABLE_NODE_LINEAGE + " (" + A + ", " + D + ", " + DIST + ")"
+			+ " SELECT L." + A + ", N." + COL_NODE_ID + ", ?"
+			+ " FROM " + TABLE_NODE_LINEAGE + " L, " + TABLE_NODE + " N"
+			+ " WHERE N." + COL_NODE_PARENT_ID + " = L." + D + " AND L." + DIST + " = ?";
+
+	/**
+	 * Node IDs are never negative so this is before the first page.
+	 */
+	private static final long BEFORE_FIRST_ID = -1L;
+
+	@Autowired
+	private SimpleJdbcTemplate simpleJdbcTemplate;
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void addNode(Long nodeId, Long parentId) throws DatastoreException {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		if(parentId != null){
+			ensureLineage(parentId);
+			simpleJdbcTemplate.update(SQL_INSERT_FROM_PARENT, nodeId, parentId);
+		}
+		simpleJdbcTemplate.update(SQL_INSERT_SELF, nodeId, nodeId);
+	}
+
+	/**
+	 * Nodes that existed before this table, or that were written by
+	 * migration, may not have lineage yet. Add it from JDONODE so the
+	 * lineage of their new children is complete.
+	 */
+	private void ensureLineage(Long nodeId) throws DatastoreException {
+		if(doesNodeExist(nodeId)) return;
+		Long parentId;
+		try{
+			parentId = simpleJdbcTemplate.queryForObject(SQL_SELECT_NODE_PARENT, Long.class, nodeId);
+		}catch(EmptyResultDataAccessException e){
+			throw new DatastoreException("Node "+nodeId+" does not exist");
+		}
+		log.info("Adding missing lineage for node "+nodeId);
+		addNode(nodeId, parentId);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void moveNode(Long nodeId, Long newParentId) throws DatastoreException {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		if(newParentId == null) throw new IllegalArgumentException("New parent ID cannot be null");
+		ensureLineage(newParentId);
+		if(!doesNodeExist(nodeId)){
+			// Only happens when the node has no lineage yet
+			ensureLineage(nodeId);
+			return;
+		}
+		if(simpleJdbcTemplate.queryForLong(SQL_COUNT_PAIR, nodeId, newParentId) > 0){
+			throw new IllegalArgumentException("Cannot move node "+nodeId+" under itself or one of its descendants: "+newParentId);
+		}
+		simpleJdbcTemplate.update(SQL_DELETE_OLD_ANCESTORS, nodeId, nodeId);
+		simpleJdbcTemplate.update(SQL_INSERT_NEW_ANCESTORS, newParentId, nodeId);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public boolean syncNode(Long nodeId) throws DatastoreException {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		Long parentId;
+		try{
+			// Moving a node updates this row, so this waits for any move in progress.
+			parentId = simpleJdbcTemplate.queryForObject(SQL_SELECT_NODE_PARENT_FOR_UPDATE, Long.class, nodeId);
+		}catch(EmptyResultDataAccessException e){
+			// The lineage was deleted with the node.
+			return false;
+		}
+		if(!doesNodeExist(nodeId)){
+			log.info("Adding missing lineage for node "+nodeId);
+			addNode(nodeId, parentId);
+		}else if(parentId != null && !parentId.equals(getParent(nodeId))){
+			log.info("Moving the lineage of node "+nodeId+" to parent "+parentId);
+			moveNode(nodeId, parentId);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean doesNodeExist(Long nodeId) {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		return simpleJdbcTemplate.queryForLong(SQL_COUNT_PAIR, nodeId, nodeId) > 0;
+	}
+
+	@Override
+	public List<Long> getAncestors(Long nodeId) {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		return simpleJdbcTemplate.getJdbcOperations().queryForList(SQL_SELECT_ANCESTORS, Long.class, nodeId);
+	}
+
+	@Override
+	public Long getParent(Long nodeId) {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		List<Long> parents = simpleJdbcTemplate.getJdbcOperations().queryForList(SQL_SELECT_PARENT, Long.class, nodeId);
+		return parents.isEmpty() ? null : parents.get(0);
+	}
+
+	@Override
+	public List<Long> getDescendants(Long nodeId, long limit, Long lastDescendantIdExcl) {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		if(limit < 1) throw new IllegalArgumentException("Limit must be greater than 0");
+		int distance = 0;
+		List<Long> results = null;
+		if(lastDescendantIdExcl != null){
+			try{
+				distance = simpleJdbcTemplate.queryForInt(SQL_SELECT_DISTANCE, nodeId, lastDescendantIdExcl);
+			}catch(EmptyResultDataAccessException e){
+				throw new IllegalArgumentException("Node "+lastDescendantIdExcl+" is not a descendant of node "+nodeId);
+			}
+			if(distance < 1) throw new IllegalArgumentException("Node "+lastDescendantIdExcl+" is not a descendant of node "+nodeId);
+			// The rest of the last generation, then the generations that follow
+			results = getDescendants(nodeId, distance, limit, lastDescendantIdExcl);
+			if(results.size() >= limit) return results;
+		}
+		// Both queries are range scans of the (ANCESTOR_ID, DISTANCE, DESCENDANT_ID) index
+		List<Long> next = simpleJdbcTemplate.getJdbcOperations().queryForList(SQL_SELECT_DESCENDANTS_AFTER_DISTANCE, Long.class,
+				nodeId, distance, limit - (results == null ? 0 : results.size()));
+		if(results == null) return next;
+		results.addAll(next);
+		return results;
+	}
+
+	@Override
+	public List<Long> getDescendants(Long nodeId, int generation, long limit, Long lastDescendantIdExcl) {
+		if(nodeId == null) throw new IllegalArgumentException("Node ID cannot be null");
+		if(generation < 1) throw new IllegalArgumentException("Generation must be at least 1");
+		if(limit < 1) throw new IllegalArgumentException("Limit must be greater than 0");
+		long last = lastDescendantIdExcl == null ? BEFORE_FIRST_ID : lastDescendantIdExcl;
+		return simpleJdbcTemplate.getJdbcOperations().queryForList(SQL_SELECT_GENERATION, Long.class, nodeId, generation, last, limit);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public long rebuild() throws DatastoreException {
+		long start = System.currentTimeMillis();
+		simpleJdbcTemplate.update(SQL_DELETE_ALL);
+		long count = simpleJdbcTemplate.update(SQL_INSERT_ALL_SELF);
+		int distance = 1;
+		while(true){
+			int inserted = simpleJdbcTemplate.update(SQL_INSERT_GENERATION, distance, distance-1);
+			if(inserted < 1) break;
+			count += inserted;
+			distance++;
+		}
+		log.info("Rebuilt "+count+" node lineage rows with a max depth of "+(distance-1)+" in "+(System.currentTimeMillis()-start)+" ms");
+		return count;
+	}
+
+}
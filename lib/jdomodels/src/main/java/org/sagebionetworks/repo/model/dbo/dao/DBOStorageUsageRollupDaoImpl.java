@@ -0,0 +1,147 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CONTENT_SIZE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CONTENT_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CREATED_BY;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_METADATA_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CREATED_BY;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_FILE_COUNT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_FILES;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_STORAGE_USAGE_ROLLUP;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.dao.StorageUsageRollupDao;
+import org.sagebionetworks.repo.model.dbo.persistence.DBOStorageUsageRollup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+public class DBOStorageUsageRollupDaoImpl implements StorageUsageRollupDao {
+
+	/**
+	 * A null content type is stored as an empty string since it is part of the primary key.
+	 */
+	public static final String NULL_CONTENT_TYPE = "";
+
+	private static final String UPSERT_ROLLUP =
+			"INSERT INTO " + TABLE_STORAGE_USAGE_ROLLUP + " (" +
+			COL_STORAGE_USAGE_ROLLUP_CREATED_BY + ", " +
+			COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE + ", " +
+			COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE + ", " +
+			COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + ", " +
+			COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + ") VALUES (?, ?, ?, ?, ?)" +
+			" ON DUPLICATE KEY UPDATE " +
+			COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + " = " + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE +
+			" + VALUES(" + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + "), " +
+			COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + " = " + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT +
+			" + VALUES(" + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + ")";
+
+	private static final String DELETE_EMPTY_ROLLUP =
+			"DELETE FROM " + TABLE_STORAGE_USAGE_ROLLUP +
+			" WHERE " + COL_STORAGE_USAGE_ROLLUP_CREATED_BY + " = ?" +
+			" AND " + COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE + " = ?" +
+			" AND " + COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE + " = ?" +
+			" AND " + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + " <= 0";
+
+	private static final String SELECT_ROLLUPS =
+			"SELECT * FROM " + TABLE_STORAGE_USAGE_ROLLUP;
+
+	private static final String CONTENT_TYPE_KEY =
+			"IFNULL(" + COL_FILES_CONTENT_TYPE + ", '" + NULL_CONTENT_TYPE + "')";
+
+	/**
+	 * Computes the rollups from scratch. This scans the entire files table.
+	 */
+	private static final String SELECT_ROLLUPS_FROM_FILES =
+			"SELECT " + COL_FILES_CREATED_BY + " AS " + COL_STORAGE_USAGE_ROLLUP_CREATED_BY + ", " +
+			COL_FILES_METADATA_TYPE + " AS " + COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE + ", " +
+			CONTENT_TYPE_KEY + " AS " + COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE + ", " +
+			"IFNULL(SUM(" + COL_FILES_CONTENT_SIZE + "), 0) AS " + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + ", " +
+			"COUNT(" + COL_FILES_ID + ") AS " + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT +
+			" FROM " + TABLE_FILES +
+			" GROUP BY " + COL_FILES_CREATED_BY + ", " + COL_FILES_METADATA_TYPE + ", " + CONTENT_TYPE_KEY;
+
+	private static final RowMapper<DBOStorageUsageRollup> rowMapper = (new DBOStorageUsageRollup()).getTableMapping();
+
+	@Autowired
+	private SimpleJdbcTemplate simpleJdbcTemplate;
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void addFile(Long createdBy, String metadataType, String contentType, Long contentSize)
+			throws DatastoreException {
+		validate(createdBy, metadataType);
+		applyDelta(createdBy, metadataType, contentType, contentSize == null ? 0L : contentSize, 1L);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void removeFile(Long createdBy, String metadataType, String contentType, Long contentSize)
+			throws DatastoreException {
+		validate(createdBy, metadataType);
+		applyDelta(createdBy, metadataType, contentType, contentSize == null ? 0L : -contentSize, -1L);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public long reconcile() throws DatastoreException {
+		// Both reads come from the same snapshot and the corrections are applied as deltas,
+		// so files written while this runs, which update the rollups themselves, are not lost.
+		Map<String, DBOStorageUsageRollup> expected = toMap(simpleJdbcTemplate.query(SELECT_ROLLUPS_FROM_FILES, rowMapper));
+		Map<String, DBOStorageUsageRollup> actual = toMap(simpleJdbcTemplate.query(SELECT_ROLLUPS, rowMapper));
+		Set<String> keys = new HashSet<String>(expected.keySet());
+		keys.addAll(actual.keySet());
+		long corrected = 0L;
+		for (String key : keys) {
+			DBOStorageUsageRollup exp = expected.get(key);
+			DBOStorageUsageRollup act = actual.get(key);
+			DBOStorageUsageRollup any = exp != null ? exp : act;
+			long sizeDelta = (exp == null ? 0L : exp.getTotalSize()) - (act == null ? 0L : act.getTotalSize());
+			long countDelta = (exp == null ? 0L : exp.getFileCount()) - (act == null ? 0L : act.getFileCount());
+			if (sizeDelta != 0L || countDelta != 0L) {
+				applyDelta(any.getCreatedBy(), any.getMetadataType(), any.getContentType(), sizeDelta, countDelta);
+				corrected++;
+			}
+		}
+		return corrected;
+	}
+
+	private void applyDelta(Long createdBy, String metadataType, String contentType, long sizeDelta, long countDelta) {
+		String contentTypeKey = contentType == null ? NULL_CONTENT_TYPE : contentType;
+		simpleJdbcTemplate.update(UPSERT_ROLLUP, createdBy, metadataType, contentTypeKey, sizeDelta, countDelta);
+		if (countDelta < 0L) {
+			simpleJdbcTemplate.update(DELETE_EMPTY_ROLLUP, createdBy, metadataType, contentTypeKey);
+		}
+	}
+
+	private static Map<String, DBOStorageUsageRollup> toMap(List<DBOStorageUsageRollup> rollups) {
+		Map<String, DBOStorageUsageRollup> map = new HashMap<String, DBOStorageUsageRollup>(rollups.size());
+		for (DBOStorageUsageRollup rollup : rollups) {
+			// The content type goes last as it is the only part that can contain the separator
+			String key = rollup.getCreatedBy() + "/" + rollup.getMetadataType() + "/" + rollup.getContentType();
+			map.put(key, rollup);
+		}
+		return map;
+	}
+
+	private static void validate(Long createdBy, String metadataType) {
+		if (createdBy == null) {
+			throw new IllegalArgumentException("Created by cannot be null.");
+		}
+		if (metadataType == null) {
+			throw new IllegalArgumentException("Metadata type cannot be null.");
+		}
+	}
+}
@@ -3,11 +3,19 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_CAN_DELETED_BY;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_CAN_DELETED_ON;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_CAN_NODE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_PARENT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_PURGE_CHECKPOINT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_PURGE_CHECKPOINT_NODE_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.LIMIT_PARAM_NAME;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.OFFSET_PARAM_NAME;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_NODE;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_TRASH_CAN;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_TRASH_PURGE_CHECKPOINT;
 
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -15,6 +23,7 @@ import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.TrashedEntity;
 import org.sagebionetworks.repo.model.dao.TrashCanDao;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
+import org.sagebionetworks.repo.model.dbo.persistence.DBOTrashPurgeCheckpoint;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOTrashedEntity;
 import org.sagebionetworks.repo.model.jdo.KeyFactory;
 import org.sagebionetworks.repo.web.NotFoundException;
@@ -52,6 +61,40 @@ public class DBOTrashCanDaoImpl implements TrashCanDao {
 			"SELECT * FROM " + TABLE_TRASH_CAN +
 			" WHERE " + COL_TRASH_CAN_DELETED_ON + " < :" + COL_TRASH_CAN_DELETED_ON;
 
+	private static final String SELECT_TRASH_LEAVES_BEFORE_TIMESTAMP =
+			"SELECT T.* FROM " + TABLE_TRASH_CAN + " T" +
+			" WHERE T." + COL_TRASH_CAN_DELETED_ON + " < :" + COL_TRASH_CAN_DELETED_ON +
+			" AND T." + COL_TRASH_CAN_NODE_ID + " < :" + COL_TRASH_CAN_NODE_ID +
+			" AND NOT EXISTS (SELECT N." + COL_NODE_ID + " FROM " + TABLE_NODE + " N" +
+			" WHERE N." + COL_NODE_PARENT_ID + " = T." + COL_TRASH_CAN_NODE_ID + ")" +
+			" ORDER BY T." + COL_TRASH_CAN_NODE_ID + " DESC LIMIT :" + LIMIT_PARAM_NAME;
+
+	private static final String SELECT_TRASH_PAGE_BEFORE_TIMESTAMP =
+			"SELECT * FROM " + TABLE_TRASH_CAN +
+			" WHERE " + COL_TRASH_CAN_DELETED_ON + " < :" + COL_TRASH_CAN_DELETED_ON +
+			" ORDER BY " + COL_TRASH_CAN_NODE_ID + " DESC LIMIT :" + LIMIT_PARAM_NAME;
+
+	private static final String DELETE_TRASH_BY_NODE_IDS =
+			"DELETE FROM " + TABLE_TRASH_CAN +
+			" WHERE " + COL_TRASH_CAN_NODE_ID + " IN (:" + COL_TRASH_CAN_NODE_ID + ")";
+
+	/**
+	 * The purge checkpoint is a single row.
+	 */
+	private static final Long PURGE_CHECKPOINT_ID = 0L;
+
+	private static final String SELECT_PURGE_CHECKPOINT =
+			"SELECT * FROM " + TABLE_TRASH_PURGE_CHECKPOINT +
+			" WHERE " + COL_TRASH_PURGE_CHECKPOINT_ID + " = :" + COL_TRASH_PURGE_CHECKPOINT_ID;
+
+	private static final String UPSERT_PURGE_CHECKPOINT =
+			"INSERT INTO " + TABLE_TRASH_PURGE_CHECKPOINT +
+			" (" + COL_TRASH_PURGE_CHECKPOINT_ID + ", " + COL_TRASH_PURGE_CHECKPOINT_NODE_ID + ")" +
+			" VALUES (:" + COL_TRASH_PURGE_CHECKPOINT_ID + ", :" + COL_TRASH_PURGE_CHECKPOINT_NODE_ID + ")" +
+			" ON DUPLICATE KEY UPDATE " + COL_TRASH_PURGE_CHECKPOINT_NODE_ID + " = :" + COL_TRASH_PURGE_CHECKPOINT_NODE_ID;
+
+	private static final RowMapper<DBOTrashPurgeCheckpoint> checkpointMapper = (new DBOTrashPurgeCheckpoint()).getTableMapping();
+
 	private static final RowMapper<DBOTrashedEntity> rowMapper = (new DBOTrashedEntity()).getTableMapping();
 
 	@Autowired
@@ -195,6 +238,86 @@ public class DBOTrashCanDaoImpl implements TrashCanDao {
 		return TrashedEntityUtils.convertDboToDto(trashList);
 	}
 
+	@Override
+	public List<TrashedEntity> getTrashLeavesBefore(Timestamp timestamp, Long beforeNodeId, long limit)
+			throws DatastoreException {
+
+		if (timestamp == null) {
+			throw new IllegalArgumentException("Time stamp cannot be null.");
+		}
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit " + limit + " is < 0.");
+		}
+
+		MapSqlParameterSource paramMap = new MapSqlParameterSource();
+		paramMap.addValue(COL_TRASH_CAN_DELETED_ON, timestamp);
+		paramMap.addValue(COL_TRASH_CAN_NODE_ID, beforeNodeId == null ? Long.MAX_VALUE : beforeNodeId);
+		paramMap.addValue(LIMIT_PARAM_NAME, limit);
+		List<DBOTrashedEntity> trashList = simpleJdbcTemplate.query(
+				SELECT_TRASH_LEAVES_BEFORE_TIMESTAMP, rowMapper, paramMap);
+		return TrashedEntityUtils.convertDboToDto(trashList);
+	}
+
+	@Override
+	public List<TrashedEntity> getTrashBefore(Timestamp timestamp, long limit) throws DatastoreException {
+
+		if (timestamp == null) {
+			throw new IllegalArgumentException("Time stamp cannot be null.");
+		}
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit " + limit + " is < 0.");
+		}
+
+		MapSqlParameterSource paramMap = new MapSqlParameterSource();
+		paramMap.addValue(COL_TRASH_CAN_DELETED_ON, timestamp);
+		paramMap.addValue(LIMIT_PARAM_NAME, limit);
+		List<DBOTrashedEntity> trashList = simpleJdbcTemplate.query(
+				SELECT_TRASH_PAGE_BEFORE_TIMESTAMP, rowMapper, paramMap);
+		return TrashedEntityUtils.convertDboToDto(trashList);
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void delete(List<String> nodeIds) throws DatastoreException {
+
+		if (nodeIds == null) {
+			throw new IllegalArgumentException("nodeIds cannot be null.");
+		}
+		if (nodeIds.isEmpty()) {
+			return;
+		}
+
+		// Rows are deleted by primary key so there are no gap locks
+		List<Long> keys = new ArrayList<Long>(nodeIds.size());
+		for (String nodeId : nodeIds) {
+			keys.add(KeyFactory.stringToKey(nodeId));
+		}
+		MapSqlParameterSource paramMap = new MapSqlParameterSource();
+		paramMap.addValue(COL_TRASH_CAN_NODE_ID, keys);
+		simpleJdbcTemplate.update(DELETE_TRASH_BY_NODE_IDS, paramMap);
+	}
+
+	@Override
+	public Long getPurgeCheckpoint() throws DatastoreException {
+		MapSqlParameterSource paramMap = new MapSqlParameterSource();
+		paramMap.addValue(COL_TRASH_PURGE_CHECKPOINT_ID, PURGE_CHECKPOINT_ID);
+		List<DBOTrashPurgeCheckpoint> checkpoints = simpleJdbcTemplate.query(
+				SELECT_PURGE_CHECKPOINT, checkpointMapper, paramMap);
+		if (checkpoints.isEmpty()) {
+			return null;
+		}
+		return checkpoints.get(0).getNodeId();
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void setPurgeCheckpoint(Long nodeId) throws DatastoreException {
+		MapSqlParameterSource paramMap = new MapSqlParameterSource();
+		paramMap.addValue(COL_TRASH_PURGE_CHECKPOINT_ID, PURGE_CHECKPOINT_ID);
+		paramMap.addValue(COL_TRASH_PURGE_CHECKPOINT_NODE_ID, nodeId, Types.BIGINT);
+		simpleJdbcTemplate.update(UPSERT_PURGE_CHECKPOINT, paramMap);
+	}
+
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
 	public void delete(String userGroupId, String nodeId)
@@ -27,6 +27,9 @@ import org.sagebionetworks.repo.model.UserGroupInt;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOCredential;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOUserGroup;
+import org.sagebionetworks.repo.model.message.ChangeMessageUtils;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
 import org.sagebionetworks.repo.model.query.jdo.SqlConstants;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.securitytools.HMACUtils;
@@ -48,6 +51,9 @@ public class DBOUserGroupDAOImpl implements UserGroupDAO {
 	@Autowired
 	private SimpleJdbcTemplate simpleJdbcTemplate;
 	
+	@Autowired
+	private TransactionalMessenger transactionalMessenger;
+	
 	private List<UserGroupInt> bootstrapUsers;
 	
 	private static final String ID_PARAM_NAME = "id";
@@ -353,6 +359,7 @@ public class DBOUserGroupDAOImpl implements UserGroupDAO {
 		dbo.setEtag(UUID.randomUUID().toString());
 
 		basicDao.update(dbo);
+		sendPrincipalMessage(dbo.getId().toString(), dbo.getEtag(), ChangeType.UPDATE);
 	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
@@ -361,6 +368,7 @@ public class DBOUserGroupDAOImpl implements UserGroupDAO {
 		MapSqlParameterSource param = new MapSqlParameterSource();
 		param.addValue(ID_PARAM_NAME, id);
 		basicDao.deleteObjectByPrimaryKey(DBOUserGroup.class, param);
+		sendPrincipalMessage(id, null, ChangeType.DELETE);
 	}
 	
 	/**
@@ -452,4 +460,14 @@ public class DBOUserGroupDAOImpl implements UserGroupDAO {
 		param.addValue(ETAG_PARAM_NAME, UUID.randomUUID().toString());
 		simpleJdbcTemplate.update(UPDATE_ETAG_LIST, param);
 	}
+	
+	/**
+	 * Send a message after the current transaction commits that a principal has changed.
+	 * @param id
+	 * @param etag
+	 * @param changeType
+	 */
+	private void sendPrincipalMessage(String id, String etag, ChangeType changeType) {
+		transactionalMessenger.sendMessageAfterCommit(ChangeMessageUtils.createPrincipalMessage(id, etag, changeType));
+	}
 }
@@ -19,6 +19,9 @@ import org.sagebionetworks.repo.model.UserProfileDAO;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.model.dbo.TableMapping;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOUserProfile;
+import org.sagebionetworks.repo.model.message.ChangeMessageUtils;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
 import org.sagebionetworks.repo.model.query.jdo.SqlConstants;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,6 +46,8 @@ public class DBOUserProfileDAOImpl implements UserProfileDAO {
 	private ETagGenerator eTagGenerator;	
 	@Autowired
 	private SimpleJdbcTemplate simpleJdbcTemplate;
+	@Autowired
+	private TransactionalMessenger transactionalMessenger;
 	
 	private static final String SELECT_PAGINATED = 
 			"SELECT * FROM "+SqlConstants.TABLE_USER_PROFILE+
@@ -160,6 +165,11 @@ public class DBOUserProfileDAOImpl implements UserProfileDAO {
 
 		UserProfile resultantDto = UserProfileUtils.convertDboToDto(dbo);
 
+		if (!fromBackup) {
+			// The profile is part of the principal so the principal has changed.
+			transactionalMessenger.sendMessageAfterCommit(ChangeMessageUtils.createPrincipalMessage(dto.getOwnerId(), dbo.geteTag(), ChangeType.UPDATE));
+		}
+
 		return resultantDto;
 	}
 
@@ -37,6 +37,7 @@ import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -67,6 +68,7 @@ import org.sagebionetworks.repo.model.Reference;
 import org.sagebionetworks.repo.model.TagMessenger;
 import org.sagebionetworks.repo.model.VersionInfo;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
 import org.sagebionetworks.repo.model.dbo.persistence.DBONode;
 import org.sagebionetworks.repo.model.dbo.persistence.DBONodeType;
 import org.sagebionetworks.repo.model.dbo.persistence.DBONodeTypeAlias;
@@ -111,6 +113,14 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 	private static final String NODE_IDS_LIST_PARAM_NAME = "NODE_IDS";
 	private static final String SQL_GET_CURRENT_VERSIONS = "SELECT "+COL_NODE_ID+","+COL_CURRENT_REV+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" IN ( :"+NODE_IDS_LIST_PARAM_NAME + " )";
 	private static final String OWNER_ID_PARAM_NAME = "OWNER_ID";
+	/**
+	 * The maximum number of IDs in a single IN clause.
+	 */
+	private static final int MAX_IDS_PER_QUERY = 1000;
+	private static final String SQL_SELECT_CURRENT_NODES = "SELECT N.*, R.* FROM "+TABLE_NODE+" N, "+TABLE_REVISION+" R WHERE N."+COL_NODE_ID+" IN ( :"+NODE_IDS_LIST_PARAM_NAME+" ) AND R."+COL_REVISION_OWNER_NODE+" = N."+COL_NODE_ID+" AND R."+COL_REVISION_NUMBER+" = N."+COL_CURRENT_REV;
+	private static final String SQL_SELECT_CURRENT_ANNOTATIONS = "SELECT N."+COL_NODE_ID+", N."+COL_NODE_ETAG+", N."+COL_NODE_CREATED_ON+", N."+COL_NODE_CREATED_BY+", R."+COL_REVISION_ANNOS_BLOB+" FROM "+TABLE_NODE+" N, "+TABLE_REVISION+" R WHERE N."+COL_NODE_ID+" IN ( :"+NODE_IDS_LIST_PARAM_NAME+" ) AND R."+COL_REVISION_OWNER_NODE+" = N."+COL_NODE_ID+" AND R."+COL_REVISION_NUMBER+" = N."+COL_CURRENT_REV;
+	private static final String SQL_DELETE_NODES = "DELETE FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" IN ( :"+NODE_IDS_LIST_PARAM_NAME+" )";
+	private static final String SQL_SELECT_PARENT_TYPE_NAMES = "SELECT "+COL_NODE_ID+", "+COL_NODE_PARENT_ID+", "+COL_NODE_TYPE+", "+COL_NODE_NAME+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" IN ( :"+NODE_IDS_LIST_PARAM_NAME+" )";
 
 	/**
 	 * To determine if a node has children we fetch the first child ID.
@@ -358,6 +368,24 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 		tagMessenger.sendDeleteMessage(id, ObjectType.ENTITY);
 		return dboBasicDao.deleteObjectByPrimaryKey(DBONode.class, prams);
 	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void delete(List<String> ids) throws DatastoreException {
+		if(ids == null) throw new IllegalArgumentException("Node IDs cannot be null");
+		if(ids.isEmpty()) return;
+		List<Long> keys = new ArrayList<Long>(ids.size());
+		for(String id: ids){
+			// Send a delete message
+			tagMessenger.sendDeleteMessage(id, ObjectType.ENTITY);
+			keys.add(KeyFactory.stringToKey(id));
+		}
+		for(int start=0; start<keys.size(); start+=MAX_IDS_PER_QUERY){
+			List<Long> batch = keys.subList(start, Math.min(start+MAX_IDS_PER_QUERY, keys.size()));
+			MapSqlParameterSource params = new MapSqlParameterSource(NODE_IDS_LIST_PARAM_NAME, batch);
+			simpleJdbcTemplate.update(SQL_DELETE_NODES, params);
+		}
+	}
 	
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
@@ -1272,4 +1300,123 @@ public class NodeDAOImpl implements NodeDAO, InitializingBean {
 		return refs;
 	}
 
+	@Override
+	public List<Node> getNodes(Collection<String> nodeIds) throws DatastoreException {
+		if(nodeIds == null) throw new IllegalArgumentException("NodeIds cannot be null");
+		final TableMapping<DBONode> nodeMapping = new DBONode().getTableMapping();
+		final TableMapping<DBORevision> revisionMapping = new DBORevision().getTableMapping();
+		List<Node> results = new LinkedList<Node>();
+		for(MapSqlParameterSource params: createIdParameters(toKeys(nodeIds))){
+			results.addAll(simpleJdbcTemplate.query(SQL_SELECT_CURRENT_NODES, new RowMapper<Node>() {
+				@Override
+				public Node mapRow(ResultSet rs, int rowNum) throws SQLException {
+					// The node and revision columns have different names so both can be read from the same row.
+					DBONode jdo = nodeMapping.mapRow(rs, rowNum);
+					DBORevision rev = revisionMapping.mapRow(rs, rowNum);
+					return NodeUtils.copyFromJDO(jdo, rev);
+				}
+			}, params));
+		}
+		return results;
+	}
+
+	@Override
+	public Map<String, NamedAnnotations> getAnnotations(Collection<String> nodeIds) throws DatastoreException {
+		if(nodeIds == null) throw new IllegalArgumentException("NodeIds cannot be null");
+		Map<String, NamedAnnotations> results = new HashMap<String, NamedAnnotations>();
+		for(MapSqlParameterSource params: createIdParameters(toKeys(nodeIds))){
+			for(NamedAnnotations annos: simpleJdbcTemplate.query(SQL_SELECT_CURRENT_ANNOTATIONS, new AnnotationRowMapper(), params)){
+				results.put(annos.getId(), annos);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public Map<String, List<EntityHeader>> getEntityPaths(Collection<String> nodeIds) throws DatastoreException {
+		if(nodeIds == null) throw new IllegalArgumentException("NodeIds cannot be null");
+		List<Long> keys = toKeys(nodeIds);
+		// Fetch one level of ancestors at a time for all of the nodes.
+		Map<Long, ParentTypeName> known = new HashMap<Long, ParentTypeName>();
+		Set<Long> toFetch = new HashSet<Long>(keys);
+		while(!toFetch.isEmpty()){
+			Map<Long, ParentTypeName> level = getParentTypeNames(toFetch);
+			known.putAll(level);
+			toFetch = new HashSet<Long>();
+			for(ParentTypeName ptn: level.values()){
+				if(ptn.getParentId() != null && !known.containsKey(ptn.getParentId())){
+					toFetch.add(ptn.getParentId());
+				}
+			}
+		}
+		Map<String, List<EntityHeader>> results = new HashMap<String, List<EntityHeader>>();
+		for(Long key: keys){
+			LinkedList<EntityHeader> path = new LinkedList<EntityHeader>();
+			Long current = key;
+			while(current != null){
+				ParentTypeName ptn = known.get(current);
+				if(ptn == null){
+					// The node or one of its ancestors no longer exists.
+					path = null;
+					break;
+				}
+				path.add(0, createHeaderFromParentTypeName(KeyFactory.keyToString(current), ptn, null, null));
+				current = ptn.getParentId();
+			}
+			if(path != null){
+				results.put(KeyFactory.keyToString(key), path);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Fetch the Parent, Type, Name for a set of nodes.
+	 * @param nodeIds
+	 * @return Nodes that cannot be found are not included.
+	 */
+	private Map<Long, ParentTypeName> getParentTypeNames(Collection<Long> nodeIds){
+		final Map<Long, ParentTypeName> results = new HashMap<Long, ParentTypeName>();
+		for(MapSqlParameterSource params: createIdParameters(new ArrayList<Long>(nodeIds))){
+			simpleJdbcTemplate.query(SQL_SELECT_PARENT_TYPE_NAMES, new RowMapper<Void>() {
+				@Override
+				public Void mapRow(ResultSet rs, int rowNum) throws SQLException {
+					ParentTypeName ptn = new ParentTypeName();
+					ptn.setName(rs.getString(COL_NODE_NAME));
+					ptn.setParentId(rs.getLong(COL_NODE_PARENT_ID));
+					if(rs.wasNull()){
+						ptn.setParentId(null);
+					}
+					ptn.setType(rs.getShort(COL_NODE_TYPE));
+					results.put(rs.getLong(COL_NODE_ID), ptn);
+					return null;
+				}
+			}, params);
+		}
+		return results;
+	}
+
+	private static List<Long> toKeys(Collection<String> nodeIds){
+		List<Long> keys = new ArrayList<Long>(nodeIds.size());
+		for(String nodeId: nodeIds){
+			keys.add(KeyFactory.stringToKey(nodeId));
+		}
+		return keys;
+	}
+
+	/**
+	 * Split the IDs into chunks of at most MAX_IDS_PER_QUERY.
+	 * @param keys
+	 * @return The parameters for each chunk.
+	 */
+	private static List<MapSqlParameterSource> createIdParameters(List<Long> keys){
+		List<MapSqlParameterSource> chunks = new LinkedList<MapSqlParameterSource>();
+		for(int start=0; start<keys.size(); start+=MAX_IDS_PER_QUERY){
+			MapSqlParameterSource params = new MapSqlParameterSource();
+			params.addValue(NODE_IDS_LIST_PARAM_NAME, keys.subList(start, Math.min(start+MAX_IDS_PER_QUERY, keys.size())));
+			chunks.add(params);
+		}
+		return chunks;
+	}
+
 }
@@ -1,13 +1,15 @@
 package org.sagebionetworks.repo.model.dbo.dao;
 
-import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CONTENT_SIZE;
-import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CONTENT_TYPE;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_CREATED_BY;
-import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_ID;
-import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_FILES_METADATA_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CREATED_BY;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_FILE_COUNT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.LIMIT_PARAM_NAME;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.OFFSET_PARAM_NAME;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_FILES;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_STORAGE_USAGE_ROLLUP;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -34,49 +36,54 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
 
+/**
+ * Storage usage is served from the rollups maintained by the StorageUsageRollupDao,
+ * which are much smaller than the files table. Only the list of a user's files
+ * reads the files table.
+ */
 public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 
-	private static final String S3_FILTER = COL_FILES_METADATA_TYPE + " = 'S3'";
+	private static final String S3_FILTER = COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE + " = 'S3'";
 
 	private static final String SELECT_SUM_SIZE =
-			"SELECT SUM(" + COL_FILES_CONTENT_SIZE + ")" +
-			" FROM " + TABLE_FILES;
+			"SELECT SUM(" + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + ")" +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP;
 
 	private static final String SELECT_SUM_SIZE_FOR_USER =
-			"SELECT SUM(" + COL_FILES_CONTENT_SIZE + ")" +
-			" FROM " + TABLE_FILES +
-			" WHERE " + COL_FILES_CREATED_BY + " = :" + COL_FILES_CREATED_BY;
+			"SELECT SUM(" + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + ")" +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP +
+			" WHERE " + COL_STORAGE_USAGE_ROLLUP_CREATED_BY + " = :" + COL_STORAGE_USAGE_ROLLUP_CREATED_BY;
 
 	private static final String SELECT_COUNT =
-			"SELECT COUNT(" + COL_FILES_ID + ")" +
-			" FROM " + TABLE_FILES;
+			"SELECT SUM(" + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + ")" +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP;
 
 	private static final String SELECT_COUNT_FOR_USER =
-			"SELECT COUNT(" + COL_FILES_ID + ")" +
-			" FROM " + TABLE_FILES +
-			" WHERE " + COL_FILES_CREATED_BY + " = :" + COL_FILES_CREATED_BY;
+			"SELECT SUM(" + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + ")" +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP +
+			" WHERE " + COL_STORAGE_USAGE_ROLLUP_CREATED_BY + " = :" + COL_STORAGE_USAGE_ROLLUP_CREATED_BY;
 
 	/**
-	 * Provides mapping from StorageUsageDimension to Files table columns.
+	 * Provides mapping from StorageUsageDimension to rollup table columns.
 	 */
 	private static final Map<String, String> DIM_COL_MAP;
 	static {
 		Map<String, String> map = new HashMap<String, String>();
-		map.put(StorageUsageDimension.CONTENT_TYPE.name(), COL_FILES_CONTENT_TYPE);
-		map.put(StorageUsageDimension.STORAGE_PROVIDER.name(), COL_FILES_METADATA_TYPE);
-		map.put(StorageUsageDimension.USER_ID.name(), COL_FILES_CREATED_BY);
+		map.put(StorageUsageDimension.CONTENT_TYPE.name(), COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE);
+		map.put(StorageUsageDimension.STORAGE_PROVIDER.name(), COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE);
+		map.put(StorageUsageDimension.USER_ID.name(), COL_STORAGE_USAGE_ROLLUP_CREATED_BY);
 		DIM_COL_MAP = Collections.unmodifiableMap(map);
 	}
 
 	/**
-	 * Provides mapping from Files table columns to StorageUsageDimension.
+	 * Provides mapping from rollup table columns to StorageUsageDimension.
 	 */
 	private static final Map<String, String> COL_DIM_MAP;
 	static {
 		Map<String, String> map = new HashMap<String, String>();
-		map.put(COL_FILES_CONTENT_TYPE, StorageUsageDimension.CONTENT_TYPE.name());
-		map.put(COL_FILES_METADATA_TYPE, StorageUsageDimension.STORAGE_PROVIDER.name());
-		map.put(COL_FILES_CREATED_BY, StorageUsageDimension.USER_ID.name());
+		map.put(COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE, StorageUsageDimension.CONTENT_TYPE.name());
+		map.put(COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE, StorageUsageDimension.STORAGE_PROVIDER.name());
+		map.put(COL_STORAGE_USAGE_ROLLUP_CREATED_BY, StorageUsageDimension.USER_ID.name());
 		COL_DIM_MAP = Collections.unmodifiableMap(map);
 	}
 
@@ -84,14 +91,14 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 	private static final String COL_COUNT_ID = "COUNT_ID";
 	private static final String SELECT_AGGREGATED_USAGE_PART_1 =
 			"SELECT" +
-			" SUM(" + COL_FILES_CONTENT_SIZE + ") AS " + COL_SUM_SIZE + ", " +
-			" COUNT(" + COL_FILES_ID + ") AS " + COL_COUNT_ID;
+			" SUM(" + COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE + ") AS " + COL_SUM_SIZE + ", " +
+			" SUM(" + COL_STORAGE_USAGE_ROLLUP_FILE_COUNT + ") AS " + COL_COUNT_ID;
 	private static final String SELECT_AGGREGATED_USAGE_PART_2 =
-			" FROM " + TABLE_FILES +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP +
 			" GROUP BY ";
 	private static final String SELECT_AGGREGATED_USAGE_FOR_USER_PART_2 =
-			" FROM " + TABLE_FILES +
-			" WHERE " + COL_FILES_CREATED_BY + " = :" + COL_FILES_CREATED_BY +
+			" FROM " + TABLE_STORAGE_USAGE_ROLLUP +
+			" WHERE " + COL_STORAGE_USAGE_ROLLUP_CREATED_BY + " = :" + COL_STORAGE_USAGE_ROLLUP_CREATED_BY +
 			" GROUP BY ";
 
 	private static final String ORDER_BY_DESC_LIMIT =
@@ -185,7 +192,7 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 			throw new IllegalArgumentException(msg);
 		}
 
-		StorageUsageSummaryList summaryList = getAggregatedResults(COL_FILES_CREATED_BY,
+		StorageUsageSummaryList summaryList = getAggregatedResults(COL_STORAGE_USAGE_ROLLUP_CREATED_BY,
 				SELECT_AGGREGATED_USAGE_PART_1, SELECT_AGGREGATED_USAGE_PART_2, beginIncl, endExcl);
 
 		return summaryList;
@@ -254,7 +261,7 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 
 		MapSqlParameterSource paramMap = new MapSqlParameterSource();
 		Long userIdLong = KeyFactory.stringToKey(userId);
-		paramMap.addValue(COL_FILES_CREATED_BY, userIdLong);
+		paramMap.addValue(COL_STORAGE_USAGE_ROLLUP_CREATED_BY, userIdLong);
 		long total = simpleJdbcTemplate.queryForLong(sql, paramMap);
 		return total;
 	}
@@ -274,7 +281,7 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 
 		MapSqlParameterSource paramMap = new MapSqlParameterSource();
 		Long userIdLong = KeyFactory.stringToKey(userId);
-		paramMap.addValue(COL_FILES_CREATED_BY, userIdLong);
+		paramMap.addValue(COL_STORAGE_USAGE_ROLLUP_CREATED_BY, userIdLong);
 		Long count = simpleJdbcTemplate.queryForLong(sql, paramMap);
 		return count;
 	}
@@ -361,7 +368,7 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 		String sql = getAggregateSql(sqlPart1, sqlPart2, columnList);
 		MapSqlParameterSource paramMap = new MapSqlParameterSource();
 		Long userIdLong = KeyFactory.stringToKey(userId);
-		paramMap.addValue(COL_FILES_CREATED_BY, userIdLong);
+		paramMap.addValue(COL_STORAGE_USAGE_ROLLUP_CREATED_BY, userIdLong);
 		List<Map<String, Object>> rows = simpleJdbcTemplate.queryForList(sql, paramMap);
 		List<StorageUsageSummary> summaries = summaryList.getSummaryList();
 		fillSummaryList(columnList, summaries, rows);
@@ -480,6 +487,10 @@ public final class StorageUsageQueryDaoImpl implements StorageUsageQueryDao {
 			List<StorageUsageDimensionValue> dValList = new ArrayList<StorageUsageDimensionValue>();
 			for (String column : columnList) {
 				Object valObj = row.get(column);
+				if (COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE.equals(column)
+						&& DBOStorageUsageRollupDaoImpl.NULL_CONTENT_TYPE.equals(valObj)) {
+					valObj = null;
+				}
 				String value = (valObj == null ? "UNKNOWN" : valObj.toString());
 				StorageUsageDimensionValue val = new StorageUsageDimensionValue();
 				StorageUsageDimension dim = StorageUsageDimension.valueOf(COL_DIM_MAP.get(column));
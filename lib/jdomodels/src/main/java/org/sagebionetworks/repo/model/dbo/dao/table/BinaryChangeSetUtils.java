@@ -0,0 +1,431 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.sagebionetworks.repo.model.dao.table.RowHandler;
+import org.sagebionetworks.repo.model.table.Row;
+
+/**
+ * Reads and writes table change sets in a binary, columnar format.
+ *
+ * The format starts with a four byte magic number and a format version byte
+ * followed by a deflate stream holding:
+ * <ul>
+ * <li>The number of rows and columns.</li>
+ * <li>The row IDs and then the version numbers, each as zig-zag delta
+ * variable-length longs.</li>
+ * <li>One block per column. Each block starts with a type byte. Long, double
+ * and boolean blocks hold typed values with a null bitmap. String blocks hold
+ * a dictionary of the distinct values followed by one dictionary index per
+ * row.</li>
+ * </ul>
+ * Values are validated before they are written, so typed values decode back to
+ * the same strings. A column that holds any value that would not decode to the
+ * same string is written as a string block.
+ *
+ * Nulls are stored so the blocks stay compact, but like the CSV format they are
+ * read back as empty strings, so a table reads the same whichever format each of
+ * its change sets was written in.
+ *
+ */
+public class BinaryChangeSetUtils {
+
+	/**
+	 * The first bytes of every binary change set. These can never start a
+	 * gzip stream, which starts with 0x1f 0x8b.
+	 */
+	private static final byte[] MAGIC = new byte[] { 'T', 'R', 'C', 'B' };
+	public static final byte FORMAT_VERSION_1 = 1;
+
+	private static final byte BLOCK_LONG = 1;
+	private static final byte BLOCK_DOUBLE = 2;
+	private static final byte BLOCK_BOOLEAN = 3;
+	private static final byte BLOCK_STRING = 4;
+
+	private static final byte BOOLEAN_NULL = 0;
+	private static final byte BOOLEAN_FALSE = 1;
+	private static final byte BOOLEAN_TRUE = 2;
+
+	private static final String UTF8 = "UTF-8";
+
+	/**
+	 * The value read for a null cell. The CSV writer writes nothing for a
+	 * null, which the CSV reader returns as an empty string.
+	 */
+	static final String NULL_VALUE = "";
+
+	/**
+	 * Write validated rows to the binary format. The stream is not closed.
+	 *
+	 * @param rows
+	 *            Each row is the row ID, the version number and then one value
+	 *            per column, as created by
+	 *            {@link TableModelUtils#validateAndConvertRows(List, org.sagebionetworks.repo.model.table.RowSet)}
+	 * @param columnCount
+	 *            The number of columns in each row, not including the row ID
+	 *            and version number.
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(List<String[]> rows, int columnCount, OutputStream out) throws IOException {
+		if (rows == null) throw new IllegalArgumentException("Rows cannot be null");
+		if (out == null) throw new IllegalArgumentException("OutputStream cannot be null");
+		String[][] rowArray = rows.toArray(new String[rows.size()][]);
+		for (String[] row : rowArray) {
+			if (row.length != columnCount + 2)
+				throw new IllegalArgumentException("Every row must have a row ID, a version number and " + columnCount + " values");
+		}
+		out.write(MAGIC);
+		out.write(FORMAT_VERSION_1);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream zipOut = new DeflaterOutputStream(out, deflater);
+			DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(zipOut));
+			writeVarLong(dataOut, rowArray.length);
+			writeVarLong(dataOut, columnCount);
+			// The row IDs and versions
+			for (int col = 0; col < 2; col++) {
+				long previous = 0;
+				for (String[] row : rowArray) {
+					long value = Long.parseLong(row[col]);
+					writeVarLong(dataOut, zigZag(value - previous));
+					previous = value;
+				}
+			}
+			// One block for each column
+			for (int col = 2; col < columnCount + 2; col++) {
+				writeColumn(dataOut, rowArray, col);
+			}
+			dataOut.flush();
+			zipOut.finish();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Read all of the rows of a binary change set.
+	 *
+	 * @param in
+	 *            The stream must be positioned at the start of the magic
+	 *            number.
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Row> read(InputStream in) throws IOException {
+		final List<Row> rows = new LinkedList<Row>();
+		scan(in, new RowHandler() {
+			@Override
+			public void nextRow(Row row) {
+				rows.add(row);
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Pass each row of a binary change set to the handler. The values are
+	 * stored by column so all of the values are decoded before the first row
+	 * is passed to the handler.
+	 *
+	 * @param in
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void scan(InputStream in, RowHandler handler) throws IOException {
+		if (in == null) throw new IllegalArgumentException("InputStream cannot be null");
+		if (handler == null) throw new IllegalArgumentException("RowHandler cannot be null");
+		DataInputStream header = new DataInputStream(in);
+		byte[] magic = new byte[MAGIC.length];
+		header.readFully(magic);
+		if (!isMagic(magic)) throw new IllegalArgumentException("Not a binary change set");
+		byte version = header.readByte();
+		if (version != FORMAT_VERSION_1) throw new IllegalArgumentException("Unknown binary change set version: " + version);
+		Inflater inflater = new Inflater();
+		try {
+			DataInputStream dataIn = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in, inflater)));
+			int rowCount = readCount(dataIn);
+			int columnCount = readCount(dataIn);
+			long[] rowIds = readDeltas(dataIn, rowCount);
+			long[] versions = readDeltas(dataIn, rowCount);
+			String[][] columns = new String[columnCount][];
+			for (int col = 0; col < columnCount; col++) {
+				columns[col] = readColumn(dataIn, rowCount);
+			}
+			for (int i = 0; i < rowCount; i++) {
+				Row row = new Row();
+				row.setRowId(rowIds[i]);
+				row.setVersionNumber(versions[i]);
+				List<String> values = new LinkedList<String>();
+				for (int col = 0; col < columnCount; col++) {
+					String value = columns[col][i];
+					values.add(value == null ? NULL_VALUE : value);
+				}
+				row.setValues(values);
+				handler.nextRow(row);
+			}
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Does the passed stream start with a binary change set? The stream must
+	 * support mark and reset; it is left at the same position.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinaryChangeSet(InputStream in) throws IOException {
+		if (!in.markSupported()) throw new IllegalArgumentException("The stream must support mark and reset");
+		in.mark(MAGIC.length);
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			int read = 0;
+			while (read < magic.length) {
+				int count = in.read(magic, read, magic.length - read);
+				if (count < 0) {
+					return false;
+				}
+				read += count;
+			}
+			return isMagic(magic);
+		} finally {
+			in.reset();
+		}
+	}
+
+	private static boolean isMagic(byte[] bytes) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write a single column using the most compact block type that will
+	 * decode to the same strings.
+	 */
+	private static void writeColumn(DataOutputStream out, String[][] rows, int col) throws IOException {
+		if (isColumn(rows, col, BLOCK_BOOLEAN)) {
+			out.writeByte(BLOCK_BOOLEAN);
+			for (String[] row : rows) {
+				String value = row[col];
+				out.writeByte(value == null ? BOOLEAN_NULL : (Boolean.parseBoolean(value) ? BOOLEAN_TRUE : BOOLEAN_FALSE));
+			}
+		} else if (isColumn(rows, col, BLOCK_LONG)) {
+			out.writeByte(BLOCK_LONG);
+			writeNullBitmap(out, rows, col);
+			long previous = 0;
+			for (String[] row : rows) {
+				if (row[col] != null) {
+					long value = Long.parseLong(row[col]);
+					writeVarLong(out, zigZag(value - previous));
+					previous = value;
+				}
+			}
+		} else if (isColumn(rows, col, BLOCK_DOUBLE)) {
+			out.writeByte(BLOCK_DOUBLE);
+			writeNullBitmap(out, rows, col);
+			for (String[] row : rows) {
+				if (row[col] != null) {
+					out.writeDouble(Double.parseDouble(row[col]));
+				}
+			}
+		} else {
+			out.writeByte(BLOCK_STRING);
+			// Build the dictionary in the order each value first appears.
+			Map<String, Integer> dictionary = new HashMap<String, Integer>();
+			List<String> entries = new LinkedList<String>();
+			for (String[] row : rows) {
+				if (row[col] != null && !dictionary.containsKey(row[col])) {
+					dictionary.put(row[col], entries.size());
+					entries.add(row[col]);
+				}
+			}
+			writeVarLong(out, entries.size());
+			for (String entry : entries) {
+				byte[] bytes = entry.getBytes(UTF8);
+				writeVarLong(out, bytes.length);
+				out.write(bytes);
+			}
+			// Zero is used for null
+			for (String[] row : rows) {
+				writeVarLong(out, row[col] == null ? 0 : dictionary.get(row[col]) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Can every non-null value of the column be stored in the given typed
+	 * block and decoded back to the same string?
+	 */
+	private static boolean isColumn(String[][] rows, int col, byte blockType) {
+		boolean hasValue = false;
+		for (String[] row : rows) {
+			String value = row[col];
+			if (value == null) {
+				continue;
+			}
+			hasValue = true;
+			try {
+				if (blockType == BLOCK_BOOLEAN) {
+					if (!Boolean.TRUE.toString().equals(value) && !Boolean.FALSE.toString().equals(value)) {
+						return false;
+					}
+				} else if (blockType == BLOCK_LONG) {
+					if (!Long.toString(Long.parseLong(value)).equals(value)) {
+						return false;
+					}
+				} else {
+					if (!Double.toString(Double.parseDouble(value)).equals(value)) {
+						return false;
+					}
+				}
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		// A column of only nulls is written as strings.
+		return hasValue;
+	}
+
+	private static String[] readColumn(DataInputStream in, int rowCount) throws IOException {
+		String[] values = new String[rowCount];
+		byte blockType = in.readByte();
+		if (blockType == BLOCK_BOOLEAN) {
+			for (int i = 0; i < rowCount; i++) {
+				byte value = in.readByte();
+				if (value == BOOLEAN_TRUE) {
+					values[i] = Boolean.TRUE.toString();
+				} else if (value == BOOLEAN_FALSE) {
+					values[i] = Boolean.FALSE.toString();
+				} else if (value != BOOLEAN_NULL) {
+					throw new IllegalArgumentException("Corrupt boolean block");
+				}
+			}
+		} else if (blockType == BLOCK_LONG) {
+			boolean[] nulls = readNullBitmap(in, rowCount);
+			long previous = 0;
+			for (int i = 0; i < rowCount; i++) {
+				if (!nulls[i]) {
+					previous += unZigZag(readVarLong(in));
+					values[i] = Long.toString(previous);
+				}
+			}
+		} else if (blockType == BLOCK_DOUBLE) {
+			boolean[] nulls = readNullBitmap(in, rowCount);
+			for (int i = 0; i < rowCount; i++) {
+				if (!nulls[i]) {
+					values[i] = Double.toString(in.readDouble());
+				}
+			}
+		} else if (blockType == BLOCK_STRING) {
+			int size = readCount(in);
+			String[] dictionary = new String[size];
+			for (int i = 0; i < size; i++) {
+				byte[] bytes = new byte[readCount(in)];
+				in.readFully(bytes);
+				dictionary[i] = new String(bytes, UTF8);
+			}
+			for (int i = 0; i < rowCount; i++) {
+				int index = readCount(in);
+				if (index > size) throw new IllegalArgumentException("Corrupt string block");
+				values[i] = index == 0 ? null : dictionary[index - 1];
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown column block type: " + blockType);
+		}
+		return values;
+	}
+
+	private static void writeNullBitmap(DataOutputStream out, String[][] rows, int col) throws IOException {
+		byte[] bitmap = new byte[(rows.length + 7) / 8];
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i][col] == null) {
+				bitmap[i / 8] |= (1 << (i % 8));
+			}
+		}
+		out.write(bitmap);
+	}
+
+	private static boolean[] readNullBitmap(DataInputStream in, int rowCount) throws IOException {
+		byte[] bitmap = new byte[(rowCount + 7) / 8];
+		in.readFully(bitmap);
+		boolean[] nulls = new boolean[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			nulls[i] = (bitmap[i / 8] & (1 << (i % 8))) != 0;
+		}
+		return nulls;
+	}
+
+	private static long[] readDeltas(DataInputStream in, int count) throws IOException {
+		long[] values = new long[count];
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += unZigZag(readVarLong(in));
+			values[i] = previous;
+		}
+		return values;
+	}
+
+	/**
+	 * Read a count, guarding against corrupt data causing huge allocations.
+	 */
+	private static int readCount(DataInputStream in) throws IOException {
+		long count = readVarLong(in);
+		if (count < 0 || count > Integer.MAX_VALUE) throw new IllegalArgumentException("Corrupt binary change set");
+		return (int) count;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Write a long using seven bits per byte. Negative values take ten bytes
+	 * so signed values should be zig-zag encoded first.
+	 */
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new EOFException("Unexpected end of binary change set");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Corrupt binary change set");
+	}
+}
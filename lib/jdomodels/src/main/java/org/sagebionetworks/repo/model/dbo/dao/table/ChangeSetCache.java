@@ -0,0 +1,244 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.sagebionetworks.repo.model.table.Row;
+
+/**
+ * A size bounded, least-recently-used cache of decoded table change sets.
+ *
+ * Each change set is immutable once written to S3, so a cached copy never
+ * needs to be invalidated. The rows are held in a columnar form (one array of
+ * row IDs, one of version numbers and one of values) rather than as Row
+ * objects, and a new copy of the rows is built on each read so callers can
+ * never change the cached data.
+ *
+ */
+public class ChangeSetCache {
+
+	/**
+	 * Rough number of bytes used by each cached row and value, beyond the
+	 * characters of the values.
+	 */
+	private static final int ROW_OVERHEAD_BYTES = 32;
+	private static final int VALUE_OVERHEAD_BYTES = 48;
+
+	/**
+	 * A single decoded change set.
+	 */
+	private static class Entry {
+		long[] rowIds;
+		long[] versionNumbers;
+		String[][] values;
+		long sizeBytes;
+		long compressedBytes;
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, Entry> map;
+	private long currentBytes = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long bytesSaved = 0;
+
+	/**
+	 * @param maxBytes
+	 *            The approximate maximum number of bytes of memory used by the
+	 *            cached rows. Set to zero to disable the cache.
+	 */
+	public ChangeSetCache(long maxBytes) {
+		if (maxBytes < 0) throw new IllegalArgumentException("Max bytes cannot be negative");
+		this.maxBytes = maxBytes;
+		// Access order makes the first entry the least recently used.
+		this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get a copy of the rows of a cached change set.
+	 *
+	 * @param key
+	 *            The S3 key of the change set.
+	 * @return Null if the change set is not in the cache.
+	 */
+	public List<Row> get(String key) {
+		if (key == null) throw new IllegalArgumentException("Key cannot be null");
+		Entry entry;
+		synchronized (this) {
+			entry = map.get(key);
+			if (entry == null) {
+				missCount++;
+				return null;
+			}
+			hitCount++;
+			bytesSaved += entry.compressedBytes;
+		}
+		// The entry is never modified so the copy can be made outside of the lock.
+		List<Row> rows = new LinkedList<Row>();
+		for (int i = 0; i < entry.rowIds.length; i++) {
+			Row row = new Row();
+			row.setRowId(entry.rowIds[i]);
+			row.setVersionNumber(entry.versionNumbers[i]);
+			List<String> values = new LinkedList<String>();
+			for (String value : entry.values[i]) {
+				values.add(value);
+			}
+			row.setValues(values);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * Add a change set to the cache. Change sets that are larger than the
+	 * entire cache are not added.
+	 *
+	 * @param key
+	 *            The S3 key of the change set.
+	 * @param rows
+	 *            Every row must have a row ID and version number.
+	 * @param compressedBytes
+	 *            The size of the change set in S3, used to report the bytes
+	 *            saved by each hit.
+	 */
+	public void put(String key, List<Row> rows, long compressedBytes) {
+		if (key == null) throw new IllegalArgumentException("Key cannot be null");
+		if (rows == null) throw new IllegalArgumentException("Rows cannot be null");
+		if (maxBytes == 0) {
+			return;
+		}
+		Entry entry = new Entry();
+		entry.rowIds = new long[rows.size()];
+		entry.versionNumbers = new long[rows.size()];
+		entry.values = new String[rows.size()][];
+		entry.compressedBytes = compressedBytes;
+		long size = 0;
+		int index = 0;
+		for (Row row : rows) {
+			if (row.getRowId() == null || row.getVersionNumber() == null) {
+				// Only complete change sets are cached.
+				return;
+			}
+			entry.rowIds[index] = row.getRowId();
+			entry.versionNumbers[index] = row.getVersionNumber();
+			if (row.getValues() == null) {
+				entry.values[index] = new String[0];
+			} else {
+				entry.values[index] = row.getValues().toArray(new String[row.getValues().size()]);
+			}
+			size += estimateBytes(row);
+			index++;
+		}
+		entry.sizeBytes = size;
+		if (size > maxBytes) {
+			return;
+		}
+		synchronized (this) {
+			Entry old = map.put(key, entry);
+			if (old != null) {
+				currentBytes -= old.sizeBytes;
+			}
+			currentBytes += size;
+			// Evict the least recently used entries until the cache fits.
+			Iterator<Entry> it = map.values().iterator();
+			while (currentBytes > maxBytes && it.hasNext()) {
+				Entry eldest = it.next();
+				currentBytes -= eldest.sizeBytes;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * The approximate number of bytes used by a row once it is cached.
+	 *
+	 * @param row
+	 * @return
+	 */
+	public static long estimateBytes(Row row) {
+		long size = ROW_OVERHEAD_BYTES + 16;
+		if (row.getValues() != null) {
+			for (String value : row.getValues()) {
+				size += VALUE_OVERHEAD_BYTES + (value == null ? 0 : value.length() * 2);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Change sets larger than this are never cached.
+	 *
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Remove all entries from the cache. The statistics are not reset.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		currentBytes = 0;
+	}
+
+	/**
+	 * The number of change sets in the cache.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * The approximate number of bytes used by the cached rows.
+	 *
+	 * @return
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * The total number of compressed bytes that did not need to be read from
+	 * S3 because of cache hits.
+	 *
+	 * @return
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/**
+	 * The fraction of lookups that were hits.
+	 *
+	 * @return Zero if there have been no lookups.
+	 */
+	public synchronized double getHitRatio() {
+		long total = hitCount + missCount;
+		if (total == 0) {
+			return 0.0;
+		}
+		return ((double) hitCount) / total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ChangeSetCache [size=" + map.size() + ", currentBytes="
+				+ currentBytes + ", maxBytes=" + maxBytes + ", hitCount="
+				+ hitCount + ", missCount=" + missCount + ", bytesSaved="
+				+ bytesSaved + "]";
+	}
+}
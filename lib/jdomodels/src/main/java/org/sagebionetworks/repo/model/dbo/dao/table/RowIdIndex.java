@@ -0,0 +1,161 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A compact index of the row IDs contained in a single table change set. The
+ * index is stored with each TableRowChange so conflict checks and point reads
+ * can find out which versions hold a row without reading the change sets from
+ * S3.
+ *
+ * The encoding is a format byte followed by the number of IDs and then the
+ * sorted, distinct IDs, each written as the variable-length delta from the
+ * previous ID. Row IDs are assigned sequentially, so most deltas take a single
+ * byte.
+ *
+ */
+public class RowIdIndex {
+
+	/**
+	 * The first byte of every index.
+	 */
+	public static final byte FORMAT_VERSION_1 = 1;
+
+	/**
+	 * Create an index for the passed row IDs.
+	 *
+	 * @param rowIds
+	 *            Row IDs in any order. Duplicates are removed.
+	 * @return
+	 */
+	public static byte[] encode(Collection<Long> rowIds) {
+		if (rowIds == null) throw new IllegalArgumentException("RowIds cannot be null");
+		long[] sorted = new long[rowIds.size()];
+		int index = 0;
+		for (Long rowId : rowIds) {
+			if (rowId == null || rowId < 0) throw new IllegalArgumentException("Row IDs must be non-negative: " + rowId);
+			sorted[index++] = rowId;
+		}
+		Arrays.sort(sorted);
+		// Count the distinct values
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				distinct++;
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sorted.length + 6);
+		out.write(FORMAT_VERSION_1);
+		writeVarLong(out, distinct);
+		long previous = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i > 0 && sorted[i] == sorted[i - 1]) {
+				continue;
+			}
+			writeVarLong(out, sorted[i] - previous);
+			previous = sorted[i];
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read the sorted row IDs from an index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public static long[] decode(byte[] index) {
+		if (index == null) throw new IllegalArgumentException("Index cannot be null");
+		if (index.length < 1 || index[0] != FORMAT_VERSION_1) throw new IllegalArgumentException("Unknown row ID index format");
+		int[] position = new int[] { 1 };
+		long count = readVarLong(index, position);
+		if (count > index.length) throw new IllegalArgumentException("Corrupt row ID index");
+		long[] rowIds = new long[(int) count];
+		long previous = 0;
+		for (int i = 0; i < rowIds.length; i++) {
+			previous += readVarLong(index, position);
+			rowIds[i] = previous;
+		}
+		return rowIds;
+	}
+
+	/**
+	 * Find the first of the passed row IDs that is in the sorted index.
+	 *
+	 * @param sortedRowIds
+	 *            The decoded index.
+	 * @param rowIds
+	 * @return The first row ID found or null if none of the row IDs are in the index.
+	 */
+	public static Long findFirstMatch(long[] sortedRowIds, Set<Long> rowIds) {
+		if (sortedRowIds == null) throw new IllegalArgumentException("Index cannot be null");
+		if (rowIds == null) throw new IllegalArgumentException("RowIds cannot be null");
+		if (rowIds.size() < sortedRowIds.length) {
+			// Probe the index for each row ID
+			for (Long rowId : rowIds) {
+				if (rowId != null && Arrays.binarySearch(sortedRowIds, rowId) >= 0) {
+					return rowId;
+				}
+			}
+		} else {
+			// Probe the set for each ID in the index
+			for (long rowId : sortedRowIds) {
+				if (rowIds.contains(rowId)) {
+					return rowId;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Count how many of the passed row IDs are in the sorted index.
+	 *
+	 * @param sortedRowIds
+	 * @param rowIds
+	 * @return
+	 */
+	public static int countMatches(long[] sortedRowIds, Set<Long> rowIds) {
+		if (sortedRowIds == null) throw new IllegalArgumentException("Index cannot be null");
+		if (rowIds == null) throw new IllegalArgumentException("RowIds cannot be null");
+		int count = 0;
+		for (Long rowId : rowIds) {
+			if (rowId != null && Arrays.binarySearch(sortedRowIds, rowId) >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Write a non-negative long using seven bits per byte.
+	 */
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Read a long written by {@link #writeVarLong(ByteArrayOutputStream, long)}.
+	 */
+	private static long readVarLong(byte[] in, int[] position) {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			if (position[0] >= in.length) throw new IllegalArgumentException("Corrupt row ID index");
+			if (shift > 63) throw new IllegalArgumentException("Corrupt row ID index");
+			byte b = in[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.sagebionetworks.repo.model.dbo.dao.table;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -79,6 +80,25 @@ public class TableModelUtils {
 	}
 	
 
+	/**
+	 * This utility will validate and convert the passed RowSet to the binary
+	 * columnar format. See {@link BinaryChangeSetUtils}.
+	 * @param models
+	 * @param set
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void validateAndWriteToBinary(List<ColumnModel> models, RowSet set, OutputStream out) throws IOException{
+		if (out == null)
+			throw new IllegalArgumentException("OutputStream cannot be null");
+		try{
+			List<String[]> rows = validateAndConvertRows(models, set);
+			BinaryChangeSetUtils.write(rows, models.size(), out);
+		}finally{
+			out.close();
+		}
+	}
+
 	/**
 	 * This utility will validate and convert the passed RowSet to an output
 	 * CSV.
@@ -88,11 +108,27 @@ public class TableModelUtils {
 	 */
 	public static void validateAndWriteToCSV(List<ColumnModel> models,
 			RowSet set, CSVWriter out) {
+		if (out == null)
+			throw new IllegalArgumentException("CSVWriter cannot be null");
+		for (String[] finalRow : validateAndConvertRows(models, set)) {
+			out.writeNext(finalRow);
+		}
+	}
+
+	/**
+	 * Validate the passed RowSet and convert each row to an array. The first
+	 * two elements of each array are the row ID and version number, followed
+	 * by one value for each column in the order of the models.
+	 * 
+	 * @param models
+	 * @param set
+	 * @return
+	 */
+	public static List<String[]> validateAndConvertRows(List<ColumnModel> models,
+			RowSet set) {
 		if (models == null)
 			throw new IllegalArgumentException("Models cannot be null");
 		validateRowSet(set);
-		if (out == null)
-			throw new IllegalArgumentException("CSVWriter cannot be null");
 		if (models.size() != set.getHeaders().size())
 			throw new IllegalArgumentException(
 					"RowSet.headers size must be equal to the number of columns in the table.  The table has :"
@@ -107,6 +143,7 @@ public class TableModelUtils {
 			index++;
 		}
 		// Process each row
+		List<String[]> results = new LinkedList<String[]>();
 		int count = 0;
 		for (Row row : set.getRows()) {
 			// First convert the values to
@@ -156,9 +193,10 @@ public class TableModelUtils {
 				// Add the value to the final
 				finalRow[i + 2] = value;
 			}
-			out.writeNext(finalRow);
+			results.add(finalRow);
 			count++;
 		}
+		return results;
 	}
 
 	/**
@@ -380,6 +418,46 @@ public class TableModelUtils {
 		}
 	}
 	
+	/**
+	 * Read a change set in either the binary columnar format or the Gzip CSV
+	 * format. The format is detected from the first bytes of the stream.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Row> readFromStream(InputStream in) throws IOException{
+		final List<Row> rows = new LinkedList<Row>();
+		scanFromStream(in, new RowHandler() {
+			
+			@Override
+			public void nextRow(Row row) {
+				rows.add(row);
+			}
+		});
+		return rows;
+	}
+	
+	/**
+	 * Scan a change set in either the binary columnar format or the Gzip CSV
+	 * format. The format is detected from the first bytes of the stream.
+	 * @param in
+	 * @param handler
+	 * @throws IOException
+	 */
+	public static void scanFromStream(InputStream in, RowHandler handler) throws IOException{
+		if(in == null) throw new IllegalArgumentException("InputStream cannot be null");
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		try{
+			if(BinaryChangeSetUtils.isBinaryChangeSet(buffered)){
+				BinaryChangeSetUtils.scan(buffered, handler);
+			}else{
+				scanFromCSVgzStream(buffered, handler);
+			}
+		}finally{
+			buffered.close();
+		}
+	}
+	
 	/**
 	 * Extract the headers from a list of column Models.s
 	 * @param models
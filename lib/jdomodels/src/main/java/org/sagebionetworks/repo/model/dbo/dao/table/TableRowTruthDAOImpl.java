@@ -13,6 +13,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -76,7 +77,19 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			+ COL_TABLE_ROW_VERSION
 			+ " > ? ORDER BY "
 			+ COL_TABLE_ROW_VERSION + " ASC";
+	private static final String SQL_SELECT_ROW_ID_INDEXES_FOR_TABLE_GREATER_VERSION = "SELECT "
+			+ COL_TABLE_ROW_VERSION + ", " + COL_TABLE_ROW_ID_INDEX + ", "
+			+ COL_TABLE_ROW_BUCKET + ", " + COL_TABLE_ROW_KEY + " FROM "
+			+ TABLE_ROW_CHANGE
+			+ " WHERE "
+			+ COL_TABLE_ROW_TABLE_ID
+			+ " = ? AND "
+			+ COL_TABLE_ROW_VERSION
+			+ " > ? ORDER BY "
+			+ COL_TABLE_ROW_VERSION + " ASC";
 	private static final String KEY_TEMPLATE = "%1$s.csv.gz";
+	private static final String BINARY_KEY_TEMPLATE = "%1$s.bin";
+	private static final long DEFAULT_CHANGE_SET_CACHE_MAX_BYTES = 64L * 1024L * 1024L;
 	private static final String SQL_TRUNCATE_SEQUENCE_TABLE = "DELETE FROM "
 			+ TABLE_TABLE_ID_SEQUENCE + " WHERE " + COL_ID_SEQUENCE_TABLE_ID
 			+ " > 0";
@@ -94,11 +107,36 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 
 	private String s3Bucket;
 	private int maxBytesPerRequest;
+	/**
+	 * New change sets are written in Gzip CSV unless this is set to true.
+	 * Both formats can always be read, so the binary format should only be
+	 * turned on once every reader can read it.
+	 */
+	private boolean writeBinaryChangeSets = false;
+	/**
+	 * Change sets are immutable so recently read change sets are kept in memory.
+	 */
+	private ChangeSetCache changeSetCache = new ChangeSetCache(DEFAULT_CHANGE_SET_CACHE_MAX_BYTES);
 
 	RowMapper<DBOTableIdSequence> sequenceRowMapper = new DBOTableIdSequence()
 			.getTableMapping();
 	RowMapper<DBOTableRowChange> rowChangeMapper = new DBOTableRowChange()
 			.getTableMapping();
+	/**
+	 * Maps only the columns needed for a conflict check.
+	 */
+	RowMapper<DBOTableRowChange> rowIdIndexMapper = new RowMapper<DBOTableRowChange>() {
+		@Override
+		public DBOTableRowChange mapRow(ResultSet rs, int rowNum)
+				throws SQLException {
+			DBOTableRowChange change = new DBOTableRowChange();
+			change.setRowVersion(rs.getLong(COL_TABLE_ROW_VERSION));
+			change.setRowIdIndex(rs.getBytes(COL_TABLE_ROW_ID_INDEX));
+			change.setBucket(rs.getString(COL_TABLE_ROW_BUCKET));
+			change.setKey(rs.getString(COL_TABLE_ROW_KEY));
+			return change;
+		}
+	};
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
@@ -174,8 +212,8 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		checkForRowLevelConflict(tableId, delta, coutToReserver);
 		// Now assign the rowIds and set the version number
 		TableModelUtils.assignRowIdsAndVersionNumbers(delta, range);
-		// We are ready to convert the file to a CSV and save it to S3.
-		String key = saveCSVToS3(models, delta);
+		// We are ready to convert the file and save it to S3.
+		String key = saveToS3(models, delta);
 		List<String> headers = TableModelUtils.getHeaders(models);
 		// record the change
 		DBOTableRowChange changeDBO = new DBOTableRowChange();
@@ -188,6 +226,8 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		changeDBO.setCreatedOn(System.currentTimeMillis());
 		changeDBO.setKey(key);
 		changeDBO.setBucket(s3Bucket);
+		// Index the row IDs so later conflict checks do not need to read this change from S3.
+		changeDBO.setRowIdIndex(RowIdIndex.encode(TableModelUtils.getDistictValidRowIds(delta.getRows())));
 		basicDao.createNew(changeDBO);
 
 		// Prepare the results
@@ -213,9 +253,10 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		}
 	}
 	/**
-	 * Check for a row level conflicts in the passed change sets, by scanning
-	 * each row of each change set and looking for the intersection with the
-	 * passed row Ids.
+	 * Check for a row level conflicts in the change sets that are newer than
+	 * the etag of the passed delta, by looking for the intersection of the
+	 * row ID index of each change set with the passed row Ids. Change sets
+	 * without an index are scanned.
 	 * 
 	 * @param tableId
 	 * @param delta
@@ -234,29 +275,35 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			// Lookup the version number for this update.
 			long versionOfEtag = getVersionForEtag(tableId, delta.getEtag());
 			// Check each version greater than the version for the etag
-			List<TableRowChange> changes = listRowSetsKeysForTableGreaterThanVersion(
-					tableId, versionOfEtag);
+			List<DBOTableRowChange> changes = simpleJdbcTemplate.query(
+					SQL_SELECT_ROW_ID_INDEXES_FOR_TABLE_GREATER_VERSION,
+					rowIdIndexMapper, KeyFactory.stringToKey(tableId), versionOfEtag);
+			Set<Long> rowIds = TableModelUtils.getDistictValidRowIds(delta.getRows());
 			// check for row level conflicts
-			checkForRowLevelConflict(changes,
-					TableModelUtils.getDistictValidRowIds(delta.getRows()));
+			for (DBOTableRowChange change : changes) {
+				if (change.getRowIdIndex() == null) {
+					// This change was created before the index existed.
+					TableRowChange dto = new TableRowChange();
+					dto.setRowVersion(change.getRowVersion());
+					dto.setBucket(change.getBucket());
+					dto.setKey(change.getKey());
+					checkForRowLevelConflict(dto, rowIds);
+				} else {
+					Long conflict = RowIdIndex.findFirstMatch(
+							RowIdIndex.decode(change.getRowIdIndex()), rowIds);
+					if (conflict != null) {
+						throw createConflictException(conflict);
+					}
+				}
+			}
 		}
 	}
 
-	/**
-	 * Check for a row level conflicts in the passed change sets, by scanning
-	 * each row of each change set and looking for the intersection with the
-	 * passed row Ids.
-	 * 
-	 * @param changes
-	 * @param delta
-	 * @throws ConflictingUpdateException
-	 *             when a conflict is found
-	 */
-	private void checkForRowLevelConflict(List<TableRowChange> changes,
-			final Set<Long> rowIds) throws IOException {
-		for (TableRowChange change : changes) {
-			checkForRowLevelConflict(change, rowIds);
-		}
+	private static ConflictingUpdateException createConflictException(Long rowId) {
+		return new ConflictingUpdateException(
+				"Row id: "
+						+ rowId
+						+ " has been changes since lasted read.  Please get the latest value for this row and then attempt to update it again.");
 	}
 
 	/**
@@ -276,10 +323,7 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			public void nextRow(Row row) {
 				// Does this row match?
 				if (rowIds.contains(row.getRowId())) {
-					throw new ConflictingUpdateException(
-							"Row id: "
-									+ row.getRowId()
-									+ " has been changes since lasted read.  Please get the latest value for this row and then attempt to update it again.");
+					throw createConflictException(row.getRowId());
 				}
 			}
 		}, change);
@@ -313,17 +357,24 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	 * @throws IOException
 	 * @throws FileNotFoundException
 	 */
-	private String saveCSVToS3(List<ColumnModel> models, RowSet delta)
+	private String saveToS3(List<ColumnModel> models, RowSet delta)
 			throws IOException, FileNotFoundException {
-		File temp = File.createTempFile("rowSet", "csv.gz");
+		File temp = File.createTempFile("rowSet", writeBinaryChangeSets ? "bin" : "csv.gz");
 		FileOutputStream out = null;
 		try {
 			out = new FileOutputStream(temp);
-			// Save this to the the zipped CSV
-			TableModelUtils.validateAnWriteToCSVgz(models, delta, out);
+			String key;
+			if (writeBinaryChangeSets) {
+				TableModelUtils.validateAndWriteToBinary(models, delta, out);
+				key = String.format(BINARY_KEY_TEMPLATE, UUID.randomUUID()
+						.toString());
+			} else {
+				// Save this to the the zipped CSV
+				TableModelUtils.validateAnWriteToCSVgz(models, delta, out);
+				key = String.format(KEY_TEMPLATE, UUID.randomUUID()
+						.toString());
+			}
 			// upload it to S3.
-			String key = String.format(KEY_TEMPLATE, UUID.randomUUID()
-					.toString());
 			s3Client.putObject(s3Bucket, key, temp);
 			return key;
 		} finally {
@@ -364,14 +415,21 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	@Override
 	public TableRowChange getTableRowChange(String tableIdString,
 			long rowVersion) throws NotFoundException {
+		return TableModelUtils.ceateDTOFromDBO(getTableRowChangeDBO(tableIdString, rowVersion));
+	}
+
+	/**
+	 * Get the database object for a single change, including its row ID index.
+	 */
+	private DBOTableRowChange getTableRowChangeDBO(String tableIdString,
+			long rowVersion) throws NotFoundException {
 		if (tableIdString == null)
 			throw new IllegalArgumentException("TableID cannot be null");
 		long tableId = KeyFactory.stringToKey(tableIdString);
 		try {
-			DBOTableRowChange dbo = simpleJdbcTemplate.queryForObject(
+			return simpleJdbcTemplate.queryForObject(
 					SQL_SELECT_ROW_CHANGE_FOR_TABLE_AND_VERSION,
 					rowChangeMapper, tableId, rowVersion);
-			return TableModelUtils.ceateDTOFromDBO(dbo);
 		} catch (EmptyResultDataAccessException e) {
 			throw new NotFoundException(
 					"TableRowChange does not exist for tableId: " + tableId
@@ -388,21 +446,40 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	public RowSet getRowSet(String tableId, long rowVersion)
 			throws IOException, NotFoundException {
 		TableRowChange dto = getTableRowChange(tableId, rowVersion);
+		RowSet set = new RowSet();
+		set.setTableId(tableId);
+		set.setHeaders(dto.getHeaders());
+		set.setRows(getChangeRows(dto));
+		set.setEtag(dto.getEtag());
+		return set;
+	}
+
+	/**
+	 * Get the rows of a change set from the cache, or download the file from
+	 * S3 and add it to the cache.
+	 * 
+	 * @param dto
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Row> getChangeRows(TableRowChange dto) throws IOException {
+		List<Row> rows = changeSetCache.get(dto.getKey());
+		if (rows != null) {
+			return rows;
+		}
 		// Downlaod the file from S3
 		S3Object object = s3Client.getObject(dto.getBucket(), dto.getKey());
 		try {
-			RowSet set = new RowSet();
-			List<Row> rows = TableModelUtils.readFromCSVgzStream(object
+			// Older change sets are Gzip CSV so the format is detected.
+			rows = TableModelUtils.readFromStream(object
 					.getObjectContent());
-			set.setTableId(tableId);
-			set.setHeaders(dto.getHeaders());
-			set.setRows(rows);
-			set.setEtag(dto.getEtag());
-			return set;
 		} finally {
 			// Need to close the stream unconditionally.
 			object.getObjectContent().close();
 		}
+		changeSetCache.put(dto.getKey(), rows, object.getObjectMetadata()
+				.getContentLength());
+		return rows;
 	}
 
 	@Override
@@ -415,6 +492,10 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	}
 
 	/**
+	 * Scan the rows of a change from the cache, or stream them from S3. Only
+	 * a change set small enough to be cached is held in memory while it is
+	 * streamed.
+	 * 
 	 * @param handler
 	 * @param dto
 	 * @return
@@ -422,14 +503,72 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 	 */
 	public void scanChange(RowHandler handler, TableRowChange dto)
 			throws IOException {
+		List<Row> rows = changeSetCache.get(dto.getKey());
+		if (rows != null) {
+			for (Row row : rows) {
+				handler.nextRow(row);
+			}
+			return;
+		}
+		CachingRowHandler caching = new CachingRowHandler(handler,
+				changeSetCache.getMaxBytes());
+		// stream the file from S3
 		S3Object object = s3Client.getObject(dto.getBucket(), dto.getKey());
 		try {
-			TableModelUtils.scanFromCSVgzStream(object.getObjectContent(),
-					handler);
+			TableModelUtils.scanFromStream(object.getObjectContent(), caching);
 		} finally {
 			// Need to close the stream unconditionally.
 			object.getObjectContent().close();
 		}
+		if (caching.getRows() != null) {
+			changeSetCache.put(dto.getKey(), caching.getRows(), object
+					.getObjectMetadata().getContentLength());
+		}
+	}
+
+	/**
+	 * Passes each row to a handler and keeps a copy of the rows until they
+	 * grow larger than the cache allows.
+	 */
+	private static class CachingRowHandler implements RowHandler {
+
+		private final RowHandler handler;
+		private final long maxBytes;
+		private List<Row> rows = new LinkedList<Row>();
+		private long bytes = 0;
+
+		CachingRowHandler(RowHandler handler, long maxBytes) {
+			this.handler = handler;
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public void nextRow(Row row) {
+			if (rows != null) {
+				bytes += ChangeSetCache.estimateBytes(row);
+				if (bytes > maxBytes) {
+					// Too large to cache so stop holding on to the rows.
+					rows = null;
+				} else {
+					// Copy the row before the handler can change it.
+					Row copy = new Row();
+					copy.setRowId(row.getRowId());
+					copy.setVersionNumber(row.getVersionNumber());
+					if (row.getValues() != null) {
+						copy.setValues(new ArrayList<String>(row.getValues()));
+					}
+					rows.add(copy);
+				}
+			}
+			handler.nextRow(row);
+		}
+
+		/**
+		 * @return Null if the change set is too large to cache.
+		 */
+		List<Row> getRows() {
+			return rows;
+		}
 	}
 
 	@Override
@@ -440,6 +579,7 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		for (String key : keysToDelete) {
 			s3Client.deleteObject(s3Bucket, key);
 		}
+		changeSetCache.clear();
 		simpleJdbcTemplate.update(SQL_TRUNCATE_SEQUENCE_TABLE);
 	}
 
@@ -488,9 +628,20 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 			final RowSet thisSet = new RowSet();
 			thisSet.setTableId(ref.getTableId());
 			thisSet.setRows(new LinkedList<Row>());
-			// Scan over the delta
-			TableRowChange trc = scanRowSet(ref.getTableId(), version,
-					new RowHandler() {
+			DBOTableRowChange dbo = getTableRowChangeDBO(ref.getTableId(), version);
+			TableRowChange trc = TableModelUtils.ceateDTOFromDBO(dbo);
+			// Use the index to find how many of the requested rows are in this version.
+			int expectedCount = -1;
+			if (dbo.getRowIdIndex() != null) {
+				expectedCount = RowIdIndex.countMatches(
+						RowIdIndex.decode(dbo.getRowIdIndex()),
+						getRowIdsForVersion(ref.getRows(), version));
+			}
+			if (expectedCount != 0) {
+				// Scan over the delta until all of the expected rows are found
+				final int stopAfter = expectedCount;
+				try {
+					scanChange(new RowHandler() {
 						@Override
 						public void nextRow(Row row) {
 							// Is this a row we are looking for?
@@ -500,9 +651,16 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 							if (rowsToFetch.contains(thisRowRef)) {
 								// This is a match
 								thisSet.getRows().add(row);
+								if (thisSet.getRows().size() == stopAfter) {
+									throw new ScanComplete();
+								}
 							}
 						}
-					});
+					}, trc);
+				} catch (ScanComplete e) {
+					// All of the rows for this version were found.
+				}
+			}
 			// fill in the rest of the values
 			thisSet.setEtag(trc.getEtag());
 			thisSet.setHeaders(trc.getHeaders());
@@ -511,6 +669,26 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		return results;
 	}
 
+	/**
+	 * The row IDs of the references with the given version.
+	 */
+	private static Set<Long> getRowIdsForVersion(List<RowReference> refs, Long version) {
+		Set<Long> rowIds = new HashSet<Long>();
+		for (RowReference ref : refs) {
+			if (version.equals(ref.getVersionNumber())) {
+				rowIds.add(ref.getRowId());
+			}
+		}
+		return rowIds;
+	}
+
+	/**
+	 * Thrown by a RowHandler to stop a scan once it has found everything it needs.
+	 */
+	private static class ScanComplete extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
 	@Override
 	public RowSet getRowSet(RowReferenceSet ref, List<ColumnModel> restultForm)
 			throws IOException, NotFoundException {
@@ -554,4 +732,34 @@ public class TableRowTruthDAOImpl implements TableRowTruthDAO {
 		this.maxBytesPerRequest = maxBytesPerRequest;
 	}
 
+	/**
+	 * Should new change sets be written in the binary columnar format rather
+	 * than Gzip CSV?
+	 * 
+	 * @param writeBinaryChangeSets
+	 */
+	public void setWriteBinaryChangeSets(boolean writeBinaryChangeSets) {
+		this.writeBinaryChangeSets = writeBinaryChangeSets;
+	}
+
+	/**
+	 * The approximate maximum memory used to cache decoded change sets. Set
+	 * to zero to disable the cache.
+	 * 
+	 * @param maxBytes
+	 */
+	public void setChangeSetCacheMaxBytes(long maxBytes) {
+		this.changeSetCache = new ChangeSetCache(maxBytes);
+	}
+
+	/**
+	 * The cache of decoded change sets, exposed for its hit ratio and bytes
+	 * saved.
+	 * 
+	 * @return
+	 */
+	public ChangeSetCache getChangeSetCache() {
+		return changeSetCache;
+	}
+
 }
@@ -5,6 +5,7 @@ import java.util.List;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
 import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 
@@ -51,6 +52,30 @@ public interface MigratableTableDAO {
 	 */
 	public List<RowMetadata> listDeltaRowMetadata(MigrationType type, List<Long> idList);
 	
+	/**
+	 * List one page of the row metadata with IDs in the given range, ordered by ID.
+	 * To get the next page, call again with a minId of one more than the last ID of this page.
+	 * 
+	 * @param type
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @param limit
+	 * @return
+	 */
+	public List<RowMetadata> listRowMetadataByRange(MigrationType type, long minId, long maxId, long limit);
+	
+	/**
+	 * The count and aggregate checksum of the IDs and etags of the rows with IDs in the given range.
+	 * When two stacks have the same checksum for a range, none of the rows in that range need to be
+	 * migrated, so only the ranges that differ need to be listed.
+	 * 
+	 * @param type
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @return
+	 */
+	public RangeChecksum getChecksumForIdRange(MigrationType type, long minId, long maxId);
+	
 	/**
 	 * Get a batch of objects to backup.
 	 * @param clazz
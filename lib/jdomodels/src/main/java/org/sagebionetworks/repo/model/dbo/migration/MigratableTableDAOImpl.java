@@ -1,5 +1,7 @@
 package org.sagebionetworks.repo.model.dbo.migration;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -13,6 +15,7 @@ import org.sagebionetworks.repo.model.dbo.FieldColumn;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
 import org.sagebionetworks.repo.model.dbo.TableMapping;
 import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -80,6 +83,8 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 	private Map<MigrationType, String> maxSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> listSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> deltaListSqlMap = new HashMap<MigrationType, String>();
+	private Map<MigrationType, String> rangeListSqlMap = new HashMap<MigrationType, String>();
+	private Map<MigrationType, String> rangeChecksumSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> backupSqlMap = new HashMap<MigrationType, String>();
 	private Map<MigrationType, String> insertOrUpdateSqlMap = new HashMap<MigrationType, String>();
 	
@@ -133,6 +138,8 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		listSqlMap.put(type, listRowMetadataSQL);
 		String deltalistRowMetadataSQL = DMLUtils.deltaListRowMetadata(mapping);
 		deltaListSqlMap.put(type, deltalistRowMetadataSQL);
+		rangeListSqlMap.put(type, DMLUtils.listRowMetadataByIdRange(mapping));
+		rangeChecksumSqlMap.put(type, DMLUtils.getIdRangeChecksum(mapping));
 		// Does this type have an etag?
 		FieldColumn etag = DMLUtils.getEtagColumn(mapping);
 		if(etag != null){
@@ -207,6 +214,48 @@ public class MigratableTableDAOImpl implements MigratableTableDAO {
 		return page;
 	}
 
+	@Override
+	public List<RowMetadata> listRowMetadataByRange(MigrationType type, long minId, long maxId, long limit) {
+		if(type == null) throw new IllegalArgumentException("type cannot be null");
+		if(limit < 1) throw new IllegalArgumentException("limit must be greater than zero");
+		if(minId > maxId) return new LinkedList<RowMetadata>();
+		String sql = this.rangeListSqlMap.get(type);
+		if(sql == null) throw new IllegalArgumentException("Cannot find range list SQL for type: "+type);
+		RowMapper<RowMetadata> mapper = this.getRowMetadataRowMapper(type);
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(DMLUtils.BIND_VAR_MIN_ID, minId);
+		params.addValue(DMLUtils.BIND_VAR_MAX_ID, maxId);
+		params.addValue(DMLUtils.BIND_VAR_LIMIT, limit);
+		return simpleJdbcTemplate.query(sql, mapper, params);
+	}
+
+	@Override
+	public RangeChecksum getChecksumForIdRange(final MigrationType type, final long minId, final long maxId) {
+		if(type == null) throw new IllegalArgumentException("type cannot be null");
+		if(minId > maxId) throw new IllegalArgumentException("minId cannot be greater than maxId");
+		String sql = this.rangeChecksumSqlMap.get(type);
+		if(sql == null) throw new IllegalArgumentException("Cannot find range checksum SQL for type: "+type);
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		params.addValue(DMLUtils.BIND_VAR_MIN_ID, minId);
+		params.addValue(DMLUtils.BIND_VAR_MAX_ID, maxId);
+		return simpleJdbcTemplate.queryForObject(sql, new RowMapper<RangeChecksum>() {
+			@Override
+			public RangeChecksum mapRow(ResultSet rs, int rowNum) throws SQLException {
+				RangeChecksum checksum = new RangeChecksum();
+				checksum.setType(type);
+				checksum.setMinId(minId);
+				checksum.setMaxId(maxId);
+				checksum.setCount(rs.getLong(1));
+				if(checksum.getCount() > 0){
+					checksum.setFirstId(rs.getLong(2));
+					checksum.setLastId(rs.getLong(3));
+					checksum.setChecksum(rs.getString(4)+"-"+rs.getString(5));
+				}
+				return checksum;
+			}
+		}, params);
+	}
+
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@Override
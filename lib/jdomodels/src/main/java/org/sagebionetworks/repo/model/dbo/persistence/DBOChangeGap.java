@@ -0,0 +1,94 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * A change number that the sent high-water mark passed while it had no change.
+ * The change number might belong to a transaction that has not committed yet, so
+ * the change is looked for again until the gap expires.
+ *
+ */
+public class DBOChangeGap implements DatabaseObject<DBOChangeGap> {
+
+	private static FieldColumn[] FIELDS = new FieldColumn[]{
+		new FieldColumn("changeNumber", COL_CHANGE_GAPS_CHANGE_NUM, true),
+	};
+
+	private Long changeNumber;
+
+	@Override
+	public TableMapping<DBOChangeGap> getTableMapping() {
+		return new TableMapping<DBOChangeGap>() {
+
+			@Override
+			public DBOChangeGap mapRow(ResultSet rs, int index)
+					throws SQLException {
+				DBOChangeGap gap = new DBOChangeGap();
+				gap.setChangeNumber(rs.getLong(COL_CHANGE_GAPS_CHANGE_NUM));
+				return gap;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_CHANGE_GAPS;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_CHANGE_GAPS;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOChangeGap> getDBOClass() {
+				return DBOChangeGap.class;
+			}
+		};
+	}
+
+	public Long getChangeNumber() {
+		return changeNumber;
+	}
+
+	public void setChangeNumber(Long changeNumber) {
+		this.changeNumber = changeNumber;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((changeNumber == null) ? 0 : changeNumber.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOChangeGap other = (DBOChangeGap) obj;
+		if (changeNumber == null) {
+			if (other.changeNumber != null)
+				return false;
+		} else if (!changeNumber.equals(other.changeNumber))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * A named high-water mark over the change numbers.  Every change with a change number
+ * less than or equal to the watermark has been sent (or processed by the named queue),
+ * so the search for work can start just past the watermark.
+ *
+ */
+public class DBOChangeWatermark implements DatabaseObject<DBOChangeWatermark> {
+
+	private static FieldColumn[] FIELDS = new FieldColumn[]{
+		new FieldColumn("name", COL_CHANGE_WATERMARKS_NAME, true),
+		new FieldColumn("changeNumber", COL_CHANGE_WATERMARKS_CHANGE_NUM),
+		new FieldColumn("timeStamp", COL_CHANGE_WATERMARKS_TIME_STAMP),
+	};
+
+	private String name;
+	private Long changeNumber;
+	private Timestamp timeStamp;
+
+	@Override
+	public TableMapping<DBOChangeWatermark> getTableMapping() {
+		return new TableMapping<DBOChangeWatermark>() {
+
+			@Override
+			public DBOChangeWatermark mapRow(ResultSet rs, int index)
+					throws SQLException {
+				DBOChangeWatermark watermark = new DBOChangeWatermark();
+				watermark.setName(rs.getString(COL_CHANGE_WATERMARKS_NAME));
+				watermark.setChangeNumber(rs.getLong(COL_CHANGE_WATERMARKS_CHANGE_NUM));
+				watermark.setTimeStamp(rs.getTimestamp(COL_CHANGE_WATERMARKS_TIME_STAMP));
+				return watermark;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_CHANGE_WATERMARKS;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_CHANGE_WATERMARKS;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOChangeWatermark> getDBOClass() {
+				return DBOChangeWatermark.class;
+			}
+		};
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Long getChangeNumber() {
+		return changeNumber;
+	}
+
+	public void setChangeNumber(Long changeNumber) {
+		this.changeNumber = changeNumber;
+	}
+
+	public Timestamp getTimeStamp() {
+		return timeStamp;
+	}
+
+	public void setTimeStamp(Timestamp timeStamp) {
+		this.timeStamp = timeStamp;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((changeNumber == null) ? 0 : changeNumber.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result
+				+ ((timeStamp == null) ? 0 : timeStamp.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOChangeWatermark other = (DBOChangeWatermark) obj;
+		if (changeNumber == null) {
+			if (other.changeNumber != null)
+				return false;
+		} else if (!changeNumber.equals(other.changeNumber))
+			return false;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		if (timeStamp == null) {
+			if (other.timeStamp != null)
+				return false;
+		} else if (!timeStamp.equals(other.timeStamp))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_MESSAGE_FAN_OUT_DELIVERED;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_MESSAGE_FAN_OUT_MESSAGE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_MESSAGE_FAN_OUT_UPDATED_ON;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.DDL_MESSAGE_FAN_OUT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_MESSAGE_FAN_OUT;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * A message that is still being delivered to its recipients by a worker.
+ * Recipients are delivered in ascending order of ID, so the last recipient ID
+ * is where the next batch starts; a null last recipient ID means no batch has
+ * been delivered yet. The row is deleted once every recipient has the message.
+ */
+public class DBOMessageFanOut implements DatabaseObject<DBOMessageFanOut> {
+
+	private static final FieldColumn[] FIELDS = new FieldColumn[] {
+		new FieldColumn("messageId", COL_MESSAGE_FAN_OUT_MESSAGE_ID, true),
+		new FieldColumn("lastRecipientId", COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID),
+		new FieldColumn("delivered", COL_MESSAGE_FAN_OUT_DELIVERED),
+		new FieldColumn("updatedOn", COL_MESSAGE_FAN_OUT_UPDATED_ON)
+	};
+
+	private Long messageId;
+	private Long lastRecipientId;
+	private Long delivered;
+	private Timestamp updatedOn;
+
+	@Override
+	public TableMapping<DBOMessageFanOut> getTableMapping() {
+
+		return new TableMapping<DBOMessageFanOut>() {
+
+			@Override
+			public DBOMessageFanOut mapRow(ResultSet rs, int rowNum) throws SQLException {
+				DBOMessageFanOut fanOut = new DBOMessageFanOut();
+				fanOut.setMessageId(rs.getLong(COL_MESSAGE_FAN_OUT_MESSAGE_ID));
+				long lastRecipientId = rs.getLong(COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID);
+				fanOut.setLastRecipientId(rs.wasNull() ? null : lastRecipientId);
+				fanOut.setDelivered(rs.getLong(COL_MESSAGE_FAN_OUT_DELIVERED));
+				fanOut.setUpdatedOn(rs.getTimestamp(COL_MESSAGE_FAN_OUT_UPDATED_ON));
+				return fanOut;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_MESSAGE_FAN_OUT;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_MESSAGE_FAN_OUT;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOMessageFanOut> getDBOClass() {
+				return DBOMessageFanOut.class;
+			}
+		};
+	}
+
+	public Long getMessageId() {
+		return messageId;
+	}
+
+	public void setMessageId(Long messageId) {
+		this.messageId = messageId;
+	}
+
+	public Long getLastRecipientId() {
+		return lastRecipientId;
+	}
+
+	public void setLastRecipientId(Long lastRecipientId) {
+		this.lastRecipientId = lastRecipientId;
+	}
+
+	public Long getDelivered() {
+		return delivered;
+	}
+
+	public void setDelivered(Long delivered) {
+		this.delivered = delivered;
+	}
+
+	public Timestamp getUpdatedOn() {
+		return updatedOn;
+	}
+
+	public void setUpdatedOn(Timestamp updatedOn) {
+		this.updatedOn = updatedOn;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((delivered == null) ? 0 : delivered.hashCode());
+		result = prime * result + ((lastRecipientId == null) ? 0 : lastRecipientId.hashCode());
+		result = prime * result + ((messageId == null) ? 0 : messageId.hashCode());
+		result = prime * result + ((updatedOn == null) ? 0 : updatedOn.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOMessageFanOut other = (DBOMessageFanOut) obj;
+		if (delivered == null) {
+			if (other.delivered != null)
+				return false;
+		} else if (!delivered.equals(other.delivered))
+			return false;
+		if (lastRecipientId == null) {
+			if (other.lastRecipientId != null)
+				return false;
+		} else if (!lastRecipientId.equals(other.lastRecipientId))
+			return false;
+		if (messageId == null) {
+			if (other.messageId != null)
+				return false;
+		} else if (!messageId.equals(other.messageId))
+			return false;
+		if (updatedOn == null) {
+			if (other.updatedOn != null)
+				return false;
+		} else if (!updatedOn.equals(other.updatedOn))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DBOMessageFanOut [messageId=" + messageId + ", lastRecipientId="
+				+ lastRecipientId + ", delivered=" + delivered + ", updatedOn="
+				+ updatedOn + "]";
+	}
+}
@@ -0,0 +1,131 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_ANCESTOR_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_DESCENDANT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_LINEAGE_DISTANCE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.DDL_FILE_NODE_LINEAGE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_NODE_LINEAGE;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * One ancestor-descendant pair of the node closure table. Every node has a
+ * row for itself at distance zero and a row for each of its ancestors, where
+ * the parent is at distance one.
+ *
+ * This table is derived from the parent IDs of JDONODE so it is not migrated.
+ */
+public class DBONodeLineage implements DatabaseObject<DBONodeLineage> {
+
+	private static final FieldColumn[] FIELDS = new FieldColumn[] {
+		new FieldColumn("ancestorId", COL_NODE_LINEAGE_ANCESTOR_ID, true),
+		new FieldColumn("descendantId", COL_NODE_LINEAGE_DESCENDANT_ID, true),
+		new FieldColumn("distance", COL_NODE_LINEAGE_DISTANCE)
+	};
+
+	@Override
+	public TableMapping<DBONodeLineage> getTableMapping() {
+		return new TableMapping<DBONodeLineage>() {
+
+			@Override
+			public DBONodeLineage mapRow(ResultSet rs, int rowNum) throws SQLException {
+				DBONodeLineage lineage = new DBONodeLineage();
+				lineage.setAncestorId(rs.getLong(COL_NODE_LINEAGE_ANCESTOR_ID));
+				lineage.setDescendantId(rs.getLong(COL_NODE_LINEAGE_DESCENDANT_ID));
+				lineage.setDistance(rs.getInt(COL_NODE_LINEAGE_DISTANCE));
+				return lineage;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_NODE_LINEAGE;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_FILE_NODE_LINEAGE;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBONodeLineage> getDBOClass() {
+				return DBONodeLineage.class;
+			}};
+	}
+
+	private Long ancestorId;
+	private Long descendantId;
+	private Integer distance;
+
+	public Long getAncestorId() {
+		return ancestorId;
+	}
+	public void setAncestorId(Long ancestorId) {
+		this.ancestorId = ancestorId;
+	}
+	public Long getDescendantId() {
+		return descendantId;
+	}
+	public void setDescendantId(Long descendantId) {
+		this.descendantId = descendantId;
+	}
+	public Integer getDistance() {
+		return distance;
+	}
+	public void setDistance(Integer distance) {
+		this.distance = distance;
+	}
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((ancestorId == null) ? 0 : ancestorId.hashCode());
+		result = prime * result
+				+ ((descendantId == null) ? 0 : descendantId.hashCode());
+		result = prime * result
+				+ ((distance == null) ? 0 : distance.hashCode());
+		return result;
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBONodeLineage other = (DBONodeLineage) obj;
+		if (ancestorId == null) {
+			if (other.ancestorId != null)
+				return false;
+		} else if (!ancestorId.equals(other.ancestorId))
+			return false;
+		if (descendantId == null) {
+			if (other.descendantId != null)
+				return false;
+		} else if (!descendantId.equals(other.descendantId))
+			return false;
+		if (distance == null) {
+			if (other.distance != null)
+				return false;
+		} else if (!distance.equals(other.distance))
+			return false;
+		return true;
+	}
+	@Override
+	public String toString() {
+		return "DBONodeLineage [ancestorId=" + ancestorId + ", descendantId="
+				+ descendantId + ", distance=" + distance + "]";
+	}
+
+}
@@ -0,0 +1,172 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_CREATED_BY;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_FILE_COUNT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.DDL_STORAGE_USAGE_ROLLUP;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_STORAGE_USAGE_ROLLUP;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * The total size and number of the files created by a user, for one storage provider
+ * and content type. The rollups are derived from the files table so they are not migrated.
+ * A null content type is stored as an empty string since it is part of the primary key.
+ */
+public class DBOStorageUsageRollup implements DatabaseObject<DBOStorageUsageRollup> {
+
+	private static final FieldColumn[] FIELDS = new FieldColumn[] {
+		new FieldColumn("createdBy", COL_STORAGE_USAGE_ROLLUP_CREATED_BY, true),
+		new FieldColumn("metadataType", COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE, true),
+		new FieldColumn("contentType", COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE, true),
+		new FieldColumn("totalSize", COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE),
+		new FieldColumn("fileCount", COL_STORAGE_USAGE_ROLLUP_FILE_COUNT)
+	};
+
+	private Long createdBy;
+	private String metadataType;
+	private String contentType;
+	private Long totalSize;
+	private Long fileCount;
+
+	@Override
+	public TableMapping<DBOStorageUsageRollup> getTableMapping() {
+
+		return new TableMapping<DBOStorageUsageRollup>() {
+
+			@Override
+			public DBOStorageUsageRollup mapRow(ResultSet rs, int rowNum) throws SQLException {
+				DBOStorageUsageRollup rollup = new DBOStorageUsageRollup();
+				rollup.setCreatedBy(rs.getLong(COL_STORAGE_USAGE_ROLLUP_CREATED_BY));
+				rollup.setMetadataType(rs.getString(COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE));
+				rollup.setContentType(rs.getString(COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE));
+				rollup.setTotalSize(rs.getLong(COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE));
+				rollup.setFileCount(rs.getLong(COL_STORAGE_USAGE_ROLLUP_FILE_COUNT));
+				return rollup;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_STORAGE_USAGE_ROLLUP;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_STORAGE_USAGE_ROLLUP;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOStorageUsageRollup> getDBOClass() {
+				return DBOStorageUsageRollup.class;
+			}
+		};
+	}
+
+	public Long getCreatedBy() {
+		return createdBy;
+	}
+
+	public void setCreatedBy(Long createdBy) {
+		this.createdBy = createdBy;
+	}
+
+	public String getMetadataType() {
+		return metadataType;
+	}
+
+	public void setMetadataType(String metadataType) {
+		this.metadataType = metadataType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public Long getTotalSize() {
+		return totalSize;
+	}
+
+	public void setTotalSize(Long totalSize) {
+		this.totalSize = totalSize;
+	}
+
+	public Long getFileCount() {
+		return fileCount;
+	}
+
+	public void setFileCount(Long fileCount) {
+		this.fileCount = fileCount;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((contentType == null) ? 0 : contentType.hashCode());
+		result = prime * result + ((createdBy == null) ? 0 : createdBy.hashCode());
+		result = prime * result + ((fileCount == null) ? 0 : fileCount.hashCode());
+		result = prime * result + ((metadataType == null) ? 0 : metadataType.hashCode());
+		result = prime * result + ((totalSize == null) ? 0 : totalSize.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOStorageUsageRollup other = (DBOStorageUsageRollup) obj;
+		if (contentType == null) {
+			if (other.contentType != null)
+				return false;
+		} else if (!contentType.equals(other.contentType))
+			return false;
+		if (createdBy == null) {
+			if (other.createdBy != null)
+				return false;
+		} else if (!createdBy.equals(other.createdBy))
+			return false;
+		if (fileCount == null) {
+			if (other.fileCount != null)
+				return false;
+		} else if (!fileCount.equals(other.fileCount))
+			return false;
+		if (metadataType == null) {
+			if (other.metadataType != null)
+				return false;
+		} else if (!metadataType.equals(other.metadataType))
+			return false;
+		if (totalSize == null) {
+			if (other.totalSize != null)
+				return false;
+		} else if (!totalSize.equals(other.totalSize))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DBOStorageUsageRollup [createdBy=" + createdBy + ", metadataType="
+				+ metadataType + ", contentType=" + contentType + ", totalSize="
+				+ totalSize + ", fileCount=" + fileCount + "]";
+	}
+}
@@ -0,0 +1,137 @@
+package org.sagebionetworks.repo.model.dbo.persistence;
+
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_PURGE_CHECKPOINT_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_PURGE_CHECKPOINT_NODE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_TRASH_PURGE_CHECKPOINT_UPDATED_ON;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.DDL_FILE_TRASH_PURGE_CHECKPOINT;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_TRASH_PURGE_CHECKPOINT;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.sagebionetworks.repo.model.dbo.DatabaseObject;
+import org.sagebionetworks.repo.model.dbo.FieldColumn;
+import org.sagebionetworks.repo.model.dbo.TableMapping;
+
+/**
+ * Where the trash worker left off purging the trash can. The trash is purged
+ * in descending order of node ID, so the node ID is the last node purged; a
+ * null node ID means the next purge starts from the top.
+ */
+public class DBOTrashPurgeCheckpoint implements DatabaseObject<DBOTrashPurgeCheckpoint> {
+
+	private static final FieldColumn[] FIELDS = new FieldColumn[] {
+		new FieldColumn("id", COL_TRASH_PURGE_CHECKPOINT_ID, true),
+		new FieldColumn("nodeId", COL_TRASH_PURGE_CHECKPOINT_NODE_ID),
+		new FieldColumn("updatedOn", COL_TRASH_PURGE_CHECKPOINT_UPDATED_ON)
+	};
+
+	private Long id;
+	private Long nodeId;
+	private Timestamp updatedOn;
+
+	@Override
+	public TableMapping<DBOTrashPurgeCheckpoint> getTableMapping() {
+
+		return new TableMapping<DBOTrashPurgeCheckpoint>() {
+
+			@Override
+			public DBOTrashPurgeCheckpoint mapRow(ResultSet rs, int rowNum) throws SQLException {
+				DBOTrashPurgeCheckpoint checkpoint = new DBOTrashPurgeCheckpoint();
+				checkpoint.setId(rs.getLong(COL_TRASH_PURGE_CHECKPOINT_ID));
+				long nodeId = rs.getLong(COL_TRASH_PURGE_CHECKPOINT_NODE_ID);
+				checkpoint.setNodeId(rs.wasNull() ? null : nodeId);
+				checkpoint.setUpdatedOn(rs.getTimestamp(COL_TRASH_PURGE_CHECKPOINT_UPDATED_ON));
+				return checkpoint;
+			}
+
+			@Override
+			public String getTableName() {
+				return TABLE_TRASH_PURGE_CHECKPOINT;
+			}
+
+			@Override
+			public String getDDLFileName() {
+				return DDL_FILE_TRASH_PURGE_CHECKPOINT;
+			}
+
+			@Override
+			public FieldColumn[] getFieldColumns() {
+				return FIELDS;
+			}
+
+			@Override
+			public Class<? extends DBOTrashPurgeCheckpoint> getDBOClass() {
+				return DBOTrashPurgeCheckpoint.class;
+			}
+		};
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Long getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(Long nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public Timestamp getUpdatedOn() {
+		return updatedOn;
+	}
+
+	public void setUpdatedOn(Timestamp updatedOn) {
+		this.updatedOn = updatedOn;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((nodeId == null) ? 0 : nodeId.hashCode());
+		result = prime * result + ((updatedOn == null) ? 0 : updatedOn.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DBOTrashPurgeCheckpoint other = (DBOTrashPurgeCheckpoint) obj;
+		if (id == null) {
+			if (other.id != null)
+				return false;
+		} else if (!id.equals(other.id))
+			return false;
+		if (nodeId == null) {
+			if (other.nodeId != null)
+				return false;
+		} else if (!nodeId.equals(other.nodeId))
+			return false;
+		if (updatedOn == null) {
+			if (other.updatedOn != null)
+				return false;
+		} else if (!updatedOn.equals(other.updatedOn))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DBOTrashPurgeCheckpoint [id=" + id + ", nodeId=" + nodeId
+				+ ", updatedOn=" + updatedOn + "]";
+	}
+}
@@ -4,6 +4,7 @@ import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.*;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.sagebionetworks.repo.model.dbo.FieldColumn;
@@ -28,6 +29,7 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 		new FieldColumn("createdOn", COL_TABLE_ROW_CREATED_ON),
 		new FieldColumn("bucket", COL_TABLE_ROW_BUCKET),
 		new FieldColumn("key", COL_TABLE_ROW_KEY),
+		new FieldColumn("rowIdIndex", COL_TABLE_ROW_ID_INDEX),
 	};
 	
 	private Long tableId;
@@ -38,6 +40,7 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 	private Long createdOn;
 	private String bucket;
 	private String key;
+	private byte[] rowIdIndex;
 	
 	@Override
 	public TableMapping<DBOTableRowChange> getTableMapping() {
@@ -55,6 +58,10 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 				change.setCreatedOn(rs.getLong(COL_TABLE_ROW_CREATED_ON));
 				change.setBucket(rs.getString(COL_TABLE_ROW_BUCKET));
 				change.setKey(rs.getString(COL_TABLE_ROW_KEY));
+				java.sql.Blob blob = rs.getBlob(COL_TABLE_ROW_ID_INDEX);
+				if(blob != null){
+					change.setRowIdIndex(blob.getBytes(1, (int) blob.length()));
+				}
 				return change;
 			}
 
@@ -144,6 +151,18 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 		this.key = key;
 	}
 
+	/**
+	 * The encoded row IDs of this change (see RowIdIndex). Null for changes created before the index existed.
+	 * @return
+	 */
+	public byte[] getRowIdIndex() {
+		return rowIdIndex;
+	}
+
+	public void setRowIdIndex(byte[] rowIdIndex) {
+		this.rowIdIndex = rowIdIndex;
+	}
+
 	@Override
 	public MigrationType getMigratableTableType() {
 		return MigrationType.TABLE_CHANGE;
@@ -193,6 +212,7 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 				+ ((createdOn == null) ? 0 : createdOn.hashCode());
 		result = prime * result + ((etag == null) ? 0 : etag.hashCode());
 		result = prime * result + ((key == null) ? 0 : key.hashCode());
+		result = prime * result + Arrays.hashCode(rowIdIndex);
 		result = prime * result
 				+ ((rowVersion == null) ? 0 : rowVersion.hashCode());
 		result = prime * result + ((tableId == null) ? 0 : tableId.hashCode());
@@ -238,6 +258,8 @@ public class DBOTableRowChange implements MigratableDatabaseObject<DBOTableRowCh
 				return false;
 		} else if (!key.equals(other.key))
 			return false;
+		if (!Arrays.equals(rowIdIndex, other.rowIdIndex))
+			return false;
 		if (rowVersion == null) {
 			if (other.rowVersion != null)
 				return false;
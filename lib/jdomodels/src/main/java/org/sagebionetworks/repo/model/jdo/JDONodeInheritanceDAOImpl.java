@@ -1,13 +1,20 @@
 package org.sagebionetworks.repo.model.jdo;
 
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_BENEFACTOR_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_ETAG;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_ID;
+import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.COL_NODE_PARENT_ID;
 import static org.sagebionetworks.repo.model.query.jdo.SqlConstants.TABLE_NODE;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.repo.model.DatastoreException;
@@ -30,6 +37,22 @@ public class JDONodeInheritanceDAOImpl implements NodeInheritanceDAO {
 	private static final String SELECT_BENEFICIARIES = "SELECT "+COL_NODE_ID+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_BENEFACTOR_ID+" = ?";
 	private static final String SELECT_BENEFACTOR = "SELECT "+COL_NODE_BENEFACTOR_ID+" FROM "+TABLE_NODE+" WHERE "+COL_NODE_ID+" = ?";
 	
+	private static final String IDS_PARAM_NAME = "ids";
+	private static final String BENEFACTOR_PARAM_NAME = "benefactorId";
+	/**
+	 * The maximum number of IDs in a single IN clause.
+	 */
+	private static final int MAX_IDS_PER_QUERY = 1000;
+	private static final String SELECT_CHILDREN_BENEFACTORS = "SELECT "+COL_NODE_ID+", "+COL_NODE_BENEFACTOR_ID+" FROM "+TABLE_NODE+
+			" WHERE "+COL_NODE_PARENT_ID+" IN (:"+IDS_PARAM_NAME+")";
+	// UUID() is evaluated for each row so every node gets its own etag.
+	private static final String UPDATE_BENEFACTORS = "UPDATE "+TABLE_NODE+" SET "+COL_NODE_BENEFACTOR_ID+" = :"+BENEFACTOR_PARAM_NAME+", "+COL_NODE_ETAG+" = UUID()"+
+			" WHERE "+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+")";
+	private static final String SELECT_BENEFACTORS = "SELECT "+COL_NODE_ID+", "+COL_NODE_BENEFACTOR_ID+" FROM "+TABLE_NODE+
+			" WHERE "+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+")";
+	private static final String SELECT_PARENT_AND_ETAG = "SELECT "+COL_NODE_ID+", "+COL_NODE_PARENT_ID+", "+COL_NODE_ETAG+" FROM "+TABLE_NODE+
+			" WHERE "+COL_NODE_ID+" IN (:"+IDS_PARAM_NAME+")";
+	
 	@Autowired
 	DBOBasicDao dboBasicDao;
 	@Autowired
@@ -97,4 +120,78 @@ public class JDONodeInheritanceDAOImpl implements NodeInheritanceDAO {
 		dboBasicDao.update(beneficiary);
 	}
 
+	@Override
+	public Map<String, String> getChildrenBenefactors(Collection<String> parentIds) throws DatastoreException {
+		if(parentIds == null) throw new IllegalArgumentException("Parent IDs cannot be null");
+		return queryBenefactors(SELECT_CHILDREN_BENEFACTORS, parentIds);
+	}
+
+	@Override
+	public Map<String, String> getBenefactors(Collection<String> beneficiaryIds) throws DatastoreException {
+		if(beneficiaryIds == null) throw new IllegalArgumentException("Beneficiary IDs cannot be null");
+		return queryBenefactors(SELECT_BENEFACTORS, beneficiaryIds);
+	}
+
+	/**
+	 * Run a query that selects node IDs and benefactor IDs for the given IDs, in chunks of MAX_IDS_PER_QUERY.
+	 * @param sql
+	 * @param ids
+	 * @return
+	 */
+	private Map<String, String> queryBenefactors(String sql, Collection<String> ids) {
+		final Map<String, String> results = new HashMap<String, String>();
+		List<Long> keys = new ArrayList<Long>(ids.size());
+		for(String id: ids){
+			keys.add(KeyFactory.stringToKey(id));
+		}
+		for(int start=0; start<keys.size(); start+=MAX_IDS_PER_QUERY){
+			MapSqlParameterSource params = new MapSqlParameterSource();
+			params.addValue(IDS_PARAM_NAME, keys.subList(start, Math.min(start+MAX_IDS_PER_QUERY, keys.size())));
+			simpleJdbcTemplate.query(sql, new RowMapper<Void>(){
+				@Override
+				public Void mapRow(ResultSet rs, int rowNum) throws SQLException {
+					results.put(KeyFactory.keyToString(rs.getLong(COL_NODE_ID)), KeyFactory.keyToString(rs.getLong(COL_NODE_BENEFACTOR_ID)));
+					return null;
+				}}, params);
+		}
+		return results;
+	}
+
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public void addBeneficiaries(Collection<String> beneficiaryIds, String toBenefactorId) throws NotFoundException, DatastoreException {
+		if(beneficiaryIds == null) throw new IllegalArgumentException("Beneficiary IDs cannot be null");
+		DBONode benefactor = getNodeById(KeyFactory.stringToKey(toBenefactorId));
+		// We sort the IDs so concurrent updates lock the rows in the same order to prevent deadlock.
+		List<Long> sorted = new ArrayList<Long>(beneficiaryIds.size());
+		for(String beneficiaryId: beneficiaryIds){
+			sorted.add(KeyFactory.stringToKey(beneficiaryId));
+		}
+		Collections.sort(sorted);
+		for(int start=0; start<sorted.size(); start+=MAX_IDS_PER_QUERY){
+			List<Long> chunk = sorted.subList(start, Math.min(start+MAX_IDS_PER_QUERY, sorted.size()));
+			MapSqlParameterSource params = new MapSqlParameterSource();
+			params.addValue(IDS_PARAM_NAME, chunk);
+			params.addValue(BENEFACTOR_PARAM_NAME, benefactor.getId());
+			int updated = simpleJdbcTemplate.update(UPDATE_BENEFACTORS, params);
+			if(updated != chunk.size()){
+				throw new NotFoundException("Expected to update "+chunk.size()+" entities but only found "+updated);
+			}
+			// Read back the new etags to send a message for each node. See PLFM-1467 and PLFM-1517.
+			List<DBONode> nodes = simpleJdbcTemplate.query(SELECT_PARENT_AND_ETAG, new RowMapper<DBONode>(){
+				@Override
+				public DBONode mapRow(ResultSet rs, int rowNum) throws SQLException {
+					DBONode node = new DBONode();
+					node.setId(rs.getLong(COL_NODE_ID));
+					long parentId = rs.getLong(COL_NODE_PARENT_ID);
+					node.setParentId(rs.wasNull() ? null : parentId);
+					node.seteTag(rs.getString(COL_NODE_ETAG));
+					return node;
+				}}, params);
+			for(DBONode node: nodes){
+				tagMessenger.sendMessage(node, ChangeType.UPDATE);
+			}
+		}
+	}
+
 }
@@ -80,6 +80,23 @@ public class ChangeMessageUtils {
 		return dtoList;
 	}
 
+	/**
+	 * Create a message that the cached state of a principal has changed.
+	 * 
+	 * @param principalId
+	 * @param etag Can be null.
+	 * @param changeType
+	 * @return
+	 */
+	public static ChangeMessage createPrincipalMessage(String principalId, String etag, ChangeType changeType) {
+		ChangeMessage message = new ChangeMessage();
+		message.setChangeType(changeType);
+		message.setObjectType(ObjectType.PRINCIPAL);
+		message.setObjectId(principalId);
+		message.setObjectEtag(etag);
+		return message;
+	}
+
 	/**
 	 * Convert a database objects (DBOs) to a data transfer objects (DTOs).
 	 * @param dbo
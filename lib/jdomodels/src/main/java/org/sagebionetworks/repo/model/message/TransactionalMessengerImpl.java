@@ -206,6 +206,24 @@ public class TransactionalMessengerImpl implements TransactionalMessenger {
 		}
 	}
 
+	@Override
+	public void registerMessagesSent(List<Long> changeNumbers) {
+		try {
+			this.changeDAO.registerMessagesSent(changeNumbers);
+		} catch (DataIntegrityViolationException e) {
+			// At least one of the changes was deleted so register the rest one at a time.
+			for(Long changeNumber: changeNumbers){
+				try {
+					this.changeDAO.registerMessageSent(changeNumber);
+				} catch (DataIntegrityViolationException notFound) {
+					if(log.isDebugEnabled()){
+						log.debug("Change number: '"+changeNumber+"' does not exist");
+					}
+				}
+			}
+		}
+	}
+
 	@Override
 	public List<ChangeMessage> listUnsentMessages(long limit) {
 		return this.changeDAO.listUnsentMessages(limit);
@@ -134,6 +134,18 @@ public class SqlConstants {
 	public static final String COL_SENT_MESSAGES_TIME_STAMP			= "TIME_STAMP";
 	public static final String DDL_SENT_MESSAGES					= "schema/SentMessages-ddl.sql";
 
+	// Change watermarks
+	public static final String TABLE_CHANGE_WATERMARKS				= "CHANGE_WATERMARKS";
+	public static final String COL_CHANGE_WATERMARKS_NAME			= "NAME";
+	public static final String COL_CHANGE_WATERMARKS_CHANGE_NUM		= "CHANGE_NUM";
+	public static final String COL_CHANGE_WATERMARKS_TIME_STAMP		= "TIME_STAMP";
+	public static final String DDL_CHANGE_WATERMARKS				= "schema/ChangeWatermarks-ddl.sql";
+
+	// Change gaps
+	public static final String TABLE_CHANGE_GAPS					= "CHANGE_GAPS";
+	public static final String COL_CHANGE_GAPS_CHANGE_NUM			= "CHANGE_NUM";
+	public static final String DDL_CHANGE_GAPS						= "schema/ChangeGaps-ddl.sql";
+
  	// Processed messages
  	public static final String TABLE_PROCESSED_MESSAGES				= "PROCESSED_MESSAGES";
  	public static final String COL_PROCESSED_MESSAGES_CHANGE_NUM	= "CHANGE_NUM";
@@ -171,6 +183,14 @@ public class SqlConstants {
  	public static final String COL_MESSAGE_STATUS                   = "STATUS";
  	public static final String DDL_MESSAGE_STATUS                   = "schema/MessageStatus-ddl.sql";
  	
+ 	// Messages waiting to be delivered to a large number of recipients by a worker
+ 	public static final String TABLE_MESSAGE_FAN_OUT                = "MESSAGE_FAN_OUT";
+ 	public static final String COL_MESSAGE_FAN_OUT_MESSAGE_ID       = "MESSAGE_ID";
+ 	public static final String COL_MESSAGE_FAN_OUT_LAST_RECIPIENT_ID = "LAST_RECIPIENT_ID";
+ 	public static final String COL_MESSAGE_FAN_OUT_DELIVERED        = "DELIVERED";
+ 	public static final String COL_MESSAGE_FAN_OUT_UPDATED_ON       = "UPDATED_ON";
+ 	public static final String DDL_MESSAGE_FAN_OUT                  = "schema/MessageFanOut-ddl.sql";
+ 	
  	// Comment
  	public static final String TABLE_COMMENT                        = "COMMENT";
  	public static final String COL_COMMENT_MESSAGE_ID               = "MESSAGE_ID";
@@ -193,6 +213,15 @@ public class SqlConstants {
 	public static final String COL_FILES_KEY						= "KEY";
 	public static final String COL_FILES_NAME						= "NAME";
 	public static final String DDL_FILES							= "schema/Files-ddl.sql";
+	
+	// The storage usage rollups of the files table. The dimension columns have the same names as in the files table.
+	public static final String TABLE_STORAGE_USAGE_ROLLUP				= "STORAGE_USAGE_ROLLUP";
+	public static final String COL_STORAGE_USAGE_ROLLUP_CREATED_BY		= "CREATED_BY";
+	public static final String COL_STORAGE_USAGE_ROLLUP_METADATA_TYPE	= "METADATA_TYPE";
+	public static final String COL_STORAGE_USAGE_ROLLUP_CONTENT_TYPE	= "CONTENT_TYPE";
+	public static final String COL_STORAGE_USAGE_ROLLUP_TOTAL_SIZE		= "TOTAL_SIZE";
+	public static final String COL_STORAGE_USAGE_ROLLUP_FILE_COUNT		= "FILE_COUNT";
+	public static final String DDL_STORAGE_USAGE_ROLLUP					= "schema/StorageUsageRollup-ddl.sql";
 
 	// 
 	public static final String COL_STACK_STATUS_STATUS				= "STATUS";
@@ -322,6 +351,20 @@ public class SqlConstants {
 	public static final String COL_TRASH_CAN_PARENT_ID          = "PARENT_ID";
 	public static final String DDL_FILE_TRASH_CAN               = "schema/TrashCan-ddl.sql";
 	
+	// Where the trash worker left off purging the trash can
+	public static final String TABLE_TRASH_PURGE_CHECKPOINT     = "TRASH_PURGE_CHECKPOINT";
+	public static final String COL_TRASH_PURGE_CHECKPOINT_ID    = "ID";
+	public static final String COL_TRASH_PURGE_CHECKPOINT_NODE_ID     = "NODE_ID";
+	public static final String COL_TRASH_PURGE_CHECKPOINT_UPDATED_ON  = "UPDATED_ON";
+	public static final String DDL_FILE_TRASH_PURGE_CHECKPOINT  = "schema/TrashPurgeCheckpoint-ddl.sql";
+	
+	// The node lineage (closure) table
+	public static final String TABLE_NODE_LINEAGE				= "NODE_LINEAGE";
+	public static final String COL_NODE_LINEAGE_ANCESTOR_ID		= "ANCESTOR_ID";
+	public static final String COL_NODE_LINEAGE_DESCENDANT_ID	= "DESCENDANT_ID";
+	public static final String COL_NODE_LINEAGE_DISTANCE		= "DISTANCE";
+	public static final String DDL_FILE_NODE_LINEAGE			= "schema/NodeLineage-ddl.sql";
+	
 	// The wiki page table
 	public static final String TABLE_WIKI_PAGE				= "WIKI_PAGE";
 	public static final String COL_WIKI_ID					= "ID";
@@ -362,6 +405,7 @@ public class SqlConstants {
 	public static final String COL_TABLE_ROW_CREATED_ON		= "CREATED_ON";
 	public static final String COL_TABLE_ROW_BUCKET			= "S3_BUCKET";
 	public static final String COL_TABLE_ROW_KEY			= "S3_KEY";
+	public static final String COL_TABLE_ROW_ID_INDEX		= "ROW_ID_INDEX";
 	public static final String DDL_TABLE_ROW_CHANGE = "schema/TableRowChange-ddl.sql";
 	
 	// The bound column model table
@@ -0,0 +1,4 @@
+CREATE TABLE `CHANGE_GAPS` (
+  `CHANGE_NUM` bigint(20) NOT NULL,
+  PRIMARY KEY (`CHANGE_NUM`)
+);
\ No newline at end of file
@@ -0,0 +1,6 @@
+CREATE TABLE `CHANGE_WATERMARKS` (
+  `NAME` varchar(64) NOT NULL,
+  `CHANGE_NUM` bigint(20) NOT NULL,
+  `TIME_STAMP` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`NAME`)
+);
\ No newline at end of file
@@ -0,0 +1,8 @@
+CREATE TABLE `MESSAGE_FAN_OUT` (
+  `MESSAGE_ID` bigint(20) NOT NULL,
+  `LAST_RECIPIENT_ID` bigint(20) DEFAULT NULL,
+  `DELIVERED` bigint(20) NOT NULL,
+  `UPDATED_ON` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`MESSAGE_ID`),
+  CONSTRAINT `MESSAGE_FAN_OUT_MESSAGE_ID_FK` FOREIGN KEY (`MESSAGE_ID`) REFERENCES `MESSAGE_CONTENT` (`ID`) ON DELETE CASCADE
+)
\ No newline at end of file
@@ -0,0 +1,10 @@
+CREATE TABLE `NODE_LINEAGE` (
+  `ANCESTOR_ID`    bigint(20)   NOT NULL,
+  `DESCENDANT_ID`  bigint(20)   NOT NULL,
+  `DISTANCE`       int(11)      NOT NULL,
+  PRIMARY KEY (`ANCESTOR_ID`, `DESCENDANT_ID`),
+  UNIQUE KEY `NODE_LINEAGE_GENERATION_IDX` (`ANCESTOR_ID`, `DISTANCE`, `DESCENDANT_ID`),
+  KEY `NODE_LINEAGE_DESCENDANT_IDX` (`DESCENDANT_ID`, `DISTANCE`),
+  CONSTRAINT `NODE_LINEAGE_ANCESTOR_FK` FOREIGN KEY (`ANCESTOR_ID`) REFERENCES `JDONODE` (`ID`) ON DELETE CASCADE,
+  CONSTRAINT `NODE_LINEAGE_DESCENDANT_FK` FOREIGN KEY (`DESCENDANT_ID`) REFERENCES `JDONODE` (`ID`) ON DELETE CASCADE
+)
\ No newline at end of file
@@ -0,0 +1,8 @@
+CREATE TABLE `STORAGE_USAGE_ROLLUP` (
+  `CREATED_BY` bigint(20) NOT NULL,
+  `METADATA_TYPE` ENUM('S3', 'EXTERNAL', 'PREVIEW') NOT NULL,
+  `CONTENT_TYPE` varchar(256) CHARACTER SET latin1 COLLATE latin1_bin NOT NULL,
+  `TOTAL_SIZE` bigint(20) NOT NULL,
+  `FILE_COUNT` bigint(20) NOT NULL,
+  PRIMARY KEY (`CREATED_BY`, `METADATA_TYPE`, `CONTENT_TYPE`)
+)
\ No newline at end of file
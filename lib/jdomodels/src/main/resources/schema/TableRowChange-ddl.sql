@@ -7,6 +7,7 @@ CREATE TABLE `TABLE_ROW_CHANGE` (
   `CREATED_ON`  bigint(20)  NOT NULL,
   `S3_BUCKET`	varchar(256) CHARACTER SET latin1 COLLATE latin1_bin NOT NULL,
   `S3_KEY`		varchar(256) CHARACTER SET latin1 COLLATE latin1_bin NOT NULL,
+  `ROW_ID_INDEX`	mediumblob,
   PRIMARY KEY (`TABLE_ID`,`ROW_VERSION`),
   KEY `TRC_ETAG_INDEX` (`ETAG`),
   CONSTRAINT `TABLE_DEL_CREATED_BY_FK` FOREIGN KEY (`CREATED_BY`) REFERENCES `JDOUSERGROUP` (`ID`),
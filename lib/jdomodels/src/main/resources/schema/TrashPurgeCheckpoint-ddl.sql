@@ -0,0 +1,6 @@
+CREATE TABLE `TRASH_PURGE_CHECKPOINT` (
+	`ID`          bigint(20)    NOT NULL,
+	`NODE_ID`     bigint(20)    DEFAULT NULL,
+	`UPDATED_ON`  TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+	PRIMARY KEY (`ID`)
+)
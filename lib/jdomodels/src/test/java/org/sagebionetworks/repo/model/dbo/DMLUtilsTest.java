@@ -232,4 +232,25 @@ public class DMLUtilsTest {
 		assertEquals("INSERT IGNORE INTO SOME_TABLE(`ID`) VALUES (:id)", sql);
 	}
 	
+	@Test
+	public void testListByIdRangeWithSelfForeignKey(){
+		String sql = DMLUtils.listRowMetadataByIdRange(migrateableMappingSelfForeignKey);
+		assertNotNull(sql);
+		assertEquals("SELECT `ID`, `ETAG`, `PARENT_ID` FROM SOME_TABLE WHERE `ID` >= :BVMINID AND `ID` <= :BVMAXID ORDER BY `ID` ASC LIMIT :BCLIMIT", sql);
+	}
+	
+	@Test
+	public void testIdRangeChecksum(){
+		String sql = DMLUtils.getIdRangeChecksum(migrateableMappingSelfForeignKey);
+		assertNotNull(sql);
+		assertEquals("SELECT COUNT(`ID`), MIN(`ID`), MAX(`ID`), SUM(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL')))), BIT_XOR(CRC32(CONCAT(`ID`, '@', IFNULL(`ETAG`, 'NULL')))) FROM SOME_TABLE WHERE `ID` >= :BVMINID AND `ID` <= :BVMAXID", sql);
+	}
+	
+	@Test
+	public void testIdRangeChecksumNoEtag(){
+		String sql = DMLUtils.getIdRangeChecksum(migrateableMappingNoEtagNotSelfForeignKey);
+		assertNotNull(sql);
+		assertEquals("SELECT COUNT(`ID`), MIN(`ID`), MAX(`ID`), SUM(CRC32(`ID`)), BIT_XOR(CRC32(`ID`)) FROM SOME_TABLE WHERE `ID` >= :BVMINID AND `ID` <= :BVMAXID", sql);
+	}
+	
 }
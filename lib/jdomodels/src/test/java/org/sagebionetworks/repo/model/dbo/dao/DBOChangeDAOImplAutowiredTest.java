@@ -29,6 +29,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.ChangeMessageUtils;
 import org.sagebionetworks.repo.model.message.ChangeType;
@@ -44,6 +45,9 @@ public class DBOChangeDAOImplAutowiredTest {
 	@Autowired
 	ProcessedMessageDAO processedMessageDAO;
 	
+	@Autowired
+	DBOBasicDao basicDao;
+	
 	@Before
 	public void before(){
 		if(changeDAO != null){
@@ -378,6 +382,24 @@ public class DBOChangeDAOImplAutowiredTest {
 		assertEquals(0, unSent.size());
 	}
 	
+	@Test
+	public void testRegisterMessagesSentBatch(){
+		// Create a few messages.
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch  = changeDAO.replaceChange(batch);
+		List<Long> changeNumbers = new LinkedList<Long>();
+		changeNumbers.add(batch.get(0).getChangeNumber());
+		changeNumbers.add(batch.get(2).getChangeNumber());
+		changeDAO.registerMessagesSent(changeNumbers);
+		// Need to be able to register the same batch twice
+		changeDAO.registerMessagesSent(changeNumbers);
+		List<ChangeMessage> unSent = changeDAO.listUnsentMessages(3);
+		assertEquals(1, unSent.size());
+		assertEquals(batch.get(1).getChangeNumber(), unSent.get(0).getChangeNumber());
+		// An empty batch is a no-op
+		changeDAO.registerMessagesSent(new LinkedList<Long>());
+	}
+	
 	@Test
 	public void testRegisterProcessedAndListNotProcessed() throws Exception{
 		// Create msgs
@@ -412,6 +434,183 @@ public class DBOChangeDAOImplAutowiredTest {
 		assertEquals(2, notProcessed.size());
 	}
 	
+	@Test
+	public void testSentHighWaterMark(){
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, changeDAO.getSentHighWaterMark());
+		List<ChangeMessage> batch = createList(5, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		// Nothing has been sent so the watermark cannot move.
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, changeDAO.advanceSentHighWaterMark(0L));
+		// Send all but the third.
+		List<Long> changeNumbers = new LinkedList<Long>();
+		changeNumbers.add(batch.get(0).getChangeNumber());
+		changeNumbers.add(batch.get(1).getChangeNumber());
+		changeNumbers.add(batch.get(3).getChangeNumber());
+		changeNumbers.add(batch.get(4).getChangeNumber());
+		changeDAO.registerMessagesSent(changeNumbers);
+		// The watermark stops just before the first unsent change.
+		long watermark = changeDAO.advanceSentHighWaterMark(60*60*1000L);
+		assertEquals(batch.get(1).getChangeNumber().longValue(), watermark);
+		assertEquals(watermark, changeDAO.getSentHighWaterMark());
+		assertEquals(batch.get(2).getChangeNumber().longValue(), changeDAO.getUnsentScanStart());
+		assertEquals(watermark, changeDAO.advanceSentHighWaterMark(0L));
+		assertEquals(3, changeDAO.getCountGreaterThan(watermark));
+		List<ChangeMessage> unSent = changeDAO.listUnsentMessages(10);
+		assertEquals(1, unSent.size());
+		assertEquals(batch.get(2), unSent.get(0));
+		// Once the gap is sent the watermark moves to the last change.
+		changeDAO.registerMessageSent(batch.get(2).getChangeNumber());
+		watermark = changeDAO.advanceSentHighWaterMark(0L);
+		assertEquals(batch.get(4).getChangeNumber().longValue(), watermark);
+		assertEquals(0, changeDAO.listUnsentMessages(10).size());
+		// New changes are above the watermark.
+		ChangeMessage change = changeDAO.replaceChange(createList(1, ObjectType.ACTIVITY).get(0));
+		unSent = changeDAO.listUnsentMessages(10);
+		assertEquals(1, unSent.size());
+		assertEquals(change, unSent.get(0));
+		// Deleting all changes resets the watermark.
+		changeDAO.deleteAllChanges();
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, changeDAO.getSentHighWaterMark());
+	}
+	
+	@Test
+	public void testProcessedHighWaterMark(){
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		List<Long> changeNumbers = new LinkedList<Long>();
+		changeNumbers.add(batch.get(0).getChangeNumber());
+		changeNumbers.add(batch.get(1).getChangeNumber());
+		changeNumbers.add(batch.get(2).getChangeNumber());
+		changeDAO.registerMessagesSent(changeNumbers);
+		// Process all of the changes but the sent watermark has not moved.
+		for(Long changeNumber: changeNumbers){
+			processedMessageDAO.registerMessageProcessed(changeNumber, "Q1");
+		}
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, processedMessageDAO.advanceProcessedHighWaterMark("Q1"));
+		long sent = changeDAO.advanceSentHighWaterMark(0L);
+		assertEquals(batch.get(2).getChangeNumber().longValue(), sent);
+		assertEquals(sent, processedMessageDAO.advanceProcessedHighWaterMark("Q1"));
+		assertEquals(sent, processedMessageDAO.getProcessedHighWaterMark("Q1"));
+		assertEquals(0, processedMessageDAO.listNotProcessedMessages("Q1", 10).size());
+		// Another queue has its own watermark.
+		processedMessageDAO.registerMessageProcessed(batch.get(0).getChangeNumber(), "Q2");
+		processedMessageDAO.registerMessageProcessed(batch.get(2).getChangeNumber(), "Q2");
+		long processed = processedMessageDAO.advanceProcessedHighWaterMark("Q2");
+		assertEquals(batch.get(0).getChangeNumber().longValue(), processed);
+		List<ChangeMessage> notProcessed = processedMessageDAO.listNotProcessedMessages("Q2", 10);
+		assertEquals(1, notProcessed.size());
+		assertEquals(batch.get(1), notProcessed.get(0));
+	}
+
+	@Test
+	public void testGaps(){
+		// Create a set of changes with change numbers like:
+		// 0 _ 2 3
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		long hole = batch.get(1).getChangeNumber();
+		batch.add(changeDAO.replaceChange(batch.remove(1)));
+		List<Long> changeNumbers = new LinkedList<Long>();
+		for(ChangeMessage change: batch){
+			changeNumbers.add(change.getChangeNumber());
+			processedMessageDAO.registerMessageProcessed(change.getChangeNumber(), "Q1");
+		}
+		changeDAO.registerMessagesSent(changeNumbers);
+		// The watermark passes the young hole and keeps it as a gap.
+		long watermark = changeDAO.advanceSentHighWaterMark(60*60*1000L);
+		assertEquals(batch.get(2).getChangeNumber().longValue(), watermark);
+		assertEquals(hole, changeDAO.getUnsentScanStart());
+		assertEquals(0, changeDAO.listUnsentMessages(10).size());
+		// The processed watermark does not pass the gap.
+		assertEquals(hole - 1, processedMessageDAO.advanceProcessedHighWaterMark("Q1"));
+		// A change committed late in the gap is still found.
+		ChangeMessage late = createList(1, ObjectType.ACTIVITY).get(0);
+		late.setChangeNumber(hole);
+		late.setTimestamp(new Date());
+		basicDao.createNew(ChangeMessageUtils.createDBO(late));
+		List<ChangeMessage> unSent = changeDAO.listUnsentMessages(10);
+		assertEquals(1, unSent.size());
+		assertEquals(hole, unSent.get(0).getChangeNumber().longValue());
+		// A gap that was committed late does not expire until it is sent.
+		assertEquals(watermark, changeDAO.advanceSentHighWaterMark(0L));
+		assertEquals(hole, changeDAO.getUnsentScanStart());
+		changeDAO.registerMessageSent(hole);
+		processedMessageDAO.registerMessageProcessed(hole, "Q1");
+		// Once the changes above it are older than the timeout the gap expires.
+		assertEquals(watermark, changeDAO.advanceSentHighWaterMark(0L));
+		assertEquals(watermark + 1, changeDAO.getUnsentScanStart());
+		assertEquals(watermark, processedMessageDAO.advanceProcessedHighWaterMark("Q1"));
+	}
+	
+	@Test
+	public void testGapExpires(){
+		// Create a set of changes with change numbers like:
+		// 0 _ 2 3
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		long hole = batch.get(1).getChangeNumber();
+		batch.add(changeDAO.replaceChange(batch.remove(1)));
+		List<Long> changeNumbers = new LinkedList<Long>();
+		for(ChangeMessage change: batch){
+			changeNumbers.add(change.getChangeNumber());
+		}
+		changeDAO.registerMessagesSent(changeNumbers);
+		long watermark = changeDAO.advanceSentHighWaterMark(60*60*1000L);
+		assertEquals(hole, changeDAO.getUnsentScanStart());
+		// A hole that is never committed expires.
+		assertEquals(watermark, changeDAO.advanceSentHighWaterMark(0L));
+		assertEquals(watermark + 1, changeDAO.getUnsentScanStart());
+	}
+	
+	@Test
+	public void testLowerWatermarks(){
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		List<Long> changeNumbers = new LinkedList<Long>();
+		for(ChangeMessage change: batch){
+			changeNumbers.add(change.getChangeNumber());
+			processedMessageDAO.registerMessageProcessed(change.getChangeNumber(), "Q1");
+		}
+		changeDAO.registerMessagesSent(changeNumbers);
+		changeDAO.advanceSentHighWaterMark(0L);
+		processedMessageDAO.advanceProcessedHighWaterMark("Q1");
+		long lowered = batch.get(0).getChangeNumber();
+		changeDAO.lowerWatermarks(lowered);
+		assertEquals(lowered, changeDAO.getSentHighWaterMark());
+		assertEquals(lowered, processedMessageDAO.getProcessedHighWaterMark("Q1"));
+		// Watermarks that are already lower do not move.
+		changeDAO.lowerWatermarks(lowered + 1);
+		assertEquals(lowered, changeDAO.getSentHighWaterMark());
+	}
+
+	@Test
+	public void testListNotProcessedFromWatermark(){
+		List<ChangeMessage> batch = createList(3, ObjectType.ENTITY);
+		batch = changeDAO.replaceChange(batch);
+		List<Long> changeNumbers = new LinkedList<Long>();
+		for(ChangeMessage change: batch){
+			changeNumbers.add(change.getChangeNumber());
+		}
+		changeDAO.registerMessagesSent(changeNumbers);
+		changeDAO.advanceSentHighWaterMark(0L);
+		processedMessageDAO.registerMessageProcessed(batch.get(0).getChangeNumber(), "Q1");
+		processedMessageDAO.registerMessageProcessed(batch.get(1).getChangeNumber(), "Q1");
+		// Listing does not move the watermark.
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, processedMessageDAO.getProcessedHighWaterMark("Q1"));
+		assertEquals(1, processedMessageDAO.listNotProcessedMessages("Q1", 10).size());
+		assertEquals(DBOChangeDAOImpl.NO_WATERMARK, processedMessageDAO.getProcessedHighWaterMark("Q1"));
+		// The watermark moves up to the first change that has not been processed.
+		processedMessageDAO.advanceProcessedHighWaterMark("Q1");
+		List<ChangeMessage> notProcessed = processedMessageDAO.listNotProcessedMessages("Q1", 10);
+		assertEquals(1, notProcessed.size());
+		assertEquals(batch.get(2), notProcessed.get(0));
+		assertEquals(batch.get(1).getChangeNumber().longValue(), processedMessageDAO.getProcessedHighWaterMark("Q1"));
+		processedMessageDAO.registerMessageProcessed(batch.get(2).getChangeNumber(), "Q1");
+		processedMessageDAO.advanceProcessedHighWaterMark("Q1");
+		assertEquals(0, processedMessageDAO.listNotProcessedMessages("Q1", 10).size());
+		assertEquals(batch.get(2).getChangeNumber().longValue(), processedMessageDAO.getProcessedHighWaterMark("Q1"));
+	}
+	
 	@Test
 	public void testListUnsentRange() {
 		// Create a set of changes with change numbers like:
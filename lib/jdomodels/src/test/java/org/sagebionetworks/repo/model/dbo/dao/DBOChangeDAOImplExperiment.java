@@ -126,6 +126,50 @@ public class DBOChangeDAOImplExperiment {
 		System.out.println(System.currentTimeMillis() - start);
 	}
 
+	/**
+	 * Register all but the newest 1% of the changes as sent, like a stack with a long history and a small backlog.
+	 */
+	@Ignore
+	@Test
+	public void testSetupSentHistory() {
+		final long start = System.currentTimeMillis();
+		long next = changeDAO.getMinimumChangeNumber();
+		final long max = changeDAO.getCurrentChangeNumber();
+		final long last = max - (max - next) / 100;
+		while (next <= last) {
+			List<ChangeMessage> page = changeDAO.listChanges(next, null, 1000);
+			List<Long> changeNumbers = new ArrayList<Long>(page.size());
+			for (ChangeMessage change : page) {
+				if (change.getChangeNumber() <= last) {
+					changeNumbers.add(change.getChangeNumber());
+				}
+			}
+			changeDAO.registerMessagesSent(changeNumbers);
+			if (page.size() < 1000) {
+				break;
+			}
+			next = page.get(page.size() - 1).getChangeNumber() + 1;
+		}
+		System.out.println("Time taken to register the sent history:");
+		System.out.println(System.currentTimeMillis() - start);
+	}
+
+	@Ignore
+	@Test
+	@Repeat(10)
+	public void testTimeAdvanceWatermarkAndFetch() {
+		final long start = System.currentTimeMillis();
+		long watermark = changeDAO.advanceSentHighWaterMark(0L);
+		final long doneAdvance = System.currentTimeMillis();
+		
+		changeDAO.listUnsentMessages(10000);
+		
+		System.out.println("Time taken to advance the sent watermark to " + watermark + ":");
+		System.out.println(doneAdvance - start);
+		System.out.println("Time taken to fetch unsent messages above the watermark:");
+		System.out.println(System.currentTimeMillis() - doneAdvance);
+	}
+
 	@Ignore
 	@Test
 	@Repeat(10)
@@ -3,8 +3,13 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -14,14 +19,21 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.sagebionetworks.StackConfiguration;
 import org.sagebionetworks.ids.NamedIdGenerator;
 import org.sagebionetworks.repo.model.AuthorizationConstants;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.GroupMembersDAO;
+import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.UserGroup;
 import org.sagebionetworks.repo.model.UserGroupDAO;
 import org.sagebionetworks.repo.model.dbo.DBOBasicDao;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
+import org.sagebionetworks.repo.model.message.TransactionalMessengerObserver;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -45,6 +57,9 @@ public class DBOGroupMembersDAOImplTest {
 	@Autowired
 	private NamedIdGenerator idGenerator;
 	
+	@Autowired
+	private TransactionalMessenger transactionalMessenger;
+	
 	private List<String> groupsToDelete;
 	
 	private UserGroup testGroup;
@@ -131,6 +146,36 @@ public class DBOGroupMembersDAOImplTest {
 		assertTrue("Etag must have changed", !testGroup.getEtag().equals(updatedTestGroup.getEtag()));
 	}
 	
+	@Test
+	public void testMembershipMessages() throws Exception {
+		TransactionalMessengerObserver mockObserver = Mockito.mock(TransactionalMessengerObserver.class);
+		transactionalMessenger.registerObserver(mockObserver);
+		try {
+			// Touching a principal does not change what is cached for it
+			userGroupDAO.touch(testUserOne.getId());
+			verify(mockObserver, never()).fireChangeMessage(any(ChangeMessage.class));
+			
+			List<String> adder = new ArrayList<String>();
+			adder.add(testUserOne.getId());
+			groupMembersDAO.addMembers(testGroup.getId(), adder);
+			ArgumentCaptor<ChangeMessage> captor = ArgumentCaptor.forClass(ChangeMessage.class);
+			verify(mockObserver, times(2)).fireChangeMessage(captor.capture());
+			Set<String> principalIds = new HashSet<String>();
+			for (ChangeMessage message : captor.getAllValues()) {
+				assertEquals(ObjectType.PRINCIPAL, message.getObjectType());
+				assertEquals(ChangeType.UPDATE, message.getChangeType());
+				// An UPDATE cannot be recorded without the principal's etag
+				assertEquals(userGroupDAO.getEtagForUpdate(message.getObjectId()), message.getObjectEtag());
+				principalIds.add(message.getObjectId());
+			}
+			// The new member does not have the group yet so it gets its own message
+			assertTrue(principalIds.contains(testUserOne.getId()));
+			assertTrue(principalIds.contains(testGroup.getId()));
+		} finally {
+			transactionalMessenger.removeObserver(mockObserver);
+		}
+	}
+	
 	@Test(expected=IllegalArgumentException.class)
 	public void testAddGroupToGroup() throws Exception {
 		List<String> adder = new ArrayList<String>();
@@ -216,4 +261,41 @@ public class DBOGroupMembersDAOImplTest {
 		assertEquals(1, testUsers.size());
 		assertEquals(AuthorizationConstants.TEST_USER_NAME, testUsers.get(0).getName());
 	}
+	
+	@Test
+	public void testGetMemberIds() throws Exception {
+		UserGroup otherGroup = createTestGroup("" + UUID.randomUUID(), false);
+		List<String> adder = new ArrayList<String>();
+		adder.add(testUserOne.getId());
+		adder.add(testUserTwo.getId());
+		groupMembersDAO.addMembers(testGroup.getId(), adder);
+		adder.clear();
+		adder.add(testUserTwo.getId());
+		adder.add(testUserThree.getId());
+		groupMembersDAO.addMembers(otherGroup.getId(), adder);
+		
+		// Empty list should work
+		assertEquals(0, groupMembersDAO.getMemberIds(new ArrayList<String>()).size());
+		
+		// Members of both groups are returned once
+		List<String> groupIds = new ArrayList<String>();
+		groupIds.add(testGroup.getId());
+		groupIds.add(otherGroup.getId());
+		Set<String> expected = new HashSet<String>();
+		expected.add(testUserOne.getId());
+		expected.add(testUserTwo.getId());
+		expected.add(testUserThree.getId());
+		assertEquals(expected, groupMembersDAO.getMemberIds(groupIds));
+		
+		// The same members are read a page at a time in ascending order
+		assertEquals(0, groupMembersDAO.getMemberIdsAfter(new ArrayList<String>(), -1L, 10L).size());
+		List<Long> sorted = new ArrayList<Long>();
+		for (String id : expected) {
+			sorted.add(Long.parseLong(id));
+		}
+		Collections.sort(sorted);
+		assertEquals(sorted, groupMembersDAO.getMemberIdsAfter(groupIds, -1L, 10L));
+		assertEquals(sorted.subList(0, 2), groupMembersDAO.getMemberIdsAfter(groupIds, -1L, 2L));
+		assertEquals(sorted.subList(2, 3), groupMembersDAO.getMemberIdsAfter(groupIds, sorted.get(1), 2L));
+	}
 }
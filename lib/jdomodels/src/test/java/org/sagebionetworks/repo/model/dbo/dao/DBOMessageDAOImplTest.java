@@ -3,7 +3,10 @@ package org.sagebionetworks.repo.model.dbo.dao;
 import static junit.framework.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +28,7 @@ import org.sagebionetworks.repo.model.message.MessageBundle;
 import org.sagebionetworks.repo.model.message.MessageSortBy;
 import org.sagebionetworks.repo.model.message.MessageStatusType;
 import org.sagebionetworks.repo.model.message.MessageToUser;
+import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.test.context.ContextConfiguration;
@@ -241,4 +245,53 @@ public class DBOMessageDAOImplTest {
 		assertEquals(MessageStatusType.UNREAD, messages.get(0).getStatus().getStatus());
 		assertEquals(MessageStatusType.UNREAD, messages.get(1).getStatus().getStatus());
 	}
+	
+	@SuppressWarnings("serial")
+	@Test
+	public void testCreateMessageStatusBatch() throws Exception {
+		MessageToUser userToUserAndGroupAgain = createMessage(maliciousUser.getId(), "userToUserAndGroupAgain", 
+				new HashSet<String>() {{add(maliciousUser.getId()); add(maliciousGroup.getId());}}, null);
+		
+		// Empty batch should work
+		messageDAO.createMessageStatusBatch(userToUserAndGroupAgain.getId(), new ArrayList<String>());
+		
+		List<String> recipients = new ArrayList<String>();
+		recipients.add(maliciousUser.getId());
+		recipients.add(maliciousGroup.getId());
+		messageDAO.createMessageStatusBatch(userToUserAndGroupAgain.getId(), recipients);
+		// Delivery can be retried
+		messageDAO.createMessageStatusBatch(userToUserAndGroupAgain.getId(), recipients);
+		
+		assertEquals("User has 4 messages", 4L, messageDAO.getNumReceivedMessages(maliciousUser.getId(), unreadMessageInboxFilter));
+		assertEquals("Group has 4 messages", 4L, messageDAO.getNumReceivedMessages(maliciousGroup.getId(), unreadMessageInboxFilter));
+	}
+	
+	@Test
+	public void testFanOut() throws Exception {
+		String messageId = userToUser.getId();
+		assertEquals(0, messageDAO.getPendingFanOuts(10).size());
+		
+		messageDAO.createFanOut(messageId);
+		// Creating it again is harmless
+		messageDAO.createFanOut(messageId);
+		assertEquals(Arrays.asList(messageId), messageDAO.getPendingFanOuts(10));
+		assertNull(messageDAO.getFanOutResumePoint(messageId));
+		assertEquals(0L, messageDAO.getFanOutDelivered(messageId));
+		
+		// The resume point moves to the largest recipient in each batch
+		messageDAO.createFanOutBatch(messageId, Arrays.asList(maliciousGroup.getId(), maliciousUser.getId()));
+		Long largest = Math.max(Long.parseLong(maliciousGroup.getId()), Long.parseLong(maliciousUser.getId()));
+		assertEquals(largest, messageDAO.getFanOutResumePoint(messageId));
+		assertEquals(2L, messageDAO.getFanOutDelivered(messageId));
+		assertEquals("Group has 4 messages", 4L, messageDAO.getNumReceivedMessages(maliciousGroup.getId(), unreadMessageInboxFilter));
+		
+		messageDAO.deleteFanOut(messageId);
+		assertEquals(0, messageDAO.getPendingFanOuts(10).size());
+		try {
+			messageDAO.getFanOutResumePoint(messageId);
+			fail();
+		} catch (NotFoundException e) {
+			// Expected
+		}
+	}
 }
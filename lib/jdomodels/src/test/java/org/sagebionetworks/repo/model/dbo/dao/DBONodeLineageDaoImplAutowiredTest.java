@@ -0,0 +1,291 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sagebionetworks.repo.model.AuthorizationConstants;
+import org.sagebionetworks.repo.model.Node;
+import org.sagebionetworks.repo.model.NodeDAO;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
+import org.sagebionetworks.repo.model.UserGroupDAO;
+import org.sagebionetworks.repo.model.jdo.KeyFactory;
+import org.sagebionetworks.repo.model.jdo.NodeTestUtils;
+import org.sagebionetworks.repo.web.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:jdomodels-test-context.xml" })
+public class DBONodeLineageDaoImplAutowiredTest {
+
+	static private Logger log = LogManager.getLogger(DBONodeLineageDaoImplAutowiredTest.class);
+
+	@Autowired
+	private NodeDAO nodeDao;
+
+	@Autowired
+	private NodeLineageDAO nodeLineageDao;
+
+	@Autowired
+	private UserGroupDAO userGroupDAO;
+
+	private Long creatorUserGroupId;
+
+	// Children are deleted before their parents
+	private LinkedList<String> toDelete;
+
+	@Before
+	public void before() throws Exception {
+		creatorUserGroupId = Long.parseLong(userGroupDAO.findGroup(AuthorizationConstants.BOOTSTRAP_USER_GROUP_NAME, false).getId());
+		assertNotNull(creatorUserGroupId);
+		toDelete = new LinkedList<String>();
+	}
+
+	@After
+	public void after() throws Exception {
+		if (nodeDao != null && toDelete != null) {
+			for (String id : toDelete) {
+				try {
+					nodeDao.delete(id);
+				} catch (NotFoundException e) {
+					// happens if a parent was deleted first.
+				}
+			}
+		}
+	}
+
+	private Long createNode(String name, Long parentId) throws Exception {
+		Node node;
+		if (parentId == null) {
+			node = NodeTestUtils.createNew(name, creatorUserGroupId);
+		} else {
+			node = NodeTestUtils.createNew(name, creatorUserGroupId, KeyFactory.keyToString(parentId));
+		}
+		String id = nodeDao.createNew(node);
+		toDelete.addFirst(id);
+		// The node tree worker adds the lineage when it gets the change message
+		Long key = KeyFactory.stringToKey(id);
+		assertTrue(nodeLineageDao.syncNode(key));
+		return key;
+	}
+
+	@Test
+	public void testNodeDaoDoesNotWriteLineage() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		String id = nodeDao.createNew(NodeTestUtils.createNew("child", creatorUserGroupId, KeyFactory.keyToString(root)));
+		toDelete.addFirst(id);
+		Long child = KeyFactory.stringToKey(id);
+		assertFalse(nodeLineageDao.doesNodeExist(child));
+		assertTrue(nodeLineageDao.syncNode(child));
+		assertEquals(root, nodeLineageDao.getParent(child));
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long child = createNode("child", root);
+		Long grandChild = createNode("grandChild", child);
+
+		assertTrue(nodeLineageDao.doesNodeExist(root));
+		assertEquals(Collections.emptyList(), nodeLineageDao.getAncestors(root));
+		assertNull(nodeLineageDao.getParent(root));
+
+		assertEquals(Arrays.asList(root), nodeLineageDao.getAncestors(child));
+		assertEquals(root, nodeLineageDao.getParent(child));
+		assertEquals(Arrays.asList(root, child), nodeLineageDao.getAncestors(grandChild));
+		assertEquals(child, nodeLineageDao.getParent(grandChild));
+
+		assertEquals(Arrays.asList(child, grandChild), nodeLineageDao.getDescendants(root, 10, null));
+		assertEquals(Arrays.asList(child), nodeLineageDao.getDescendants(root, 1, 10, null));
+		assertEquals(Arrays.asList(grandChild), nodeLineageDao.getDescendants(root, 2, 10, null));
+		assertEquals(Collections.emptyList(), nodeLineageDao.getDescendants(grandChild, 10, null));
+	}
+
+	@Test
+	public void testPaging() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		List<Long> expected = new ArrayList<Long>();
+		List<Long> children = new ArrayList<Long>();
+		for (int i = 0; i < 3; i++) {
+			Long child = createNode("child" + i, root);
+			children.add(child);
+			expected.add(child);
+		}
+		List<Long> grandChildren = new ArrayList<Long>();
+		for (Long child : children) {
+			for (int i = 0; i < 2; i++) {
+				grandChildren.add(createNode("grandChild" + i, child));
+			}
+		}
+		Collections.sort(grandChildren);
+		expected.addAll(grandChildren);
+
+		// Page size 2 crosses the boundary between the generations
+		List<Long> results = new ArrayList<Long>();
+		Long last = null;
+		List<Long> page;
+		do {
+			page = nodeLineageDao.getDescendants(root, 2, last);
+			assertTrue(page.size() <= 2);
+			results.addAll(page);
+			if (!page.isEmpty()) {
+				last = page.get(page.size() - 1);
+			}
+		} while (page.size() == 2);
+		assertEquals(expected, results);
+
+		// One generation
+		List<Long> generation = nodeLineageDao.getDescendants(root, 2, 4, null);
+		assertEquals(grandChildren.subList(0, 4), generation);
+		generation = nodeLineageDao.getDescendants(root, 2, 4, generation.get(3));
+		assertEquals(grandChildren.subList(4, 6), generation);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPagingNotDescendant() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long other = createNode("otherRoot", null);
+		nodeLineageDao.getDescendants(root, 10, other);
+	}
+
+	@Test
+	public void testMove() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long a = createNode("a", root);
+		Long b = createNode("b", root);
+		Long aChild = createNode("aChild", a);
+		Long aGrandChild = createNode("aGrandChild", aChild);
+
+		assertTrue(nodeDao.changeNodeParent(KeyFactory.keyToString(aChild), KeyFactory.keyToString(b)));
+		assertTrue(nodeLineageDao.syncNode(aChild));
+
+		assertEquals(Arrays.asList(root, b), nodeLineageDao.getAncestors(aChild));
+		assertEquals(Arrays.asList(root, b, aChild), nodeLineageDao.getAncestors(aGrandChild));
+		assertEquals(Collections.emptyList(), nodeLineageDao.getDescendants(a, 10, null));
+		assertEquals(Arrays.asList(aChild, aGrandChild), nodeLineageDao.getDescendants(b, 10, null));
+		assertEquals(Arrays.asList(aGrandChild), nodeLineageDao.getDescendants(root, 3, 10, null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMoveUnderDescendant() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long a = createNode("a", root);
+		Long aChild = createNode("aChild", a);
+		nodeLineageDao.moveNode(a, aChild);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long child = createNode("child", root);
+		Long grandChild = createNode("grandChild", child);
+		nodeDao.delete(KeyFactory.keyToString(child));
+		assertFalse(nodeLineageDao.doesNodeExist(child));
+		assertFalse(nodeLineageDao.doesNodeExist(grandChild));
+		assertEquals(Collections.emptyList(), nodeLineageDao.getDescendants(root, 10, null));
+	}
+
+	@Test
+	public void testSyncNode() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long a = createNode("a", root);
+		Long b = createNode("b", root);
+		Long child = createNode("child", a);
+		assertTrue(nodeDao.changeNodeParent(KeyFactory.keyToString(child), KeyFactory.keyToString(b)));
+		// The lineage is out of date until the move is synchronized
+		assertEquals(a, nodeLineageDao.getParent(child));
+
+		assertTrue(nodeLineageDao.syncNode(child));
+		assertEquals(b, nodeLineageDao.getParent(child));
+		assertEquals(Arrays.asList(root, b), nodeLineageDao.getAncestors(child));
+		// Already current
+		assertTrue(nodeLineageDao.syncNode(child));
+		assertEquals(Arrays.asList(root, b), nodeLineageDao.getAncestors(child));
+
+		nodeDao.delete(KeyFactory.keyToString(child));
+		assertFalse(nodeLineageDao.syncNode(child));
+		assertFalse(nodeLineageDao.doesNodeExist(child));
+	}
+
+	@Test
+	public void testRebuild() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long child = createNode("child", root);
+		Long grandChild = createNode("grandChild", child);
+		List<Long> descendants = nodeLineageDao.getDescendants(root, 10, null);
+		List<Long> ancestors = nodeLineageDao.getAncestors(grandChild);
+
+		assertTrue(nodeLineageDao.rebuild() > 0);
+
+		assertEquals(descendants, nodeLineageDao.getDescendants(root, 10, null));
+		assertEquals(ancestors, nodeLineageDao.getAncestors(grandChild));
+	}
+
+	/**
+	 * Times the queries on a wide and deep tree. The numbers are only
+	 * logged, the build machines are too different to assert on them.
+	 */
+	@Test
+	public void testQueryLatency() throws Exception {
+		Long root = createNode("lineageRoot", null);
+		Long parent = root;
+		Long deepest = root;
+		int depth = 10;
+		int width = 20;
+		for (int level = 0; level < depth; level++) {
+			Long next = null;
+			for (int i = 0; i < width; i++) {
+				Long child = createNode("node" + level + "-" + i, parent);
+				if (next == null) {
+					next = child;
+				}
+			}
+			parent = next;
+			deepest = next;
+		}
+		int total = depth * width;
+		int rounds = 100;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			assertEquals(depth, nodeLineageDao.getAncestors(deepest).size());
+		}
+		long ancestorNS = (System.nanoTime() - start) / rounds;
+
+		start = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < rounds; i++) {
+			count = 0;
+			Long last = null;
+			List<Long> page;
+			do {
+				page = nodeLineageDao.getDescendants(root, 25, last);
+				count += page.size();
+				if (!page.isEmpty()) {
+					last = page.get(page.size() - 1);
+				}
+			} while (page.size() == 25);
+		}
+		long pagingNS = (System.nanoTime() - start) / rounds;
+		assertEquals(total, count);
+
+		log.debug("Node lineage with " + total + " nodes: getAncestors() " + ancestorNS / 1000
+				+ " us, all descendants in pages of 25 " + pagingNS / 1000 + " us");
+	}
+}
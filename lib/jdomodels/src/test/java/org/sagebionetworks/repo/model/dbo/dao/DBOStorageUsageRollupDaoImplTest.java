@@ -0,0 +1,103 @@
+package org.sagebionetworks.repo.model.dbo.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sagebionetworks.repo.model.AuthorizationConstants;
+import org.sagebionetworks.repo.model.StorageUsageQueryDao;
+import org.sagebionetworks.repo.model.UserGroupDAO;
+import org.sagebionetworks.repo.model.dao.FileHandleDao;
+import org.sagebionetworks.repo.model.dao.StorageUsageRollupDao;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:jdomodels-test-context.xml" })
+public class DBOStorageUsageRollupDaoImplTest {
+
+	@Autowired
+	private StorageUsageRollupDao storageUsageRollupDao;
+
+	@Autowired
+	private StorageUsageQueryDao storageUsageQueryDao;
+
+	@Autowired
+	private FileHandleDao fileHandleDao;
+
+	@Autowired
+	private UserGroupDAO userGroupDAO;
+
+	private String userId;
+
+	private List<String> toDelete;
+
+	@Before
+	public void before(){
+		assertNotNull(storageUsageRollupDao);
+		userId = userGroupDAO.findGroup(AuthorizationConstants.BOOTSTRAP_USER_GROUP_NAME, false).getId();
+		assertNotNull(userId);
+		toDelete = new ArrayList<String>();
+		// Start from consistent rollups
+		storageUsageRollupDao.reconcile();
+	}
+
+	@After
+	public void after(){
+		for(String id: toDelete){
+			fileHandleDao.delete(id);
+		}
+	}
+
+	@Test
+	public void testCreateAndDelete() throws Exception {
+		final long size = storageUsageQueryDao.getTotalSizeForUser(userId);
+		final long count = storageUsageQueryDao.getTotalCountForUser(userId);
+
+		S3FileHandle s3 = TestUtils.createS3FileHandle(userId, 30);
+		s3 = fileHandleDao.createFile(s3);
+		toDelete.add(s3.getId());
+		S3FileHandle noContentType = TestUtils.createS3FileHandle(userId, 20, null);
+		noContentType = fileHandleDao.createFile(noContentType);
+		toDelete.add(noContentType.getId());
+		assertEquals(size + 50, storageUsageQueryDao.getTotalSizeForUser(userId).longValue());
+		assertEquals(count + 2, storageUsageQueryDao.getTotalCountForUser(userId).longValue());
+
+		fileHandleDao.delete(s3.getId());
+		assertEquals(size + 20, storageUsageQueryDao.getTotalSizeForUser(userId).longValue());
+		assertEquals(count + 1, storageUsageQueryDao.getTotalCountForUser(userId).longValue());
+
+		// The rollups were maintained with the files so there is nothing to correct
+		assertEquals(0L, storageUsageRollupDao.reconcile());
+	}
+
+	@Test
+	public void testReconcile() throws Exception {
+		final long size = storageUsageQueryDao.getTotalSizeForUser(userId);
+		final long count = storageUsageQueryDao.getTotalCountForUser(userId);
+
+		// Drift the rollups away from the files
+		storageUsageRollupDao.addFile(Long.parseLong(userId), "S3", "drift", 100L);
+		storageUsageRollupDao.removeFile(Long.parseLong(userId), "S3", null, 0L);
+		assertEquals(size + 100, storageUsageQueryDao.getTotalSizeForUser(userId).longValue());
+
+		assertTrue(storageUsageRollupDao.reconcile() > 0L);
+		assertEquals(size, storageUsageQueryDao.getTotalSizeForUser(userId).longValue());
+		assertEquals(count, storageUsageQueryDao.getTotalCountForUser(userId).longValue());
+		assertEquals(0L, storageUsageRollupDao.reconcile());
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testAddFileNullUser() throws Exception {
+		storageUsageRollupDao.addFile(null, "S3", "text/plain", 1L);
+	}
+}
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -204,6 +206,54 @@ public class DBOTrashCanDaoImplAutowiredTest {
 		assertNull(trash);
 	}
 
+	@Test
+	public void testPurgePages() throws Exception {
+
+		final String nodeId1 = KeyFactory.keyToString(555L);
+		final String nodeId2 = KeyFactory.keyToString(666L);
+		final String nodeId3 = KeyFactory.keyToString(777L);
+		final String parentId = KeyFactory.keyToString(5L);
+		trashCanDao.create(userId, nodeId2, "DBOTrashCanDaoImplAutowiredTest.testPurgePages() 2", parentId);
+		trashCanDao.create(userId, nodeId1, "DBOTrashCanDaoImplAutowiredTest.testPurgePages() 1", parentId);
+		trashCanDao.create(userId, nodeId3, "DBOTrashCanDaoImplAutowiredTest.testPurgePages() 3", parentId);
+
+		Timestamp past = new Timestamp(System.currentTimeMillis() - 60000L);
+		assertEquals(0, trashCanDao.getTrashLeavesBefore(past, null, 10L).size());
+		assertEquals(0, trashCanDao.getTrashBefore(past, 10L).size());
+
+		// None of the nodes have children so they are all leaves, in descending order
+		Timestamp future = new Timestamp(System.currentTimeMillis() + 60000L);
+		List<TrashedEntity> trashList = trashCanDao.getTrashLeavesBefore(future, null, 2L);
+		assertEquals(2, trashList.size());
+		assertEquals(nodeId3, trashList.get(0).getEntityId());
+		assertEquals(nodeId2, trashList.get(1).getEntityId());
+		trashList = trashCanDao.getTrashLeavesBefore(future, 666L, 10L);
+		assertEquals(1, trashList.size());
+		assertEquals(nodeId1, trashList.get(0).getEntityId());
+		trashList = trashCanDao.getTrashBefore(future, 10L);
+		assertEquals(3, trashList.size());
+		assertEquals(nodeId3, trashList.get(0).getEntityId());
+		assertEquals(nodeId1, trashList.get(2).getEntityId());
+
+		trashCanDao.delete(new ArrayList<String>());
+		trashCanDao.delete(Arrays.asList(nodeId3, nodeId1));
+		trashList = trashCanDao.getInRange(0L, 100L);
+		assertEquals(1, trashList.size());
+		assertEquals(nodeId2, trashList.get(0).getEntityId());
+	}
+
+	@Test
+	public void testPurgeCheckpoint() throws Exception {
+		trashCanDao.setPurgeCheckpoint(null);
+		assertNull(trashCanDao.getPurgeCheckpoint());
+		trashCanDao.setPurgeCheckpoint(666L);
+		assertEquals(new Long(666L), trashCanDao.getPurgeCheckpoint());
+		trashCanDao.setPurgeCheckpoint(555L);
+		assertEquals(new Long(555L), trashCanDao.getPurgeCheckpoint());
+		trashCanDao.setPurgeCheckpoint(null);
+		assertNull(trashCanDao.getPurgeCheckpoint());
+	}
+
 	private void clear() throws Exception {
 		List<TrashedEntity> trashList = trashCanDao.getInRangeForUser(userId, 0L, Long.MAX_VALUE);
 		for (TrashedEntity trash : trashList) {
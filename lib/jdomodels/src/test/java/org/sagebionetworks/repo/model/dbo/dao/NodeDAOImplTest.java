@@ -1888,6 +1888,44 @@ public class NodeDAOImplTest {
 		assertTrue(refs.contains(refN2));
 	}
 	
+	@Test
+	public void testGetNodesAnnotationsAndPaths() throws Exception {
+		Node node = privateCreateNew("parent");
+		node.setNodeType(EntityType.project.name());
+		String parentId = nodeDao.createNew(node);
+		toDelete.add(parentId);
+		node = privateCreateNew("child");
+		node.setNodeType(EntityType.folder.name());
+		node.setParentId(parentId);
+		String childId = nodeDao.createNew(node);
+		toDelete.add(childId);
+		NamedAnnotations named = nodeDao.getAnnotations(childId);
+		named.getAdditionalAnnotations().addAnnotation("stringKey", "a");
+		nodeDao.updateAnnotations(childId, named);
+		
+		List<String> ids = new LinkedList<String>();
+		ids.add(parentId);
+		ids.add(childId);
+		// Nodes that do not exist are not included.
+		ids.add("-123");
+		List<Node> nodes = nodeDao.getNodes(ids);
+		assertEquals(2, nodes.size());
+		assertTrue(nodes.contains(nodeDao.getNode(parentId)));
+		assertTrue(nodes.contains(nodeDao.getNode(childId)));
+		
+		Map<String, NamedAnnotations> annos = nodeDao.getAnnotations(ids);
+		assertEquals(2, annos.size());
+		assertEquals(nodeDao.getAnnotations(childId), annos.get(childId));
+		assertEquals(nodeDao.getAnnotations(parentId), annos.get(parentId));
+		
+		Map<String, List<EntityHeader>> paths = nodeDao.getEntityPaths(ids);
+		assertEquals(2, paths.size());
+		assertEquals(nodeDao.getEntityPath(childId), paths.get(childId));
+		assertEquals(nodeDao.getEntityPath(parentId), paths.get(parentId));
+		
+		assertTrue(nodeDao.getNodes(new LinkedList<String>()).isEmpty());
+	}
+	
 	@Test
 	public void testCreateTableNode() throws DatastoreException, InvalidModelException, NotFoundException{
 		List<String> columnIds = new LinkedList<String>();
@@ -1,7 +1,9 @@
 package org.sagebionetworks.repo.model.dbo.dao.migration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +21,7 @@ import org.sagebionetworks.repo.model.dbo.persistence.DBOFileHandle;
 import org.sagebionetworks.repo.model.file.PreviewFileHandle;
 import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -174,6 +177,54 @@ public class MigratableTableDAOImplAutowireTest {
 		assertEquals(idsToBackup1, results);
 	}
 	
+	@Test
+	public void testRangeChecksumAndPaging() throws Exception {
+		long startMax = fileHandleDao.getMaxId();
+		List<S3FileHandle> created = new LinkedList<S3FileHandle>();
+		for(int i=0; i<3; i++){
+			S3FileHandle handle = TestUtils.createS3FileHandle(creatorUserGroupId);
+			handle.setFileName("range"+i+".txt");
+			handle = fileHandleDao.createFile(handle);
+			toDelete.add(handle.getId());
+			created.add(handle);
+		}
+		long firstId = Long.parseLong(created.get(0).getId());
+		long lastId = Long.parseLong(created.get(2).getId());
+		// Nothing beyond the new rows
+		RangeChecksum empty = migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, lastId+1, Long.MAX_VALUE);
+		assertEquals(new Long(0), empty.getCount());
+		assertNull(empty.getChecksum());
+		assertNull(empty.getFirstId());
+		
+		RangeChecksum before = migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, startMax+1, Long.MAX_VALUE);
+		assertEquals(new Long(3), before.getCount());
+		assertEquals(new Long(firstId), before.getFirstId());
+		assertEquals(new Long(lastId), before.getLastId());
+		assertNotNull(before.getChecksum());
+		// The same data has the same checksum
+		assertEquals(before, migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, startMax+1, Long.MAX_VALUE));
+		
+		// Keyset paging by ID
+		List<RowMetadata> page = migratableTableDAO.listRowMetadataByRange(MigrationType.FILE_HANDLE, startMax+1, Long.MAX_VALUE, 2);
+		assertEquals(2, page.size());
+		assertEquals(new Long(firstId), page.get(0).getId());
+		assertEquals(created.get(0).getEtag(), page.get(0).getEtag());
+		page = migratableTableDAO.listRowMetadataByRange(MigrationType.FILE_HANDLE, page.get(1).getId()+1, Long.MAX_VALUE, 2);
+		assertEquals(1, page.size());
+		assertEquals(new Long(lastId), page.get(0).getId());
+		
+		// Changing an etag changes the checksum of the ranges that include the row.
+		S3FileHandle preview = TestUtils.createS3FileHandle(creatorUserGroupId);
+		preview.setFileName("preview.txt");
+		preview = fileHandleDao.createFile(preview);
+		toDelete.add(preview.getId());
+		RangeChecksum firstOnlyBefore = migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, firstId, firstId);
+		RangeChecksum lastOnlyBefore = migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, lastId, lastId);
+		fileHandleDao.setPreviewId(created.get(0).getId(), preview.getId());
+		assertFalse(firstOnlyBefore.equals(migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, firstId, firstId)));
+		assertEquals(lastOnlyBefore, migratableTableDAO.getChecksumForIdRange(MigrationType.FILE_HANDLE, lastId, lastId));
+	}
+	
 	@Test
 	public void testPLFM_1978_listDeltaRowMetadata(){
 		// For PLFM-1978, calling listDeltaRowMetadata() with an empty list causes a BadSqlGrammarException
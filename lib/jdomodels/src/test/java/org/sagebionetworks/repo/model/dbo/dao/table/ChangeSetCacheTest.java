@@ -0,0 +1,128 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+import org.sagebionetworks.repo.model.table.Row;
+
+public class ChangeSetCacheTest {
+
+	private static List<Row> createRows(int count, String value){
+		List<Row> rows = new LinkedList<Row>();
+		for(int i=0; i<count; i++){
+			Row row = new Row();
+			row.setRowId(new Long(i));
+			row.setVersionNumber(3L);
+			row.setValues(new LinkedList<String>(Arrays.asList(value, null, "" + i)));
+			rows.add(row);
+		}
+		return rows;
+	}
+	
+	@Test
+	public void testRoundTrip(){
+		ChangeSetCache cache = new ChangeSetCache(1024*1024);
+		List<Row> rows = createRows(10, "abc");
+		assertNull(cache.get("key"));
+		cache.put("key", rows, 100);
+		List<Row> copy = cache.get("key");
+		assertEquals(rows, copy);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(100, cache.getBytesSaved());
+		assertEquals(0.5, cache.getHitRatio(), 0.0001);
+	}
+	
+	@Test
+	public void testEstimateBytes(){
+		List<Row> rows = createRows(10, "abc");
+		long total = 0;
+		for(Row row: rows){
+			total += ChangeSetCache.estimateBytes(row);
+		}
+		// A change set that uses exactly the max bytes is cached
+		ChangeSetCache cache = new ChangeSetCache(total);
+		assertEquals(total, cache.getMaxBytes());
+		cache.put("key", rows, 100);
+		assertEquals(total, cache.getCurrentBytes());
+		// One byte less and it is not
+		cache = new ChangeSetCache(total-1);
+		cache.put("key", rows, 100);
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testCopiesCannotChangeCache(){
+		ChangeSetCache cache = new ChangeSetCache(1024*1024);
+		List<Row> rows = createRows(2, "abc");
+		cache.put("key", rows, 100);
+		rows.get(0).getValues().set(0, "changed");
+		List<Row> copy = cache.get("key");
+		assertEquals("abc", copy.get(0).getValues().get(0));
+		copy.get(0).getValues().set(0, "changed");
+		copy.get(1).setRowId(99L);
+		List<Row> again = cache.get("key");
+		assertEquals("abc", again.get(0).getValues().get(0));
+		assertEquals(new Long(1), again.get(1).getRowId());
+	}
+	
+	@Test
+	public void testEvictLeastRecentlyUsed(){
+		ChangeSetCache cache = new ChangeSetCache(1024*1024);
+		cache.put("one", createRows(1, "a"), 1);
+		long oneEntry = cache.getCurrentBytes();
+		cache = new ChangeSetCache(oneEntry*2);
+		cache.put("one", createRows(1, "a"), 1);
+		cache.put("two", createRows(1, "a"), 1);
+		// Touch one so two is the least recently used.
+		assertNotNull(cache.get("one"));
+		cache.put("three", createRows(1, "a"), 1);
+		assertEquals(2, cache.size());
+		assertTrue(cache.getCurrentBytes() <= oneEntry*2);
+		assertNotNull(cache.get("one"));
+		assertNull(cache.get("two"));
+		assertNotNull(cache.get("three"));
+	}
+	
+	@Test
+	public void testTooLarge(){
+		ChangeSetCache cache = new ChangeSetCache(100);
+		cache.put("key", createRows(100, "abc"), 100);
+		assertEquals(0, cache.size());
+		assertNull(cache.get("key"));
+	}
+	
+	@Test
+	public void testDisabled(){
+		ChangeSetCache cache = new ChangeSetCache(0);
+		cache.put("key", createRows(1, "abc"), 100);
+		assertNull(cache.get("key"));
+	}
+	
+	@Test
+	public void testIncompleteRowsNotCached(){
+		ChangeSetCache cache = new ChangeSetCache(1024*1024);
+		List<Row> rows = createRows(2, "abc");
+		rows.get(1).setRowId(null);
+		cache.put("key", rows, 100);
+		assertNull(cache.get("key"));
+	}
+	
+	@Test
+	public void testClear(){
+		ChangeSetCache cache = new ChangeSetCache(1024*1024);
+		cache.put("key", createRows(2, "abc"), 100);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getCurrentBytes());
+		assertFalse(cache.get("key") != null);
+	}
+}
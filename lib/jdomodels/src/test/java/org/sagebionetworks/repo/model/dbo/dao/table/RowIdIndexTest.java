@@ -0,0 +1,79 @@
+package org.sagebionetworks.repo.model.dbo.dao.table;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RowIdIndexTest {
+
+	@Test
+	public void testRoundTrip(){
+		List<Long> rowIds = Arrays.asList(15L, 3L, 0L, 3L, 1000000L, Long.MAX_VALUE);
+		byte[] index = RowIdIndex.encode(rowIds);
+		assertEquals(RowIdIndex.FORMAT_VERSION_1, index[0]);
+		long[] decoded = RowIdIndex.decode(index);
+		assertArrayEquals(new long[]{0L, 3L, 15L, 1000000L, Long.MAX_VALUE}, decoded);
+	}
+	
+	@Test
+	public void testEmpty(){
+		byte[] index = RowIdIndex.encode(new LinkedList<Long>());
+		assertEquals(0, RowIdIndex.decode(index).length);
+	}
+	
+	@Test
+	public void testSequentialIdsAreCompact(){
+		List<Long> rowIds = new ArrayList<Long>();
+		for(long i=100000; i<110000; i++){
+			rowIds.add(i);
+		}
+		byte[] index = RowIdIndex.encode(rowIds);
+		// One byte per delta plus the header.
+		assertTrue("Index was "+index.length+" bytes", index.length < rowIds.size() + 10);
+		long[] decoded = RowIdIndex.decode(index);
+		assertEquals(rowIds.size(), decoded.length);
+		assertEquals(100000L, decoded[0]);
+		assertEquals(109999L, decoded[decoded.length-1]);
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testEncodeNegative(){
+		RowIdIndex.encode(Arrays.asList(1L, -1L));
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testDecodeUnknownFormat(){
+		RowIdIndex.decode(new byte[]{99, 0});
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testDecodeTruncated(){
+		byte[] index = RowIdIndex.encode(Arrays.asList(1L, 2L, 300L));
+		RowIdIndex.decode(Arrays.copyOf(index, index.length-1));
+	}
+	
+	@Test
+	public void testFindFirstMatch(){
+		long[] sorted = RowIdIndex.decode(RowIdIndex.encode(Arrays.asList(1L, 5L, 9L)));
+		assertEquals(new Long(5), RowIdIndex.findFirstMatch(sorted, new HashSet<Long>(Arrays.asList(4L, 5L))));
+		assertNull(RowIdIndex.findFirstMatch(sorted, new HashSet<Long>(Arrays.asList(2L, 3L, 4L, 6L))));
+		assertNull(RowIdIndex.findFirstMatch(sorted, new HashSet<Long>()));
+	}
+	
+	@Test
+	public void testCountMatches(){
+		long[] sorted = RowIdIndex.decode(RowIdIndex.encode(Arrays.asList(1L, 5L, 9L)));
+		Set<Long> rowIds = new HashSet<Long>(Arrays.asList(1L, 2L, 9L));
+		assertEquals(2, RowIdIndex.countMatches(sorted, rowIds));
+	}
+}
@@ -19,6 +19,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.junit.Before;
 import org.junit.Test;
 import org.sagebionetworks.repo.model.dbo.persistence.table.DBOTableRowChange;
@@ -40,6 +42,8 @@ import au.com.bytecode.opencsv.CSVWriter;
  */
 public class TableModelUtilsTest {
 	
+	private static Logger log = LogManager.getLogger(TableModelUtilsTest.class);
+	
 	List<ColumnModel> validModel;
 	RowSet validRowSet;
 	RowSet validRowSet2;
@@ -475,6 +479,132 @@ public class TableModelUtilsTest {
 		assertEquals(validRowSet2.getRows(), cloneRows);
 	}
 	
+	@Test
+	public void testBinaryRoundTrip() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TableModelUtils.validateAndWriteToBinary(validModel, validRowSet2, out);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		List<Row> cloneRows = TableModelUtils.readFromStream(in);
+		assertNotNull(cloneRows);
+		assertEquals(validRowSet2.getRows(), cloneRows);
+	}
+	
+	@Test
+	public void testReadFromStreamDetectsCSVgz() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TableModelUtils.validateAnWriteToCSVgz(validModel, validRowSet2, out);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		List<Row> cloneRows = TableModelUtils.readFromStream(in);
+		assertEquals(validRowSet2.getRows(), cloneRows);
+	}
+	
+	@Test
+	public void testBinaryRoundTripAllTypes() throws IOException{
+		List<ColumnModel> all = TableModelUtils.createOneOfEachType();
+		RowSet set = new RowSet();
+		set.setHeaders(TableModelUtils.getHeaders(all));
+		set.setRows(TableModelUtils.createRows(all, 100));
+		IdRange range = new IdRange();
+		range.setMinimumId(1000L);
+		range.setMaximumId(1099L);
+		range.setVersionNumber(3L);
+		TableModelUtils.assignRowIdsAndVersionNumbers(set, range);
+		// Nulls are read back as empty strings like the CSV format
+		set.getRows().get(5).getValues().set(0, null);
+		set.getRows().get(6).getValues().set(1, null);
+		set.getRows().get(7).getValues().set(2, null);
+		set.getRows().get(8).getValues().set(4, null);
+		// A column default that is not in the canonical form is stored as a string.
+		all.get(1).setDefaultValue("007");
+		set.getRows().get(9).getValues().set(1, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TableModelUtils.validateAndWriteToBinary(all, set, out);
+		List<Row> cloneRows = TableModelUtils.readFromStream(new ByteArrayInputStream(out.toByteArray()));
+		set.getRows().get(9).getValues().set(1, "007");
+		set.getRows().get(5).getValues().set(0, "");
+		set.getRows().get(6).getValues().set(1, "");
+		set.getRows().get(7).getValues().set(2, "");
+		set.getRows().get(8).getValues().set(4, "");
+		assertEquals(set.getRows(), cloneRows);
+	}
+	
+	/**
+	 * A table can hold change sets in both formats, so they must read the same rows.
+	 */
+	@Test
+	public void testBinaryAndCSVgzReadTheSame() throws IOException{
+		List<ColumnModel> all = TableModelUtils.createOneOfEachType();
+		// No defaults so the nulls are written as nulls
+		for(ColumnModel cm: all){
+			cm.setDefaultValue(null);
+		}
+		RowSet set = new RowSet();
+		set.setHeaders(TableModelUtils.getHeaders(all));
+		set.setRows(TableModelUtils.createRows(all, 20));
+		IdRange range = new IdRange();
+		range.setMinimumId(0L);
+		range.setMaximumId(19L);
+		range.setVersionNumber(0L);
+		TableModelUtils.assignRowIdsAndVersionNumbers(set, range);
+		for(int col=0; col<all.size(); col++){
+			set.getRows().get(col).getValues().set(col, null);
+		}
+		// An entire column of nulls
+		for(Row row: set.getRows()){
+			row.getValues().set(0, null);
+		}
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		TableModelUtils.validateAnWriteToCSVgz(all, set, csv);
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		TableModelUtils.validateAndWriteToBinary(all, set, binary);
+		List<Row> csvRows = TableModelUtils.readFromStream(new ByteArrayInputStream(csv.toByteArray()));
+		List<Row> binaryRows = TableModelUtils.readFromStream(new ByteArrayInputStream(binary.toByteArray()));
+		assertEquals(csvRows, binaryRows);
+		assertEquals("", binaryRows.get(3).getValues().get(0));
+	}
+	
+	/**
+	 * Compare the size and speed of the binary format with Gzip CSV.
+	 */
+	@Test
+	public void testBinaryVersusCSVgz() throws IOException{
+		List<ColumnModel> all = TableModelUtils.createOneOfEachType();
+		RowSet set = new RowSet();
+		set.setHeaders(TableModelUtils.getHeaders(all));
+		set.setRows(TableModelUtils.createRows(all, 10000));
+		IdRange range = new IdRange();
+		range.setMinimumId(0L);
+		range.setMaximumId(9999L);
+		range.setVersionNumber(0L);
+		TableModelUtils.assignRowIdsAndVersionNumbers(set, range);
+		int iterations = 5;
+		byte[] csv = null;
+		byte[] binary = null;
+		long csvWrite = 0, csvRead = 0, binaryWrite = 0, binaryRead = 0;
+		for(int i=0; i<iterations; i++){
+			long start = System.nanoTime();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TableModelUtils.validateAnWriteToCSVgz(all, set, out);
+			csv = out.toByteArray();
+			csvWrite += System.nanoTime()-start;
+			start = System.nanoTime();
+			List<Row> csvRows = TableModelUtils.readFromCSVgzStream(new ByteArrayInputStream(csv));
+			csvRead += System.nanoTime()-start;
+			start = System.nanoTime();
+			out = new ByteArrayOutputStream();
+			TableModelUtils.validateAndWriteToBinary(all, set, out);
+			binary = out.toByteArray();
+			binaryWrite += System.nanoTime()-start;
+			start = System.nanoTime();
+			List<Row> binaryRows = TableModelUtils.readFromStream(new ByteArrayInputStream(binary));
+			binaryRead += System.nanoTime()-start;
+			assertEquals(csvRows, binaryRows);
+		}
+		log.debug("CSV.gz: "+csv.length+" bytes, write "+csvWrite/iterations/1000000+" ms, read "+csvRead/iterations/1000000+" ms");
+		log.debug("Binary: "+binary.length+" bytes, write "+binaryWrite/iterations/1000000+" ms, read "+binaryRead/iterations/1000000+" ms");
+		assertTrue(binary.length < csv.length);
+	}
+	
 	@Test
 	public void testGetHeaders(){
 		List<String> expected = new LinkedList<String>();
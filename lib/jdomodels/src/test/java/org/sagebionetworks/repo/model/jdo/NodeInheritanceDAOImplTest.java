@@ -7,6 +7,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.After;
@@ -116,4 +117,42 @@ public class NodeInheritanceDAOImplTest {
 		nodeDao.delete(parentId);
 	}
 	
+	@Test
+	public void testBatch() throws Exception{
+		Long creatorUserGroupId = Long.parseLong(userGroupDAO.findGroup(AuthorizationConstants.BOOTSTRAP_USER_GROUP_NAME, false).getId());
+		Node toCreate = NodeTestUtils.createNew("nodeInheritanceDaoBatchTest", creatorUserGroupId);
+		String parentId = nodeDao.createNew(toCreate);
+		toDelete.add(parentId);
+		List<String> childIds = new ArrayList<String>();
+		for(int i=0; i<3; i++){
+			Node child = NodeTestUtils.createNew("nodeInheritanceDaoBatchTestChild"+i, creatorUserGroupId);
+			child.setParentId(parentId);
+			String childId = nodeDao.createNew(child);
+			toDelete.add(childId);
+			childIds.add(childId);
+		}
+		List<String> parentIds = new ArrayList<String>();
+		parentIds.add(parentId);
+		Map<String, String> childBenefactors = nodenheritanceDao.getChildrenBenefactors(parentIds);
+		assertEquals(3, childBenefactors.size());
+		for(String childId: childIds){
+			assertEquals(parentId, childBenefactors.get(childId));
+		}
+		// Make the children inherit from the first child
+		String newBenefactorId = childIds.get(0);
+		List<String> etagsBefore = new ArrayList<String>();
+		for(String childId: childIds){
+			etagsBefore.add(nodeDao.getNode(childId).getETag());
+		}
+		nodenheritanceDao.addBeneficiaries(childIds, newBenefactorId);
+		childBenefactors = nodenheritanceDao.getChildrenBenefactors(parentIds);
+		for(int i=0; i<childIds.size(); i++){
+			String childId = childIds.get(i);
+			assertEquals(newBenefactorId, childBenefactors.get(childId));
+			assertFalse("Calling addBeneficiaries() should change the etag of each node", etagsBefore.get(i).equals(nodeDao.getNode(childId).getETag()));
+		}
+		// The parent is unchanged
+		assertEquals(parentId, nodenheritanceDao.getBenefactor(parentId));
+	}
+	
 }
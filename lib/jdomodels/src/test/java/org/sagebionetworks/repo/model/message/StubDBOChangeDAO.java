@@ -78,6 +78,12 @@ public class StubDBOChangeDAO implements DBOChangeDAO {
 		
 	}
 
+	@Override
+	public void registerMessagesSent(List<Long> changeNumbers) {
+		// TODO Auto-generated method stub
+		
+	}
+
 	@Override
 	public List<ChangeMessage> listUnsentMessages(long limit) {
 		// TODO Auto-generated method stub
@@ -96,6 +102,12 @@ public class StubDBOChangeDAO implements DBOChangeDAO {
 		return 0;
 	}
 
+	@Override
+	public long getCountGreaterThan(long changeNumber) {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
 	@Override
 	public List<ChangeMessage> listUnsentMessages(long lowerBound,
 			long upperBound) {
@@ -116,4 +128,40 @@ public class StubDBOChangeDAO implements DBOChangeDAO {
 		return null;
 	}
 
+	@Override
+	public long getSentHighWaterMark() {
+		// TODO Auto-generated method stub
+		return -1;
+	}
+
+	@Override
+	public long getUnsentScanStart() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
+	@Override
+	public long advanceSentHighWaterMark(long gapTimeoutMS) {
+		// TODO Auto-generated method stub
+		return -1;
+	}
+
+	@Override
+	public void lowerWatermarks(long changeNumber) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	@Override
+	public long getProcessedHighWaterMark(String queueName) {
+		// TODO Auto-generated method stub
+		return -1;
+	}
+
+	@Override
+	public long advanceProcessedHighWaterMark(String queueName) {
+		// TODO Auto-generated method stub
+		return -1;
+	}
+
 }
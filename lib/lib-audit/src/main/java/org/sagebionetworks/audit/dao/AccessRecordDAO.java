@@ -37,6 +37,22 @@ public interface AccessRecordDAO {
 	 */
 	List<AccessRecord> getBatch(String key) throws IOException;
 
+	/**
+	 * Merge the given batches into a single new batch. Each batch is already
+	 * sorted by timestamp, so the batches are streamed and merged in order
+	 * without loading all of the records into memory. The original batches are
+	 * not deleted.
+	 *
+	 * @param keys
+	 *            The keys of the batches to merge.
+	 * @param rolling
+	 *            Whether the new batch is saved as "rolling".
+	 * @return The key of the new batch. Will be null if all of the batches were
+	 *         empty, in which case no batch is created.
+	 * @throws IOException
+	 */
+	String mergeBatches(List<String> keys, boolean rolling) throws IOException;
+
 	/**
 	 * Delete a batch.
 	 * @param key
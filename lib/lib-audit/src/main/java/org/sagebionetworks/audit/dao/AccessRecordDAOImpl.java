@@ -1,11 +1,18 @@
 package org.sagebionetworks.audit.dao;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -13,6 +20,7 @@ import java.util.zip.GZIPOutputStream;
 
 import org.sagebionetworks.audit.utils.AccessRecordUtils;
 import org.sagebionetworks.audit.utils.KeyGeneratorUtil;
+import org.sagebionetworks.audit.utils.ObjectCSVMergeReader;
 import org.sagebionetworks.audit.utils.ObjectCSVReader;
 import org.sagebionetworks.audit.utils.ObjectCSVWriter;
 import org.sagebionetworks.repo.model.audit.AccessRecord;
@@ -22,6 +30,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
@@ -39,6 +48,16 @@ public class AccessRecordDAOImpl implements AccessRecordDAO {
 	 */
 	private final static String[] HEADERS = new String[]{"returnObjectId", "elapseMS","timestamp","via","host","threadId","userAgent","queryString","sessionId","xForwardedFor","requestURL","userId","origin", "date","method","vmId","instance","stack","success"};
 
+	/**
+	 * The default maximum number of batches that are streamed at the same time
+	 * during a merge. Each open batch holds an S3 connection, so this must stay
+	 * well below the size of the S3 client's connection pool.
+	 */
+	public static final int DEFAULT_MAX_MERGE_FAN_IN = 25;
+
+	private static final String MERGE_FILE_PREFIX = "accessRecordMerge";
+	private static final String MERGE_FILE_SUFFIX = ".csv.gz";
+
 	@Autowired
 	private AmazonS3Client s3Client;
 
@@ -51,6 +70,7 @@ public class AccessRecordDAOImpl implements AccessRecordDAO {
 	 */
 	int stackInstanceNumber;
 	String stackInstancePrefixString;
+	int maxMergeFanIn = DEFAULT_MAX_MERGE_FAN_IN;
 
 	/**
 	 * Injected via Spring
@@ -71,6 +91,17 @@ public class AccessRecordDAOImpl implements AccessRecordDAO {
 		this.stackInstancePrefixString = KeyGeneratorUtil.getInstancePrefix(stackInstanceNumber);
 	}
 
+	/**
+	 * The maximum number of batches that are streamed at the same time during a
+	 * merge. Larger merges are done in multiple passes over local files.
+	 * 
+	 * @param maxMergeFanIn
+	 */
+	public void setMaxMergeFanIn(int maxMergeFanIn) {
+		if (maxMergeFanIn < 2) throw new IllegalArgumentException("Max merge fan-in must be at least two");
+		this.maxMergeFanIn = maxMergeFanIn;
+	}
+
 	/**
 	 * Initialize is called when this bean is first created.
 	 * 
@@ -111,14 +142,133 @@ public class AccessRecordDAOImpl implements AccessRecordDAO {
 		// Build a new key
 		String key = KeyGeneratorUtil.createNewKey(stackInstanceNumber,
 				timestamp, rolling);
+		ObjectMetadata om = createMetadata(key);
+		om.setContentLength(bytes.length);
+		s3Client.putObject(auditRecordBucketName, key, in, om);
+		return key;
+
+	}
+
+	/**
+	 * The metadata of a new batch file.
+	 */
+	private static ObjectMetadata createMetadata(String key) {
 		ObjectMetadata om = new ObjectMetadata();
 		om.setContentType("application/x-gzip");
 		om.setContentEncoding("gzip");
 		om.setContentDisposition("attachment; filename=" + key + ";");
-		om.setContentLength(bytes.length);
-		s3Client.putObject(auditRecordBucketName, key, in, om);
-		return key;
+		return om;
+	}
+
+	@Override
+	public String mergeBatches(List<String> keys, boolean rolling) throws IOException {
+		if(keys == null) throw new IllegalArgumentException("Keys cannot be null");
+		if(keys.isEmpty()) throw new IllegalArgumentException("Keys cannot be empty");
+		// The merged data is streamed to local files rather than memory. The
+		// S3 client would buffer a stream of unknown length in memory.
+		List<File> runs = new LinkedList<File>();
+		List<File> allFiles = new LinkedList<File>();
+		try {
+			Long firstTimestamp = null;
+			// First pass: stream the batches from S3, a group at a time.
+			for (int i = 0; i < keys.size(); i += maxMergeFanIn) {
+				List<InputStream> inputs = new ArrayList<InputStream>();
+				try {
+					for (String key : keys.subList(i, Math.min(keys.size(), i + maxMergeFanIn))) {
+						inputs.add(s3Client.getObject(auditRecordBucketName, key).getObjectContent());
+					}
+					File run = createMergeFile(allFiles);
+					firstTimestamp = mergeStreams(inputs, run);
+					runs.add(run);
+				} finally {
+					closeAll(inputs);
+				}
+			}
+			// Merge the local runs until only one is left.
+			while (runs.size() > 1) {
+				List<File> nextRuns = new LinkedList<File>();
+				for (int i = 0; i < runs.size(); i += maxMergeFanIn) {
+					List<InputStream> inputs = new ArrayList<InputStream>();
+					try {
+						for (File file : runs.subList(i, Math.min(runs.size(), i + maxMergeFanIn))) {
+							inputs.add(new BufferedInputStream(new FileInputStream(file)));
+						}
+						File run = createMergeFile(allFiles);
+						firstTimestamp = mergeStreams(inputs, run);
+						nextRuns.add(run);
+					} finally {
+						closeAll(inputs);
+					}
+				}
+				runs = nextRuns;
+			}
+			if (firstTimestamp == null) {
+				// Every batch was empty.
+				return null;
+			}
+			// Use the time stamp from the first record as the time stamp for the new batch.
+			String key = KeyGeneratorUtil.createNewKey(stackInstanceNumber, firstTimestamp, rolling);
+			File merged = runs.get(0);
+			ObjectMetadata om = createMetadata(key);
+			om.setContentLength(merged.length());
+			s3Client.putObject(new PutObjectRequest(auditRecordBucketName, key, merged).withMetadata(om));
+			return key;
+		} finally {
+			for (File file : allFiles) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Create a temporary file for merged data and track it so it can be deleted.
+	 */
+	private static File createMergeFile(List<File> allFiles) throws IOException {
+		File file = File.createTempFile(MERGE_FILE_PREFIX, MERGE_FILE_SUFFIX);
+		allFiles.add(file);
+		return file;
+	}
+
+	/**
+	 * Merge the given gzipped, time-sorted batch streams into a single gzipped
+	 * batch file.
+	 * 
+	 * @return The timestamp of the first record written. Null if no records
+	 *         were written.
+	 */
+	private static Long mergeStreams(List<InputStream> inputs, File destination) throws IOException {
+		List<ObjectCSVReader<AccessRecord>> readers = new ArrayList<ObjectCSVReader<AccessRecord>>(inputs.size());
+		for (InputStream input : inputs) {
+			readers.add(new ObjectCSVReader<AccessRecord>(new InputStreamReader(new GZIPInputStream(input)), AccessRecord.class, HEADERS));
+		}
+		ObjectCSVMergeReader<AccessRecord> mergeReader = new ObjectCSVMergeReader<AccessRecord>(readers, new AccessRecordUtils.AccessRecordComparator());
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(destination));
+		try {
+			ObjectCSVWriter<AccessRecord> writer = new ObjectCSVWriter<AccessRecord>(
+					new OutputStreamWriter(new GZIPOutputStream(out)), AccessRecord.class, HEADERS);
+			Long firstTimestamp = null;
+			AccessRecord record = null;
+			while ((record = mergeReader.next()) != null) {
+				if (firstTimestamp == null) {
+					firstTimestamp = record.getTimestamp();
+				}
+				writer.append(record);
+			}
+			writer.close();
+			return firstTimestamp;
+		} finally {
+			out.close();
+			mergeReader.close();
+		}
+	}
 
+	/**
+	 * Close all of the given streams.
+	 */
+	private static void closeAll(List<InputStream> inputs) throws IOException {
+		for (InputStream input : inputs) {
+			input.close();
+		}
 	}
 
 	@Override
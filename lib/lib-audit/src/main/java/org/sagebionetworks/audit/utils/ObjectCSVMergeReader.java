@@ -0,0 +1,113 @@
+package org.sagebionetworks.audit.utils;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the objects of several {@link ObjectCSVReader}s into a single sorted
+ * stream. Each input reader must already be sorted using the same
+ * {@link Comparator}. Only the current head object of each reader is held in
+ * memory, so the memory used is bounded by the number of readers rather than
+ * the number of objects.
+ *
+ * Objects that compare equal are returned in the order of the readers.
+ *
+ * @param <T>
+ */
+public class ObjectCSVMergeReader<T> {
+
+	List<ObjectCSVReader<T>> readers;
+	PriorityQueue<Head<T>> heap;
+
+	/**
+	 * The current object of one of the input readers.
+	 */
+	private static class Head<T> {
+		T value;
+		int readerIndex;
+
+		Head(T value, int readerIndex) {
+			this.value = value;
+			this.readerIndex = readerIndex;
+		}
+	}
+
+	/**
+	 * Create a new merge reader.
+	 *
+	 * @param readers
+	 *            Each reader must already be sorted.
+	 * @param comparator
+	 *            The order of each reader.
+	 * @throws IOException
+	 */
+	public ObjectCSVMergeReader(List<ObjectCSVReader<T>> readers, final Comparator<T> comparator) throws IOException {
+		if (readers == null) throw new IllegalArgumentException("Readers cannot be null");
+		if (comparator == null) throw new IllegalArgumentException("Comparator cannot be null");
+		this.readers = readers;
+		this.heap = new PriorityQueue<Head<T>>(Math.max(1, readers.size()), new Comparator<Head<T>>() {
+			@Override
+			public int compare(Head<T> one, Head<T> two) {
+				int result = comparator.compare(one.value, two.value);
+				if (result != 0) {
+					return result;
+				}
+				// Ties are broken by the reader order.
+				return one.readerIndex < two.readerIndex ? -1 : (one.readerIndex == two.readerIndex ? 0 : 1);
+			}
+		});
+		// Prime the heap with the first object from each reader.
+		for (int i = 0; i < readers.size(); i++) {
+			advance(i);
+		}
+	}
+
+	/**
+	 * Read the next object in the merged order.
+	 *
+	 * @return The next object. Will be null when there is no more data to read.
+	 * @throws IOException
+	 */
+	public T next() throws IOException {
+		Head<T> head = heap.poll();
+		if (head == null) {
+			return null;
+		}
+		// Replace the head with the next object from the same reader.
+		advance(head.readerIndex);
+		return head.value;
+	}
+
+	/**
+	 * Close all of the input readers.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		IOException first = null;
+		for (ObjectCSVReader<T> reader : readers) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				if (first == null) {
+					first = e;
+				}
+			}
+		}
+		if (first != null) {
+			throw first;
+		}
+	}
+
+	/**
+	 * Push the next object of the given reader onto the heap.
+	 */
+	private void advance(int readerIndex) throws IOException {
+		T value = readers.get(readerIndex).next();
+		if (value != null) {
+			heap.add(new Head<T>(value, readerIndex));
+		}
+	}
+}
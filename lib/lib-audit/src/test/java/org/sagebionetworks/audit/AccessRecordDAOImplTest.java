@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -16,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sagebionetworks.audit.dao.AccessRecordDAO;
+import org.sagebionetworks.audit.dao.AccessRecordDAOImpl;
 import org.sagebionetworks.audit.utils.KeyGeneratorUtil;
 import org.sagebionetworks.repo.model.audit.AccessRecord;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -95,4 +97,42 @@ public class AccessRecordDAOImplTest {
 		// the two set should be equal
 		assertEquals(keys, foundKeys);
 	}
+	
+	@Test
+	public void testMergeBatches() throws IOException{
+		// Interleave the timestamps of several rolling batches.
+		int batchCount = 7;
+		List<String> keys = new LinkedList<String>();
+		for(int i=0; i< batchCount; i++){
+			List<AccessRecord> toTest = AuditTestUtils.createList(10, 0);
+			for(int j=0; j<toTest.size(); j++){
+				toTest.get(j).setTimestamp(1000L+j*batchCount+i);
+			}
+			keys.add(accessRecordDAO.saveBatch(toTest, true));
+		}
+		// Use a small fan-in so the merge takes more than one pass.
+		((AccessRecordDAOImpl)accessRecordDAO).setMaxMergeFanIn(3);
+		try{
+			String key = accessRecordDAO.mergeBatches(keys, false);
+			assertNotNull(key);
+			assertFalse(key.contains(KeyGeneratorUtil.ROLLING));
+			List<AccessRecord> back = accessRecordDAO.getBatch(key);
+			assertEquals(batchCount*10, back.size());
+			for(int i=0; i<back.size(); i++){
+				assertEquals(new Long(1000L+i), back.get(i).getTimestamp());
+			}
+			// The original batches are not deleted
+			assertEquals(10, accessRecordDAO.getBatch(keys.get(0)).size());
+		}finally{
+			((AccessRecordDAOImpl)accessRecordDAO).setMaxMergeFanIn(AccessRecordDAOImpl.DEFAULT_MAX_MERGE_FAN_IN);
+		}
+	}
+	
+	@Test
+	public void testMergeEmptyBatches() throws IOException{
+		List<String> keys = new LinkedList<String>();
+		keys.add(accessRecordDAO.saveBatch(new LinkedList<AccessRecord>(), true));
+		keys.add(accessRecordDAO.saveBatch(new LinkedList<AccessRecord>(), true));
+		assertEquals(null, accessRecordDAO.mergeBatches(keys, false));
+	}
 }
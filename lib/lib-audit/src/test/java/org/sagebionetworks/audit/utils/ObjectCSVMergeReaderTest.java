@@ -0,0 +1,194 @@
+package org.sagebionetworks.audit.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+import org.sagebionetworks.audit.AuditTestUtils;
+import org.sagebionetworks.repo.model.audit.AccessRecord;
+
+/**
+ * Tests for the ObjectCSVMergeReader.
+ *
+ */
+public class ObjectCSVMergeReaderTest {
+
+	private static Logger log = LogManager.getLogger(ObjectCSVMergeReaderTest.class);
+
+	private static final String[] HEADERS = new String[]{"timestamp", "sessionId", "requestURL", "userId", "method", "success"};
+
+	/**
+	 * Write the given records as CSV.
+	 */
+	private static String toCSV(List<AccessRecord> records) throws IOException {
+		StringWriter out = new StringWriter();
+		ObjectCSVWriter<AccessRecord> writer = new ObjectCSVWriter<AccessRecord>(out, AccessRecord.class, HEADERS);
+		for (AccessRecord ar : records) {
+			writer.append(ar);
+		}
+		writer.close();
+		return out.toString();
+	}
+
+	/**
+	 * Write the given records as gzipped CSV, the same as a batch stored in S3.
+	 */
+	private static byte[] toGzipCSV(List<AccessRecord> records) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamWriter osw = new OutputStreamWriter(new GZIPOutputStream(out));
+		ObjectCSVWriter<AccessRecord> writer = new ObjectCSVWriter<AccessRecord>(osw, AccessRecord.class, HEADERS);
+		for (AccessRecord ar : records) {
+			writer.append(ar);
+		}
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static ObjectCSVReader<AccessRecord> openGzip(byte[] bytes) throws IOException {
+		return new ObjectCSVReader<AccessRecord>(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes))), AccessRecord.class, HEADERS);
+	}
+
+	private static ObjectCSVMergeReader<AccessRecord> createMergeReader(List<String> csvs) throws IOException {
+		List<ObjectCSVReader<AccessRecord>> readers = new ArrayList<ObjectCSVReader<AccessRecord>>();
+		for (String csv : csvs) {
+			readers.add(new ObjectCSVReader<AccessRecord>(new StringReader(csv), AccessRecord.class, HEADERS));
+		}
+		return new ObjectCSVMergeReader<AccessRecord>(readers, new AccessRecordUtils.AccessRecordComparator());
+	}
+
+	private static List<AccessRecord> readAll(ObjectCSVMergeReader<AccessRecord> reader) throws IOException {
+		List<AccessRecord> results = new LinkedList<AccessRecord>();
+		AccessRecord record = null;
+		while ((record = reader.next()) != null) {
+			results.add(record);
+		}
+		reader.close();
+		return results;
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testNullReaders() throws IOException {
+		new ObjectCSVMergeReader<AccessRecord>(null, new AccessRecordUtils.AccessRecordComparator());
+	}
+
+	@Test
+	public void testMergeInterleaved() throws IOException {
+		// Three sorted inputs with interleaved timestamps.
+		List<String> csvs = new ArrayList<String>();
+		List<AccessRecord> all = new ArrayList<AccessRecord>();
+		for (int i = 0; i < 3; i++) {
+			List<AccessRecord> batch = AuditTestUtils.createList(10, 0);
+			for (int j = 0; j < batch.size(); j++) {
+				batch.get(j).setTimestamp((long) (j * 3 + i));
+			}
+			all.addAll(batch);
+			csvs.add(toCSV(batch));
+		}
+		List<AccessRecord> merged = readAll(createMergeReader(csvs));
+		assertEquals(30, merged.size());
+		for (int i = 0; i < merged.size(); i++) {
+			assertEquals(new Long(i), merged.get(i).getTimestamp());
+		}
+	}
+
+	@Test
+	public void testTiesKeepReaderOrder() throws IOException {
+		List<AccessRecord> one = AuditTestUtils.createList(1, 5);
+		List<AccessRecord> two = AuditTestUtils.createList(1, 5);
+		List<String> csvs = new ArrayList<String>();
+		csvs.add(toCSV(one));
+		csvs.add(toCSV(two));
+		List<AccessRecord> merged = readAll(createMergeReader(csvs));
+		assertEquals(2, merged.size());
+		assertEquals(one.get(0).getSessionId(), merged.get(0).getSessionId());
+		assertEquals(two.get(0).getSessionId(), merged.get(1).getSessionId());
+	}
+
+	@Test
+	public void testEmptyInputs() throws IOException {
+		List<String> csvs = new ArrayList<String>();
+		csvs.add(toCSV(new LinkedList<AccessRecord>()));
+		csvs.add(toCSV(AuditTestUtils.createList(3, 100)));
+		csvs.add(toCSV(new LinkedList<AccessRecord>()));
+		ObjectCSVMergeReader<AccessRecord> reader = createMergeReader(csvs);
+		assertEquals(3, readAll(reader).size());
+		assertNull(reader.next());
+		// No inputs at all.
+		assertNull(createMergeReader(new LinkedList<String>()).next());
+	}
+
+	/**
+	 * Compares the streaming merge to loading every batch into memory and
+	 * sorting, using in-memory gzip files as a stand-in for S3.
+	 */
+	@Test
+	public void testMergeThroughput() throws IOException {
+		int batchCount = 50;
+		int recordsPerBatch = 1000;
+		List<byte[]> batches = new ArrayList<byte[]>();
+		for (int i = 0; i < batchCount; i++) {
+			List<AccessRecord> batch = AuditTestUtils.createList(recordsPerBatch, 0);
+			for (int j = 0; j < batch.size(); j++) {
+				batch.get(j).setTimestamp((long) (j * batchCount + i));
+			}
+			batches.add(toGzipCSV(batch));
+		}
+		// Load all and sort.
+		long start = System.currentTimeMillis();
+		List<AccessRecord> loaded = new LinkedList<AccessRecord>();
+		for (byte[] bytes : batches) {
+			ObjectCSVReader<AccessRecord> reader = openGzip(bytes);
+			AccessRecord record = null;
+			while ((record = reader.next()) != null) {
+				loaded.add(record);
+			}
+			reader.close();
+		}
+		AccessRecordUtils.sortByTimestamp(loaded);
+		byte[] sortedOut = toGzipCSV(loaded);
+		long loadElapse = System.currentTimeMillis() - start;
+		// Stream and merge.
+		start = System.currentTimeMillis();
+		List<ObjectCSVReader<AccessRecord>> readers = new ArrayList<ObjectCSVReader<AccessRecord>>();
+		for (byte[] bytes : batches) {
+			readers.add(openGzip(bytes));
+		}
+		ObjectCSVMergeReader<AccessRecord> mergeReader = new ObjectCSVMergeReader<AccessRecord>(readers, new AccessRecordUtils.AccessRecordComparator());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectCSVWriter<AccessRecord> writer = new ObjectCSVWriter<AccessRecord>(new OutputStreamWriter(new GZIPOutputStream(out)), AccessRecord.class, HEADERS);
+		AccessRecord record = null;
+		int count = 0;
+		while ((record = mergeReader.next()) != null) {
+			writer.append(record);
+			count++;
+		}
+		writer.close();
+		mergeReader.close();
+		long mergeElapse = System.currentTimeMillis() - start;
+		assertEquals(batchCount * recordsPerBatch, count);
+		// Both approaches must produce the same file.
+		assertTrue(Arrays.equals(sortedOut, out.toByteArray()));
+		log.debug("Load and sort: " + rate(count, loadElapse) + " records/sec, streaming merge: " + rate(count, mergeElapse) + " records/sec");
+	}
+
+	private static long rate(int count, long elapseMS) {
+		return count * 1000L / Math.max(1, elapseMS);
+	}
+}
@@ -0,0 +1,311 @@
+package org.sagebionetworks.search;
+
+import static org.sagebionetworks.search.SearchConstants.FIELD_ETAG;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.sagebionetworks.repo.model.search.AwesomeSearchFactory;
+import org.sagebionetworks.repo.model.search.Document;
+import org.sagebionetworks.repo.model.search.SearchResults;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+import org.sagebionetworks.schema.adapter.org.json.AdapterFactoryImpl;
+import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
+import org.sagebionetworks.utils.HttpClientHelperException;
+
+import com.amazonaws.services.cloudsearch.model.IndexField;
+import com.amazonaws.services.cloudsearch.model.IndexFieldType;
+
+/**
+ * A SearchDao backed by a LocalSearchIndex rather than a CloudSearch domain.
+ * The index uses the same schema as the search domain and accepts the same
+ * search strings, so it can replace SearchDaoImpl for stacks that cannot use
+ * CloudSearch.
+ *
+ */
+public class LocalSearchDaoImpl implements SearchDao {
+
+	private static final String QUERY_LIST_ALL_DOCUMENTS_ONE_PAGE = "bq="+SearchConstants.FIELD_ID+":'*'&size=%1$s&start=%2$s";
+
+	static private Logger log = LogManager.getLogger(LocalSearchDaoImpl.class);
+
+	private static final AwesomeSearchFactory searchResultsFactory = new AwesomeSearchFactory(new AdapterFactoryImpl());
+
+	private String indexDirectory;
+	private long refreshIntervalMS = LocalSearchIndex.DEFAULT_REFRESH_INTERVAL_MS;
+	private LocalSearchIndex index;
+
+	/**
+	 * Where the index journal is kept. When not set the index is only kept in
+	 * memory.
+	 *
+	 * @param indexDirectory
+	 */
+	public void setIndexDirectory(String indexDirectory) {
+		this.indexDirectory = indexDirectory;
+	}
+
+	/**
+	 * How long a change can wait before it is searchable.
+	 *
+	 * @param refreshIntervalMS
+	 */
+	public void setRefreshIntervalMS(long refreshIntervalMS) {
+		this.refreshIntervalMS = refreshIntervalMS;
+	}
+
+	/**
+	 * Called when the bean is created.
+	 *
+	 * @throws IOException
+	 */
+	public void initialize() throws IOException {
+		File directory = null;
+		if (indexDirectory != null && indexDirectory.trim().length() > 0) {
+			directory = new File(indexDirectory.trim());
+		}
+		index = new LocalSearchIndex(createFields(SearchSchemaLoader.loadSearchDomainSchema()), directory);
+		index.setRefreshIntervalMS(refreshIntervalMS);
+		index.open();
+		log.info("Local search index opened with " + index.size() + " documents in "
+				+ (directory == null ? "memory" : directory.getAbsolutePath()));
+	}
+
+	/**
+	 * Called when the bean is destroyed.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (index != null) {
+			index.close();
+		}
+	}
+
+	/**
+	 * Convert the search domain schema to the fields of the local index.
+	 *
+	 * @param schema
+	 * @return
+	 */
+	static List<LocalSearchIndex.Field> createFields(List<IndexField> schema) {
+		List<LocalSearchIndex.Field> fields = new LinkedList<LocalSearchIndex.Field>();
+		for (IndexField indexField : schema) {
+			LocalSearchIndex.FieldType type;
+			boolean resultEnabled;
+			if (IndexFieldType.Uint.toString().equals(indexField.getIndexFieldType())) {
+				type = LocalSearchIndex.FieldType.UINT;
+				// Numeric fields are always returnable
+				resultEnabled = true;
+			} else if (IndexFieldType.Text.toString().equals(indexField.getIndexFieldType())) {
+				type = LocalSearchIndex.FieldType.TEXT;
+				resultEnabled = indexField.getTextOptions() != null && Boolean.TRUE.equals(indexField.getTextOptions().getResultEnabled());
+			} else {
+				type = LocalSearchIndex.FieldType.LITERAL;
+				resultEnabled = indexField.getLiteralOptions() != null && Boolean.TRUE.equals(indexField.getLiteralOptions().getResultEnabled());
+			}
+			String source = null;
+			if (indexField.getSourceAttributes() != null && !indexField.getSourceAttributes().isEmpty()
+					&& indexField.getSourceAttributes().get(0).getSourceDataCopy() != null) {
+				source = indexField.getSourceAttributes().get(0).getSourceDataCopy().getSourceName();
+			}
+			fields.add(new LocalSearchIndex.Field(indexField.getIndexFieldName(), type, resultEnabled, source));
+		}
+		return fields;
+	}
+
+	@Override
+	public void createOrUpdateSearchDocument(Document document) throws ClientProtocolException, IOException, HttpClientHelperException {
+		createOrUpdateSearchDocument(Collections.singletonList(document));
+	}
+
+	@Override
+	public void createOrUpdateSearchDocument(List<Document> batch) throws ClientProtocolException, IOException, HttpClientHelperException {
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		Map<String, Map<String, List<String>>> documents = new HashMap<String, Map<String, List<String>>>();
+		for (Document document : batch) {
+			SearchDaoImpl.prepareDocument(document);
+			documents.put(document.getId(), toFieldValues(document));
+		}
+		index.addDocuments(documents);
+	}
+
+	/**
+	 * Convert the fields of a document to the values of each field.
+	 *
+	 * @param document
+	 * @return
+	 */
+	static Map<String, List<String>> toFieldValues(Document document) {
+		Map<String, List<String>> values = new HashMap<String, List<String>>();
+		try {
+			JSONObject fields = new JSONObject(EntityFactory.createJSONStringForEntity(document.getFields()));
+			Iterator<?> keys = fields.keys();
+			while (keys.hasNext()) {
+				String key = (String) keys.next();
+				List<String> list = new LinkedList<String>();
+				JSONArray array = fields.optJSONArray(key);
+				if (array != null) {
+					for (int i = 0; i < array.length(); i++) {
+						list.add(array.getString(i));
+					}
+				} else {
+					list.add(fields.getString(key));
+				}
+				values.put(key, list);
+			}
+		} catch (JSONObjectAdapterException e) {
+			// Convert to runtime
+			throw new RuntimeException(e);
+		} catch (JSONException e) {
+			// Convert to runtime
+			throw new RuntimeException(e);
+		}
+		return values;
+	}
+
+	@Override
+	public void deleteDocument(String docIdToDelete) throws ClientProtocolException, IOException, HttpClientHelperException {
+		index.deleteDocuments(Collections.singletonList(docIdToDelete));
+	}
+
+	@Override
+	public void deleteDocuments(Set<String> docIdsToDelete) throws ClientProtocolException, IOException, HttpClientHelperException {
+		index.deleteDocuments(docIdsToDelete);
+	}
+
+	@Override
+	public SearchResults executeSearch(String search) throws ClientProtocolException, IOException, HttpClientHelperException {
+		try {
+			return searchResultsFactory.fromAwesomeSearchResults(executeRawSearch(search));
+		} catch (JSONObjectAdapterException e) {
+			// Convert to runtime
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String executeRawSearch(String search) throws ClientProtocolException, IOException, HttpClientHelperException {
+		long start = System.currentTimeMillis();
+		LocalSearchResult result = index.search(LocalSearchQuery.parse(search));
+		try {
+			return toJSON(result, System.currentTimeMillis() - start).toString();
+		} catch (JSONException e) {
+			// Convert to runtime
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write the result in the same form as a CloudSearch response.
+	 *
+	 * @param result
+	 * @param elapsedMS
+	 * @return
+	 * @throws JSONException
+	 */
+	static JSONObject toJSON(LocalSearchResult result, long elapsedMS) throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("rank", result.getRank());
+		json.put("match-expr", result.getMatchExpression());
+		JSONObject hits = new JSONObject();
+		hits.put("found", result.getFound());
+		hits.put("start", result.getStart());
+		JSONArray hitArray = new JSONArray();
+		for (LocalSearchResult.Hit hit : result.getHits()) {
+			JSONObject hitJSON = new JSONObject();
+			hitJSON.put("id", hit.getId());
+			if (!hit.getData().isEmpty()) {
+				JSONObject data = new JSONObject();
+				for (Map.Entry<String, List<String>> entry : hit.getData().entrySet()) {
+					data.put(entry.getKey(), new JSONArray(entry.getValue()));
+				}
+				hitJSON.put("data", data);
+			}
+			hitArray.put(hitJSON);
+		}
+		hits.put("hit", hitArray);
+		json.put("hits", hits);
+		if (!result.getFacets().isEmpty()) {
+			JSONObject facets = new JSONObject();
+			for (LocalSearchResult.Facet facet : result.getFacets()) {
+				JSONObject facetJSON = new JSONObject();
+				if (facet.getMin() != null) {
+					facetJSON.put("min", facet.getMin());
+					facetJSON.put("max", facet.getMax());
+				}
+				if (facet.getConstraints() != null) {
+					JSONArray constraints = new JSONArray();
+					for (LocalSearchResult.FacetConstraint constraint : facet.getConstraints()) {
+						JSONObject constraintJSON = new JSONObject();
+						constraintJSON.put("value", constraint.getValue());
+						constraintJSON.put("count", constraint.getCount());
+						constraints.put(constraintJSON);
+					}
+					facetJSON.put("constraints", constraints);
+				}
+				facets.put(facet.getName(), facetJSON);
+			}
+			json.put("facets", facets);
+		}
+		JSONObject info = new JSONObject();
+		info.put("time-ms", elapsedMS);
+		json.put("info", info);
+		return json;
+	}
+
+	@Override
+	public boolean doesDocumentExist(String id, String etag) throws ClientProtocolException, IOException, HttpClientHelperException {
+		return etag != null && etag.equals(index.getFirstValue(id, FIELD_ETAG));
+	}
+
+	@Override
+	public Set<String> getExistingDocumentIds(Map<String, String> idToEtag) throws ClientProtocolException, IOException, HttpClientHelperException {
+		if (idToEtag == null)
+			throw new IllegalArgumentException("The map of IDs to etags cannot be null");
+		Set<String> existing = new HashSet<String>();
+		for (Map.Entry<String, String> entry : idToEtag.entrySet()) {
+			if (entry.getKey() != null && doesDocumentExist(entry.getKey(), entry.getValue())) {
+				existing.add(entry.getKey());
+			}
+		}
+		return existing;
+	}
+
+	@Override
+	public SearchResults listSearchDocuments(long limit, long offset) throws ClientProtocolException, IOException, HttpClientHelperException {
+		return executeSearch(String.format(QUERY_LIST_ALL_DOCUMENTS_ONE_PAGE, limit, offset));
+	}
+
+	@Override
+	public void deleteAllDocuments() throws ClientProtocolException, IOException, HttpClientHelperException, InterruptedException {
+		// Include documents that are not searchable yet
+		index.refresh();
+		Set<String> ids = index.getDocumentIds();
+		log.warn("Deleting " + ids.size() + " documents from the local search index");
+		index.deleteDocuments(ids);
+		// Unlike CloudSearch the deletes can be made visible right away
+		index.refresh();
+	}
+
+	@Override
+	public boolean isSearchEnabled() {
+		return true;
+	}
+
+}
@@ -0,0 +1,1296 @@
+package org.sagebionetworks.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.search.LocalSearchQuery.Expression;
+import org.sagebionetworks.search.LocalSearchQuery.SortField;
+import org.sagebionetworks.search.LocalSearchQuery.TextTerm;
+
+/**
+ * An in-process inverted index that answers the same queries as our
+ * CloudSearch domain, so search can run without a search domain.
+ *
+ * Every change is appended to a journal file and synced to disk before it is
+ * accepted, and the journal is replayed when the index is opened. The journal
+ * is rewritten with just the live documents once it holds too many replaced or
+ * deleted documents.
+ *
+ * Indices in several processes, such as the repository and the workers, can
+ * share a journal directory. The journal is only written while holding an
+ * exclusive lock on a lock file, and a refresh reads the records that any
+ * process appended since the last refresh.
+ *
+ * Changes only become searchable when the index is refreshed. A search
+ * refreshes the index when the refresh interval has passed since the last
+ * refresh, so changes show up in near real time without paying for a refresh
+ * on every change.
+ *
+ */
+public class LocalSearchIndex {
+
+	static private Logger log = LogManager.getLogger(LocalSearchIndex.class);
+
+	public static final long DEFAULT_REFRESH_INTERVAL_MS = 1000;
+	public static final String JOURNAL_FILE_NAME = "search-index.journal";
+	public static final String LOCK_FILE_NAME = "search-index.lock";
+	private static final int JOURNAL_MAGIC = 0x534a4e31;
+	/**
+	 * The magic number and the generation, which changes each time the
+	 * journal is compacted.
+	 */
+	private static final int HEADER_LENGTH = 12;
+	private static final int COMPACT_BATCH_SIZE = 1000;
+	/**
+	 * The journal is compacted once it holds this many more records than twice
+	 * the number of live documents.
+	 */
+	static final long MIN_RECORDS_BEFORE_COMPACT = 10000;
+	private static final byte OP_ADD = 1;
+	private static final byte OP_DELETE = 2;
+	private static final String UTF_8 = "UTF-8";
+
+	public enum FieldType {
+		LITERAL, TEXT, UINT
+	}
+
+	/**
+	 * The definition of an index field.
+	 */
+	public static class Field {
+		String name;
+		FieldType type;
+		boolean resultEnabled;
+		String sourceField;
+
+		/**
+		 * @param name
+		 * @param type
+		 * @param resultEnabled
+		 *            Can the field be returned with the hits?
+		 * @param sourceField
+		 *            When not null the values of this field are copied from
+		 *            the source field.
+		 */
+		public Field(String name, FieldType type, boolean resultEnabled, String sourceField) {
+			if (name == null)
+				throw new IllegalArgumentException("Name cannot be null");
+			if (type == null)
+				throw new IllegalArgumentException("Type cannot be null");
+			this.name = name;
+			this.type = type;
+			this.resultEnabled = resultEnabled;
+			this.sourceField = sourceField;
+		}
+	}
+
+	private static class IndexedDocument {
+		String id;
+		/**
+		 * The fields as they were added, written to the journal.
+		 */
+		Map<String, List<String>> original;
+		/**
+		 * The original fields plus the copied fields.
+		 */
+		Map<String, List<String>> fields;
+		Map<String, Integer> termCounts = new HashMap<String, Integer>();
+	}
+
+	private static class Operation {
+		String id;
+		/**
+		 * Null for a delete.
+		 */
+		Map<String, List<String>> fields;
+	}
+
+	private final Map<String, Field> fieldDefinitions = new HashMap<String, Field>();
+	private final List<Field> copyFields = new LinkedList<Field>();
+	private final List<String> textFields = new LinkedList<String>();
+	private final File directory;
+	private volatile long refreshIntervalMS = DEFAULT_REFRESH_INTERVAL_MS;
+
+	// Guarded by lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, IndexedDocument> documents = new HashMap<String, IndexedDocument>();
+	private final Map<String, TreeMap<String, Set<String>>> postings = new HashMap<String, TreeMap<String, Set<String>>>();
+	private final Map<String, TreeMap<Long, Set<String>>> numericPostings = new HashMap<String, TreeMap<Long, Set<String>>>();
+	private volatile long lastRefresh = System.currentTimeMillis();
+
+	// Guarded by journalLock. Every index on the same directory, in this or any
+	// other process, appends to the same journal. The journal is only read or
+	// written while holding the lock file, and refresh() applies the records
+	// written since the last refresh.
+	private final Object journalLock;
+	private volatile boolean open = false;
+	private long journalGeneration;
+	private long journalOffset;
+	private long journalRecords = 0;
+
+	// Guarded by pending
+	private final List<Operation> pending = new LinkedList<Operation>();
+
+	/**
+	 * FileChannel locks are held by the whole JVM, so indices in this JVM that
+	 * share a directory also share a monitor.
+	 */
+	private static final Map<String, Object> DIRECTORY_LOCKS = new HashMap<String, Object>();
+
+	private interface JournalTask<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * @param fields
+	 *            The fields of the index. Fields that are not defined are
+	 *            indexed as literals.
+	 * @param directory
+	 *            Where the journal is kept. When null the index is only kept
+	 *            in memory. Indices in any number of processes can share a
+	 *            directory.
+	 */
+	public LocalSearchIndex(List<Field> fields, File directory) {
+		if (fields == null)
+			throw new IllegalArgumentException("Fields cannot be null");
+		for (Field field : fields) {
+			fieldDefinitions.put(field.name, field);
+			if (field.sourceField != null) {
+				copyFields.add(field);
+			}
+			if (FieldType.TEXT == field.type) {
+				textFields.add(field.name);
+			}
+		}
+		this.directory = directory;
+		this.journalLock = getDirectoryLock(directory);
+	}
+
+	private static Object getDirectoryLock(File directory) {
+		if (directory == null)
+			return new Object();
+		String key = directory.getAbsoluteFile().toURI().normalize().toString();
+		synchronized (DIRECTORY_LOCKS) {
+			Object directoryLock = DIRECTORY_LOCKS.get(key);
+			if (directoryLock == null) {
+				directoryLock = new Object();
+				DIRECTORY_LOCKS.put(key, directoryLock);
+			}
+			return directoryLock;
+		}
+	}
+
+	/**
+	 * How long a change can wait before a search refreshes the index.
+	 *
+	 * @param refreshIntervalMS
+	 */
+	public void setRefreshIntervalMS(long refreshIntervalMS) {
+		this.refreshIntervalMS = refreshIntervalMS;
+	}
+
+	/**
+	 * Load the journal. Must be called before the index is used.
+	 *
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		if (directory == null)
+			return;
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Cannot create the search index directory: " + directory.getAbsolutePath());
+		synchronized (journalLock) {
+			withFileLock(true, new JournalTask<Void>() {
+				@Override
+				public Void run() throws IOException {
+					RandomAccessFile journal = new RandomAccessFile(getJournalFile(), "rw");
+					try {
+						if (journal.length() < HEADER_LENGTH) {
+							// A new journal, or a crash while one was created.
+							journal.setLength(0);
+							writeHeader(journal, newGeneration());
+							journal.getFD().sync();
+						}
+						reload(journal, true);
+					} finally {
+						journal.close();
+					}
+					return null;
+				}
+			});
+			open = true;
+		}
+		log.info("Loaded " + size() + " documents from " + journalRecords + " records of " + getJournalFile().getAbsolutePath());
+	}
+
+	/**
+	 * Stop writing to the journal.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized (journalLock) {
+			open = false;
+		}
+	}
+
+	private File getJournalFile() {
+		return new File(directory, JOURNAL_FILE_NAME);
+	}
+
+	/**
+	 * Run a task while holding the lock file. Must be called while holding the
+	 * journalLock.
+	 *
+	 * @param exclusive
+	 *            Writers need an exclusive lock. Readers share the lock.
+	 */
+	private <T> T withFileLock(boolean exclusive, JournalTask<T> task) throws IOException {
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+		try {
+			FileLock fileLock = lockFile.getChannel().lock(0, Long.MAX_VALUE, !exclusive);
+			try {
+				return task.run();
+			} finally {
+				fileLock.release();
+			}
+		} finally {
+			lockFile.close();
+		}
+	}
+
+	private static long newGeneration() {
+		return UUID.randomUUID().getMostSignificantBits();
+	}
+
+	private static void writeHeader(RandomAccessFile journal, long generation) throws IOException {
+		journal.seek(0);
+		journal.writeInt(JOURNAL_MAGIC);
+		journal.writeLong(generation);
+	}
+
+	private long readGeneration(RandomAccessFile journal) throws IOException {
+		journal.seek(0);
+		if (journal.readInt() != JOURNAL_MAGIC)
+			throw new IOException("Not a search index journal: " + getJournalFile().getAbsolutePath());
+		return journal.readLong();
+	}
+
+	/**
+	 * Add or replace a batch of documents.
+	 *
+	 * @param batch
+	 *            Maps each document ID to the values of its fields.
+	 * @throws IOException
+	 */
+	public void addDocuments(Map<String, Map<String, List<String>>> batch) throws IOException {
+		if (batch == null)
+			throw new IllegalArgumentException("Batch cannot be null");
+		List<Operation> operations = new LinkedList<Operation>();
+		for (Map.Entry<String, Map<String, List<String>>> entry : batch.entrySet()) {
+			if (entry.getKey() == null)
+				throw new IllegalArgumentException("Document ID cannot be null");
+			if (entry.getValue() == null)
+				throw new IllegalArgumentException("Fields cannot be null for document: " + entry.getKey());
+			Operation operation = new Operation();
+			operation.id = entry.getKey();
+			operation.fields = copyFields(entry.getValue());
+			operations.add(operation);
+		}
+		write(operations);
+	}
+
+	/**
+	 * Delete a batch of documents.
+	 *
+	 * @param ids
+	 * @throws IOException
+	 */
+	public void deleteDocuments(Collection<String> ids) throws IOException {
+		if (ids == null)
+			throw new IllegalArgumentException("IDs cannot be null");
+		List<Operation> operations = new LinkedList<Operation>();
+		for (String id : ids) {
+			if (id == null)
+				throw new IllegalArgumentException("Document ID cannot be null");
+			Operation operation = new Operation();
+			operation.id = id;
+			operations.add(operation);
+		}
+		write(operations);
+	}
+
+	private static Map<String, List<String>> copyFields(Map<String, List<String>> fields) {
+		Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String>> entry : fields.entrySet()) {
+			if (entry.getValue() != null) {
+				copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Append the operations to the journal and sync it to disk, then queue
+	 * them for the next refresh.
+	 */
+	private void write(final List<Operation> operations) throws IOException {
+		if (operations.isEmpty())
+			return;
+		boolean compact;
+		synchronized (journalLock) {
+			if (!open) {
+				synchronized (pending) {
+					pending.addAll(operations);
+				}
+				return;
+			}
+			final byte[] batch = encodeBatch(operations);
+			withFileLock(true, new JournalTask<Void>() {
+				@Override
+				public Void run() throws IOException {
+					RandomAccessFile journal = new RandomAccessFile(getJournalFile(), "rw");
+					try {
+						// Other writers might have appended since the last read,
+						// and their records must be applied before these.
+						readNewRecords(journal, true);
+						journal.seek(journalOffset);
+						journal.write(batch);
+						journal.getFD().sync();
+						journalOffset += batch.length;
+						journalRecords += operations.size();
+					} finally {
+						journal.close();
+					}
+					synchronized (pending) {
+						pending.addAll(operations);
+					}
+					return null;
+				}
+			});
+			// Pending records might all be new documents.
+			int pendingCount;
+			synchronized (pending) {
+				pendingCount = pending.size();
+			}
+			compact = journalRecords > 2 * (size() + pendingCount) + MIN_RECORDS_BEFORE_COMPACT;
+		}
+		if (compact) {
+			compact();
+		}
+	}
+
+	/**
+	 * Make all changes searchable, including the changes written to the
+	 * journal by other processes.
+	 */
+	public void refresh() {
+		synchronized (journalLock) {
+			if (open) {
+				try {
+					withFileLock(false, new JournalTask<Void>() {
+						@Override
+						public Void run() throws IOException {
+							RandomAccessFile journal = new RandomAccessFile(getJournalFile(), "r");
+							try {
+								readNewRecords(journal, false);
+							} finally {
+								journal.close();
+							}
+							return null;
+						}
+					});
+				} catch (IOException e) {
+					// Keep serving the changes that were already read.
+					log.error("Failed to read the search index journal " + getJournalFile().getAbsolutePath(), e);
+				}
+			}
+			lock.writeLock().lock();
+			try {
+				applyPending();
+				lastRefresh = System.currentTimeMillis();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	private void applyPending() {
+		List<Operation> operations;
+		synchronized (pending) {
+			operations = new ArrayList<Operation>(pending);
+			pending.clear();
+		}
+		for (Operation operation : operations) {
+			apply(operation);
+		}
+	}
+
+	private void maybeRefresh() {
+		if (System.currentTimeMillis() - lastRefresh < refreshIntervalMS)
+			return;
+		if (!open) {
+			synchronized (pending) {
+				if (pending.isEmpty())
+					return;
+			}
+		}
+		refresh();
+	}
+
+	/**
+	 * Queue the records appended to the journal since it was last read. If the
+	 * journal was compacted by another process the index is reloaded. Must be
+	 * called while holding the journalLock and the lock file.
+	 *
+	 * @param exclusive
+	 *            Only the holder of the exclusive lock can remove a partial
+	 *            record.
+	 */
+	private void readNewRecords(RandomAccessFile journal, boolean exclusive) throws IOException {
+		if (readGeneration(journal) != journalGeneration) {
+			reload(journal, exclusive);
+			return;
+		}
+		List<Operation> operations = readBatches(journal, exclusive);
+		synchronized (pending) {
+			pending.addAll(operations);
+		}
+	}
+
+	/**
+	 * Replace the contents of the index with every record of the journal.
+	 * Must be called while holding the journalLock and the lock file.
+	 */
+	private void reload(RandomAccessFile journal, boolean exclusive) throws IOException {
+		journalGeneration = readGeneration(journal);
+		journalOffset = HEADER_LENGTH;
+		journalRecords = 0;
+		List<Operation> operations = readBatches(journal, exclusive);
+		lock.writeLock().lock();
+		try {
+			documents.clear();
+			postings.clear();
+			numericPostings.clear();
+			synchronized (pending) {
+				// Anything pending is also in the journal.
+				pending.clear();
+			}
+			for (Operation operation : operations) {
+				apply(operation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Read the batches from the journal offset to the end of the journal. A
+	 * partial batch at the end, left by a crash during a write, is removed
+	 * when holding the exclusive lock and skipped otherwise.
+	 */
+	private List<Operation> readBatches(RandomAccessFile journal, boolean exclusive) throws IOException {
+		List<Operation> operations = new LinkedList<Operation>();
+		long length = journal.length();
+		long offset = journalOffset;
+		while (offset < length) {
+			int batchLength = -1;
+			if (offset + 4 <= length) {
+				journal.seek(offset);
+				batchLength = journal.readInt();
+			}
+			if (batchLength < 0 || offset + 4 + batchLength > length) {
+				if (exclusive) {
+					log.warn("Removing a partial record at " + offset + " of " + getJournalFile().getAbsolutePath());
+					journal.setLength(offset);
+				}
+				break;
+			}
+			byte[] batch = new byte[batchLength];
+			journal.readFully(batch);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				operations.add(readRecord(in, offset));
+			}
+			journalRecords += count;
+			offset += 4 + batchLength;
+		}
+		journalOffset = offset;
+		return operations;
+	}
+
+	/**
+	 * Rewrite the journal with just the live documents.
+	 *
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		synchronized (journalLock) {
+			if (!open)
+				return;
+			withFileLock(true, new JournalTask<Void>() {
+				@Override
+				public Void run() throws IOException {
+					// Everything in the journal must be in the index before it is rewritten.
+					RandomAccessFile journal = new RandomAccessFile(getJournalFile(), "rw");
+					try {
+						readNewRecords(journal, true);
+					} finally {
+						journal.close();
+					}
+					long generation = newGeneration();
+					File file = getJournalFile();
+					File temp = new File(directory, JOURNAL_FILE_NAME + ".tmp");
+					long records = 0;
+					lock.writeLock().lock();
+					try {
+						applyPending();
+						RandomAccessFile out = new RandomAccessFile(temp, "rw");
+						try {
+							out.setLength(0);
+							writeHeader(out, generation);
+							List<Operation> operations = new ArrayList<Operation>(COMPACT_BATCH_SIZE);
+							for (IndexedDocument document : documents.values()) {
+								Operation operation = new Operation();
+								operation.id = document.id;
+								operation.fields = document.original;
+								operations.add(operation);
+								if (operations.size() == COMPACT_BATCH_SIZE) {
+									out.write(encodeBatch(operations));
+									records += operations.size();
+									operations.clear();
+								}
+							}
+							if (!operations.isEmpty()) {
+								out.write(encodeBatch(operations));
+								records += operations.size();
+							}
+							out.getFD().sync();
+						} finally {
+							out.close();
+						}
+					} finally {
+						lock.writeLock().unlock();
+					}
+					if (!temp.renameTo(file)) {
+						// Some platforms cannot rename over an existing file.
+						if (!file.delete() || !temp.renameTo(file))
+							throw new IOException("Failed to replace " + file.getAbsolutePath());
+					}
+					log.info("Compacted the search index journal from " + journalRecords + " to " + records + " records");
+					journalGeneration = generation;
+					journalOffset = file.length();
+					journalRecords = records;
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * A batch is its length, the number of records and the records, so a
+	 * batch that was not completely written can be detected.
+	 */
+	private static byte[] encodeBatch(List<Operation> operations) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		// The length is filled in below.
+		out.writeInt(0);
+		out.writeInt(operations.size());
+		for (Operation operation : operations) {
+			writeRecord(out, operation);
+		}
+		out.flush();
+		byte[] batch = bytes.toByteArray();
+		ByteBuffer.wrap(batch).putInt(batch.length - 4);
+		return batch;
+	}
+
+	private static void writeRecord(DataOutputStream out, Operation operation) throws IOException {
+		out.writeByte(operation.fields == null ? OP_DELETE : OP_ADD);
+		writeString(out, operation.id);
+		if (operation.fields != null) {
+			out.writeInt(operation.fields.size());
+			for (Map.Entry<String, List<String>> entry : operation.fields.entrySet()) {
+				writeString(out, entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (String value : entry.getValue()) {
+					writeString(out, value);
+				}
+			}
+		}
+	}
+
+	private Operation readRecord(DataInputStream in, long batchOffset) throws IOException {
+		int op = in.read();
+		Operation operation = new Operation();
+		operation.id = readString(in);
+		if (OP_ADD == op) {
+			int fieldCount = in.readInt();
+			operation.fields = new LinkedHashMap<String, List<String>>();
+			for (int i = 0; i < fieldCount; i++) {
+				String name = readString(in);
+				int valueCount = in.readInt();
+				List<String> values = new ArrayList<String>(valueCount);
+				for (int j = 0; j < valueCount; j++) {
+					values.add(readString(in));
+				}
+				operation.fields.put(name, values);
+			}
+		} else if (OP_DELETE != op) {
+			throw new IOException("Unknown operation " + op + " in the batch at " + batchOffset + " of " + getJournalFile().getAbsolutePath());
+		}
+		return operation;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		// writeUTF() is limited to 64K, which is too small for descriptions
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	private void apply(Operation operation) {
+		IndexedDocument existing = documents.remove(operation.id);
+		if (existing != null) {
+			unindex(existing);
+		}
+		if (operation.fields != null) {
+			IndexedDocument document = new IndexedDocument();
+			document.id = operation.id;
+			document.original = operation.fields;
+			document.fields = new HashMap<String, List<String>>(operation.fields);
+			for (Field copy : copyFields) {
+				List<String> values = operation.fields.get(copy.sourceField);
+				if (values != null) {
+					document.fields.put(copy.name, values);
+				}
+			}
+			index(document);
+			documents.put(document.id, document);
+		}
+	}
+
+	private void index(IndexedDocument document) {
+		for (Map.Entry<String, List<String>> entry : document.fields.entrySet()) {
+			String name = entry.getKey();
+			FieldType type = getField(name).type;
+			for (String value : entry.getValue()) {
+				if (value == null)
+					continue;
+				if (FieldType.UINT == type) {
+					Long number = parseNumber(value);
+					if (number != null) {
+						getIds(getNumericPostings(name), number).add(document.id);
+					}
+				} else if (FieldType.TEXT == type) {
+					for (String token : tokenize(value)) {
+						getIds(getPostings(name), token).add(document.id);
+						Integer count = document.termCounts.get(token);
+						document.termCounts.put(token, count == null ? 1 : count + 1);
+					}
+				} else {
+					getIds(getPostings(name), value).add(document.id);
+				}
+			}
+		}
+	}
+
+	private void unindex(IndexedDocument document) {
+		for (Map.Entry<String, List<String>> entry : document.fields.entrySet()) {
+			String name = entry.getKey();
+			FieldType type = getField(name).type;
+			for (String value : entry.getValue()) {
+				if (value == null)
+					continue;
+				if (FieldType.UINT == type) {
+					Long number = parseNumber(value);
+					if (number != null) {
+						removeId(numericPostings.get(name), number, document.id);
+					}
+				} else if (FieldType.TEXT == type) {
+					for (String token : tokenize(value)) {
+						removeId(postings.get(name), token, document.id);
+					}
+				} else {
+					removeId(postings.get(name), value, document.id);
+				}
+			}
+		}
+	}
+
+	private static <K> Set<String> getIds(TreeMap<K, Set<String>> map, K key) {
+		Set<String> ids = map.get(key);
+		if (ids == null) {
+			ids = new HashSet<String>();
+			map.put(key, ids);
+		}
+		return ids;
+	}
+
+	private static <K> void removeId(TreeMap<K, Set<String>> map, K key, String id) {
+		if (map == null)
+			return;
+		Set<String> ids = map.get(key);
+		if (ids != null) {
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	private TreeMap<String, Set<String>> getPostings(String field) {
+		TreeMap<String, Set<String>> map = postings.get(field);
+		if (map == null) {
+			map = new TreeMap<String, Set<String>>();
+			postings.put(field, map);
+		}
+		return map;
+	}
+
+	private TreeMap<Long, Set<String>> getNumericPostings(String field) {
+		TreeMap<Long, Set<String>> map = numericPostings.get(field);
+		if (map == null) {
+			map = new TreeMap<Long, Set<String>>();
+			numericPostings.put(field, map);
+		}
+		return map;
+	}
+
+	private Field getField(String name) {
+		Field field = fieldDefinitions.get(name);
+		if (field == null) {
+			// Fields that are not in the schema are literals
+			field = new Field(name, FieldType.LITERAL, true, null);
+		}
+		return field;
+	}
+
+	private static Long parseNumber(String value) {
+		try {
+			return Long.valueOf(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Split text into lower case words.
+	 *
+	 * @param text
+	 * @return
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> tokens = new LinkedList<String>();
+		for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+			if (token.length() > 0) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * The number of searchable documents.
+	 *
+	 * @return
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The IDs of all searchable documents.
+	 *
+	 * @return
+	 */
+	public Set<String> getDocumentIds() {
+		maybeRefresh();
+		lock.readLock().lock();
+		try {
+			return new HashSet<String>(documents.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The first value of a field of a searchable document.
+	 *
+	 * @param id
+	 * @param field
+	 * @return Null if the document or field does not exist.
+	 */
+	public String getFirstValue(String id, String field) {
+		maybeRefresh();
+		lock.readLock().lock();
+		try {
+			IndexedDocument document = documents.get(id);
+			if (document == null)
+				return null;
+			List<String> values = document.fields.get(field);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Run a search.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public LocalSearchResult search(LocalSearchQuery query) {
+		if (query == null)
+			throw new IllegalArgumentException("Query cannot be null");
+		maybeRefresh();
+		lock.readLock().lock();
+		try {
+			Set<String> matches = null;
+			if (query.getBooleanQuery() != null) {
+				matches = evaluate(query.getBooleanQuery());
+			}
+			Map<String, Double> scores = new HashMap<String, Double>();
+			if (!query.getTextTerms().isEmpty()) {
+				Set<String> textMatches = evaluateText(query.getTextTerms(), scores);
+				if (matches == null) {
+					matches = textMatches;
+				} else {
+					matches.retainAll(textMatches);
+				}
+			}
+			List<String> ranked = new ArrayList<String>(matches);
+			Collections.sort(ranked, createComparator(query.getRank(), scores));
+
+			LocalSearchResult result = new LocalSearchResult();
+			result.matchExpression = query.getMatchExpression();
+			result.rank = toString(query.getRank());
+			result.found = ranked.size();
+			result.start = query.getStart();
+			int end = (int) Math.min((long) query.getStart() + query.getSize(), ranked.size());
+			for (int i = query.getStart(); i < end; i++) {
+				result.hits.add(createHit(ranked.get(i), query.getReturnFields(), scores));
+			}
+			for (String facet : query.getFacets()) {
+				result.facets.add(createFacet(facet, matches, query));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return A new set that the caller can change.
+	 */
+	private Set<String> evaluate(Expression expression) {
+		switch (expression.getOperator()) {
+		case AND:
+			Set<String> and = null;
+			for (Expression child : expression.getChildren()) {
+				Set<String> ids = evaluate(child);
+				if (and == null) {
+					and = ids;
+				} else {
+					and.retainAll(ids);
+				}
+			}
+			return and == null ? new HashSet<String>() : and;
+		case OR:
+			Set<String> or = new HashSet<String>();
+			for (Expression child : expression.getChildren()) {
+				or.addAll(evaluate(child));
+			}
+			return or;
+		case NOT:
+			Set<String> not = new HashSet<String>(documents.keySet());
+			not.removeAll(evaluate(expression.getChildren().get(0)));
+			return not;
+		default:
+			return evaluateTerm(expression);
+		}
+	}
+
+	private Set<String> evaluateTerm(Expression term) {
+		Set<String> results = new HashSet<String>();
+		if (term.getField() == null) {
+			// Match the words in any of the text fields
+			Set<String> all = null;
+			for (String token : tokenize(term.getValue())) {
+				Set<String> ids = new HashSet<String>();
+				for (String field : textFields) {
+					addIds(ids, postings.get(field), token, false);
+				}
+				if (all == null) {
+					all = ids;
+				} else {
+					all.retainAll(ids);
+				}
+			}
+			return all == null ? results : all;
+		}
+		Field field = getField(term.getField());
+		if (term.isRange() || FieldType.UINT == field.type) {
+			TreeMap<Long, Set<String>> map = numericPostings.get(field.name);
+			if (map == null)
+				return results;
+			if (term.isRange()) {
+				long min = term.getMin() == null ? Long.MIN_VALUE : term.getMin();
+				long max = term.getMax() == null ? Long.MAX_VALUE : term.getMax();
+				if (min > max)
+					return results;
+				for (Set<String> ids : map.subMap(min, true, max, true).values()) {
+					results.addAll(ids);
+				}
+				return results;
+			}
+			Long number = parseNumber(term.getValue());
+			if (number == null)
+				throw new IllegalArgumentException("Expected a number for " + field.name + " but was: " + term.getValue());
+			Set<String> ids = map.get(number);
+			if (ids != null) {
+				results.addAll(ids);
+			}
+			return results;
+		}
+		boolean prefix = term.getValue().endsWith("*");
+		String value = prefix ? term.getValue().substring(0, term.getValue().length() - 1) : term.getValue();
+		if (FieldType.TEXT == field.type) {
+			List<String> tokens = tokenize(value);
+			Set<String> all = null;
+			for (int i = 0; i < tokens.size(); i++) {
+				Set<String> ids = new HashSet<String>();
+				addIds(ids, postings.get(field.name), tokens.get(i), prefix && i == tokens.size() - 1);
+				if (all == null) {
+					all = ids;
+				} else {
+					all.retainAll(ids);
+				}
+			}
+			return all == null ? results : all;
+		}
+		addIds(results, postings.get(field.name), value, prefix);
+		return results;
+	}
+
+	private static void addIds(Set<String> results, TreeMap<String, Set<String>> map, String term, boolean prefix) {
+		if (map == null)
+			return;
+		if (prefix) {
+			for (Set<String> ids : map.subMap(term, true, term + Character.MAX_VALUE, true).values()) {
+				results.addAll(ids);
+			}
+		} else {
+			Set<String> ids = map.get(term);
+			if (ids != null) {
+				results.addAll(ids);
+			}
+		}
+	}
+
+	/**
+	 * Every included term must be in one of the text fields and no excluded
+	 * term can be. The relevance of a document is the number of times the
+	 * included terms occur in its text fields.
+	 */
+	private Set<String> evaluateText(List<TextTerm> terms, Map<String, Double> scores) {
+		Set<String> matches = null;
+		Set<String> excluded = new HashSet<String>();
+		for (TextTerm term : terms) {
+			Set<String> ids = new HashSet<String>();
+			for (String field : textFields) {
+				addIds(ids, postings.get(field), term.getText(), term.isPrefix());
+			}
+			if (term.isExcluded()) {
+				excluded.addAll(ids);
+			} else if (matches == null) {
+				matches = ids;
+			} else {
+				matches.retainAll(ids);
+			}
+		}
+		if (matches == null) {
+			matches = new HashSet<String>(documents.keySet());
+		}
+		matches.removeAll(excluded);
+		for (String id : matches) {
+			IndexedDocument document = documents.get(id);
+			double score = 0;
+			for (TextTerm term : terms) {
+				if (term.isExcluded())
+					continue;
+				if (term.isPrefix()) {
+					for (Map.Entry<String, Integer> entry : document.termCounts.entrySet()) {
+						if (entry.getKey().startsWith(term.getText())) {
+							score += entry.getValue();
+						}
+					}
+				} else {
+					Integer count = document.termCounts.get(term.getText());
+					if (count != null) {
+						score += count;
+					}
+				}
+			}
+			scores.put(id, score);
+		}
+		return matches;
+	}
+
+	private Comparator<String> createComparator(final List<SortField> rank, final Map<String, Double> scores) {
+		return new Comparator<String>() {
+			@Override
+			public int compare(String one, String two) {
+				for (SortField sort : rank) {
+					int compare;
+					if (LocalSearchQuery.TEXT_RELEVANCE.equals(sort.getField())) {
+						compare = Double.compare(getScore(one), getScore(two));
+					} else if (FieldType.UINT == getField(sort.getField()).type) {
+						compare = compareLong(getNumber(one, sort.getField()), getNumber(two, sort.getField()));
+					} else {
+						compare = getString(one, sort.getField()).compareTo(getString(two, sort.getField()));
+					}
+					if (compare != 0) {
+						return sort.isDescending() ? -compare : compare;
+					}
+				}
+				return one.compareTo(two);
+			}
+
+			private double getScore(String id) {
+				Double score = scores.get(id);
+				return score == null ? 0 : score;
+			}
+
+			private long getNumber(String id, String field) {
+				Long number = getFirstNumber(documents.get(id), field);
+				return number == null ? 0 : number;
+			}
+
+			private String getString(String id, String field) {
+				List<String> values = documents.get(id).fields.get(field);
+				return values == null || values.isEmpty() ? "" : values.get(0);
+			}
+		};
+	}
+
+	private static int compareLong(long one, long two) {
+		return one < two ? -1 : (one == two ? 0 : 1);
+	}
+
+	private static Long getFirstNumber(IndexedDocument document, String field) {
+		List<String> values = document.fields.get(field);
+		if (values != null) {
+			for (String value : values) {
+				Long number = parseNumber(value);
+				if (number != null)
+					return number;
+			}
+		}
+		return null;
+	}
+
+	private static String toString(List<SortField> rank) {
+		StringBuilder builder = new StringBuilder();
+		for (SortField sort : rank) {
+			if (builder.length() > 0) {
+				builder.append(",");
+			}
+			if (sort.isDescending()) {
+				builder.append("-");
+			}
+			builder.append(sort.getField());
+		}
+		return builder.toString();
+	}
+
+	private LocalSearchResult.Hit createHit(String id, List<String> returnFields, Map<String, Double> scores) {
+		LocalSearchResult.Hit hit = new LocalSearchResult.Hit();
+		hit.id = id;
+		IndexedDocument document = documents.get(id);
+		for (String name : returnFields) {
+			if (LocalSearchQuery.TEXT_RELEVANCE.equals(name)) {
+				Double score = scores.get(id);
+				hit.data.put(name, Collections.singletonList(Long.toString(score == null ? 0 : Math.round(score))));
+				continue;
+			}
+			if (!getField(name).resultEnabled)
+				continue;
+			List<String> values = document.fields.get(name);
+			if (values != null) {
+				hit.data.put(name, new ArrayList<String>(values));
+			}
+		}
+		return hit;
+	}
+
+	private LocalSearchResult.Facet createFacet(String name, Set<String> matches, LocalSearchQuery query) {
+		LocalSearchResult.Facet facet = new LocalSearchResult.Facet();
+		facet.name = name;
+		List<String> constraints = query.getFacetConstraints().get(name);
+		if (FieldType.UINT == getField(name).type) {
+			for (String id : matches) {
+				List<String> values = documents.get(id).fields.get(name);
+				if (values == null)
+					continue;
+				for (String value : values) {
+					Long number = parseNumber(value);
+					if (number == null)
+						continue;
+					if (facet.min == null || number < facet.min)
+						facet.min = number;
+					if (facet.max == null || number > facet.max)
+						facet.max = number;
+				}
+			}
+			if (constraints != null) {
+				facet.constraints = new LinkedList<LocalSearchResult.FacetConstraint>();
+				for (String constraint : constraints) {
+					Expression range = LocalSearchQuery.parseBooleanQuery(name + ":" + constraint);
+					Set<String> ids = evaluateTerm(range);
+					ids.retainAll(matches);
+					if (!ids.isEmpty()) {
+						addConstraint(facet, constraint, ids.size());
+					}
+				}
+			}
+			return facet;
+		}
+		// Group the matches by value
+		final Map<String, List<String>> valueIds = new HashMap<String, List<String>>();
+		for (String id : matches) {
+			List<String> values = documents.get(id).fields.get(name);
+			if (values == null)
+				continue;
+			for (String value : new LinkedHashSet<String>(values)) {
+				if (constraints != null && !constraints.contains(value))
+					continue;
+				List<String> ids = valueIds.get(value);
+				if (ids == null) {
+					ids = new LinkedList<String>();
+					valueIds.put(value, ids);
+				}
+				ids.add(id);
+			}
+		}
+		List<String> values = new ArrayList<String>(valueIds.keySet());
+		Collections.sort(values, createFacetComparator(query.getFacetSorts().get(name), valueIds));
+		facet.constraints = new LinkedList<LocalSearchResult.FacetConstraint>();
+		int topN = query.getFacetTopN(name);
+		for (int i = 0; i < values.size() && i < topN; i++) {
+			addConstraint(facet, values.get(i), valueIds.get(values.get(i)).size());
+		}
+		return facet;
+	}
+
+	private static void addConstraint(LocalSearchResult.Facet facet, String value, long count) {
+		LocalSearchResult.FacetConstraint constraint = new LocalSearchResult.FacetConstraint();
+		constraint.value = value;
+		constraint.count = count;
+		facet.constraints.add(constraint);
+	}
+
+	/**
+	 * Supports the CloudSearch facet sorts: alpha, count, max(FIELD) and
+	 * sum(FIELD,...) with an optional '-' to reverse the order.
+	 */
+	private Comparator<String> createFacetComparator(String sort, final Map<String, List<String>> valueIds) {
+		if (sort == null) {
+			sort = "count";
+		}
+		sort = sort.trim();
+		final boolean reverse = sort.startsWith("-");
+		if (reverse) {
+			sort = sort.substring(1);
+		}
+		final Map<String, Long> weights = new HashMap<String, Long>();
+		final boolean alpha;
+		if ("alpha".equals(sort)) {
+			alpha = true;
+		} else if ("count".equals(sort)) {
+			alpha = false;
+			for (Map.Entry<String, List<String>> entry : valueIds.entrySet()) {
+				weights.put(entry.getKey(), (long) entry.getValue().size());
+			}
+		} else if ((sort.startsWith("max(") || sort.startsWith("sum(")) && sort.endsWith(")")) {
+			alpha = false;
+			boolean max = sort.startsWith("max(");
+			String[] fields = sort.substring(4, sort.length() - 1).split(",");
+			for (Map.Entry<String, List<String>> entry : valueIds.entrySet()) {
+				long weight = max ? Long.MIN_VALUE : 0;
+				for (String id : entry.getValue()) {
+					for (String field : fields) {
+						Long number = getFirstNumber(documents.get(id), field.trim());
+						if (number != null) {
+							weight = max ? Math.max(weight, number) : weight + number;
+						}
+					}
+				}
+				weights.put(entry.getKey(), weight);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported facet sort: " + sort);
+		}
+		return new Comparator<String>() {
+			@Override
+			public int compare(String one, String two) {
+				int compare;
+				if (alpha) {
+					compare = one.compareTo(two);
+				} else {
+					// The largest weight comes first
+					compare = compareLong(weights.get(two), weights.get(one));
+				}
+				if (reverse) {
+					compare = -compare;
+				}
+				return compare != 0 ? compare : one.compareTo(two);
+			}
+		};
+	}
+}
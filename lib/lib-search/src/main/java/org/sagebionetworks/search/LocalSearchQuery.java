@@ -0,0 +1,475 @@
+package org.sagebionetworks.search;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed CloudSearch (2011-02-01 API) query string for the LocalSearchIndex.
+ *
+ * Supports the parameters built by SearchUtil and SearchHelper: q, bq, facet,
+ * facet-FIELD-constraints, facet-FIELD-sort, facet-FIELD-top-n, rank,
+ * return-fields, size and start.
+ *
+ */
+public class LocalSearchQuery {
+
+	public static final String TEXT_RELEVANCE = "text_relevance";
+	public static final int DEFAULT_SIZE = 10;
+	public static final int DEFAULT_FACET_TOP_N = 10;
+
+	private static final String FACET_PREFIX = "facet-";
+	private static final String CONSTRAINTS_SUFFIX = "-constraints";
+	private static final String SORT_SUFFIX = "-sort";
+	private static final String TOP_N_SUFFIX = "-top-n";
+	private static final String RANGE = "..";
+
+	public enum Operator {
+		AND, OR, NOT, TERM
+	}
+
+	/**
+	 * A node of a boolean query. A TERM with a null field matches the text
+	 * fields.
+	 */
+	public static class Expression {
+		Operator operator;
+		List<Expression> children = new LinkedList<Expression>();
+		String field;
+		String value;
+		boolean range;
+		Long min;
+		Long max;
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		public List<Expression> getChildren() {
+			return children;
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public boolean isRange() {
+			return range;
+		}
+
+		public Long getMin() {
+			return min;
+		}
+
+		public Long getMax() {
+			return max;
+		}
+	}
+
+	/**
+	 * A free text term from the q parameter.
+	 */
+	public static class TextTerm {
+		String text;
+		boolean excluded;
+		boolean prefix;
+
+		public String getText() {
+			return text;
+		}
+
+		public boolean isExcluded() {
+			return excluded;
+		}
+
+		public boolean isPrefix() {
+			return prefix;
+		}
+	}
+
+	/**
+	 * A field to sort by. Descending when the name starts with '-'.
+	 */
+	public static class SortField {
+		String field;
+		boolean descending;
+
+		public String getField() {
+			return field;
+		}
+
+		public boolean isDescending() {
+			return descending;
+		}
+	}
+
+	private String matchExpression;
+	private List<TextTerm> textTerms = new LinkedList<TextTerm>();
+	private Expression booleanQuery;
+	private List<String> facets = new LinkedList<String>();
+	private Map<String, List<String>> facetConstraints = new HashMap<String, List<String>>();
+	private Map<String, String> facetSorts = new HashMap<String, String>();
+	private Map<String, Integer> facetTopN = new HashMap<String, Integer>();
+	private List<SortField> rank = new LinkedList<SortField>();
+	private List<String> returnFields = new LinkedList<String>();
+	private int size = DEFAULT_SIZE;
+	private int start = 0;
+
+	/**
+	 * Parse a URL encoded query string.
+	 *
+	 * @param queryString
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the query cannot be parsed.
+	 */
+	public static LocalSearchQuery parse(String queryString) {
+		if (queryString == null)
+			throw new IllegalArgumentException("Query cannot be null");
+		LocalSearchQuery query = new LocalSearchQuery();
+		List<Expression> booleanQueries = new LinkedList<Expression>();
+		StringBuilder match = new StringBuilder();
+		for (String parameter : queryString.split("&")) {
+			if (parameter.length() == 0)
+				continue;
+			int index = parameter.indexOf('=');
+			if (index < 1)
+				throw new IllegalArgumentException("Query parameter is malformed: " + parameter);
+			String key = parameter.substring(0, index);
+			String value = decode(parameter.substring(index + 1));
+			if ("q".equals(key)) {
+				query.textTerms.addAll(parseTextTerms(value));
+				appendMatch(match, value);
+			} else if ("bq".equals(key)) {
+				booleanQueries.add(parseBooleanQuery(value));
+				appendMatch(match, value);
+			} else if ("facet".equals(key)) {
+				query.facets.addAll(splitList(value));
+			} else if ("rank".equals(key)) {
+				for (String name : splitList(value)) {
+					SortField sort = new SortField();
+					sort.descending = name.startsWith("-");
+					sort.field = sort.descending ? name.substring(1) : name;
+					query.rank.add(sort);
+				}
+			} else if ("return-fields".equals(key)) {
+				query.returnFields.addAll(splitList(value));
+			} else if ("size".equals(key)) {
+				query.size = parseInt(key, value);
+			} else if ("start".equals(key)) {
+				query.start = parseInt(key, value);
+			} else if (key.startsWith(FACET_PREFIX) && key.endsWith(CONSTRAINTS_SUFFIX)) {
+				query.facetConstraints.put(facetName(key, CONSTRAINTS_SUFFIX), parseConstraints(value));
+			} else if (key.startsWith(FACET_PREFIX) && key.endsWith(SORT_SUFFIX)) {
+				query.facetSorts.put(facetName(key, SORT_SUFFIX), value);
+			} else if (key.startsWith(FACET_PREFIX) && key.endsWith(TOP_N_SUFFIX)) {
+				query.facetTopN.put(facetName(key, TOP_N_SUFFIX), parseInt(key, value));
+			} else {
+				throw new IllegalArgumentException("Unsupported query parameter: " + key);
+			}
+		}
+		if (query.textTerms.isEmpty() && booleanQueries.isEmpty())
+			throw new IllegalArgumentException("Either q or bq must be defined: " + queryString);
+		if (booleanQueries.size() == 1) {
+			query.booleanQuery = booleanQueries.get(0);
+		} else if (booleanQueries.size() > 1) {
+			Expression and = new Expression();
+			and.operator = Operator.AND;
+			and.children.addAll(booleanQueries);
+			query.booleanQuery = and;
+		}
+		if (query.rank.isEmpty()) {
+			SortField relevance = new SortField();
+			relevance.field = TEXT_RELEVANCE;
+			relevance.descending = true;
+			query.rank.add(relevance);
+		}
+		if (query.size < 0 || query.start < 0)
+			throw new IllegalArgumentException("Size and start cannot be negative");
+		query.matchExpression = match.toString();
+		return query;
+	}
+
+	private static void appendMatch(StringBuilder match, String value) {
+		if (match.length() > 0) {
+			match.append(" ");
+		}
+		match.append(value);
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static int parseInt(String key, String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected a number for " + key + " but was: " + value);
+		}
+	}
+
+	private static String facetName(String key, String suffix) {
+		return key.substring(FACET_PREFIX.length(), key.length() - suffix.length());
+	}
+
+	private static List<String> splitList(String value) {
+		List<String> list = new LinkedList<String>();
+		for (String item : value.split(",")) {
+			item = item.trim();
+			if (item.length() > 0) {
+				list.add(item);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Split facet constraints on commas that are not escaped or quoted and
+	 * remove the quotes.
+	 */
+	static List<String> parseConstraints(String value) {
+		List<String> constraints = new LinkedList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				current.append(value.charAt(++i));
+			} else if (c == '\'') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				constraints.add(current.toString());
+				current.setLength(0);
+			} else {
+				current.append(c);
+			}
+		}
+		if (quoted)
+			throw new IllegalArgumentException("Unterminated quote in facet constraints: " + value);
+		constraints.add(current.toString());
+		return constraints;
+	}
+
+	/**
+	 * Terms are separated by white space and commas. A leading '-' excludes a
+	 * term and a trailing '*' matches a prefix.
+	 */
+	static List<TextTerm> parseTextTerms(String value) {
+		List<TextTerm> terms = new LinkedList<TextTerm>();
+		for (String word : value.split("[\\s,\"|+]+")) {
+			TextTerm term = new TextTerm();
+			if (word.startsWith("-")) {
+				term.excluded = true;
+				word = word.substring(1);
+			}
+			if (word.endsWith("*")) {
+				term.prefix = true;
+				word = word.substring(0, word.length() - 1);
+			}
+			// A term may tokenize into several words, such as "syn123.4"
+			for (String token : LocalSearchIndex.tokenize(word)) {
+				TextTerm copy = new TextTerm();
+				copy.text = token;
+				copy.excluded = term.excluded;
+				copy.prefix = term.prefix;
+				terms.add(copy);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Parse a boolean query such as (and node_type:'project' (or acl:'1'
+	 * acl:'2') (not created_on:..1000)).
+	 */
+	static Expression parseBooleanQuery(String value) {
+		BooleanQueryParser parser = new BooleanQueryParser(value);
+		Expression expression = parser.parseExpression();
+		parser.skipWhitespace();
+		if (!parser.isDone())
+			throw new IllegalArgumentException("Unexpected text at " + parser.position + " of boolean query: " + value);
+		return expression;
+	}
+
+	private static class BooleanQueryParser {
+		String text;
+		int position = 0;
+
+		BooleanQueryParser(String text) {
+			this.text = text;
+		}
+
+		boolean isDone() {
+			return position >= text.length();
+		}
+
+		void skipWhitespace() {
+			while (!isDone() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		Expression parseExpression() {
+			skipWhitespace();
+			if (isDone())
+				throw new IllegalArgumentException("Unexpected end of boolean query: " + text);
+			if (text.charAt(position) == '(') {
+				position++;
+				String name = readWord().toLowerCase();
+				Expression expression = new Expression();
+				if ("and".equals(name)) {
+					expression.operator = Operator.AND;
+				} else if ("or".equals(name)) {
+					expression.operator = Operator.OR;
+				} else if ("not".equals(name)) {
+					expression.operator = Operator.NOT;
+				} else {
+					throw new IllegalArgumentException("Unknown boolean operator: " + name);
+				}
+				while (true) {
+					skipWhitespace();
+					if (isDone())
+						throw new IllegalArgumentException("Missing ')' in boolean query: " + text);
+					if (text.charAt(position) == ')') {
+						position++;
+						break;
+					}
+					expression.children.add(parseExpression());
+				}
+				if (expression.operator == Operator.NOT && expression.children.size() != 1)
+					throw new IllegalArgumentException("'not' takes exactly one expression: " + text);
+				return expression;
+			}
+			return parseTerm();
+		}
+
+		Expression parseTerm() {
+			Expression term = new Expression();
+			term.operator = Operator.TERM;
+			if (text.charAt(position) != '\'') {
+				String word = readWord();
+				int colon = word.indexOf(':');
+				if (colon < 0) {
+					term.value = word;
+					return term;
+				}
+				term.field = word.substring(0, colon);
+				if (colon < word.length() - 1) {
+					setValue(term, word.substring(colon + 1));
+					return term;
+				}
+				if (isDone() || text.charAt(position) != '\'')
+					throw new IllegalArgumentException("Missing value for field " + term.field + " in boolean query: " + text);
+			}
+			term.value = readQuoted();
+			return term;
+		}
+
+		void setValue(Expression term, String value) {
+			int range = value.indexOf(RANGE);
+			if (range < 0) {
+				term.value = value;
+				return;
+			}
+			term.range = true;
+			try {
+				String min = value.substring(0, range);
+				String max = value.substring(range + RANGE.length());
+				term.min = min.length() == 0 ? null : Long.valueOf(min);
+				term.max = max.length() == 0 ? null : Long.valueOf(max);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed range: " + value);
+			}
+		}
+
+		String readWord() {
+			int begin = position;
+			while (!isDone()) {
+				char c = text.charAt(position);
+				if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '\'')
+					break;
+				position++;
+			}
+			if (begin == position)
+				throw new IllegalArgumentException("Expected a term at " + position + " of boolean query: " + text);
+			return text.substring(begin, position);
+		}
+
+		String readQuoted() {
+			// skip the opening quote
+			position++;
+			StringBuilder value = new StringBuilder();
+			while (!isDone()) {
+				char c = text.charAt(position++);
+				if (c == '\\' && !isDone()) {
+					value.append(text.charAt(position++));
+				} else if (c == '\'') {
+					return value.toString();
+				} else {
+					value.append(c);
+				}
+			}
+			throw new IllegalArgumentException("Unterminated quote in boolean query: " + text);
+		}
+	}
+
+	public String getMatchExpression() {
+		return matchExpression;
+	}
+
+	public List<TextTerm> getTextTerms() {
+		return textTerms;
+	}
+
+	/**
+	 * @return null when there is no bq parameter.
+	 */
+	public Expression getBooleanQuery() {
+		return booleanQuery;
+	}
+
+	public List<String> getFacets() {
+		return facets;
+	}
+
+	public Map<String, List<String>> getFacetConstraints() {
+		return facetConstraints;
+	}
+
+	public Map<String, String> getFacetSorts() {
+		return facetSorts;
+	}
+
+	public int getFacetTopN(String facet) {
+		Integer topN = facetTopN.get(facet);
+		return topN == null ? DEFAULT_FACET_TOP_N : topN;
+	}
+
+	public List<SortField> getRank() {
+		return rank;
+	}
+
+	public List<String> getReturnFields() {
+		return returnFields;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getStart() {
+		return start;
+	}
+}
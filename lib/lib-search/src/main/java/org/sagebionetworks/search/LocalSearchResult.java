@@ -0,0 +1,106 @@
+package org.sagebionetworks.search;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a search against the LocalSearchIndex. This mirrors the
+ * structure of a CloudSearch response.
+ *
+ */
+public class LocalSearchResult {
+
+	public static class Hit {
+		String id;
+		Map<String, List<String>> data = new LinkedHashMap<String, List<String>>();
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * The requested return fields.
+		 */
+		public Map<String, List<String>> getData() {
+			return data;
+		}
+	}
+
+	public static class FacetConstraint {
+		String value;
+		long count;
+
+		public String getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	public static class Facet {
+		String name;
+		Long min;
+		Long max;
+		List<FacetConstraint> constraints;
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Only set for numeric facets.
+		 */
+		public Long getMin() {
+			return min;
+		}
+
+		/**
+		 * Only set for numeric facets.
+		 */
+		public Long getMax() {
+			return max;
+		}
+
+		/**
+		 * Null for numeric facets without constraints.
+		 */
+		public List<FacetConstraint> getConstraints() {
+			return constraints;
+		}
+	}
+
+	String matchExpression;
+	String rank;
+	long found;
+	long start;
+	List<Hit> hits = new LinkedList<Hit>();
+	List<Facet> facets = new LinkedList<Facet>();
+
+	public String getMatchExpression() {
+		return matchExpression;
+	}
+
+	public String getRank() {
+		return rank;
+	}
+
+	public long getFound() {
+		return found;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public List<Hit> getHits() {
+		return hits;
+	}
+
+	public List<Facet> getFacets() {
+		return facets;
+	}
+}
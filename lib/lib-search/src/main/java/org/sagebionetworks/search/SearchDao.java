@@ -2,6 +2,7 @@ package org.sagebionetworks.search;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.http.client.ClientProtocolException;
@@ -85,6 +86,17 @@ public interface SearchDao {
 	  */
 	 boolean doesDocumentExist(String id, String etag) throws ClientProtocolException, IOException, HttpClientHelperException;
 	 
+	 /**
+	  * Which of the given documents already exist with the given etag? The documents are
+	  * checked in batches with one search per batch rather than one search per document.
+	  * @param idToEtag Maps each document ID to its etag. Entries with a null etag never exist.
+	  * @return The IDs of the documents that exist with the given etag.
+	 * @throws HttpClientHelperException 
+	 * @throws IOException 
+	 * @throws ClientProtocolException 
+	  */
+	 Set<String> getExistingDocumentIds(Map<String, String> idToEtag) throws ClientProtocolException, IOException, HttpClientHelperException;
+	 
 	 /**
 	  * List all documents in the search index.
 	  * @param limit
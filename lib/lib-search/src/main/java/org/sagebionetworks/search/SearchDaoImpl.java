@@ -10,6 +10,7 @@ import java.net.UnknownHostException;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.http.client.ClientProtocolException;
@@ -48,6 +49,11 @@ import com.amazonaws.services.cloudsearch.AmazonCloudSearchClient;
 public class SearchDaoImpl implements SearchDao {
 
 	private static final String QUERY_BY_ID_AND_ETAG = "bq=(and+"+FIELD_ID+":'%1$s'+"+FIELD_ETAG+":'%2$s')";
+	private static final String ID_AND_ETAG_TERM = "(and+"+FIELD_ID+":'%1$s'+"+FIELD_ETAG+":'%2$s')";
+	/**
+	 * The maximum number of documents checked by a single search, which keeps the query string a reasonable length.
+	 */
+	public static final int MAX_DOCUMENTS_PER_EXISTS_QUERY = 50;
 	
 	private static final String QUERY_LIST_ALL_DOCUMENTS_ONE_PAGE = "bq="+FIELD_ID+":'*'&size=%1$s&start=%2$s";
 
@@ -245,6 +251,50 @@ public class SearchDaoImpl implements SearchDao {
 		return results.getHits().size() > 0;
 	}
 
+	@Override
+	public Set<String> getExistingDocumentIds(Map<String, String> idToEtag) throws ClientProtocolException, IOException, HttpClientHelperException {
+		if(idToEtag == null) throw new IllegalArgumentException("The map of IDs to etags cannot be null");
+		validateSearchEnabled();
+		Set<String> existing = new HashSet<String>();
+		List<Map.Entry<String, String>> batch = new LinkedList<Map.Entry<String, String>>();
+		for(Map.Entry<String, String> entry: idToEtag.entrySet()){
+			// A document without an etag cannot match.
+			if(entry.getKey() == null || entry.getValue() == null) continue;
+			batch.add(entry);
+			if(batch.size() == MAX_DOCUMENTS_PER_EXISTS_QUERY){
+				addExistingDocumentIds(batch, existing);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()){
+			addExistingDocumentIds(batch, existing);
+		}
+		return existing;
+	}
+
+	private void addExistingDocumentIds(List<Map.Entry<String, String>> batch, Set<String> existing) throws ClientProtocolException, IOException, HttpClientHelperException {
+		SearchResults results = executeSearch(createExistingDocumentsQuery(batch));
+		for(Hit hit: results.getHits()){
+			existing.add(hit.getId());
+		}
+	}
+
+	/**
+	 * Create a single query that matches any of the given ID and etag pairs.
+	 * @param idsAndEtags
+	 * @return
+	 */
+	static String createExistingDocumentsQuery(List<Map.Entry<String, String>> idsAndEtags) {
+		StringBuilder query = new StringBuilder("bq=(or");
+		for(Map.Entry<String, String> entry: idsAndEtags){
+			query.append("+");
+			query.append(String.format(ID_AND_ETAG_TERM, entry.getKey(), entry.getValue()));
+		}
+		query.append(")&size=");
+		query.append(idsAndEtags.size());
+		return query.toString();
+	}
+
 	@Override
 	public SearchResults listSearchDocuments(long limit, long offset) throws ClientProtocolException, IOException, HttpClientHelperException {
 		validateSearchEnabled();
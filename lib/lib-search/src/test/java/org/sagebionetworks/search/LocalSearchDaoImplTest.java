@@ -0,0 +1,80 @@
+package org.sagebionetworks.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.search.Document;
+import org.sagebionetworks.repo.model.search.DocumentFields;
+import org.sagebionetworks.repo.model.search.SearchResults;
+
+/**
+ * Unit test for the search DAO backed by an in-memory LocalSearchIndex.
+ *
+ */
+public class LocalSearchDaoImplTest {
+
+	LocalSearchDaoImpl dao;
+
+	@Before
+	public void before() throws Exception{
+		dao = new LocalSearchDaoImpl();
+		dao.setRefreshIntervalMS(0);
+		dao.initialize();
+	}
+
+	private Document createDocument(String id, String name, String nodeType, String... acl){
+		Document document = new Document();
+		document.setId(id);
+		DocumentFields fields = new DocumentFields();
+		fields.setName(name);
+		fields.setEtag("etag-"+id);
+		fields.setNode_type(nodeType);
+		fields.setCreated_by("bob");
+		fields.setAcl(new LinkedList<String>(Arrays.asList(acl)));
+		document.setFields(fields);
+		return document;
+	}
+
+	@Test
+	public void testCreateFields(){
+		Map<String, LocalSearchIndex.Field> fields = new HashMap<String, LocalSearchIndex.Field>();
+		for(LocalSearchIndex.Field field: LocalSearchDaoImpl.createFields(SearchSchemaLoader.loadSearchDomainSchema())){
+			fields.put(field.name, field);
+		}
+		assertEquals(LocalSearchIndex.FieldType.TEXT, fields.get(SearchConstants.FIELD_NAME).type);
+		assertEquals(LocalSearchIndex.FieldType.UINT, fields.get(SearchConstants.FIELD_CREATED_ON).type);
+		assertEquals(LocalSearchIndex.FieldType.LITERAL, fields.get(SearchConstants.FIELD_ACL).type);
+		assertFalse(fields.get(SearchConstants.FIELD_BOOST).resultEnabled);
+		assertEquals(SearchConstants.FIELD_NODE_TYPE, fields.get(SearchConstants.FIELD_NODE_TYPE_R).sourceField);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception{
+		List<Document> batch = new LinkedList<Document>();
+		batch.add(createDocument("syn1", "Prostate cancer", "study", "public"));
+		batch.add(createDocument("syn2", "Cancer data", "data", "100"));
+		dao.createOrUpdateSearchDocument(batch);
+		assertTrue(dao.doesDocumentExist("syn1", "etag-syn1"));
+		assertFalse(dao.doesDocumentExist("syn1", "stale"));
+
+		SearchResults results = dao.executeSearch("q=cancer&bq=acl:'public'&return-fields=name,created_by_r&facet=node_type");
+		assertEquals(new Long(1), results.getFound());
+		assertEquals("syn1", results.getHits().get(0).getId());
+		assertEquals("Prostate cancer", results.getHits().get(0).getName());
+		assertEquals("bob", results.getHits().get(0).getCreated_by());
+		assertEquals("node_type", results.getFacets().get(0).getName());
+
+		assertEquals(new Long(2), dao.listSearchDocuments(10, 0).getFound());
+		dao.deleteAllDocuments();
+		assertEquals(new Long(0), dao.listSearchDocuments(10, 0).getFound());
+	}
+}
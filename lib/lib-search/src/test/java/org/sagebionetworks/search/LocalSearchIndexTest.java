@@ -0,0 +1,388 @@
+package org.sagebionetworks.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.search.LocalSearchIndex.Field;
+import org.sagebionetworks.search.LocalSearchIndex.FieldType;
+
+/**
+ * Unit tests for the LocalSearchIndex. The benchmark indexes a synthetic
+ * corpus and reports the indexing throughput and the query latency.
+ *
+ */
+public class LocalSearchIndexTest {
+
+	static private Logger log = LogManager.getLogger(LocalSearchIndexTest.class);
+
+	File directory;
+	LocalSearchIndex index;
+
+	@Before
+	public void before() throws Exception{
+		directory = File.createTempFile("LocalSearchIndexTest", "");
+		directory.delete();
+		index = createIndex();
+		index.open();
+	}
+
+	@After
+	public void after() throws Exception{
+		if(index != null){
+			index.close();
+		}
+		File[] files = directory.listFiles();
+		if(files != null){
+			for(File file: files){
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private LocalSearchIndex createIndex(){
+		List<Field> fields = new LinkedList<Field>();
+		fields.add(new Field("id", FieldType.LITERAL, true, null));
+		fields.add(new Field("etag", FieldType.LITERAL, true, null));
+		fields.add(new Field("name", FieldType.TEXT, true, null));
+		fields.add(new Field("description", FieldType.TEXT, true, null));
+		fields.add(new Field("node_type", FieldType.LITERAL, false, null));
+		fields.add(new Field("node_type_r", FieldType.LITERAL, true, "node_type"));
+		fields.add(new Field("acl", FieldType.LITERAL, false, null));
+		fields.add(new Field("created_on", FieldType.UINT, true, null));
+		fields.add(new Field("num_samples", FieldType.UINT, true, null));
+		return new LocalSearchIndex(fields, directory);
+	}
+
+	private static Map<String, List<String>> createDocument(String id, String name, String type, long createdOn, String... acl){
+		Map<String, List<String>> fields = new HashMap<String, List<String>>();
+		fields.put("id", Arrays.asList(id));
+		fields.put("etag", Arrays.asList("etag-"+id));
+		fields.put("name", Arrays.asList(name));
+		fields.put("node_type", Arrays.asList(type));
+		fields.put("created_on", Arrays.asList(Long.toString(createdOn)));
+		fields.put("acl", Arrays.asList(acl));
+		return fields;
+	}
+
+	private void add(String id, String name, String type, long createdOn, String... acl) throws Exception{
+		Map<String, Map<String, List<String>>> batch = new HashMap<String, Map<String, List<String>>>();
+		batch.put(id, createDocument(id, name, type, createdOn, acl));
+		index.addDocuments(batch);
+	}
+
+	private void addCorpus() throws Exception{
+		add("syn1", "Prostate cancer study", "study", 1000, "public");
+		add("syn2", "Cancer cancer data", "data", 2000, "public", "100");
+		add("syn3", "Mouse prostate data", "data", 3000, "100");
+		add("syn4", "Private notes", "project", 4000, "200");
+		index.refresh();
+	}
+
+	private List<String> searchIds(String query){
+		List<String> ids = new LinkedList<String>();
+		for(LocalSearchResult.Hit hit: index.search(LocalSearchQuery.parse(query)).getHits()){
+			ids.add(hit.getId());
+		}
+		return ids;
+	}
+
+	@Test
+	public void testFreeTextRelevance() throws Exception{
+		addCorpus();
+		// syn2 mentions cancer twice so it is the most relevant
+		assertEquals(Arrays.asList("syn2", "syn1"), searchIds("q=cancer"));
+		assertEquals(Arrays.asList("syn1"), searchIds("q=cancer+prostate"));
+		assertEquals(Arrays.asList("syn3"), searchIds("q=prostate+-cancer"));
+		assertEquals(Arrays.asList("syn2", "syn1"), searchIds("q=canc*"));
+	}
+
+	@Test
+	public void testAclFilter() throws Exception{
+		addCorpus();
+		assertEquals(Arrays.asList("syn2", "syn1"), searchIds("q=cancer&bq=(or+acl:'public'+acl:'200')"));
+		assertEquals(Arrays.asList("syn1", "syn2", "syn4"), searchIds("bq=(or+acl:'public'+acl:'200')&rank=created_on"));
+		assertEquals(Arrays.asList("syn3", "syn4"), searchIds("bq=(not+acl:'public')&rank=id"));
+	}
+
+	@Test
+	public void testRangeAndRank() throws Exception{
+		addCorpus();
+		assertEquals(Arrays.asList("syn3", "syn2"), searchIds("bq=created_on:2000..3000&rank=-created_on"));
+		assertEquals(Arrays.asList("syn1", "syn2"), searchIds("bq=created_on:..2000&rank=created_on"));
+		assertEquals(Arrays.asList("syn4"), searchIds("bq=(and+created_on:4000+node_type:'project')"));
+		assertEquals(Arrays.asList("syn1", "syn2", "syn3", "syn4"), searchIds("bq=id:'syn*'&rank=id"));
+	}
+
+	@Test
+	public void testPaging() throws Exception{
+		addCorpus();
+		LocalSearchResult result = index.search(LocalSearchQuery.parse("bq=id:'*'&rank=id&size=2&start=1"));
+		assertEquals(4, result.getFound());
+		assertEquals(1, result.getStart());
+		assertEquals(2, result.getHits().size());
+		assertEquals("syn2", result.getHits().get(0).getId());
+		assertEquals("syn3", result.getHits().get(1).getId());
+	}
+
+	@Test
+	public void testReturnFields() throws Exception{
+		addCorpus();
+		LocalSearchResult result = index.search(LocalSearchQuery.parse("q=notes&return-fields=name,node_type,node_type_r,created_on"));
+		Map<String, List<String>> data = result.getHits().get(0).getData();
+		assertEquals(Arrays.asList("Private notes"), data.get("name"));
+		// node_type is not result enabled but its copy is
+		assertNull(data.get("node_type"));
+		assertEquals(Arrays.asList("project"), data.get("node_type_r"));
+		assertEquals(Arrays.asList("4000"), data.get("created_on"));
+	}
+
+	@Test
+	public void testFacets() throws Exception{
+		addCorpus();
+		LocalSearchResult result = index.search(LocalSearchQuery.parse("bq=acl:'*'&facet=node_type,created_on&facet-created_on-constraints=..2000,3000.."));
+		assertEquals(2, result.getFacets().size());
+		LocalSearchResult.Facet type = result.getFacets().get(0);
+		assertEquals("node_type", type.getName());
+		assertEquals("data", type.getConstraints().get(0).getValue());
+		assertEquals(2, type.getConstraints().get(0).getCount());
+		assertEquals(3, type.getConstraints().size());
+		LocalSearchResult.Facet created = result.getFacets().get(1);
+		assertEquals(new Long(1000), created.getMin());
+		assertEquals(new Long(4000), created.getMax());
+		assertEquals(2, created.getConstraints().size());
+		assertEquals(2, created.getConstraints().get(0).getCount());
+		// Alpha sort, top-n and constraints
+		result = index.search(LocalSearchQuery.parse("bq=acl:'*'&facet=node_type&facet-node_type-sort=alpha&facet-node_type-top-n=2"));
+		type = result.getFacets().get(0);
+		assertEquals(2, type.getConstraints().size());
+		assertEquals("data", type.getConstraints().get(0).getValue());
+		assertEquals("project", type.getConstraints().get(1).getValue());
+		result = index.search(LocalSearchQuery.parse("bq=acl:'*'&facet=node_type&facet-node_type-constraints='study'"));
+		type = result.getFacets().get(0);
+		assertEquals(1, type.getConstraints().size());
+		assertEquals("study", type.getConstraints().get(0).getValue());
+		// max() sort orders the values by their newest document
+		result = index.search(LocalSearchQuery.parse("bq=acl:'*'&facet=node_type&facet-node_type-sort=max(created_on)"));
+		assertEquals("project", result.getFacets().get(0).getConstraints().get(0).getValue());
+	}
+
+	@Test
+	public void testNearRealTimeRefresh() throws Exception{
+		index.setRefreshIntervalMS(60*1000);
+		add("syn1", "first", "data", 1, "public");
+		// Not searchable until the index is refreshed
+		assertEquals(0, searchIds("q=first").size());
+		index.refresh();
+		assertEquals(1, searchIds("q=first").size());
+		// A refresh interval of zero makes every change searchable on the next search
+		index.setRefreshIntervalMS(0);
+		add("syn2", "first again", "data", 2, "public");
+		assertEquals(2, searchIds("q=first").size());
+	}
+
+	@Test
+	public void testReplaceAndDelete() throws Exception{
+		index.setRefreshIntervalMS(0);
+		addCorpus();
+		add("syn1", "Renamed study", "study", 1000, "public");
+		assertEquals(Arrays.asList("syn2"), searchIds("q=cancer"));
+		assertEquals(Arrays.asList("syn1"), searchIds("q=renamed"));
+		index.deleteDocuments(Arrays.asList("syn2", "syn3"));
+		assertEquals(0, searchIds("q=cancer").size());
+		assertEquals(2, index.size());
+		assertNull(index.getFirstValue("syn2", "etag"));
+		assertEquals("etag-syn1", index.getFirstValue("syn1", "etag"));
+	}
+
+	@Test
+	public void testReplayJournal() throws Exception{
+		addCorpus();
+		index.deleteDocuments(Arrays.asList("syn4"));
+		// Not refreshed, but the delete is already in the journal
+		index.close();
+		index = createIndex();
+		index.open();
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("syn2", "syn1"), searchIds("q=cancer"));
+	}
+
+	@Test
+	public void testReplayPartialRecord() throws Exception{
+		addCorpus();
+		index.close();
+		File journal = new File(directory, LocalSearchIndex.JOURNAL_FILE_NAME);
+		long length = journal.length();
+		// Simulate a crash in the middle of a write
+		FileOutputStream out = new FileOutputStream(journal, true);
+		out.write(new byte[]{1, 0, 0, 0, 10, 's'});
+		out.close();
+		index = createIndex();
+		index.open();
+		assertEquals(4, index.size());
+		assertEquals(length, journal.length());
+		// The journal can be written to after the partial record was removed
+		index.setRefreshIntervalMS(0);
+		add("syn5", "after the crash", "data", 5, "public");
+		index.close();
+		index = createIndex();
+		index.open();
+		assertEquals(5, index.size());
+	}
+
+	@Test
+	public void testCompact() throws Exception{
+		for(int i=0; i<10; i++){
+			add("syn1", "version "+i, "data", i, "public");
+		}
+		File journal = new File(directory, LocalSearchIndex.JOURNAL_FILE_NAME);
+		long before = journal.length();
+		index.compact();
+		assertTrue(journal.length() < before);
+		index.close();
+		index = createIndex();
+		index.open();
+		assertEquals(1, index.size());
+		assertEquals(Arrays.asList("syn1"), searchIds("q=9"));
+	}
+
+	/**
+	 * The repository and the workers each have an index on the same directory.
+	 */
+	@Test
+	public void testSharedDirectory() throws Exception{
+		index.setRefreshIntervalMS(0);
+		LocalSearchIndex other = createIndex();
+		other.open();
+		try{
+			other.setRefreshIntervalMS(0);
+			// Changes written by one index are searchable in the other
+			addCorpus();
+			assertEquals(Arrays.asList("syn2", "syn1"), searchIds(other, "q=cancer"));
+			Map<String, Map<String, List<String>>> batch = new HashMap<String, Map<String, List<String>>>();
+			batch.put("syn5", createDocument("syn5", "Cancer from the other index", "data", 5, "public"));
+			other.addDocuments(batch);
+			assertEquals(3, searchIds("q=cancer").size());
+			// A compaction by one index is picked up by the other
+			index.deleteDocuments(Arrays.asList("syn1"));
+			other.compact();
+			add("syn6", "Cancer after the compaction", "data", 6, "public");
+			assertEquals(Arrays.asList("syn2", "syn5", "syn6"), sorted(searchIds(other, "q=cancer")));
+			assertEquals(Arrays.asList("syn2", "syn5", "syn6"), sorted(searchIds("q=cancer")));
+			assertEquals(5, index.size());
+			assertEquals(5, other.size());
+		}finally{
+			other.close();
+		}
+		// Nothing was lost from the journal
+		index.close();
+		index = createIndex();
+		index.open();
+		assertEquals(5, index.size());
+	}
+
+	private static List<String> searchIds(LocalSearchIndex index, String query){
+		List<String> ids = new LinkedList<String>();
+		for(LocalSearchResult.Hit hit: index.search(LocalSearchQuery.parse(query)).getHits()){
+			ids.add(hit.getId());
+		}
+		return ids;
+	}
+
+	private static List<String> sorted(List<String> list){
+		List<String> copy = new ArrayList<String>(list);
+		Collections.sort(copy);
+		return copy;
+	}
+
+	@Test
+	public void testMemoryOnly() throws Exception{
+		index.close();
+		index = new LocalSearchIndex(new LinkedList<Field>(), null);
+		index.open();
+		index.setRefreshIntervalMS(0);
+		add("syn1", "name", "data", 1, "public");
+		// Fields that are not defined are literals
+		assertEquals(Arrays.asList("syn1"), searchIds("bq=name:'name'"));
+	}
+
+	/**
+	 * Index a synthetic corpus shaped like our entities, then time the kinds
+	 * of queries the web client sends.
+	 */
+	@Test
+	public void testBenchmark() throws Exception{
+		int documentCount = 20000;
+		int batchSize = 100;
+		String[] words = new String[500];
+		for(int i=0; i<words.length; i++){
+			words[i] = "word"+i;
+		}
+		String[] types = new String[]{"project", "folder", "file", "study", "data"};
+		Random random = new Random(123);
+		long start = System.nanoTime();
+		Map<String, Map<String, List<String>>> batch = new LinkedHashMap<String, Map<String, List<String>>>();
+		for(int i=0; i<documentCount; i++){
+			String id = "syn"+i;
+			StringBuilder description = new StringBuilder();
+			for(int j=0; j<30; j++){
+				description.append(words[random.nextInt(words.length)]).append(' ');
+			}
+			Map<String, List<String>> fields = createDocument(id, words[random.nextInt(words.length)]+" "+words[random.nextInt(words.length)],
+					types[random.nextInt(types.length)], random.nextInt(100000), "public", Integer.toString(random.nextInt(1000)));
+			fields.put("description", Arrays.asList(description.toString()));
+			fields.put("num_samples", Arrays.asList(Integer.toString(random.nextInt(500))));
+			batch.put(id, fields);
+			if(batch.size() == batchSize){
+				index.addDocuments(batch);
+				batch.clear();
+			}
+		}
+		index.addDocuments(batch);
+		index.refresh();
+		double indexSeconds = (System.nanoTime()-start)/1000000000.0;
+		assertEquals(documentCount, index.size());
+
+		String[] queries = new String[]{
+				"q=word1+word2&bq=(or+acl:'public'+acl:'5')&facet=node_type,created_on&return-fields=name,id&size=20",
+				"q=word3*&facet=node_type&facet-node_type-sort=alpha&size=20",
+				"bq=(and+node_type:'study'+num_samples:100..+(not+acl:'7'))&rank=-created_on&size=20",
+				"q=word42&bq=created_on:..50000&facet=node_type,num_samples&rank=-num_samples&start=20&size=20",
+		};
+		int runs = 50;
+		List<Double> latencies = new ArrayList<Double>();
+		for(int i=0; i<runs; i++){
+			for(String query: queries){
+				long queryStart = System.nanoTime();
+				index.search(LocalSearchQuery.parse(query));
+				latencies.add((System.nanoTime()-queryStart)/1000000.0);
+			}
+		}
+		Collections.sort(latencies);
+		double median = latencies.get(latencies.size()/2);
+		double p95 = latencies.get((int)(latencies.size()*0.95));
+		log.debug(String.format("Indexed %d documents in %.2f s (%.0f documents/s). Query latency over %d queries: median %.2f ms, p95 %.2f ms",
+				documentCount, indexSeconds, documentCount/indexSeconds, latencies.size(), median, p95));
+		// Loose bounds so the test only fails when something is badly wrong
+		assertTrue(indexSeconds < 120);
+		assertTrue(median < 1000);
+	}
+}
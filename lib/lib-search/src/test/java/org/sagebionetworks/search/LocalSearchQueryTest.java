@@ -0,0 +1,98 @@
+package org.sagebionetworks.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.sagebionetworks.search.LocalSearchQuery.Expression;
+import org.sagebionetworks.search.LocalSearchQuery.Operator;
+import org.sagebionetworks.search.LocalSearchQuery.TextTerm;
+
+public class LocalSearchQueryTest {
+
+	@Test
+	public void testParse(){
+		LocalSearchQuery query = LocalSearchQuery.parse("q=prostate+-mouse+canc*&bq=(and+node_type:'study'+created_on:1000..)&facet=node_type,created_by"
+				+ "&facet-node_type-constraints='study','data'&facet-node_type-sort=alpha&facet-node_type-top-n=3"
+				+ "&rank=-modified_on&return-fields=name,id&size=5&start=10");
+		List<TextTerm> terms = query.getTextTerms();
+		assertEquals(3, terms.size());
+		assertEquals("prostate", terms.get(0).getText());
+		assertTrue(terms.get(1).isExcluded());
+		assertEquals("mouse", terms.get(1).getText());
+		assertTrue(terms.get(2).isPrefix());
+		assertEquals("canc", terms.get(2).getText());
+		Expression and = query.getBooleanQuery();
+		assertEquals(Operator.AND, and.getOperator());
+		assertEquals(2, and.getChildren().size());
+		assertEquals("node_type", and.getChildren().get(0).getField());
+		assertEquals("study", and.getChildren().get(0).getValue());
+		Expression range = and.getChildren().get(1);
+		assertTrue(range.isRange());
+		assertEquals(new Long(1000), range.getMin());
+		assertNull(range.getMax());
+		assertEquals(Arrays.asList("node_type", "created_by"), query.getFacets());
+		assertEquals(Arrays.asList("study", "data"), query.getFacetConstraints().get("node_type"));
+		assertEquals("alpha", query.getFacetSorts().get("node_type"));
+		assertEquals(3, query.getFacetTopN("node_type"));
+		assertEquals(LocalSearchQuery.DEFAULT_FACET_TOP_N, query.getFacetTopN("created_by"));
+		assertEquals("modified_on", query.getRank().get(0).getField());
+		assertTrue(query.getRank().get(0).isDescending());
+		assertEquals(Arrays.asList("name", "id"), query.getReturnFields());
+		assertEquals(5, query.getSize());
+		assertEquals(10, query.getStart());
+	}
+
+	@Test
+	public void testDefaults(){
+		LocalSearchQuery query = LocalSearchQuery.parse("q=cancer");
+		assertNull(query.getBooleanQuery());
+		assertEquals(LocalSearchQuery.TEXT_RELEVANCE, query.getRank().get(0).getField());
+		assertTrue(query.getRank().get(0).isDescending());
+		assertEquals(LocalSearchQuery.DEFAULT_SIZE, query.getSize());
+		assertEquals(0, query.getStart());
+	}
+
+	@Test
+	public void testBooleanQueryNotAndEscapedQuote(){
+		Expression not = LocalSearchQuery.parseBooleanQuery("(not (or acl:'public' name:'Bob\\'s data'))");
+		assertEquals(Operator.NOT, not.getOperator());
+		Expression or = not.getChildren().get(0);
+		assertEquals(Operator.OR, or.getOperator());
+		assertEquals("public", or.getChildren().get(0).getValue());
+		assertEquals("Bob's data", or.getChildren().get(1).getValue());
+		assertFalse(or.getChildren().get(1).isRange());
+	}
+
+	@Test
+	public void testMultipleBooleanQueriesAreAnded(){
+		LocalSearchQuery query = LocalSearchQuery.parse("bq=node_type:'study'&bq=(or+acl:'a'+acl:'b')");
+		assertEquals(Operator.AND, query.getBooleanQuery().getOperator());
+		assertEquals(2, query.getBooleanQuery().getChildren().size());
+	}
+
+	@Test
+	public void testParseConstraints(){
+		assertEquals(Arrays.asList("a,b", "c"), LocalSearchQuery.parseConstraints("'a\\,b',c"));
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testNoQuery(){
+		LocalSearchQuery.parse("size=10");
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testUnknownParameter(){
+		LocalSearchQuery.parse("q=cancer&foo=bar");
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testUnbalancedBooleanQuery(){
+		LocalSearchQuery.parseBooleanQuery("(and node_type:'study'");
+	}
+}
@@ -2,6 +2,10 @@ package org.sagebionetworks.search;
 
 import static org.junit.Assert.*;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
 import org.junit.Test;
 import org.sagebionetworks.repo.model.search.Document;
 
@@ -24,5 +28,14 @@ public class SearchDaoImplTest {
 		assertEquals("The document ID must be set in the fields when ",doc.getId(), doc.getFields().getId());
 		assertNotNull("A version was not set.",doc.getVersion());
 	}
+	
+	@Test
+	public void testCreateExistingDocumentsQuery(){
+		Map<String, String> idToEtag = new LinkedHashMap<String, String>();
+		idToEtag.put("syn1", "etag1");
+		idToEtag.put("syn2", "etag2");
+		String query = SearchDaoImpl.createExistingDocumentsQuery(new LinkedList<Map.Entry<String, String>>(idToEtag.entrySet()));
+		assertEquals("bq=(or+(and+id:'syn1'+etag:'etag1')+(and+id:'syn2'+etag:'etag2'))&size=2", query);
+	}
 
 }
@@ -0,0 +1,24 @@
+package org.sagebionetworks.asynchronous.workers.sqs;
+
+/**
+ * The source of the current time for the message receivers, so tests can control
+ * time rather than depend on the scheduler.
+ *
+ */
+public interface Clock {
+
+	/**
+	 * The clock used outside of tests.
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * @return The current time in milliseconds.
+	 */
+	public long currentTimeMillis();
+}
@@ -0,0 +1,646 @@
+package org.sagebionetworks.asynchronous.workers.sqs;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * A MessageReceiver that consumes its queue continuously with SQS long polling
+ * rather than issuing a burst of short receives each time a trigger fires.
+ *
+ * Each call to {@link #triggerFired()} runs a consumer session that lasts up to
+ * maxRunTimeMS. During a session a background fetcher keeps a bounded buffer of
+ * prefetched messages full, while the calling thread hands batches to workers,
+ * deletes each batch as soon as it completes and renews the visibility of every
+ * message it still holds. The number of concurrent workers grows while the
+ * buffer has a backlog and batches finish well within the visibility window,
+ * and shrinks when workers sit idle. At the end of a session any messages that
+ * were prefetched but not started are released back to the queue.
+ *
+ * The session length should stay below the timeout of any semaphore used to
+ * gate this runner.
+ *
+ */
+public class LongPollingMessageReceiverImpl implements MessageReceiver {
+
+	static private Logger log = LogManager.getLogger(LongPollingMessageReceiverImpl.class);
+
+	/**
+	 * The longest wait SQS allows for a single receive.
+	 */
+	public static final int MAX_WAIT_TIME_SEC = 20;
+
+	/**
+	 * How long to wait for a completed batch when free worker slots are waiting for messages.
+	 */
+	private static final long DISPATCH_INTERVAL_MS = 200;
+
+	/**
+	 * Pause after a failed receive before trying again.
+	 */
+	private static final long RECEIVE_ERROR_BACKOFF_MS = 1000;
+
+	/**
+	 * Weight given to the most recent batch latency in the moving average.
+	 */
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	@Autowired
+	AmazonSQSClient awsSQSClient;
+
+	/**
+	 * The minimum number of concurrent workers.
+	 */
+	private Integer minNumberOfWorkerThreads = 1;
+
+	/**
+	 * The maximum number of concurrent workers.
+	 */
+	private Integer maxNumberOfWorkerThreads;
+
+	/**
+	 * The maximum number of messages that each worker should handle.
+	 */
+	private Integer maxMessagePerWorker;
+
+	/**
+	 * The duration (in seconds) that the received messages are hidden from
+	 * subsequent retrieve requests. Messages that are still held are renewed
+	 * for another window before this runs out.
+	 */
+	private Integer visibilityTimeoutSec;
+
+	/**
+	 * How long (in seconds) each receive waits for messages to arrive.
+	 */
+	private Integer waitTimeSec = MAX_WAIT_TIME_SEC;
+
+	/**
+	 * The maximum number of messages held in the prefetch buffer.
+	 */
+	private Integer maxPrefetchedMessages;
+
+	/**
+	 * How long (MS) a single consumer session lasts.
+	 */
+	private Long maxRunTimeMS;
+
+	/**
+	 * The MessageQueue that this instance is watching.
+	 */
+	private MessageQueue messageQueue;
+
+	/**
+	 * Providers workers to processes messages.
+	 */
+	private MessageWorkerFactory workerFactory;
+
+	/**
+	 * The source of the current time.
+	 */
+	private Clock clock = Clock.SYSTEM;
+
+	/**
+	 * Runs the workers.
+	 */
+	ExecutorService executors;
+
+	/**
+	 * Runs the long polls.
+	 */
+	ExecutorService fetcher;
+
+	/**
+	 * Gauges for this queue.
+	 */
+	private final AtomicInteger currentConcurrency = new AtomicInteger(0);
+	private final AtomicInteger inFlightBatches = new AtomicInteger(0);
+	private final AtomicInteger prefetchedMessages = new AtomicInteger(0);
+	private final AtomicLong completedBatches = new AtomicLong(0);
+	private final AtomicLong failedBatches = new AtomicLong(0);
+	private final AtomicLong renewedMessages = new AtomicLong(0);
+	private volatile double averageBatchLatencyMS = 0;
+
+	/**
+	 * Tracks a batch that has been handed to a worker.
+	 */
+	private static class Batch {
+		List<Message> messages;
+		long startTime;
+
+		Batch(List<Message> messages, long startTime) {
+			this.messages = messages;
+			this.startTime = startTime;
+		}
+	}
+
+	/**
+	 * Used for unit tests.
+	 */
+	public LongPollingMessageReceiverImpl(AmazonSQSClient awsSQSClient,
+			Integer minNumberOfWorkerThreads, Integer maxNumberOfWorkerThreads,
+			Integer maxMessagePerWorker, Integer visibilityTimeoutSec,
+			Integer waitTimeSec, Integer maxPrefetchedMessages, Long maxRunTimeMS,
+			MessageQueue messageQueue, MessageWorkerFactory workerFactory) {
+		super();
+		this.awsSQSClient = awsSQSClient;
+		this.minNumberOfWorkerThreads = minNumberOfWorkerThreads;
+		this.maxNumberOfWorkerThreads = maxNumberOfWorkerThreads;
+		this.maxMessagePerWorker = maxMessagePerWorker;
+		this.visibilityTimeoutSec = visibilityTimeoutSec;
+		this.waitTimeSec = waitTimeSec;
+		this.maxPrefetchedMessages = maxPrefetchedMessages;
+		this.maxRunTimeMS = maxRunTimeMS;
+		this.messageQueue = messageQueue;
+		this.workerFactory = workerFactory;
+	}
+
+	/**
+	 * Default used by Spring.
+	 */
+	public LongPollingMessageReceiverImpl() {
+	}
+
+	/**
+	 * Injected by spring or unit tests.
+	 * @param awsSQSClient
+	 */
+	public void setAwsSQSClient(AmazonSQSClient awsSQSClient) {
+		this.awsSQSClient = awsSQSClient;
+	}
+
+	/**
+	 * The minimum number of concurrent workers.
+	 * @param minNumberOfWorkerThreads
+	 */
+	public void setMinNumberOfWorkerThreads(Integer minNumberOfWorkerThreads) {
+		this.minNumberOfWorkerThreads = minNumberOfWorkerThreads;
+	}
+
+	/**
+	 * The maximum number of concurrent workers.
+	 * @param maxNumberOfWorkerThreads
+	 */
+	public void setMaxNumberOfWorkerThreads(Integer maxNumberOfWorkerThreads) {
+		this.maxNumberOfWorkerThreads = maxNumberOfWorkerThreads;
+	}
+
+	/**
+	 * The maximum number of messages that each worker should handle.
+	 * @param maxMessagePerWorker
+	 */
+	public void setMaxMessagePerWorker(Integer maxMessagePerWorker) {
+		this.maxMessagePerWorker = maxMessagePerWorker;
+	}
+
+	/**
+	 * The duration (in seconds) that the received messages are hidden from
+	 * subsequent retrieve requests.
+	 * @param visibilityTimeoutSec
+	 */
+	public void setVisibilityTimeoutSec(Integer visibilityTimeoutSec) {
+		this.visibilityTimeoutSec = visibilityTimeoutSec;
+	}
+
+	/**
+	 * How long (in seconds) each receive waits for messages to arrive.
+	 * @param waitTimeSec
+	 */
+	public void setWaitTimeSec(Integer waitTimeSec) {
+		this.waitTimeSec = waitTimeSec;
+	}
+
+	/**
+	 * The maximum number of messages held in the prefetch buffer.
+	 * @param maxPrefetchedMessages
+	 */
+	public void setMaxPrefetchedMessages(Integer maxPrefetchedMessages) {
+		this.maxPrefetchedMessages = maxPrefetchedMessages;
+	}
+
+	/**
+	 * How long (MS) a single consumer session lasts.
+	 * @param maxRunTimeMS
+	 */
+	public void setMaxRunTimeMS(Long maxRunTimeMS) {
+		this.maxRunTimeMS = maxRunTimeMS;
+	}
+
+	/**
+	 * The MessageQueue that this instance is watching.
+	 * @param messageQueue
+	 */
+	public void setMessageQueue(MessageQueue messageQueue) {
+		this.messageQueue = messageQueue;
+	}
+
+	/**
+	 * Providers workers to processes messages.
+	 * @param workerFactory
+	 */
+	public void setWorkerFactory(MessageWorkerFactory workerFactory) {
+		this.workerFactory = workerFactory;
+	}
+
+	/**
+	 * Injected by unit tests.
+	 * @param clock
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public void run() {
+		try {
+			triggerFired();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int triggerFired() throws InterruptedException {
+		try {
+			return triggerFiredImpl();
+		} catch (Throwable e) {
+			log.error("Trigger fired failed", e);
+			// We only want to throw a runtime.
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int triggerFiredImpl() throws InterruptedException {
+		// Validate all config.
+		verifyConfig();
+		// Do nothing if this queue is not enabled
+		if (!messageQueue.isEnabled()) {
+			if (log.isDebugEnabled()) {
+				log.debug("Nothing to do since the queue is disabled: " + messageQueue.getQueueName());
+			}
+			return 0;
+		}
+		long visibilityMs = visibilityTimeoutSec * 1000L;
+		long sessionEnd = clock.currentTimeMillis() + maxRunTimeMS;
+		final BlockingQueue<Message> prefetched = new LinkedBlockingQueue<Message>();
+		// One permit for each free place in the prefetch buffer.
+		final Semaphore bufferSpace = new Semaphore(maxPrefetchedMessages);
+		// Every message we hold (prefetched or running) mapped by receipt handle to when it becomes visible again.
+		final Map<String, Long> held = new ConcurrentHashMap<String, Long>();
+		final AtomicBoolean fetching = new AtomicBoolean(true);
+		Future<?> fetchTask = fetcher.submit(new Runnable() {
+			@Override
+			public void run() {
+				fetchMessages(prefetched, bufferSpace, held, fetching);
+			}
+		});
+
+		CompletionService<List<Message>> completionService = new ExecutorCompletionService<List<Message>>(executors);
+		Map<Future<List<Message>>, Batch> running = new HashMap<Future<List<Message>>, Batch>();
+		currentConcurrency.set(minNumberOfWorkerThreads);
+		int count = 0;
+		try {
+			while (true) {
+				long now = clock.currentTimeMillis();
+				if (now >= sessionEnd) {
+					fetching.set(false);
+				}
+				// Renew anything that would become visible before the next pass.
+				renewVisibility(held, now, visibilityMs);
+				// Hand batches to any free workers.
+				while (fetching.get() && running.size() < currentConcurrency.get()) {
+					List<Message> batch = new LinkedList<Message>();
+					prefetched.drainTo(batch, maxMessagePerWorker);
+					if (batch.isEmpty()) {
+						break;
+					}
+					count += submitBatch(batch, bufferSpace, completionService, running);
+				}
+				inFlightBatches.set(running.size());
+				prefetchedMessages.set(prefetched.size());
+				if (!fetching.get() && fetchTask.isDone()) {
+					// The session is over so give back anything that was not started.
+					releaseMessages(prefetched, held);
+					if (running.isEmpty()) {
+						break;
+					}
+				}
+				// Wait for the next completion, but wake up in time to renew visibility.
+				long waitMs = visibilityMs / 4;
+				if (running.isEmpty()) {
+					// Nothing can complete.
+					if (!fetching.get()) {
+						// Wait for the last long poll to return.
+						waitForFetcher(fetchTask, waitMs);
+						continue;
+					}
+					// Wait for messages to arrive and start on them right away.
+					Message next = prefetched.poll(Math.min(waitMs, Math.max(1, sessionEnd - now)), TimeUnit.MILLISECONDS);
+					if (next != null) {
+						List<Message> batch = new LinkedList<Message>();
+						batch.add(next);
+						prefetched.drainTo(batch, maxMessagePerWorker - 1);
+						count += submitBatch(batch, bufferSpace, completionService, running);
+					}
+					continue;
+				}
+				if (running.size() < currentConcurrency.get()) {
+					waitMs = Math.min(waitMs, DISPATCH_INTERVAL_MS);
+				}
+				Future<List<Message>> done = completionService.poll(waitMs, TimeUnit.MILLISECONDS);
+				List<Message> messagesToDelete = new LinkedList<Message>();
+				while (done != null) {
+					collectProcessedMessages(done, running, held, messagesToDelete);
+					done = completionService.poll();
+				}
+				deleteMessages(messagesToDelete);
+				adjustConcurrency(prefetched.size(), running.size(), visibilityMs);
+			}
+		} finally {
+			fetching.set(false);
+			inFlightBatches.set(0);
+			prefetchedMessages.set(0);
+		}
+		return count;
+	}
+
+	/**
+	 * Hand a batch taken from the prefetch buffer to a worker.
+	 * @return the number of messages in the batch.
+	 */
+	private int submitBatch(List<Message> batch, Semaphore bufferSpace, CompletionService<List<Message>> completionService,
+			Map<Future<List<Message>>, Batch> running) {
+		bufferSpace.release(batch.size());
+		running.put(completionService.submit(workerFactory.createWorker(batch)), new Batch(batch, clock.currentTimeMillis()));
+		return batch.size();
+	}
+
+	/**
+	 * Wait for the fetcher to finish its current long poll.
+	 */
+	private void waitForFetcher(Future<?> fetchTask, long waitMs) throws InterruptedException {
+		try {
+			fetchTask.get(waitMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// Still polling.
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Long poll the queue while there is room in the prefetch buffer. Runs on the fetcher thread.
+	 */
+	private void fetchMessages(BlockingQueue<Message> prefetched, Semaphore bufferSpace, Map<String, Long> held, AtomicBoolean fetching) {
+		try {
+			while (fetching.get()) {
+				// Wait for room in the buffer.
+				if (!bufferSpace.tryAcquire(1, DISPATCH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					continue;
+				}
+				int requested = 1;
+				while (requested < MessageUtils.SQS_MAX_REQUEST_SIZE && bufferSpace.tryAcquire()) {
+					requested++;
+				}
+				List<Message> received = new LinkedList<Message>();
+				try {
+					ReceiveMessageRequest rmRequest = new ReceiveMessageRequest(messageQueue.getQueueUrl())
+							.withVisibilityTimeout(visibilityTimeoutSec)
+							.withMaxNumberOfMessages(requested)
+							.withWaitTimeSeconds(waitTimeSec);
+					received = awsSQSClient.receiveMessage(rmRequest).getMessages();
+				} catch (AmazonClientException e) {
+					log.error("Failed to receive messages from queue: " + messageQueue.getQueueName(), e);
+					Thread.sleep(RECEIVE_ERROR_BACKOFF_MS);
+				}
+				long visibleAt = clock.currentTimeMillis() + visibilityTimeoutSec * 1000L;
+				for (Message message : received) {
+					held.put(message.getReceiptHandle(), visibleAt);
+					prefetched.add(message);
+				}
+				bufferSpace.release(requested - received.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Extend the visibility of every held message that would otherwise become visible within half a window.
+	 */
+	private void renewVisibility(Map<String, Long> held, long now, long visibilityMs) {
+		List<String> toRenew = new LinkedList<String>();
+		for (Map.Entry<String, Long> entry : held.entrySet()) {
+			if (entry.getValue() - now < visibilityMs / 2) {
+				toRenew.add(entry.getKey());
+			}
+		}
+		if (toRenew.isEmpty()) {
+			return;
+		}
+		changeVisibility(toRenew, visibilityTimeoutSec);
+		long visibleAt = now + visibilityMs;
+		for (String receiptHandle : toRenew) {
+			// Only renew messages that were not deleted or released in the meantime.
+			if (held.containsKey(receiptHandle)) {
+				held.put(receiptHandle, visibleAt);
+			}
+		}
+		renewedMessages.addAndGet(toRenew.size());
+	}
+
+	/**
+	 * Make any prefetched messages visible again.
+	 */
+	private void releaseMessages(BlockingQueue<Message> prefetched, Map<String, Long> held) {
+		List<Message> toRelease = new LinkedList<Message>();
+		prefetched.drainTo(toRelease);
+		if (toRelease.isEmpty()) {
+			return;
+		}
+		List<String> receiptHandles = new LinkedList<String>();
+		for (Message message : toRelease) {
+			held.remove(message.getReceiptHandle());
+			receiptHandles.add(message.getReceiptHandle());
+		}
+		changeVisibility(receiptHandles, 0);
+	}
+
+	/**
+	 * Change the visibility timeout of the given messages in batches of ten.
+	 */
+	private void changeVisibility(List<String> receiptHandles, int visibilityTimeout) {
+		for (List<String> miniBatch : MessageUtils.splitListIntoTens(receiptHandles)) {
+			List<ChangeMessageVisibilityBatchRequestEntry> entries = new LinkedList<ChangeMessageVisibilityBatchRequestEntry>();
+			for (String receiptHandle : miniBatch) {
+				// The ID only needs to be unique within a request.
+				entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(entries.size()), receiptHandle).withVisibilityTimeout(visibilityTimeout));
+			}
+			awsSQSClient.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(messageQueue.getQueueUrl(), entries));
+		}
+	}
+
+	/**
+	 * Gather the messages processed by a completed batch.
+	 */
+	private void collectProcessedMessages(Future<List<Message>> done, Map<Future<List<Message>>, Batch> running,
+			Map<String, Long> held, List<Message> messagesToDelete) throws InterruptedException {
+		Batch batch = running.remove(done);
+		// Stop renewing the batch whether or not it succeeded.
+		for (Message message : batch.messages) {
+			held.remove(message.getReceiptHandle());
+		}
+		long latency = clock.currentTimeMillis() - batch.startTime;
+		averageBatchLatencyMS = averageBatchLatencyMS == 0 ? latency : (1 - LATENCY_WEIGHT) * averageBatchLatencyMS + LATENCY_WEIGHT * latency;
+		try {
+			List<Message> messages = done.get();
+			if (messages != null) {
+				messagesToDelete.addAll(messages);
+			}
+			completedBatches.incrementAndGet();
+		} catch (ExecutionException e) {
+			// We cannot remove this message from the queue.
+			log.error("Failed to process a SQS message:", e);
+			failedBatches.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Grow the number of workers while there is a backlog that the workers can
+	 * keep up with, and shrink it when workers sit idle.
+	 */
+	private void adjustConcurrency(int backlog, int runningCount, long visibilityMs) {
+		int concurrency = currentConcurrency.get();
+		if (backlog >= maxMessagePerWorker && averageBatchLatencyMS < visibilityMs / 2 && concurrency < maxNumberOfWorkerThreads) {
+			currentConcurrency.set(concurrency + 1);
+		} else if (backlog == 0 && runningCount < concurrency - 1 && concurrency > minNumberOfWorkerThreads) {
+			currentConcurrency.set(concurrency - 1);
+		}
+	}
+
+	/**
+	 * Batch delete all of the processed messages.
+	 */
+	private void deleteMessages(List<Message> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		List<DeleteMessageBatchRequestEntry> messagesToDelete = new LinkedList<DeleteMessageBatchRequestEntry>();
+		for (Message toDelete : messages) {
+			messagesToDelete.add(new DeleteMessageBatchRequestEntry(toDelete.getMessageId(), toDelete.getReceiptHandle()));
+		}
+		for (List<DeleteMessageBatchRequestEntry> miniBatch : MessageUtils.splitListIntoTens(messagesToDelete)) {
+			awsSQSClient.deleteMessageBatch(new DeleteMessageBatchRequest(messageQueue.getQueueUrl(), miniBatch));
+		}
+	}
+
+	/**
+	 * The number of workers this receiver is currently willing to run.
+	 * @return
+	 */
+	public int getCurrentConcurrency() {
+		return currentConcurrency.get();
+	}
+
+	/**
+	 * The number of batches currently being processed for this queue.
+	 * @return
+	 */
+	public int getInFlightBatchCount() {
+		return inFlightBatches.get();
+	}
+
+	/**
+	 * The number of messages waiting in the prefetch buffer.
+	 * @return
+	 */
+	public int getPrefetchedMessageCount() {
+		return prefetchedMessages.get();
+	}
+
+	/**
+	 * The number of batches that completed successfully for this queue.
+	 * @return
+	 */
+	public long getCompletedBatchCount() {
+		return completedBatches.get();
+	}
+
+	/**
+	 * The number of batches whose worker threw an exception for this queue.
+	 * @return
+	 */
+	public long getFailedBatchCount() {
+		return failedBatches.get();
+	}
+
+	/**
+	 * The number of message visibility renewals for this queue.
+	 * @return
+	 */
+	public long getRenewedMessageCount() {
+		return renewedMessages.get();
+	}
+
+	/**
+	 * The moving average time (MS) taken by a batch.
+	 * @return
+	 */
+	public double getAverageBatchLatencyMS() {
+		return averageBatchLatencyMS;
+	}
+
+	/**
+	 * Validate that we have all of the required configuration.
+	 */
+	private void verifyConfig() {
+		if (awsSQSClient == null) throw new IllegalStateException("awsSQSClient cannot be null");
+		if (minNumberOfWorkerThreads == null) throw new IllegalStateException("minNumberOfWorkerThreads cannot be null");
+		if (maxNumberOfWorkerThreads == null) throw new IllegalStateException("maxNumberOfWorkerThreads cannot be null");
+		if (minNumberOfWorkerThreads < 1 || minNumberOfWorkerThreads > maxNumberOfWorkerThreads) throw new IllegalStateException("minNumberOfWorkerThreads must be between 1 and maxNumberOfWorkerThreads");
+		if (maxMessagePerWorker == null) throw new IllegalStateException("maxMessagePerWorker cannot be null");
+		if (visibilityTimeoutSec == null) throw new IllegalStateException("visibilityTimeoutSec cannot be null");
+		if (waitTimeSec == null || waitTimeSec < 0 || waitTimeSec > MAX_WAIT_TIME_SEC) throw new IllegalStateException("waitTimeSec must be between 0 and " + MAX_WAIT_TIME_SEC);
+		if (maxPrefetchedMessages == null || maxPrefetchedMessages < 1) throw new IllegalStateException("maxPrefetchedMessages must be at least 1");
+		if (maxRunTimeMS == null) throw new IllegalStateException("maxRunTimeMS cannot be null");
+		if (messageQueue == null) throw new IllegalStateException("messageQueue cannot be null");
+		if (executors == null && messageQueue.isEnabled()) {
+			// Create the thread pools
+			executors = Executors.newFixedThreadPool(maxNumberOfWorkerThreads);
+			fetcher = Executors.newSingleThreadExecutor();
+		}
+	}
+
+}
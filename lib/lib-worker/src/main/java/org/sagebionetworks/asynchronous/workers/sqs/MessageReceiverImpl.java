@@ -1,16 +1,28 @@
 package org.sagebionetworks.asynchronous.workers.sqs;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.amazonaws.services.sqs.AmazonSQSClient;
@@ -29,9 +41,14 @@ public class MessageReceiverImpl implements MessageReceiver {
 	
 
 	static private Logger log = LogManager.getLogger(MessageReceiverImpl.class);
+
+	static final long METRICS_INTERVAL_MS = 60*1000;
+	static final String METRICS_NAMESPACE = "MessageReceiver";
 	
 	@Autowired
 	AmazonSQSClient awsSQSClient;
+	@Autowired(required = false)
+	Consumer consumer;
 	
     /**
      * The maximum number of threads used to process messages.
@@ -62,6 +79,23 @@ public class MessageReceiverImpl implements MessageReceiver {
 	 * This is our thread pool.
 	 */
 	ExecutorService executors;
+
+	/**
+	 * Gauges for this queue.
+	 */
+	private final AtomicInteger inFlightBatches = new AtomicInteger(0);
+	private final AtomicLong completedBatches = new AtomicLong(0);
+	private final AtomicLong failedBatches = new AtomicLong(0);
+	private final AtomicLong expiredBatches = new AtomicLong(0);
+	/**
+	 * The number of pool threads that are running or waiting to run a batch.  An expired batch
+	 * keeps its thread until its worker actually returns, so this spans trigger calls.
+	 */
+	private final AtomicInteger busyThreads = new AtomicInteger(0);
+	private long publishedCompletedBatches = 0;
+	private long publishedFailedBatches = 0;
+	private long publishedExpiredBatches = 0;
+	private long lastPublished = 0;
 	
 	/**
 	 * Used for unit tests.
@@ -96,6 +130,14 @@ public class MessageReceiverImpl implements MessageReceiver {
 		this.awsSQSClient = awsSQSClient;
 	}
 
+	/**
+	 * The gauges of this queue are published to CloudWatch when set.
+	 * @param consumer
+	 */
+	public void setConsumer(Consumer consumer) {
+		this.consumer = consumer;
+	}
+
 
 	/**
 	 * The maximum number of threads used to process messages.
@@ -198,101 +240,301 @@ public class MessageReceiverImpl implements MessageReceiver {
 			}
 			return 0;
 		}
-		// When the timer is fired we receive messages from AWS SQS.
-		// Note: The max number of messages is the maxNumberOfWorkerThreads*maxMessagePerWorker as each worker is expected to handle a batch of messages.
-		// Note: Messages must be requested in batches of 10 or less (otherwise SQS will complain)
-		int maxMessages = maxNumberOfWorkerThreads*maxMessagePerWorker;
+		// Each batch is handed back by the completion service as soon as it finishes, so
+		// messages are deleted as they are processed and free slots can be refilled without
+		// waiting on the slowest worker.
+		CompletionService<List<Message>> completionService = new ExecutorCompletionService<List<Message>>(executors);
+		// Maps each running batch to its worker, which knows when its messages become visible again.
+		Map<Future<List<Message>>, TrackedWorker> running = new HashMap<Future<List<Message>>, TrackedWorker>();
+		long visibilityMs = visibilityTimeoutSec*1000L;
+		long startTime = System.currentTimeMillis();
+		boolean queueDrained = false;
+		int count = 0;
+		try{
+			while(true){
+				// Keep the worker slots full while the queue has messages and we are still within a single visibility window.
+				// A slot is only free once its thread is free, including threads still held by expired batches.
+				int freeSlots = maxNumberOfWorkerThreads - busyThreads.get();
+				if(!queueDrained && freeSlots > 0 && System.currentTimeMillis()-startTime < visibilityMs){
+					List<Message> received = receiveMessages(freeSlots*maxMessagePerWorker);
+					if(received.isEmpty()){
+						queueDrained = true;
+					}else{
+						count += received.size();
+						submitBatches(received, completionService, running);
+					}
+				}
+				publishMetricsIfNeeded();
+				if(running.isEmpty()){
+					break;
+				}
+				// Block until the next batch completes or the earliest batch runs out of visibility time.
+				long waitMs = Math.max(0, earliestDeadline(running)-System.currentTimeMillis());
+				Future<List<Message>> done = completionService.poll(waitMs, TimeUnit.MILLISECONDS);
+				if(done == null){
+					expireBatches(running);
+					continue;
+				}
+				// Pick up any other batches that finished at the same time so they share a delete call.
+				List<Message> messagesToDelete = new LinkedList<Message>();
+				while(done != null){
+					collectProcessedMessages(done, running, messagesToDelete);
+					done = completionService.poll();
+				}
+				deleteMessages(messagesToDelete);
+			}
+		}finally{
+			inFlightBatches.set(0);
+		}
+		// Return the number of messages that were on the queue.
+		return count;
+	}
+
+	/**
+	 * Receive up to the given number of messages from the queue.
+	 * Note: Messages must be requested in batches of 10 or less (otherwise SQS will complain)
+	 * @param maxMessages
+	 * @return
+	 */
+	private List<Message> receiveMessages(int maxMessages){
 		List<Message> toBeProcessed = new ArrayList<Message>();
 		for (int i = 0; i < maxMessages; i += MessageUtils.SQS_MAX_REQUEST_SIZE) {
 			ReceiveMessageRequest rmRequest = new ReceiveMessageRequest(messageQueue.getQueueUrl()).withVisibilityTimeout(visibilityTimeoutSec);
-			if (maxMessages - i > 10) {
-				rmRequest.setMaxNumberOfMessages(MessageUtils.SQS_MAX_REQUEST_SIZE);
-			} else {
-				rmRequest.setMaxNumberOfMessages(maxMessages % (MessageUtils.SQS_MAX_REQUEST_SIZE + 1));
-			}
+			rmRequest.setMaxNumberOfMessages(Math.min(MessageUtils.SQS_MAX_REQUEST_SIZE, maxMessages - i));
 			ReceiveMessageResult result = awsSQSClient.receiveMessage(rmRequest);
 			if (result.getMessages().size() <= 0) {
 				break;
 			}
 			toBeProcessed.addAll(result.getMessages());
 		}
-		if (toBeProcessed.size() < 1) {
-			return 0;
-		}
-		
-		// Process all of the messages.
-		List<Future<List<Message>>> currentWorkers = new LinkedList<Future<List<Message>>>();
+		return toBeProcessed;
+	}
+
+	/**
+	 * Split the messages into batches of maxMessagePerWorker and submit a worker for each batch.
+	 * @param messages
+	 * @param completionService
+	 * @param running
+	 */
+	private void submitBatches(List<Message> messages, CompletionService<List<Message>> completionService, Map<Future<List<Message>>, TrackedWorker> running){
+		// The messages become visible again one visibility window after they were received.
+		long deadline = System.currentTimeMillis()+visibilityTimeoutSec*1000L;
 		List<Message> messageBatch = new LinkedList<Message>();
-		for (Message message: toBeProcessed) {
+		for (Message message: messages) {
 			// Add this message to a batch
 			messageBatch.add(message);
 			if(messageBatch.size() >= maxMessagePerWorker){
-				Callable<List<Message>> worker = workerFactory.createWorker(messageBatch);
-				// Fire up the worker
-				Future<List<Message>> future = executors.submit(worker);
-				// Add the worker to the list.
-				currentWorkers.add(future);
+				submitBatch(messageBatch, deadline, completionService, running);
 				// Create a new batch
 				messageBatch = new LinkedList<Message>();
 			}
 		}
 		// Add any dangling messages
 		if(messageBatch.size() > 0){
-			Callable<List<Message>> worker = workerFactory.createWorker(messageBatch);
-			// Fire up the worker
-			Future<List<Message>> future = executors.submit(worker);
-			// Add the worker to the list.
-			currentWorkers.add(future);
+			submitBatch(messageBatch, deadline, completionService, running);
 		}
-		// Give the workers a chance to start
-		Thread.sleep(100);
-		// Watch the workers.  As they complete their tasks, delete the messages from the queue.
-		long startTime = System.currentTimeMillis();
-		long visibilityMs = visibilityTimeoutSec*1000;
-		while(currentWorkers.size() > 0){
-			long elapase = System.currentTimeMillis()-startTime;
-			if(elapase > visibilityMs){
-				log.error("Failed to process all messages within the visibilty window.");
-				break;
+		inFlightBatches.set(running.size());
+	}
+
+	private void submitBatch(List<Message> messageBatch, long deadline, CompletionService<List<Message>> completionService, Map<Future<List<Message>>, TrackedWorker> running){
+		TrackedWorker worker = new TrackedWorker(workerFactory.createWorker(messageBatch), deadline);
+		busyThreads.incrementAndGet();
+		running.put(completionService.submit(worker), worker);
+	}
+
+	/**
+	 * @param running
+	 * @return The earliest time (ms) when the messages of a running batch become visible again.
+	 */
+	private static long earliestDeadline(Map<Future<List<Message>>, TrackedWorker> running){
+		long earliest = Long.MAX_VALUE;
+		for(TrackedWorker worker: running.values()){
+			earliest = Math.min(earliest, worker.deadline);
+		}
+		return earliest;
+	}
+
+	/**
+	 * Stop tracking any batch that did not finish within its visibility window.
+	 * The messages of an expired batch are not deleted so they will be delivered again.
+	 * The worker is not interrupted since it may be part way through database or S3 calls,
+	 * so its thread stays busy until the worker returns.
+	 * @param running
+	 */
+	private void expireBatches(Map<Future<List<Message>>, TrackedWorker> running){
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Future<List<Message>>, TrackedWorker>> it = running.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<Future<List<Message>>, TrackedWorker> entry = it.next();
+			if(entry.getValue().deadline <= now){
+				log.error("Failed to process a batch of messages within the visibilty window for queue: "+messageQueue.getQueueName());
+				entry.getKey().cancel(false);
+				entry.getValue().abandon();
+				it.remove();
+				expiredBatches.incrementAndGet();
 			}
-			// Once a worker is done we remove it.
-			List<Future<List<Message>>> toRemove = new LinkedList<Future<List<Message>>>();
-			// Used to keep track of messages that need to be deleted.
-			List<DeleteMessageBatchRequestEntry> messagesToDelete = new LinkedList<DeleteMessageBatchRequestEntry>();
-			for(Future<List<Message>> future: currentWorkers){
-				if(future.isDone()){
-					try {
-						List<Message> messages = future.get();
-						// We processed the message
-						for(Message toDelet: messages){
-							messagesToDelete.add(new DeleteMessageBatchRequestEntry(toDelet.getMessageId(), toDelet.getReceiptHandle()));
-						}
-					} catch (InterruptedException e) {
-						// We cannot remove this message from the queue.
-						log.error("Failed to process a SQS message:", e);
-					} catch (ExecutionException e) {
-						// We cannot remove this message from the queue.
-						log.error("Failed to process a SQS message:", e);
-					}
-					// done with this future
-					toRemove.add(future);
-				}
+		}
+		inFlightBatches.set(running.size());
+	}
+
+	/**
+	 * Gather the messages processed by a completed batch.
+	 * @param done
+	 * @param running
+	 * @param messagesToDelete
+	 * @throws InterruptedException
+	 */
+	private void collectProcessedMessages(Future<List<Message>> done, Map<Future<List<Message>>, TrackedWorker> running, List<Message> messagesToDelete) throws InterruptedException{
+		// A batch that already expired is no longer ours to delete.
+		if(running.remove(done) == null){
+			return;
+		}
+		inFlightBatches.set(running.size());
+		try {
+			List<Message> messages = done.get();
+			if(messages != null){
+				messagesToDelete.addAll(messages);
 			}
-			// Batch delete all of the completed message.
-			if (messagesToDelete.size() > 0) {
-				List<List<DeleteMessageBatchRequestEntry>> miniBatches = MessageUtils.splitListIntoTens(messagesToDelete);
-				for (int i = 0; i < miniBatches.size(); i++) {
-					DeleteMessageBatchRequest dmbRequest = new DeleteMessageBatchRequest(messageQueue.getQueueUrl(), miniBatches.get(i));
-					awsSQSClient.deleteMessageBatch(dmbRequest);
-				}
+			completedBatches.incrementAndGet();
+		} catch (ExecutionException e) {
+			// We cannot remove this message from the queue.
+			log.error("Failed to process a SQS message:", e);
+			failedBatches.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Batch delete all of the processed messages.
+	 * @param messages
+	 */
+	private void deleteMessages(List<Message> messages){
+		if (messages.size() < 1) {
+			return;
+		}
+		List<DeleteMessageBatchRequestEntry> messagesToDelete = new LinkedList<DeleteMessageBatchRequestEntry>();
+		for(Message toDelet: messages){
+			messagesToDelete.add(new DeleteMessageBatchRequestEntry(toDelet.getMessageId(), toDelet.getReceiptHandle()));
+		}
+		List<List<DeleteMessageBatchRequestEntry>> miniBatches = MessageUtils.splitListIntoTens(messagesToDelete);
+		for (int i = 0; i < miniBatches.size(); i++) {
+			DeleteMessageBatchRequest dmbRequest = new DeleteMessageBatchRequest(messageQueue.getQueueUrl(), miniBatches.get(i));
+			awsSQSClient.deleteMessageBatch(dmbRequest);
+		}
+	}
+
+	/**
+	 * The number of batches currently being processed for this queue.
+	 * @return
+	 */
+	public int getInFlightBatchCount() {
+		return inFlightBatches.get();
+	}
+
+	/**
+	 * The number of batches that completed successfully for this queue.
+	 * @return
+	 */
+	public long getCompletedBatchCount() {
+		return completedBatches.get();
+	}
+
+	/**
+	 * The number of batches whose worker threw an exception for this queue.
+	 * @return
+	 */
+	public long getFailedBatchCount() {
+		return failedBatches.get();
+	}
+
+	/**
+	 * The number of batches that did not finish within the visibility window for this queue.
+	 * @return
+	 */
+	public long getExpiredBatchCount() {
+		return expiredBatches.get();
+	}
+
+	/**
+	 * The number of pool threads that are running or waiting to run a batch for this queue.
+	 * @return
+	 */
+	public int getBusyThreadCount() {
+		return busyThreads.get();
+	}
+
+	/**
+	 * Publish the gauges of this queue to CloudWatch, along with the batch counts since the last publish.
+	 */
+	private void publishMetricsIfNeeded() {
+		long now = System.currentTimeMillis();
+		if(consumer == null || now - lastPublished < METRICS_INTERVAL_MS){
+			return;
+		}
+		long completed = completedBatches.get();
+		long failed = failedBatches.get();
+		long expired = expiredBatches.get();
+		try{
+			addMetric("InFlightBatches", inFlightBatches.get());
+			addMetric("BusyThreads", busyThreads.get());
+			addMetric("CompletedBatches", completed-publishedCompletedBatches);
+			addMetric("FailedBatches", failed-publishedFailedBatches);
+			addMetric("ExpiredBatches", expired-publishedExpiredBatches);
+		}catch(Exception e){
+			// Metrics must never stop the messages from being processed
+			log.warn("Failed to publish metrics for queue: "+messageQueue.getQueueName(), e);
+		}
+		publishedCompletedBatches = completed;
+		publishedFailedBatches = failed;
+		publishedExpiredBatches = expired;
+		lastPublished = now;
+	}
+
+	private void addMetric(String name, long count) {
+		ProfileData profileData = new ProfileData();
+		profileData.setNamespace(METRICS_NAMESPACE);
+		profileData.setName(messageQueue.getQueueName()+"-"+name);
+		profileData.setLatency(count);
+		profileData.setUnit("Count");
+		profileData.setTimestamp(new Date());
+		consumer.addProfileData(profileData);
+	}
+
+	/**
+	 * Wraps a worker to release its thread slot when the worker returns.
+	 */
+	private class TrackedWorker implements Callable<List<Message>> {
+
+		private final Callable<List<Message>> worker;
+		private final long deadline;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+		TrackedWorker(Callable<List<Message>> worker, long deadline) {
+			this.worker = worker;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public List<Message> call() throws Exception {
+			// An abandoned worker already released its slot.
+			if(!claimed.compareAndSet(false, true)){
+				return null;
+			}
+			try{
+				return worker.call();
+			}finally{
+				busyThreads.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Called when the batch expires.  A worker that never started will not run
+		 * so its slot is released now, otherwise the slot is released when it returns.
+		 */
+		void abandon() {
+			if(claimed.compareAndSet(false, true)){
+				busyThreads.decrementAndGet();
 			}
-			// remove all that we can
-			currentWorkers.removeAll(toRemove);
-			// Give other threads a chance to work
-			Thread.yield();
 		}
-		// Return the number of messages that were on the queue.
-		return toBeProcessed.size();
 	}
 
 
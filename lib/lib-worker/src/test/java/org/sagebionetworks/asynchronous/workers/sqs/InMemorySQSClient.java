@@ -0,0 +1,246 @@
+package org.sagebionetworks.asynchronous.workers.sqs;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * A local, in-memory stand-in for AWS SQS. It supports the subset of the API
+ * used by the message receivers (create, send, long-poll receive, batch delete
+ * and batch visibility changes) so the receivers can be load-tested without AWS.
+ *
+ * Nothing here ever calls AWS.
+ *
+ */
+public class InMemorySQSClient extends AmazonSQSClient {
+
+	public static final String URL_PREFIX = "memory://";
+	public static final String ATTRIBUTE_APPROXIMATE_NUMBER_OF_MESSAGES = "ApproximateNumberOfMessages";
+	public static final String ATTRIBUTE_APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE = "ApproximateNumberOfMessagesNotVisible";
+
+	/**
+	 * Default visibility used when a receive request does not specify one.
+	 */
+	private static final int DEFAULT_VISIBILITY_TIMEOUT_SEC = 30;
+
+	/**
+	 * A long poll re-checks the clock at least this often, so it also ends when a test advances the clock.
+	 */
+	private static final long MAX_WAIT_SLICE_MS = 50;
+
+	/**
+	 * A single message on a queue.
+	 */
+	private static class QueuedMessage {
+		String messageId;
+		String body;
+		String receiptHandle;
+		long visibleAt;
+	}
+
+	/**
+	 * Queue URL to messages keyed by message ID (in send order).
+	 */
+	private final Map<String, LinkedHashMap<String, QueuedMessage>> queues = new HashMap<String, LinkedHashMap<String, QueuedMessage>>();
+
+	/**
+	 * The total number of receive calls that returned no messages.
+	 */
+	private long emptyReceiveCount = 0;
+
+	private final Clock clock;
+
+	public InMemorySQSClient() {
+		this(Clock.SYSTEM);
+	}
+
+	/**
+	 * @param clock The source of the current time for visibility timeouts and long polls.
+	 */
+	public InMemorySQSClient(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public synchronized CreateQueueResult createQueue(CreateQueueRequest createQueueRequest) {
+		String url = URL_PREFIX + createQueueRequest.getQueueName();
+		if (!queues.containsKey(url)) {
+			queues.put(url, new LinkedHashMap<String, QueuedMessage>());
+		}
+		return new CreateQueueResult().withQueueUrl(url);
+	}
+
+	@Override
+	public synchronized SendMessageResult sendMessage(SendMessageRequest sendMessageRequest) {
+		QueuedMessage message = new QueuedMessage();
+		message.messageId = UUID.randomUUID().toString();
+		message.body = sendMessageRequest.getMessageBody();
+		message.visibleAt = clock.currentTimeMillis();
+		getQueue(sendMessageRequest.getQueueUrl()).put(message.messageId, message);
+		// Wake up any long polls.
+		notifyAll();
+		return new SendMessageResult().withMessageId(message.messageId);
+	}
+
+	@Override
+	public synchronized ReceiveMessageResult receiveMessage(ReceiveMessageRequest receiveMessageRequest) {
+		LinkedHashMap<String, QueuedMessage> queue = getQueue(receiveMessageRequest.getQueueUrl());
+		int max = receiveMessageRequest.getMaxNumberOfMessages() == null ? 1 : receiveMessageRequest.getMaxNumberOfMessages();
+		int visibilitySec = receiveMessageRequest.getVisibilityTimeout() == null ? DEFAULT_VISIBILITY_TIMEOUT_SEC : receiveMessageRequest.getVisibilityTimeout();
+		int waitSec = receiveMessageRequest.getWaitTimeSeconds() == null ? 0 : receiveMessageRequest.getWaitTimeSeconds();
+		long waitUntil = clock.currentTimeMillis() + waitSec * 1000L;
+		ReceiveMessageResult result = new ReceiveMessageResult();
+		while (true) {
+			long now = clock.currentTimeMillis();
+			for (QueuedMessage message : queue.values()) {
+				if (result.getMessages().size() >= max) {
+					break;
+				}
+				if (message.visibleAt <= now) {
+					message.receiptHandle = UUID.randomUUID().toString();
+					message.visibleAt = now + visibilitySec * 1000L;
+					result.withMessages(new Message().withMessageId(message.messageId).withBody(message.body).withReceiptHandle(message.receiptHandle));
+				}
+			}
+			if (!result.getMessages().isEmpty() || now >= waitUntil) {
+				break;
+			}
+			// Long poll: wait for a send, a visibility change, or the next message to become visible.
+			long waitMs = Math.min(waitUntil - now, nextVisibleIn(queue, now));
+			try {
+				wait(Math.max(1, Math.min(waitMs, MAX_WAIT_SLICE_MS)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (result.getMessages().isEmpty()) {
+			emptyReceiveCount++;
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest) {
+		LinkedHashMap<String, QueuedMessage> queue = getQueue(deleteMessageBatchRequest.getQueueUrl());
+		DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+		for (DeleteMessageBatchRequestEntry entry : deleteMessageBatchRequest.getEntries()) {
+			QueuedMessage message = findByReceiptHandle(queue, entry.getReceiptHandle());
+			if (message != null) {
+				queue.remove(message.messageId);
+			}
+			// Like SQS, deleting a message that is already gone is not an error.
+			result.withSuccessful(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest changeMessageVisibilityBatchRequest) {
+		LinkedHashMap<String, QueuedMessage> queue = getQueue(changeMessageVisibilityBatchRequest.getQueueUrl());
+		ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+		long now = clock.currentTimeMillis();
+		for (ChangeMessageVisibilityBatchRequestEntry entry : changeMessageVisibilityBatchRequest.getEntries()) {
+			QueuedMessage message = findByReceiptHandle(queue, entry.getReceiptHandle());
+			if (message != null) {
+				message.visibleAt = now + entry.getVisibilityTimeout() * 1000L;
+			}
+			result.withSuccessful(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+		}
+		// Messages might have been made visible.
+		notifyAll();
+		return result;
+	}
+
+	@Override
+	public synchronized GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest getQueueAttributesRequest) {
+		LinkedHashMap<String, QueuedMessage> queue = getQueue(getQueueAttributesRequest.getQueueUrl());
+		long now = clock.currentTimeMillis();
+		int visible = 0;
+		for (QueuedMessage message : queue.values()) {
+			if (message.visibleAt <= now) {
+				visible++;
+			}
+		}
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put(ATTRIBUTE_APPROXIMATE_NUMBER_OF_MESSAGES, Integer.toString(visible));
+		attributes.put(ATTRIBUTE_APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, Integer.toString(queue.size() - visible));
+		return new GetQueueAttributesResult().withAttributes(attributes);
+	}
+
+	/**
+	 * The total number of messages (visible or not) on the given queue.
+	 *
+	 * @param queueUrl
+	 * @return
+	 */
+	public synchronized int getMessageCount(String queueUrl) {
+		return getQueue(queueUrl).size();
+	}
+
+	/**
+	 * The number of receive calls that returned no messages.
+	 *
+	 * @return
+	 */
+	public synchronized long getEmptyReceiveCount() {
+		return emptyReceiveCount;
+	}
+
+	/**
+	 * Get the messages of a queue.
+	 */
+	private LinkedHashMap<String, QueuedMessage> getQueue(String queueUrl) {
+		LinkedHashMap<String, QueuedMessage> queue = queues.get(queueUrl);
+		if (queue == null) {
+			throw new IllegalArgumentException("Queue does not exist: " + queueUrl);
+		}
+		return queue;
+	}
+
+	/**
+	 * Find the message that was most recently received with the given handle.
+	 */
+	private static QueuedMessage findByReceiptHandle(LinkedHashMap<String, QueuedMessage> queue, String receiptHandle) {
+		if (receiptHandle == null) {
+			return null;
+		}
+		for (QueuedMessage message : queue.values()) {
+			if (receiptHandle.equals(message.receiptHandle)) {
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The number of milliseconds until the next invisible message becomes visible.
+	 */
+	private static long nextVisibleIn(LinkedHashMap<String, QueuedMessage> queue, long now) {
+		long next = Long.MAX_VALUE;
+		for (QueuedMessage message : queue.values()) {
+			next = Math.min(next, message.visibleAt - now);
+		}
+		return next;
+	}
+}
@@ -0,0 +1,238 @@
+package org.sagebionetworks.asynchronous.workers.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * Runs the LongPollingMessageReceiverImpl against the in-memory SQS stand-in.
+ * Both share a manual clock, so sessions, visibility windows and long polls only
+ * move when a test advances the clock and the tests do not depend on scheduler timing.
+ *
+ */
+public class LongPollingMessageReceiverImplTest {
+
+	/**
+	 * Only guards against a hung test. No assertion depends on it.
+	 */
+	private static final long TEST_TIMEOUT_MS = 30000;
+
+	ManualClock clock;
+	InMemorySQSClient sqsClient;
+	String queueUrl;
+	MessageQueue mockQueue;
+	List<String> processedBodies;
+	ExecutorService sessionRunner;
+
+	@Before
+	public void before() {
+		clock = new ManualClock();
+		sqsClient = new InMemorySQSClient(clock);
+		queueUrl = sqsClient.createQueue(new CreateQueueRequest("longPollTest")).getQueueUrl();
+		mockQueue = Mockito.mock(MessageQueue.class);
+		when(mockQueue.getQueueUrl()).thenReturn(queueUrl);
+		when(mockQueue.getQueueName()).thenReturn("longPollTest");
+		when(mockQueue.isEnabled()).thenReturn(true);
+		processedBodies = Collections.synchronizedList(new LinkedList<String>());
+		sessionRunner = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void after() {
+		sessionRunner.shutdownNow();
+	}
+
+	/**
+	 * A factory for workers that signal when they start, wait to be released, then record each message.
+	 */
+	private MessageWorkerFactory createFactory(final CountDownLatch started, final CountDownLatch release, final CountDownLatch processed) {
+		return new MessageWorkerFactory() {
+			@Override
+			public Callable<List<Message>> createWorker(final List<Message> messages) {
+				return new Callable<List<Message>>() {
+					@Override
+					public List<Message> call() throws Exception {
+						started.countDown();
+						release.await();
+						for (Message message : messages) {
+							processedBodies.add(message.getBody());
+							processed.countDown();
+						}
+						return messages;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * A factory for workers that process their messages right away.
+	 */
+	private MessageWorkerFactory createFactory(CountDownLatch processed) {
+		return createFactory(new CountDownLatch(0), new CountDownLatch(0), processed);
+	}
+
+	private LongPollingMessageReceiverImpl createReceiver(int min, int max, int perWorker, int visibilitySec, int waitSec,
+			int maxPrefetched, long sessionMS, MessageWorkerFactory factory) {
+		LongPollingMessageReceiverImpl receiver = new LongPollingMessageReceiverImpl(sqsClient, min, max, perWorker, visibilitySec,
+				waitSec, maxPrefetched, sessionMS, mockQueue, factory);
+		receiver.setClock(clock);
+		return receiver;
+	}
+
+	private void sendMessages(int count) {
+		for (int i = 0; i < count; i++) {
+			sqsClient.sendMessage(new SendMessageRequest(queueUrl, "message" + i));
+		}
+	}
+
+	/**
+	 * Start a session on another thread.
+	 */
+	private Future<Integer> startSession(final LongPollingMessageReceiverImpl receiver) {
+		return sessionRunner.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return receiver.triggerFired();
+			}
+		});
+	}
+
+	/**
+	 * Advance the clock in steps until the session ends.
+	 * @return The total time the clock was advanced.
+	 */
+	private long finishSession(Future<Integer> session, long stepMS) throws Exception {
+		long advanced = 0;
+		long start = System.currentTimeMillis();
+		while (!session.isDone()) {
+			assertTrue("The session did not end", System.currentTimeMillis() - start < TEST_TIMEOUT_MS);
+			clock.advance(stepMS);
+			advanced += stepMS;
+			// Give the receiver a chance to observe each step.
+			Thread.sleep(5);
+		}
+		return advanced;
+	}
+
+	/**
+	 * Wait for a condition that the receiver will reach without the clock moving.
+	 */
+	private void await(CountDownLatch latch) throws InterruptedException {
+		assertTrue("Timed out waiting for the workers", latch.await(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+	}
+
+	private int getVisibleMessageCount() {
+		return Integer.parseInt(sqsClient.getQueueAttributes(new GetQueueAttributesRequest().withQueueUrl(queueUrl)).getAttributes()
+				.get(InMemorySQSClient.ATTRIBUTE_APPROXIMATE_NUMBER_OF_MESSAGES));
+	}
+
+	@Test (expected=IllegalStateException.class)
+	public void testMinGreaterThanMax() throws InterruptedException {
+		LongPollingMessageReceiverImpl receiver = createReceiver(3, 2, 5, 2, 1, 20, 1000L, createFactory(new CountDownLatch(0)));
+		receiver.triggerFired();
+	}
+
+	@Test (expected=IllegalStateException.class)
+	public void testWaitTimeTooLong() throws InterruptedException {
+		LongPollingMessageReceiverImpl receiver = createReceiver(1, 2, 5, 2, 21, 20, 1000L, createFactory(new CountDownLatch(0)));
+		receiver.triggerFired();
+	}
+
+	@Test
+	public void testQueueDisabled() throws InterruptedException {
+		when(mockQueue.isEnabled()).thenReturn(false);
+		sendMessages(5);
+		LongPollingMessageReceiverImpl receiver = createReceiver(1, 2, 5, 2, 1, 20, 1000L, createFactory(new CountDownLatch(0)));
+		assertEquals(0, receiver.triggerFired());
+		assertEquals(5, sqsClient.getMessageCount(queueUrl));
+	}
+
+	@Test
+	public void testProcessAll() throws Exception {
+		int messageCount = 57;
+		sendMessages(messageCount);
+		CountDownLatch processed = new CountDownLatch(messageCount);
+		LongPollingMessageReceiverImpl receiver = createReceiver(1, 4, 5, 5, 1, 20, 2000L, createFactory(processed));
+		Future<Integer> session = startSession(receiver);
+		// Every message is processed within the session without the clock moving.
+		await(processed);
+		finishSession(session, 500);
+		assertEquals(Integer.valueOf(messageCount), session.get());
+		assertEquals(messageCount, processedBodies.size());
+		assertEquals(0, sqsClient.getMessageCount(queueUrl));
+		assertEquals(0, receiver.getFailedBatchCount());
+		assertEquals(0, receiver.getInFlightBatchCount());
+		assertTrue(receiver.getCurrentConcurrency() <= 4);
+	}
+
+	@Test
+	public void testRenewVisibility() throws Exception {
+		int messageCount = 4;
+		sendMessages(messageCount);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch processed = new CountDownLatch(messageCount);
+		// Two workers take two messages each and hold them until released.
+		LongPollingMessageReceiverImpl receiver = createReceiver(2, 2, 2, 2, 1, 10, 10000L, createFactory(started, release, processed));
+		Future<Integer> session = startSession(receiver);
+		await(started);
+		assertEquals(0, receiver.getRenewedMessageCount());
+
+		// Hold the messages across three visibility windows. Each step passes the renewal point.
+		for (int i = 1; i <= 3; i++) {
+			clock.advance(1500);
+			long start = System.currentTimeMillis();
+			while (receiver.getRenewedMessageCount() < i * messageCount) {
+				assertTrue("The messages were not renewed", System.currentTimeMillis() - start < TEST_TIMEOUT_MS);
+				Thread.sleep(5);
+			}
+			// Nothing became visible to other consumers.
+			assertEquals(0, getVisibleMessageCount());
+		}
+
+		release.countDown();
+		await(processed);
+		finishSession(session, 1000);
+		// Each message must be processed exactly once since the visibility was renewed while the workers ran.
+		Set<String> unique = new HashSet<String>(processedBodies);
+		assertEquals(messageCount, unique.size());
+		assertEquals(messageCount, processedBodies.size());
+		assertEquals(0, sqsClient.getMessageCount(queueUrl));
+	}
+
+	@Test
+	public void testEmptyQueueUsesLongPolls() throws Exception {
+		LongPollingMessageReceiverImpl receiver = createReceiver(1, 2, 5, 5, 1, 20, 2000L, createFactory(new CountDownLatch(0)));
+		Future<Integer> session = startSession(receiver);
+		long advanced = finishSession(session, 100);
+		assertEquals(Integer.valueOf(0), session.get());
+		// Each receive waits a full second of clock time, so there is at most one per second plus the one in progress.
+		long emptyReceives = sqsClient.getEmptyReceiveCount();
+		assertTrue(emptyReceives >= 1);
+		assertTrue("Empty receives: " + emptyReceives + " in " + advanced + " ms", emptyReceives <= advanced / 1000 + 1);
+	}
+
+}
@@ -0,0 +1,25 @@
+package org.sagebionetworks.asynchronous.workers.sqs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when a test advances it.
+ *
+ */
+public class ManualClock implements Clock {
+
+	private final AtomicLong now = new AtomicLong(1000000L);
+
+	@Override
+	public long currentTimeMillis() {
+		return now.get();
+	}
+
+	/**
+	 * Move the clock forward.
+	 * @param ms
+	 */
+	public void advance(long ms) {
+		now.addAndGet(ms);
+	}
+}
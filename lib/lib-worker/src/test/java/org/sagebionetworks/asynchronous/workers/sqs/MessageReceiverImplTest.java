@@ -1,20 +1,33 @@
 package org.sagebionetworks.asynchronous.workers.sqs;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
 
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
@@ -119,13 +132,11 @@ public class MessageReceiverImplTest {
 		for(Message message: messageList){
 			deleteRequest.add(new DeleteMessageBatchRequestEntry().withId(message.getMessageId()).withReceiptHandle(message.getReceiptHandle()));
 		}
-		DeleteMessageBatchRequest expectedBatch = new DeleteMessageBatchRequest(queueUrl,
-				deleteRequest.subList(0, MessageUtils.SQS_MAX_REQUEST_SIZE));
-		DeleteMessageBatchRequest expectedBatch2 = new DeleteMessageBatchRequest(queueUrl, 
-				deleteRequest.subList(MessageUtils.SQS_MAX_REQUEST_SIZE, deleteRequest.size()));
 		// Verify that all were deleted
-		verify(mockSQSClient, times(1)).deleteMessageBatch(expectedBatch);
-		verify(mockSQSClient, times(1)).deleteMessageBatch(expectedBatch2);
+		assertEquals(new HashSet<DeleteMessageBatchRequestEntry>(deleteRequest), captureDeletedEntries());
+		assertEquals(0, messageReveiver.getInFlightBatchCount());
+		assertEquals(maxNumberOfWorkerThreads.longValue(), messageReveiver.getCompletedBatchCount());
+		assertEquals(0, messageReveiver.getExpiredBatchCount());
 	}
 	@Test
 	public void testTrigerFiredOneFailureMulitipleSuccess() throws InterruptedException{
@@ -151,9 +162,9 @@ public class MessageReceiverImplTest {
 		for(int i=0; i<maxMessagePerWorker; i++){
 			deleteRequest.remove(0);
 		}
-		DeleteMessageBatchRequest expectedBatch = new DeleteMessageBatchRequest(queueUrl, deleteRequest);
-		// Verify that all were deleted
-		verify(mockSQSClient, times(1)).deleteMessageBatch(expectedBatch);
+		// Verify that all others were deleted
+		assertEquals(new HashSet<DeleteMessageBatchRequestEntry>(deleteRequest), captureDeletedEntries());
+		assertEquals(1, messageReveiver.getFailedBatchCount());
 	}
 	
 	@Test
@@ -180,11 +191,86 @@ public class MessageReceiverImplTest {
 		for(int i=0; i<maxMessagePerWorker; i++){
 			deleteRequest.remove(0);
 		}
-		DeleteMessageBatchRequest expectedBatch = new DeleteMessageBatchRequest(queueUrl, deleteRequest);
-		// Verify that all were deleted
-		verify(mockSQSClient, times(1)).deleteMessageBatch(expectedBatch);
+		// Verify that all others were deleted
+		assertEquals(new HashSet<DeleteMessageBatchRequestEntry>(deleteRequest), captureDeletedEntries());
+		assertEquals(1, messageReveiver.getExpiredBatchCount());
+		// The expired worker is left to finish, which releases its thread
+		long start = System.currentTimeMillis();
+		while(messageReveiver.getBusyThreadCount() > 0){
+			assertTrue("Timed out waiting for the expired worker to return", System.currentTimeMillis()-start < 1000);
+			Thread.sleep(10);
+		}
 	}
 	
+	@Test
+	public void testExpiredWorkerHoldsThreadUntilDone() throws InterruptedException{
+		// This worker runs past the visibility window of its batch.
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean(false);
+		StubWorker stuck = new StubWorker(0, null){
+			@Override
+			public List<Message> call() throws Exception {
+				while(true){
+					try{
+						release.await();
+						return null;
+					}catch(InterruptedException e){
+						interrupted.set(true);
+					}
+				}
+			}
+		};
+		Stack<StubWorker> workerStack = new Stack<StubWorker>();
+		for(int i=0; i<maxNumberOfWorkerThreads-1; i++){
+			workerStack.push(new StubWorker(0, null));
+		}
+		workerStack.push(stuck);
+		messageReveiver.setWorkerFactory(new StubWorkerFactory(workerStack));
+
+		messageReveiver.triggerFired();
+		assertEquals(1, messageReveiver.getExpiredBatchCount());
+		// The expired batch no longer counts as in flight but its thread is still busy
+		assertEquals(0, messageReveiver.getInFlightBatchCount());
+		assertEquals(1, messageReveiver.getBusyThreadCount());
+		// The slot is released once the worker returns
+		release.countDown();
+		long start = System.currentTimeMillis();
+		while(messageReveiver.getBusyThreadCount() > 0){
+			assertTrue("Timed out waiting for the worker to return", System.currentTimeMillis()-start < 5000);
+			Thread.sleep(10);
+		}
+		// Workers may be part way through database or S3 calls so they are never interrupted
+		assertFalse(interrupted.get());
+	}
+
+	@Test
+	public void testMetricsPublished() throws InterruptedException{
+		when(mockQueue.getQueueName()).thenReturn("queueName");
+		Consumer mockConsumer = Mockito.mock(Consumer.class);
+		messageReveiver.setConsumer(mockConsumer);
+		Stack<StubWorker> workerStack = new Stack<StubWorker>();
+		for(int i=0; i<maxNumberOfWorkerThreads; i++){
+			workerStack.push(new StubWorker(0, null));
+		}
+		messageReveiver.setWorkerFactory(new StubWorkerFactory(workerStack));
+
+		messageReveiver.triggerFired();
+		// The first publish happens once the first batches are submitted
+		ArgumentCaptor<ProfileData> captor = ArgumentCaptor.forClass(ProfileData.class);
+		verify(mockConsumer, times(5)).addProfileData(captor.capture());
+		Map<String, Long> published = new HashMap<String, Long>();
+		for(ProfileData data: captor.getAllValues()){
+			assertEquals(MessageReceiverImpl.METRICS_NAMESPACE, data.getNamespace());
+			assertEquals("Count", data.getUnit());
+			published.put(data.getName(), data.getLatency());
+		}
+		assertEquals(new Long(maxNumberOfWorkerThreads), published.get("queueName-InFlightBatches"));
+		assertTrue(published.containsKey("queueName-BusyThreads"));
+		assertEquals(new Long(0), published.get("queueName-CompletedBatches"));
+		assertEquals(new Long(0), published.get("queueName-FailedBatches"));
+		assertEquals(new Long(0), published.get("queueName-ExpiredBatches"));
+	}
+
 	@Test
 	public void testTrigerFiredStaggeredSuccess() throws InterruptedException{
 		// Setup a worker stack
@@ -222,4 +308,47 @@ public class MessageReceiverImplTest {
 		verify(mockSQSClient, times(0)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
 	}
 
+	@Test
+	public void testTrigerFiredRefillsFreeSlots() throws InterruptedException{
+		// Put more messages on the queue than can be handled in a single round.
+		int maxMessages = maxNumberOfWorkerThreads*maxMessagePerWorker;
+		for(int i=0; i<maxMessages; i++){
+			Message message = new Message().withMessageId("extra"+i).withReceiptHandle("handle2"+i);
+			messageList.add(message);
+			messageQueue.add(message);
+		}
+		Stack<StubWorker> workerStack = new Stack<StubWorker>();
+		for(int i=0; i<maxNumberOfWorkerThreads*2; i++){
+			workerStack.push(new StubWorker(0, null));
+		}
+		StubWorkerFactory factory = new StubWorkerFactory(workerStack);
+		messageReveiver.setWorkerFactory(factory);
+		
+		// now trigger
+		int count = messageReveiver.triggerFired();
+		assertEquals(messageList.size(), count);
+		Set<DeleteMessageBatchRequestEntry> expected = new HashSet<DeleteMessageBatchRequestEntry>();
+		for(Message message: messageList){
+			expected.add(new DeleteMessageBatchRequestEntry().withId(message.getMessageId()).withReceiptHandle(message.getReceiptHandle()));
+		}
+		// Every message should be deleted within the single trigger.
+		assertEquals(expected, captureDeletedEntries());
+	}
+	
+	/**
+	 * Capture all of the entries passed to deleteMessageBatch.
+	 * @return
+	 */
+	private Set<DeleteMessageBatchRequestEntry> captureDeletedEntries(){
+		ArgumentCaptor<DeleteMessageBatchRequest> captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+		verify(mockSQSClient, atLeast(0)).deleteMessageBatch(captor.capture());
+		Set<DeleteMessageBatchRequestEntry> deleted = new HashSet<DeleteMessageBatchRequestEntry>();
+		for(DeleteMessageBatchRequest request: captor.getAllValues()){
+			assertEquals(queueUrl, request.getQueueUrl());
+			assertTrue(request.getEntries().size() <= MessageUtils.SQS_MAX_REQUEST_SIZE);
+			deleted.addAll(request.getEntries());
+		}
+		return deleted;
+	}
+
 }
@@ -1,12 +1,12 @@
 package org.sagebionetworks.cloudwatch;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,22 +15,33 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
 import com.amazonaws.services.cloudwatch.model.MetricDatum;
 import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
 
 /**
  * Sends latency information to AmazonWebServices CloudWatch. It's the consumer
  * in the producer/consumer pattern and it handles the Watchers in the Observer
  * pattern. Watchers can monitor success or failure of "puts" to CloudWatch
  * 
+ * Values are not buffered one object per call. Each metric (namespace and name)
+ * is aggregated into a {@link LatencyHistogram}, and each put sends one
+ * statistic set (count/sum/min/max) per metric plus a datum for each of the
+ * {@link #PERCENTILES}.
+ * 
  * @author ntiedema
  */
 public class Consumer {
 	static private Logger log = LogManager.getLogger(Consumer.class);
 	
 	public static final int MAX_BATCH_SIZE = 20;
+	
+	/**
+	 * The percentiles sent for each metric.  Each is sent as a metric named <name>-p<percentile>.
+	 */
+	public static final int[] PERCENTILES = new int[]{50, 90, 99};
 
-	// We us an atomic reference to the list instead of using synchronization.
-	private AtomicReference<List<ProfileData>> listProfileData = 
-			new AtomicReference<List<ProfileData>>(Collections.synchronizedList(new LinkedList<ProfileData>()));
+	// Namespace -> metric name -> histogram.  Lookups do not allocate so recording stays cheap.
+	private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms = 
+			new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
 
 	// need a cloudWatch client
 	@Autowired
@@ -51,8 +62,7 @@ public class Consumer {
 	}
 
 	/**
-	 * Takes a ProfileData and adds it to synchronized list. If ProfileData item
-	 * is null, it does not add to the list.
+	 * Takes a ProfileData and records its latency in the histogram for its metric.
 	 * 
 	 * @param addToListMDS
 	 *            ProfileData Data Transfer Object
@@ -60,33 +70,66 @@ public class Consumer {
 	 *             if the given object is null
 	 */
 	public void addProfileData(ProfileData addToList) {
-		listProfileData.get().add(addToList);
+		if (addToList == null) throw new IllegalArgumentException("ProfileData cannot be null");
+		getHistogram(addToList.getNamespace(), addToList.getName(), addToList.getUnit()).record(addToList.getLatency());
 	}
 
 	/**
-	 * removes ProfileData from synchronized list and sends to CloudWatch.
+	 * Get the histogram for a metric, creating it if needed.  Callers that record
+	 * the same metric repeatedly can hold on to the result and record into it directly.
+	 * 
+	 * @param namespace
+	 * @param name
+	 * @param unit Only used when the histogram is first created.
+	 * @return
+	 */
+	public LatencyHistogram getHistogram(String namespace, String name, String unit) {
+		ConcurrentMap<String, LatencyHistogram> byName = histograms.get(namespace);
+		if (byName == null) {
+			ConcurrentMap<String, LatencyHistogram> newMap = new ConcurrentHashMap<String, LatencyHistogram>();
+			byName = histograms.putIfAbsent(namespace, newMap);
+			if (byName == null) {
+				byName = newMap;
+			}
+		}
+		LatencyHistogram histogram = byName.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram(namespace, name, unit);
+			histogram = byName.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Drains the aggregated metrics and sends them to CloudWatch.
 	 * 
 	 * @return List<String> where each string represents "put" success/failure
 	 */
 	public List<String> executeCloudWatchPut() {
 		try {
-			// collect the ProfileData from synchronized list
-			List<ProfileData> nextBunch = listProfileData.getAndSet(Collections.synchronizedList(new LinkedList<ProfileData>()));
-
-			//here I have a list of potentially different namespaces
-			//convert to a map (key is namespace, value is list of metricDatums)
-			Map<String, List<MetricDatum>> allTheNamespaces = getAllNamespaces(nextBunch);
+			// All statistics of this put share a time stamp.
+			Date timestamp = new Date();
 			//need to collect the messages for testing
 			List<String> toReturn = new ArrayList<String>();
-			// We can only send a batch of twenty at a time
-			for (String key : allTheNamespaces.keySet()){
-				List<MetricDatum> fullList = allTheNamespaces.get(key);
+			for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> namespace : histograms.entrySet()){
+				List<MetricDatum> fullList = new ArrayList<MetricDatum>();
+				for (LatencyHistogram histogram : namespace.getValue().values()){
+					LatencyHistogram.Snapshot snapshot = histogram.drain();
+					// Nothing to send for idle metrics.
+					if (snapshot.getCount() > 0){
+						fullList.addAll(makeMetricData(histogram, snapshot, timestamp));
+					}
+				}
+				// We can only send a batch of twenty at a time
 				PutMetricDataRequest batch = null;
 				for(MetricDatum md: fullList){
 					// If we do not have a create one
 					if(batch == null){
 						batch = new PutMetricDataRequest();
-						batch.setNamespace(key);
+						batch.setNamespace(namespace.getKey());
 					}
 					// Add this metric to the batch.
 					batch.getMetricData().add(md);
@@ -110,6 +153,38 @@ public class Consumer {
 		}
 	}
 
+	/**
+	 * Converts a drained histogram into a statistic set datum followed by one datum per percentile.
+	 * 
+	 * @param histogram
+	 * @param snapshot
+	 * @param timestamp
+	 * @return
+	 */
+	public static List<MetricDatum> makeMetricData(LatencyHistogram histogram, LatencyHistogram.Snapshot snapshot, Date timestamp) {
+		List<MetricDatum> results = new ArrayList<MetricDatum>(PERCENTILES.length+1);
+		StatisticSet statistics = new StatisticSet();
+		statistics.setSampleCount((double) snapshot.getCount());
+		statistics.setSum((double) snapshot.getSum());
+		statistics.setMinimum((double) snapshot.getMin());
+		statistics.setMaximum((double) snapshot.getMax());
+		MetricDatum datum = new MetricDatum();
+		datum.setMetricName(histogram.getName());
+		datum.setStatisticValues(statistics);
+		datum.setUnit(histogram.getUnit());
+		datum.setTimestamp(timestamp);
+		results.add(datum);
+		for (int percentile : PERCENTILES) {
+			MetricDatum percentileDatum = new MetricDatum();
+			percentileDatum.setMetricName(histogram.getName() + "-p" + percentile);
+			percentileDatum.setValue((double) snapshot.getPercentile(percentile));
+			percentileDatum.setUnit(histogram.getUnit());
+			percentileDatum.setTimestamp(timestamp);
+			results.add(percentileDatum);
+		}
+		return results;
+	}
+
 	/**
 	 * Returns a map of namespaces, with value being list of each MetricDatum
 	 * parameter list contained for that namespace.
@@ -177,18 +252,6 @@ public class Consumer {
 
 
 
-	/**
-	 * Getter that returns copy of synchronized list of ProfileData.
-	 * 
-	 * @return List<ProfileData>
-	 */
-	protected List<ProfileData> getListProfileData() {
-		List<ProfileData> toReturn = new ArrayList<ProfileData>(listProfileData.get());
-		return toReturn;
-	}
-
-
-
 	/**
 	 * Getter for AmazonCloudWatch client.
 	 * 
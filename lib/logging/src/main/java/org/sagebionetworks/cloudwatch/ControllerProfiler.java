@@ -1,11 +1,14 @@
 package org.sagebionetworks.cloudwatch;
 
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.sagebionetworks.StackConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -17,6 +20,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class ControllerProfiler {
 	//constant for nanosecond conversion to milliseconds
 	private static final long NANOSECOND_PER_MILLISECOND = 1000000L;
+	private static final String UNIT_MILLISECONDS = "Milliseconds";
 
 	//a singleton consumer from the Spring settings file 
 	@Autowired
@@ -24,6 +28,11 @@ public class ControllerProfiler {
 	
 	private boolean shouldProfile;
 	
+	// Each advised method gets its own histogram, so after the first call to a method
+	// recording its latency is a map lookup and a few atomic adds.
+	private final ConcurrentMap<Object, LatencyHistogram> histograms = 
+			new ConcurrentHashMap<Object, LatencyHistogram>();
+	
 	/**
 	 * Spring will inject this value.
 	 * @param shouldProfile
@@ -59,33 +68,41 @@ public class ControllerProfiler {
 			return pjp.proceed();
 		}
 		
-		//get signature of current thread that is at the ProceedingJoinPoint
-		//signature will give us the methodName and information
-		Signature signature = pjp.getSignature();
-		
-		//want the package information for the namespace
-		Class declaring = signature.getDeclaringType();
-		
 		long start = System.nanoTime();	//collect method start time
 		Object results = pjp.proceed(); // runs the method
 		long end = System.nanoTime();	//collect method end time
 		//converting from nanoseconds to milliseconds
 		long timeMS = (end - start) /NANOSECOND_PER_MILLISECOND;
 
-		final String metricName = signature.getName() + "-" + StackConfiguration.getStackInstance();
-		//use our latency time to make a MetricDatum, and
-		//add to synchronized list
-		ProfileData profileData = makeProfileDataDTO(declaring.getName(), metricName, timeMS);
-		consumer.addProfileData(profileData);
-		
-		//in configuration file log is set to ERROR to turn off and
-		//DEBUG to turn on
-//		log.debug("let's see our profileData " + profileData.toString());
+		//record the latency in the histogram for this method
+		getHistogram(pjp).record(timeMS);
 		
 		//must return whatever method returned
 		return results;
 	}
 	
+	/**
+	 * Get the histogram for the method of the given join point.
+	 * @param pjp
+	 * @return
+	 */
+	private LatencyHistogram getHistogram(ProceedingJoinPoint pjp){
+		//get signature of current thread that is at the ProceedingJoinPoint
+		//signature will give us the methodName and information
+		Signature signature = pjp.getSignature();
+		// The method is the same object on every call while the signature may not be.
+		Object key = signature instanceof MethodSignature ? ((MethodSignature) signature).getMethod() : signature.toLongString();
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null){
+			//want the package information for the namespace
+			Class declaring = signature.getDeclaringType();
+			final String metricName = signature.getName() + "-" + StackConfiguration.getStackInstance();
+			histogram = consumer.getHistogram(declaring.getName(), metricName, UNIT_MILLISECONDS);
+			histograms.putIfAbsent(key, histogram);
+		}
+		return histogram;
+	}
+	
 	/**
 	 * Makes transfer object and returns it.
 	 * @param String representing namespace/package name
@@ -103,7 +120,7 @@ public class ControllerProfiler {
 		nextPD.setNamespace(namespace);
 		nextPD.setName(name);
 		nextPD.setLatency(latency);
-		nextPD.setUnit("Milliseconds");
+		nextPD.setUnit(UNIT_MILLISECONDS);
 		nextPD.setTimestamp(new Date());
 		
 		return nextPD;
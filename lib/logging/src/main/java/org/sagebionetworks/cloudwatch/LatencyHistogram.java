@@ -0,0 +1,234 @@
+package org.sagebionetworks.cloudwatch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A pre-aggregated histogram of latency values for a single metric.
+ *
+ * Recording a value does not allocate or lock. Values land in log-linear
+ * buckets (four per power of two, so a bucket is never more than 25% wide)
+ * and each thread writes to one of several stripes to keep contention low
+ * when many request threads record the same metric. The flusher drains all
+ * stripes into a {@link Snapshot} that holds the count, sum, min, max and
+ * enough bucket data to estimate percentiles.
+ *
+ * A value recorded while a drain is in progress may be split across two
+ * consecutive snapshots. That is an acceptable error for monitoring data.
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Enough buckets to hold any non-negative long.
+	 */
+	static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	/**
+	 * Each stripe holds the buckets followed by these summary slots.
+	 */
+	private static final int COUNT_INDEX = BUCKET_COUNT;
+	private static final int SUM_INDEX = BUCKET_COUNT + 1;
+	private static final int MIN_INDEX = BUCKET_COUNT + 2;
+	private static final int MAX_INDEX = BUCKET_COUNT + 3;
+	private static final int STRIPE_LENGTH = BUCKET_COUNT + 4;
+	private static final long EMPTY_MIN = Long.MAX_VALUE;
+	private static final long EMPTY_MAX = -1;
+
+	private final String namespace;
+	private final String name;
+	private final String unit;
+	private final AtomicLongArray[] stripes;
+	private final int stripeMask;
+
+	/**
+	 * Create a histogram with one stripe per available processor (rounded up to a power of two).
+	 *
+	 * @param namespace
+	 * @param name
+	 * @param unit
+	 */
+	public LatencyHistogram(String namespace, String name, String unit) {
+		this(namespace, name, unit, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param namespace
+	 * @param name
+	 * @param unit
+	 * @param stripeCount Will be rounded up to a power of two.
+	 */
+	public LatencyHistogram(String namespace, String name, String unit, int stripeCount) {
+		if (namespace == null) throw new IllegalArgumentException("Namespace cannot be null");
+		if (name == null) throw new IllegalArgumentException("Name cannot be null");
+		if (unit == null) throw new IllegalArgumentException("Unit cannot be null");
+		if (stripeCount < 1) throw new IllegalArgumentException("Stripe count must be at least one");
+		this.namespace = namespace;
+		this.name = name;
+		this.unit = unit;
+		int size = Integer.highestOneBit(stripeCount);
+		if (size < stripeCount) {
+			size = size << 1;
+		}
+		this.stripeMask = size - 1;
+		this.stripes = new AtomicLongArray[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+			stripes[i].set(MIN_INDEX, EMPTY_MIN);
+			stripes[i].set(MAX_INDEX, EMPTY_MAX);
+		}
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Record a single value.
+	 *
+	 * @param value Must not be negative.
+	 */
+	public void record(long value) {
+		if (value < 0) throw new IllegalArgumentException("Value cannot be negative");
+		AtomicLongArray stripe = stripes[(int) (Thread.currentThread().getId() & stripeMask)];
+		stripe.incrementAndGet(bucketIndex(value));
+		stripe.incrementAndGet(COUNT_INDEX);
+		stripe.addAndGet(SUM_INDEX, value);
+		long min = stripe.get(MIN_INDEX);
+		while (value < min && !stripe.compareAndSet(MIN_INDEX, min, value)) {
+			min = stripe.get(MIN_INDEX);
+		}
+		long max = stripe.get(MAX_INDEX);
+		while (value > max && !stripe.compareAndSet(MAX_INDEX, max, value)) {
+			max = stripe.get(MAX_INDEX);
+		}
+	}
+
+	/**
+	 * Take everything recorded since the last drain and reset the histogram.
+	 *
+	 * @return
+	 */
+	public Snapshot drain() {
+		long[] buckets = new long[BUCKET_COUNT];
+		long count = 0;
+		long sum = 0;
+		long min = EMPTY_MIN;
+		long max = EMPTY_MAX;
+		for (AtomicLongArray stripe : stripes) {
+			if (stripe.get(COUNT_INDEX) == 0) {
+				continue;
+			}
+			count += stripe.getAndSet(COUNT_INDEX, 0);
+			sum += stripe.getAndSet(SUM_INDEX, 0);
+			min = Math.min(min, stripe.getAndSet(MIN_INDEX, EMPTY_MIN));
+			max = Math.max(max, stripe.getAndSet(MAX_INDEX, EMPTY_MAX));
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				if (stripe.get(i) != 0) {
+					buckets[i] += stripe.getAndSet(i, 0);
+				}
+			}
+		}
+		return new Snapshot(count, sum, count == 0 ? 0 : min, count == 0 ? 0 : max, buckets);
+	}
+
+	/**
+	 * The bucket that holds the given non-negative value.
+	 */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * The largest value that falls in the given bucket.
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		if (index == BUCKET_COUNT - 1) {
+			return Long.MAX_VALUE;
+		}
+		int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * The aggregated values drained from a histogram.
+	 */
+	public static class Snapshot {
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+		private final long[] buckets;
+
+		Snapshot(long count, long sum, long min, long max, long[] buckets) {
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+			this.buckets = buckets;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMin() {
+			return min;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Estimate the given percentile. The result is the upper bound of the
+		 * bucket that holds the percentile, capped by the max.
+		 *
+		 * @param percentile Between 0 and 100.
+		 * @return
+		 */
+		public long getPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile / 100.0 * count);
+			if (rank < 1) {
+				rank = 1;
+			}
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.max(min, Math.min(max, bucketUpperBound(i)));
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -24,7 +24,25 @@ public interface LogDAO {
 	public String saveLogFile(File toSave, long timestamp);
 	
 	/**
-	 * Delete a log file using its key
+	 * Save the index of a log file to S3.
+	 * 
+	 * @param logKey The key of the log file that was indexed.
+	 * @param index
+	 * @throws IOException
+	 */
+	public void saveLogIndex(String logKey, LogIndex index) throws IOException;
+	
+	/**
+	 * Get the index of a log file.
+	 * 
+	 * @param logKey
+	 * @return The index or null if the log file does not have an index.
+	 * @throws IOException
+	 */
+	public LogIndex getLogIndex(String logKey) throws IOException;
+	
+	/**
+	 * Delete a log file and its index using its key
 	 * @param key
 	 */
 	public void deleteLogFile(String key);
@@ -59,6 +77,7 @@ public interface LogDAO {
 	
 	/**
 	 * Scans all log files in S3 to find a log contains the passed UUID.
+	 * Logs with an index that does not contain the UUID are skipped without being downloaded.
 	 * 
 	 * @param uuidTofind
 	 * @return The key of the first log file that contains the passed UUID. If no log is found then null will be returned.
@@ -1,15 +1,20 @@
 package org.sagebionetworks.logging.s3;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
@@ -32,6 +37,7 @@ public class LogDAOImpl implements LogDAO {
 	private AmazonS3Client s3Client;
 	private int stackInstanceNumber;
 	private String stackInstancePrefixString;
+	private String indexPrefixString;
 	private String bucketName;
 	
 	/**
@@ -41,6 +47,7 @@ public class LogDAOImpl implements LogDAO {
 	public void setStackInstanceNumber(int stackInstanceNumber) {
 		this.stackInstanceNumber = stackInstanceNumber;
 		this.stackInstancePrefixString = LogKeyUtils.getInstancePrefix(stackInstanceNumber);
+		this.indexPrefixString = LogKeyUtils.getIndexPrefix(stackInstanceNumber);
 	}
 
 	/**
@@ -65,10 +72,43 @@ public class LogDAOImpl implements LogDAO {
 		return key;
 	}
 
+	@Override
+	public void saveLogIndex(String logKey, LogIndex index) throws IOException {
+		// The filter is mostly zeros so it compresses well.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		index.writeTo(out);
+		out.close();
+		byte[] data = bytes.toByteArray();
+		ObjectMetadata om = new ObjectMetadata();
+		om.setContentType("application/octet-stream");
+		om.setContentLength(data.length);
+		s3Client.putObject(new PutObjectRequest(bucketName, LogKeyUtils.getIndexKeyForLogKey(logKey), new ByteArrayInputStream(data), om));
+	}
+
+	@Override
+	public LogIndex getLogIndex(String logKey) throws IOException {
+		S3Object s3Ob;
+		try {
+			s3Ob = s3Client.getObject(this.bucketName, LogKeyUtils.getIndexKeyForLogKey(logKey));
+		} catch (AmazonServiceException e) {
+			// Logs swept before indices were written do not have one.
+			if(e.getStatusCode() == 404) return null;
+			throw e;
+		}
+		InputStream in = new GZIPInputStream(s3Ob.getObjectContent());
+		try{
+			return LogIndex.readFrom(in);
+		}finally{
+			in.close();
+		}
+	}
+
 	@Override
 	public void deleteLogFile(String key) {
-		// Delete a log file by its key
+		// Delete a log file and its index by its key
 		s3Client.deleteObject(bucketName, key);
+		s3Client.deleteObject(bucketName, LogKeyUtils.getIndexKeyForLogKey(key));
 	}
 
 	/**
@@ -83,10 +123,15 @@ public class LogDAOImpl implements LogDAO {
 	
 	@Override
 	public void deleteAllStackInstanceLogs() {
+		deleteAllWithPrefix(this.stackInstancePrefixString);
+		deleteAllWithPrefix(this.indexPrefixString);
+	}
+
+	private void deleteAllWithPrefix(String prefix) {
 		// List all object with the prefix
 		boolean done = false;
 		while(!done){
-			ObjectListing listing = s3Client.listObjects(bucketName, this.stackInstancePrefixString);
+			ObjectListing listing = s3Client.listObjects(bucketName, prefix);
 			done = !listing.isTruncated();
 			// Delete all
 			if(listing.getObjectSummaries() != null){
@@ -115,12 +160,17 @@ public class LogDAOImpl implements LogDAO {
 
 	@Override
 	public String findLogContainingUUID(String uuidTofind) throws InterruptedException, IOException {
+		boolean isIndexed = LogIndex.isIndexed(uuidTofind);
 		String marker = null;
 		do{
 			ObjectListing listing = listAllStackInstanceLogs(marker);
 			marker = listing.getNextMarker();
 			// Try each file in this batch
 			for(S3ObjectSummary sum: listing.getObjectSummaries()){
+				if(isIndexed && !mightLogContainUUID(sum.getKey(), uuidTofind)){
+					// The index rules this log out so there is no need to read it.
+					continue;
+				}
 				if(doesLogContaineUUID(sum.getKey(), uuidTofind)){
 					return sum.getKey();
 				}
@@ -131,6 +181,29 @@ public class LogDAOImpl implements LogDAO {
 		return null;
 	}
 	
+	/**
+	 * Check the index of a log file to determine if it might contain the passed UUID.
+	 * 
+	 * @param key
+	 * @param uuid
+	 * @return False only if the log has a readable index that does not contain the UUID.
+	 */
+	private boolean mightLogContainUUID(String key, String uuid) {
+		LogIndex index;
+		try {
+			index = getLogIndex(key);
+		} catch (IOException e) {
+			// Fall back to reading the log.
+			log.warn("Failed to read the index of log file: "+key, e);
+			return true;
+		} catch (RuntimeException e) {
+			log.warn("Failed to read the index of log file: "+key, e);
+			return true;
+		}
+		if(index == null) return true;
+		return index.mightContain(uuid);
+	}
+	
 	/**
 	 * Read the log file to determine if it contains the passed UUID.
 	 * 
@@ -0,0 +1,304 @@
+package org.sagebionetworks.logging.s3;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A compact sidecar index of a single log file. It holds Bloom filters of every
+ * UUID that appears in the log and the time stamps of the first and last entries.
+ *
+ * A Bloom filter never produces a false negative so a log whose index does not
+ * contain a UUID can be skipped without downloading it. Indices of logs that are
+ * collated together can be merged into the index of the resulting log. Each filter
+ * is sized for the log it was built from, so merging keeps one filter per source
+ * log rather than filling a single fixed-size filter.
+ *
+ */
+public class LogIndex {
+
+	/**
+	 * The false positive rate each filter is sized for. A lookup checks every filter
+	 * of a merged index, so this is kept low enough for an hour of merged logs.
+	 */
+	public static final double FALSE_POSITIVE_RATE = 0.001;
+
+	private static final int FORMAT_VERSION = 2;
+	private static final int SINGLE_FILTER_FORMAT_VERSION = 1;
+	private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+	private final List<BloomFilter> filters = new ArrayList<BloomFilter>();
+	private long minTimeStamp = Long.MAX_VALUE;
+	private long maxTimeStamp = Long.MIN_VALUE;
+
+	/**
+	 * An index without any filters that contains nothing. Other indices can be merged into it.
+	 */
+	public LogIndex() {
+	}
+
+	/**
+	 * @param expectedNumberOfUUIDs The number of distinct UUIDs the filter is sized for.
+	 */
+	public LogIndex(int expectedNumberOfUUIDs) {
+		if(expectedNumberOfUUIDs < 0) throw new IllegalArgumentException("The expected number of UUIDs cannot be less than zero");
+		// The optimal size is -n*ln(p)/ln(2)^2 bits with ln(2)*bits/n hashes.
+		int n = Math.max(expectedNumberOfUUIDs, 1);
+		double ln2 = Math.log(2);
+		long numberOfBits = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+		numberOfBits = Math.min(Integer.MAX_VALUE / 64, (numberOfBits + 63) / 64) * 64;
+		int numberOfHashes = Math.max(1, (int) Math.round(ln2 * numberOfBits / n));
+		filters.add(new BloomFilter((int) numberOfBits, numberOfHashes));
+	}
+
+	/**
+	 * @param numberOfBits The size of the filter.
+	 * @param numberOfHashes The number of bits set for each UUID.
+	 */
+	public LogIndex(int numberOfBits, int numberOfHashes) {
+		filters.add(new BloomFilter(numberOfBits, numberOfHashes));
+	}
+
+	/**
+	 * Build the index of a gzipped log file. The filter is sized for the number of
+	 * distinct UUIDs in the log.
+	 *
+	 * @param logFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static LogIndex buildIndex(File logFile) throws IOException {
+		LogReader reader = new LogReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(logFile)))));
+		try{
+			Set<String> uuids = new HashSet<String>();
+			long minTimeStamp = Long.MAX_VALUE;
+			long maxTimeStamp = Long.MIN_VALUE;
+			LogEntry entry = null;
+			do{
+				entry = reader.read();
+				if(entry != null){
+					minTimeStamp = Math.min(minTimeStamp, entry.getTimeStamp());
+					maxTimeStamp = Math.max(maxTimeStamp, entry.getTimeStamp());
+					Matcher matcher = UUID_PATTERN.matcher(entry.getEntryString());
+					while(matcher.find()){
+						uuids.add(matcher.group().toLowerCase());
+					}
+				}
+			}while(entry != null);
+			LogIndex index = new LogIndex(uuids.size());
+			for(String uuid: uuids){
+				index.add(uuid);
+			}
+			index.minTimeStamp = minTimeStamp;
+			index.maxTimeStamp = maxTimeStamp;
+			return index;
+		}finally{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Add all of the UUIDs of a log entry and its time stamp to this index.
+	 * @param entry
+	 */
+	public void addEntry(LogEntry entry) {
+		minTimeStamp = Math.min(minTimeStamp, entry.getTimeStamp());
+		maxTimeStamp = Math.max(maxTimeStamp, entry.getTimeStamp());
+		Matcher matcher = UUID_PATTERN.matcher(entry.getEntryString());
+		while(matcher.find()){
+			add(matcher.group());
+		}
+	}
+
+	/**
+	 * Add a single UUID to this index.
+	 * @param uuid
+	 */
+	public void add(String uuid) {
+		if(filters.size() != 1) throw new IllegalStateException("UUIDs can only be added to an index with a single filter");
+		filters.get(0).add(hash(uuid));
+	}
+
+	/**
+	 * @param uuid
+	 * @return False if the log definitely does not contain the passed UUID.
+	 * True if the log might contain it.
+	 */
+	public boolean mightContain(String uuid) {
+		long hash = hash(uuid);
+		for(BloomFilter filter: filters){
+			if(filter.mightContain(hash)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Can this index answer lookups for the passed string? Only UUIDs are indexed.
+	 * @param toFind
+	 * @return
+	 */
+	public static boolean isIndexed(String toFind) {
+		return toFind != null && UUID_PATTERN.matcher(toFind).matches();
+	}
+
+	/**
+	 * Merge the passed index into this index. The filters of the passed index are
+	 * kept as they are, so the passed index must not be changed afterwards.
+	 * @param other
+	 */
+	public void merge(LogIndex other) {
+		filters.addAll(other.filters);
+		minTimeStamp = Math.min(minTimeStamp, other.minTimeStamp);
+		maxTimeStamp = Math.max(maxTimeStamp, other.maxTimeStamp);
+	}
+
+	/**
+	 * The number of Bloom filters in this index, one for each log that was merged into it.
+	 * @return
+	 */
+	public int getNumberOfFilters() {
+		return filters.size();
+	}
+
+	/**
+	 * The time stamp of the first entry. Long.MAX_VALUE if the log is empty.
+	 * @return
+	 */
+	public long getMinTimeStamp() {
+		return minTimeStamp;
+	}
+
+	/**
+	 * The time stamp of the last entry. Long.MIN_VALUE if the log is empty.
+	 * @return
+	 */
+	public long getMaxTimeStamp() {
+		return maxTimeStamp;
+	}
+
+	/**
+	 * Write this index to the passed stream.  The stream is not closed.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(FORMAT_VERSION);
+		data.writeLong(minTimeStamp);
+		data.writeLong(maxTimeStamp);
+		data.writeInt(filters.size());
+		for(BloomFilter filter: filters){
+			data.writeInt(filter.numberOfBits);
+			data.writeInt(filter.numberOfHashes);
+			for(long word: filter.bits){
+				data.writeLong(word);
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Read an index from the passed stream.  The stream is not closed.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static LogIndex readFrom(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int version = data.readInt();
+		LogIndex index = new LogIndex();
+		if(version == SINGLE_FILTER_FORMAT_VERSION){
+			// Indices written before the filters were sized hold a single filter.
+			BloomFilter filter = new BloomFilter(data.readInt(), data.readInt());
+			index.minTimeStamp = data.readLong();
+			index.maxTimeStamp = data.readLong();
+			readBits(data, filter);
+			index.filters.add(filter);
+		}else if(version == FORMAT_VERSION){
+			index.minTimeStamp = data.readLong();
+			index.maxTimeStamp = data.readLong();
+			int numberOfFilters = data.readInt();
+			for(int i=0; i<numberOfFilters; i++){
+				BloomFilter filter = new BloomFilter(data.readInt(), data.readInt());
+				readBits(data, filter);
+				index.filters.add(filter);
+			}
+		}else{
+			throw new IOException("Unknown log index version: "+version);
+		}
+		return index;
+	}
+
+	private static void readBits(DataInputStream data, BloomFilter filter) throws IOException {
+		for(int i=0; i<filter.bits.length; i++){
+			filter.bits[i] = data.readLong();
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the lower case string. The two halves are used for double hashing.
+	 */
+	private static long hash(String uuid) {
+		String lower = uuid.toLowerCase();
+		long hash = 0xcbf29ce484222325L;
+		for(int i=0; i<lower.length(); i++){
+			hash ^= lower.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * A single Bloom filter of UUID hashes.
+	 */
+	private static class BloomFilter {
+
+		private final int numberOfBits;
+		private final int numberOfHashes;
+		private final long[] bits;
+
+		private BloomFilter(int numberOfBits, int numberOfHashes) {
+			if(numberOfBits < 64 || numberOfBits % 64 != 0) throw new IllegalArgumentException("The number of bits must be a positive multiple of 64");
+			if(numberOfHashes < 1) throw new IllegalArgumentException("The number of hashes must be greater than zero");
+			this.numberOfBits = numberOfBits;
+			this.numberOfHashes = numberOfHashes;
+			this.bits = new long[numberOfBits / 64];
+		}
+
+		private void add(long hash) {
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32);
+			for(int i=0; i<numberOfHashes; i++){
+				int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numberOfBits;
+				bits[bit >>> 6] |= 1L << bit;
+			}
+		}
+
+		private boolean mightContain(long hash) {
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32);
+			for(int i=0; i<numberOfHashes; i++){
+				int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numberOfBits;
+				if((bits[bit >>> 6] & (1L << bit)) == 0){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -12,6 +12,11 @@ public class LogKeyUtils {
 	static final String INSTANCE_PREFIX_TEMPLATE = "%1$09d";
 	static final String DATE_TEMPLATE = "%1$04d-%2$02d-%3$02d";
 	static final String KEY_TEMPLATE = "%1$s/%2$s/%3$s/%4$02d-%5$02d-%6$02d-%7$03d-%8$s.log.gz";
+	/**
+	 * Log indices are kept outside of the instance prefix so they are never listed as logs.
+	 */
+	static final String INDEX_PREFIX = "index/";
+	static final String INDEX_SUFFIX = ".index";
 	/**
 	 * This is the date format we write to the logs: 2013-08-31 17:06:42,368
 	 */
@@ -112,6 +117,24 @@ public class LogKeyUtils {
 		return String.format(INSTANCE_PREFIX_TEMPLATE, instance);
 	}
 	
+	/**
+	 * Get the prefix used for the log indices of this instance.
+	 * @param instance
+	 * @return
+	 */
+	public static String getIndexPrefix(int instance){
+		return INDEX_PREFIX+getInstancePrefix(instance);
+	}
+	
+	/**
+	 * Get the key of the index for a log file.
+	 * @param logKey
+	 * @return
+	 */
+	public static String getIndexKeyForLogKey(String logKey){
+		return INDEX_PREFIX+logKey+INDEX_SUFFIX;
+	}
+	
 
 	
 
@@ -120,9 +120,29 @@ public class LogSweeper {
 			throw new IllegalArgumentException("toSweep cannot be null");
 		// Save this file to S3 using its last modified by date as the timestamp
 		String key = logDAO.saveLogFile(toSweep, toSweep.lastModified());
+		// Save the index that lets a UUID search skip this file.
+		indexFile(key, toSweep);
 		// Delete the local file.
 		toSweep.delete();
 		return key;
 	}
 
+	/**
+	 * Build and save the index of a swept file. A log without an index is
+	 * still found by a search, it just has to be read, so failures are only logged.
+	 * 
+	 * @param key
+	 * @param toIndex
+	 */
+	private void indexFile(String key, File toIndex) {
+		try {
+			LogIndex index = LogIndex.buildIndex(toIndex);
+			logDAO.saveLogIndex(key, index);
+		} catch (IOException e) {
+			log.warn("Failed to index log file: "+toIndex.getAbsolutePath(), e);
+		} catch (IllegalArgumentException e) {
+			log.warn("Failed to index log file: "+toIndex.getAbsolutePath(), e);
+		}
+	}
+
 }
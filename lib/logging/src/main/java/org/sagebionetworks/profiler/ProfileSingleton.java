@@ -1,14 +1,10 @@
 package org.sagebionetworks.profiler;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 public class ProfileSingleton {
 	
-	private static Map<Long, Boolean> THREAD_SHOULD_PROFILE_MAP = Collections.synchronizedMap(new HashMap<Long, Boolean>());
+	private static final ThreadLocal<Boolean> THREAD_SHOULD_PROFILE = new ThreadLocal<Boolean>();
 	
-	private static Map<Long, Frame> THREAD_FRAME_MAP = Collections.synchronizedMap(new HashMap<Long, Frame>());
+	private static final ThreadLocal<Frame> THREAD_FRAME = new ThreadLocal<Frame>();
 	
 	/**
 	 * This is called by the filter.
@@ -16,7 +12,7 @@ public class ProfileSingleton {
 	 */
 	public static void setProfile(boolean shouldPofile){
 		// Should this thread profile?
-		THREAD_SHOULD_PROFILE_MAP.put(Thread.currentThread().getId(), shouldPofile);
+		THREAD_SHOULD_PROFILE.set(shouldPofile);
 	}
 	
 	/**
@@ -24,7 +20,7 @@ public class ProfileSingleton {
 	 * @return
 	 */
 	public static boolean shouldProfile(){
-		Boolean value = THREAD_SHOULD_PROFILE_MAP.get(Thread.currentThread().getId());
+		Boolean value = THREAD_SHOULD_PROFILE.get();
 		if(value == null) return false;
 		return value.booleanValue();
 	}
@@ -34,7 +30,7 @@ public class ProfileSingleton {
 	 * @param frame
 	 */
 	public static void setFrame(Frame frame){
-		THREAD_FRAME_MAP.put(Thread.currentThread().getId(), frame);
+		THREAD_FRAME.set(frame);
 	}
 	
 	/**
@@ -42,7 +38,7 @@ public class ProfileSingleton {
 	 * @return
 	 */
 	public static Frame getFrame(){
-		return THREAD_FRAME_MAP.get(Thread.currentThread().getId());
+		return THREAD_FRAME.get();
 	}
 
 }
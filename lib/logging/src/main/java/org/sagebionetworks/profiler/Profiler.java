@@ -1,10 +1,7 @@
 package org.sagebionetworks.profiler;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
@@ -20,9 +17,13 @@ import org.aspectj.lang.annotation.Aspect;
 @Aspect
 public class Profiler {
 	
-	// Each thread gets its own stack.
-	static Map<Long, Stack<Frame>> MAP = Collections
-			.synchronizedMap(new HashMap<Long, Stack<Frame>>());
+	// Each thread gets its own stack, so no lock is needed to find or use it.
+	static final ThreadLocal<ArrayDeque<Frame>> STACK = new ThreadLocal<ArrayDeque<Frame>>(){
+		@Override
+		protected ArrayDeque<Frame> initialValue() {
+			return new ArrayDeque<Frame>();
+		}
+	};
 	
 	private List<ProfileHandler> handlers = null;
 
@@ -72,17 +73,9 @@ public class Profiler {
 		// Method method = invocation.getMethod();
 		String methodName = signatrue.getName();
 		Class declaring = signatrue.getDeclaringType();
-		Long threadId = Thread.currentThread().getId();
-		Stack<Frame> stack = null;
+		ArrayDeque<Frame> stack = null;
 		if (declaring != null) {
-			// We are at the end so print the frame
-			synchronized (MAP) {
-				stack = MAP.get(threadId);
-				if (stack == null) {
-					stack = new Stack<Frame>();
-					MAP.put(threadId, stack);
-				}
-			}
+			stack = STACK.get();
 			// Push a new frame onto the stack.
 			StringBuilder builder = new StringBuilder();
 			builder.append(declaring.getName());
@@ -2,16 +2,23 @@ package org.sagebionetworks.cloudwatch;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
@@ -73,82 +80,85 @@ public class ConsumerTest {
 	}
 	
 	@Test
-	public void testExecuteCloudWatchPutUnderBachSize(){
-		// create some test data
-		// test a batch under the max size
-		List<ProfileData> list = createTestData(Consumer.MAX_BATCH_SIZE-1);
-		assertNotNull(list);
-		// This is our single batch.
-		PutMetricDataRequest batch0 = new PutMetricDataRequest();
-		batch0.setNamespace("namespace0");
-		addRangeToRequst(list, 0, list.size(), batch0);
-		
-		// Add all of this profile data to the consumer
-		for(ProfileData pd: list){
+	public void testExecuteCloudWatchPutAggregates(){
+		// Many values for a single metric
+		for(long latency=1; latency<=100; latency++){
+			ProfileData pd = new ProfileData();
+			pd.setName("name");
+			pd.setNamespace("namespace0");
+			pd.setTimestamp(new Date());
+			pd.setUnit("Milliseconds");
+			pd.setLatency(latency);
 			consumer.addProfileData(pd);
 		}
-		// Now fire off the putting the data to cloud watch.
 		consumer.executeCloudWatchPut();
-		// Verify each batch was sent as expected
-		verify(mockClient, times(1)).putMetricData(batch0);
+		List<PutMetricDataRequest> sent = captureRequests(1);
+		PutMetricDataRequest request = sent.get(0);
+		assertEquals("namespace0", request.getNamespace());
+		// One statistic set plus one datum per percentile.
+		assertEquals(1+Consumer.PERCENTILES.length, request.getMetricData().size());
+		MetricDatum stats = request.getMetricData().get(0);
+		assertEquals("name", stats.getMetricName());
+		assertEquals("Milliseconds", stats.getUnit());
+		assertNull(stats.getValue());
+		assertEquals(new Double(100), stats.getStatisticValues().getSampleCount());
+		assertEquals(new Double(5050), stats.getStatisticValues().getSum());
+		assertEquals(new Double(1), stats.getStatisticValues().getMinimum());
+		assertEquals(new Double(100), stats.getStatisticValues().getMaximum());
+		for(int i=0; i<Consumer.PERCENTILES.length; i++){
+			MetricDatum percentile = request.getMetricData().get(i+1);
+			assertEquals("name-p"+Consumer.PERCENTILES[i], percentile.getMetricName());
+			// Buckets are at most 25% wide.
+			double expected = Consumer.PERCENTILES[i];
+			assertTrue(percentile.getValue() >= expected);
+			assertTrue(percentile.getValue() <= expected*1.25);
+		}
 	}
 	
 	@Test
-	public void testExecuteCloudWatchPutEqualBatchSize(){
-		// Test a batch equal to the max size
+	public void testExecuteCloudWatchPutOverBatchSize(){
+		// Each metric needs more than one datum so this will not fit in one batch.
 		List<ProfileData> list = createTestData(Consumer.MAX_BATCH_SIZE);
-		assertNotNull(list);
-		// This is our single batch.
-		PutMetricDataRequest batch0 = new PutMetricDataRequest();
-		batch0.setNamespace("namespace0");
-		addRangeToRequst(list, 0, list.size(), batch0);
-		
-		// Add all of this profile data to the consumer
 		for(ProfileData pd: list){
 			consumer.addProfileData(pd);
 		}
-		// Now fire off the putting the data to cloud watch.
 		consumer.executeCloudWatchPut();
-		// Verify each batch was sent as expected
-		verify(mockClient, times(1)).putMetricData(batch0);
+		int expectedDatums = Consumer.MAX_BATCH_SIZE*(1+Consumer.PERCENTILES.length);
+		List<PutMetricDataRequest> sent = captureRequests(expectedDatums/Consumer.MAX_BATCH_SIZE);
+		Set<String> names = new HashSet<String>();
+		for(PutMetricDataRequest request: sent){
+			assertEquals("namespace0", request.getNamespace());
+			assertTrue(request.getMetricData().size() <= Consumer.MAX_BATCH_SIZE);
+			for(MetricDatum md: request.getMetricData()){
+				names.add(md.getMetricName());
+			}
+		}
+		assertEquals(expectedDatums, names.size());
 	}
 	
 	@Test
-	public void testExecuteCloudWatchPutOverBatchSize(){
-		// Test a batch over the batch size.
-		List<ProfileData> list = createTestData(Consumer.MAX_BATCH_SIZE+1);
-		assertNotNull(list);
-		// This is our single batch.
-		PutMetricDataRequest batch0 = new PutMetricDataRequest();
-		batch0.setNamespace("namespace0");
-		addRangeToRequst(list, 0, Consumer.MAX_BATCH_SIZE, batch0);
-		// the second batch should have the same namespace with one.
-		PutMetricDataRequest batch1 = new PutMetricDataRequest();
-		batch1.setNamespace("namespace0");
-		addRangeToRequst(list, Consumer.MAX_BATCH_SIZE, list.size(), batch1);
-		
-		// Add all of this profile data to the consumer
-		for(ProfileData pd: list){
+	public void testExecuteCloudWatchPutDrains(){
+		for(ProfileData pd: createTestData(2, 3)){
 			consumer.addProfileData(pd);
 		}
-		// Now fire off the putting the data to cloud watch.
 		consumer.executeCloudWatchPut();
-		// Verify each batch was sent as expected
-		verify(mockClient, times(1)).putMetricData(batch0);
-		verify(mockClient, times(1)).putMetricData(batch1);
+		// One batch per namespace
+		captureRequests(2);
+		// Nothing new was added so nothing else should be sent.
+		Mockito.reset(mockClient);
+		consumer.executeCloudWatchPut();
+		verify(mockClient, never()).putMetricData(any(PutMetricDataRequest.class));
 	}
 	
 	/**
-	 * Helper used to build up expected PutMetricDataRequest
-	 * @param list
-	 * @param start
-	 * @param end
-	 * @param request
+	 * Capture the requests sent to CloudWatch.
+	 * @param expectedCount
+	 * @return
 	 */
-	private static void addRangeToRequst(List<ProfileData> list, int start, int end, PutMetricDataRequest request){
-		for(int i=start; i<end; i++){
-			request.getMetricData().add(Consumer.makeMetricDatum(list.get(i)));
-		}
+	private List<PutMetricDataRequest> captureRequests(int expectedCount){
+		ArgumentCaptor<PutMetricDataRequest> captor = ArgumentCaptor.forClass(PutMetricDataRequest.class);
+		verify(mockClient, times(expectedCount)).putMetricData(captor.capture());
+		return captor.getAllValues();
 	}
 	
 	/**
@@ -0,0 +1,91 @@
+package org.sagebionetworks.cloudwatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for LatencyHistogram.
+ *
+ */
+public class LatencyHistogramTest {
+	
+	LatencyHistogram histogram;
+	
+	@Before
+	public void before(){
+		histogram = new LatencyHistogram("namespace", "name", "Milliseconds", 3);
+	}
+	
+	@Test
+	public void testBucketBounds(){
+		// Every value must fall inside its bucket and buckets must not overlap.
+		long[] values = new long[]{0, 1, 3, 4, 5, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE};
+		for(long value: values){
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+			assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+			if(index > 0){
+				assertTrue(value > LatencyHistogram.bucketUpperBound(index-1));
+			}
+		}
+	}
+	
+	@Test
+	public void testDrain(){
+		for(long i=10; i<=20; i++){
+			histogram.record(i);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.drain();
+		assertEquals(11, snapshot.getCount());
+		assertEquals(165, snapshot.getSum());
+		assertEquals(10, snapshot.getMin());
+		assertEquals(20, snapshot.getMax());
+		assertEquals(20, snapshot.getPercentile(100));
+		assertTrue(snapshot.getPercentile(50) >= 15);
+		// The drain resets the histogram.
+		snapshot = histogram.drain();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMin());
+		assertEquals(0, snapshot.getMax());
+		assertEquals(0, snapshot.getPercentile(99));
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testNegative(){
+		histogram.record(-1);
+	}
+	
+	@Test
+	public void testConcurrentRecord() throws InterruptedException{
+		final int threadCount = 8;
+		final int perThread = 10000;
+		List<Thread> threads = new LinkedList<Thread>();
+		for(int t=0; t<threadCount; t++){
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i=1; i<=perThread; i++){
+						histogram.record(i);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread: threads){
+			thread.join();
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.drain();
+		assertEquals(threadCount*perThread, snapshot.getCount());
+		assertEquals(threadCount*((long)perThread*(perThread+1)/2), snapshot.getSum());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(perThread, snapshot.getMax());
+	}
+
+}
@@ -2,10 +2,12 @@ package org.sagebionetworks.logging.s3;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -23,7 +25,9 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = { "classpath:log-sweeper.spb.xml" })
@@ -33,6 +37,8 @@ public class LogDAOImplTest {
 	LogDAO logDAO;
 	@Autowired
 	StackConfiguration config;
+	@Autowired
+	AmazonS3Client s3Client;
 
 	@Before
 	public void before(){
@@ -122,6 +128,50 @@ public class LogDAOImplTest {
 		assertEquals(key, keySearchResult);
 		logDAO.deleteLogFile(key);
 	}
+	
+	@Test
+	public void testFindLogContainingUUIDWithIndex() throws IOException, InterruptedException{
+		String uuid = UUID.randomUUID().toString();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		File sampleLog = LogWriterUtil.createSampleLogFile(new File(tempDir).getAbsolutePath(), "indexTest", new String[]{uuid});
+		try{
+			String key = this.logDAO.saveLogFile(sampleLog, System.currentTimeMillis());
+			logDAO.saveLogIndex(key, LogIndex.buildIndex(sampleLog));
+			LogIndex index = logDAO.getLogIndex(key);
+			assertNotNull(index);
+			assertTrue(index.mightContain(uuid));
+			// The index is not listed as a log
+			assertEquals(1, logDAO.listAllStackInstanceLogs(null).getObjectSummaries().size());
+			assertEquals(key, logDAO.findLogContainingUUID(uuid));
+			// A UUID that is not in the index is not found
+			assertNull(logDAO.findLogContainingUUID(UUID.randomUUID().toString()));
+			// Deleting the log deletes its index
+			logDAO.deleteLogFile(key);
+			assertNull(logDAO.getLogIndex(key));
+		}finally{
+			sampleLog.delete();
+		}
+	}
+	
+	@Test
+	public void testFindLogContainingUUIDWithCorruptIndex() throws IOException, InterruptedException{
+		String uuid = UUID.randomUUID().toString();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		File sampleLog = LogWriterUtil.createSampleLogFile(new File(tempDir).getAbsolutePath(), "corruptIndexTest", new String[]{uuid});
+		try{
+			String key = this.logDAO.saveLogFile(sampleLog, System.currentTimeMillis());
+			// An index that cannot be read
+			byte[] garbage = "not an index".getBytes("UTF-8");
+			ObjectMetadata om = new ObjectMetadata();
+			om.setContentLength(garbage.length);
+			s3Client.putObject(config.getLogBucketName(), LogKeyUtils.getIndexKeyForLogKey(key), new ByteArrayInputStream(garbage), om);
+			// The search falls back to reading the log
+			assertEquals(key, logDAO.findLogContainingUUID(uuid));
+			logDAO.deleteLogFile(key);
+		}finally{
+			sampleLog.delete();
+		}
+	}
 
 	
 }
@@ -0,0 +1,169 @@
+package org.sagebionetworks.logging.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class LogIndexTest {
+
+	@Test
+	public void testAddEntry() throws ParseException{
+		String uuid = UUID.randomUUID().toString();
+		long now = System.currentTimeMillis();
+		LogIndex index = new LogIndex(10);
+		index.addEntry(new LogEntry(LogKeyUtils.createISO8601GMTLogString(now)+" "+uuid+" [main] INFO first"));
+		index.addEntry(new LogEntry(LogKeyUtils.createISO8601GMTLogString(now-5)+" no uuid here"));
+		assertTrue(index.mightContain(uuid));
+		// Lookups ignore case
+		assertTrue(index.mightContain(uuid.toUpperCase()));
+		assertFalse(index.mightContain(UUID.randomUUID().toString()));
+		assertEquals(now-5, index.getMinTimeStamp());
+		assertEquals(now, index.getMaxTimeStamp());
+	}
+
+	@Test
+	public void testFalsePositiveRate(){
+		// The filter is sized for the number of UUIDs
+		LogIndex index = new LogIndex(10000);
+		for(int i=0; i<10000; i++){
+			index.add(UUID.randomUUID().toString());
+		}
+		int falsePositives = 0;
+		for(int i=0; i<10000; i++){
+			if(index.mightContain(UUID.randomUUID().toString())){
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: "+falsePositives, falsePositives < 100);
+	}
+
+	@Test
+	public void testMergedFalsePositiveRate(){
+		// An hour of logs merged into one index keeps a filter for each log
+		LogIndex merged = new LogIndex();
+		List<String> added = new ArrayList<String>();
+		for(int i=0; i<10; i++){
+			LogIndex index = new LogIndex(10000);
+			for(int j=0; j<10000; j++){
+				String uuid = UUID.randomUUID().toString();
+				index.add(uuid);
+				added.add(uuid);
+			}
+			merged.merge(index);
+		}
+		assertEquals(10, merged.getNumberOfFilters());
+		for(String uuid: added){
+			assertTrue(merged.mightContain(uuid));
+		}
+		int falsePositives = 0;
+		for(int i=0; i<10000; i++){
+			if(merged.mightContain(UUID.randomUUID().toString())){
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: "+falsePositives, falsePositives < 200);
+	}
+
+	@Test
+	public void testMerge(){
+		String one = UUID.randomUUID().toString();
+		String two = UUID.randomUUID().toString();
+		LogIndex first = new LogIndex(1);
+		first.add(one);
+		LogIndex second = new LogIndex(1000);
+		second.add(two);
+		LogIndex merged = new LogIndex();
+		assertFalse(merged.mightContain(one));
+		merged.merge(first);
+		merged.merge(second);
+		assertTrue(merged.mightContain(one));
+		assertTrue(merged.mightContain(two));
+		assertEquals(2, merged.getNumberOfFilters());
+	}
+
+	@Test (expected=IllegalStateException.class)
+	public void testAddToMerged(){
+		LogIndex merged = new LogIndex();
+		merged.merge(new LogIndex(1));
+		merged.merge(new LogIndex(1));
+		merged.add(UUID.randomUUID().toString());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException{
+		String uuid = UUID.randomUUID().toString();
+		LogIndex index = new LogIndex(1024, 3);
+		index.add(uuid);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.writeTo(out);
+		LogIndex clone = LogIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue(clone.mightContain(uuid));
+		assertEquals(index.getMinTimeStamp(), clone.getMinTimeStamp());
+		assertEquals(index.getMaxTimeStamp(), clone.getMaxTimeStamp());
+		// A merged index keeps all of its filters
+		String other = UUID.randomUUID().toString();
+		LogIndex second = new LogIndex(10);
+		second.add(other);
+		LogIndex merged = new LogIndex();
+		merged.merge(index);
+		merged.merge(second);
+		out = new ByteArrayOutputStream();
+		merged.writeTo(out);
+		clone = LogIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(2, clone.getNumberOfFilters());
+		assertTrue(clone.mightContain(uuid));
+		assertTrue(clone.mightContain(other));
+	}
+
+	@Test
+	public void testReadSingleFilterFormat() throws IOException{
+		// Indices written before the filters were sized hold one filter
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(1);
+		data.writeInt(64);
+		data.writeInt(3);
+		data.writeLong(5L);
+		data.writeLong(10L);
+		data.writeLong(-1L);
+		data.flush();
+		LogIndex index = LogIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(1, index.getNumberOfFilters());
+		assertEquals(5L, index.getMinTimeStamp());
+		assertEquals(10L, index.getMaxTimeStamp());
+		assertTrue(index.mightContain(UUID.randomUUID().toString()));
+	}
+
+	@Test
+	public void testBuildIndex() throws IOException{
+		String uuid = UUID.randomUUID().toString();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		File log = LogWriterUtil.createSampleLogFile(tempDir, "logindextest", new String[]{"entry one", uuid+" entry two"});
+		try{
+			LogIndex index = LogIndex.buildIndex(log);
+			assertTrue(index.mightContain(uuid));
+			assertFalse(index.mightContain(UUID.randomUUID().toString()));
+		}finally{
+			log.delete();
+		}
+	}
+
+	@Test
+	public void testIsIndexed(){
+		assertTrue(LogIndex.isIndexed(UUID.randomUUID().toString()));
+		assertFalse(LogIndex.isIndexed("not a uuid"));
+		assertFalse(LogIndex.isIndexed(null));
+	}
+}
@@ -1,6 +1,7 @@
 package org.sagebionetworks.repo.model;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.sagebionetworks.repo.web.NotFoundException;
 
@@ -49,4 +50,11 @@ public interface AccessControlListDAO  {
 	 */
 	public void delete(String id) throws DatastoreException, NotFoundException;
 
+	/**
+	 * Delete the ACLs of a list of nodes with a single statement.
+	 * @param ids
+	 * @throws DatastoreException
+	 */
+	public void delete(List<String> ids) throws DatastoreException;
+
 }
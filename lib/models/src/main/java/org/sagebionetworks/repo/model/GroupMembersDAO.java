@@ -1,6 +1,8 @@
 package org.sagebionetworks.repo.model;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import org.sagebionetworks.repo.web.NotFoundException;
 
@@ -13,6 +15,19 @@ public interface GroupMembersDAO {
 	public List<UserGroup> getMembers(String principalId) 
 			throws DatastoreException, NotFoundException;
 	
+	/**
+	 * Retrieves the IDs of the direct members of all the given groups with a single query
+	 */
+	public Set<String> getMemberIds(Collection<String> groupIds) 
+			throws DatastoreException;
+	
+	/**
+	 * Retrieves, in ascending order, up to limit IDs of the direct members of all the given groups 
+	 * that are greater than the given ID, so the members of large groups can be read a page at a time
+	 */
+	public List<Long> getMemberIdsAfter(Collection<String> groupIds, long afterId, long limit) 
+			throws DatastoreException;
+	
 	/**
 	 * Adds the list of principal IDs to the group
 	 */
@@ -69,6 +69,50 @@ public interface MessageDAO {
 	 */
 	public void createMessageStatus(String messageId, String userId, MessageStatusType status);
 	
+	/**
+	 * Marks a batch of users as recipients of a message with the UNREAD status, 
+	 * using a multi-row insert for each chunk of the batch.
+	 * Users that are already recipients of the message are skipped, so a partially delivered batch can be retried.
+	 */
+	public void createMessageStatusBatch(String messageId, List<String> userIds);
+	
+	/**
+	 * Records that a message still has to be delivered to its recipients by a worker.
+	 * This should be called in the same transaction that sends the message, so the fan-out
+	 * is not lost if the sender fails after the transaction commits.
+	 */
+	public void createFanOut(String messageId);
+	
+	/**
+	 * Retrieves the IDs of messages that are still being delivered by a worker, oldest first
+	 */
+	public List<String> getPendingFanOuts(long limit);
+	
+	/**
+	 * Returns the largest recipient ID delivered so far by the fan-out of the message, 
+	 * or null if no batch has been delivered yet.  Recipients are delivered in ascending order of ID.
+	 * @throws NotFoundException If the message is not being delivered by a worker
+	 */
+	public Long getFanOutResumePoint(String messageId) throws NotFoundException;
+	
+	/**
+	 * Returns the number of recipients delivered so far by the fan-out of the message
+	 * @throws NotFoundException If the message is not being delivered by a worker
+	 */
+	public long getFanOutDelivered(String messageId) throws NotFoundException;
+	
+	/**
+	 * See {@link #createMessageStatusBatch(String, List)}
+	 * Also moves the resume point of the message's fan-out to the largest user ID in the batch,
+	 * in the same transaction, so an interrupted fan-out continues after the last delivered batch.
+	 */
+	public void createFanOutBatch(String messageId, List<String> userIds);
+	
+	/**
+	 * Removes the fan-out of a message once every recipient has been delivered
+	 */
+	public void deleteFanOut(String messageId);
+	
 	/**
 	 * Marks a message within the user's inbox with the given status
 	 */
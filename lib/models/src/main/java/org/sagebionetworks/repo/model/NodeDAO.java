@@ -1,5 +1,6 @@
 package org.sagebionetworks.repo.model;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -69,6 +70,15 @@ public interface NodeDAO {
 	 */
 	public boolean delete(String id) throws NotFoundException, DatastoreException;
 	
+	/**
+	 * Delete a list of nodes with set based deletes. Any children of the nodes
+	 * are deleted too, so callers that need to bound the work should delete
+	 * the leaves of a tree first.
+	 * @param ids
+	 * @throws DatastoreException 
+	 */
+	public void delete(List<String> ids) throws DatastoreException;
+	
 	/**
 	 * Delete a specific version.
 	 * @param id
@@ -397,6 +407,33 @@ public interface NodeDAO {
 	 */
 	public List<Reference> getCurrentRevisionNumbers(List<String> nodeIds);
 	
+	/**
+	 * Get the current version of each of the given nodes with a single query.
+	 * @param nodeIds
+	 * @return The nodes that exist. Nodes that cannot be found are not included.
+	 * @throws DatastoreException
+	 */
+	public List<Node> getNodes(Collection<String> nodeIds) throws DatastoreException;
+	
+	/**
+	 * Get the current annotations of each of the given nodes with a single query.
+	 * @param nodeIds
+	 * @return Maps each node ID to its annotations. Nodes that cannot be found are not included.
+	 * @throws DatastoreException
+	 */
+	public Map<String, NamedAnnotations> getAnnotations(Collection<String> nodeIds) throws DatastoreException;
+	
+	/**
+	 * Get the full path of each of the given nodes. The ancestors are fetched one level
+	 * at a time for all nodes, so the number of queries grows with the depth of the
+	 * hierarchy rather than with the number of nodes.
+	 * @param nodeIds
+	 * @return Maps each node ID to its path as returned by {@link #getEntityPath(String)}.
+	 * Nodes that cannot be found are not included.
+	 * @throws DatastoreException
+	 */
+	public Map<String, List<EntityHeader>> getEntityPaths(Collection<String> nodeIds) throws DatastoreException;
+	
 	/**
 	 * Lock the node and get the current Etag.
 	 * @param longId
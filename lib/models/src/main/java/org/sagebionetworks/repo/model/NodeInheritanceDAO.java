@@ -1,5 +1,7 @@
 package org.sagebionetworks.repo.model;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.repo.web.NotFoundException;
@@ -47,4 +49,30 @@ public interface NodeInheritanceDAO {
 	 * @throws DatastoreException
 	 */
 	public void addBeneficiary(String beneficiaryId, String toBenefactorId, boolean keepOldEtag) throws NotFoundException, DatastoreException;
+	
+	/**
+	 * Get the benefactor of every child of the given nodes.
+	 * @param parentIds
+	 * @return Maps the ID of each child to the ID of its benefactor.
+	 * @throws DatastoreException
+	 */
+	public Map<String, String> getChildrenBenefactors(Collection<String> parentIds) throws DatastoreException;
+	
+	/**
+	 * Get the benefactor of each of the given nodes with a single query.
+	 * @param beneficiaryIds
+	 * @return Maps the ID of each node to the ID of its benefactor. Nodes that cannot be found are not included.
+	 * @throws DatastoreException
+	 */
+	public Map<String, String> getBenefactors(Collection<String> beneficiaryIds) throws DatastoreException;
+	
+	/**
+	 * Add a set of nodes as beneficiaries to a given benefactor. The nodes are updated in sorted order
+	 * with multi-row updates, and the etag of each node is changed.
+	 * @param beneficiaryIds
+	 * @param toBenefactorId - The new permissions benefactor of the nodes.
+	 * @throws NotFoundException - If the benefactor or any of the beneficiaries do not exist.
+	 * @throws DatastoreException
+	 */
+	public void addBeneficiaries(Collection<String> beneficiaryIds, String toBenefactorId) throws NotFoundException, DatastoreException;
 }
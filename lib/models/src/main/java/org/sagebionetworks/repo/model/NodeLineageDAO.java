@@ -0,0 +1,93 @@
+package org.sagebionetworks.repo.model;
+
+import java.util.List;
+
+/**
+ * Ancestor-descendant pairs of the node tree (a closure table) that are kept
+ * in the same database and transaction as the nodes themselves. Every query
+ * is an index range scan so the cost does not depend on the size of the tree.
+ * 
+ */
+public interface NodeLineageDAO {
+
+	/**
+	 * Add the lineage of a new node. This must be called in the transaction
+	 * that creates the node.
+	 * @param nodeId
+	 * @param parentId Null for a root.
+	 * @throws DatastoreException
+	 */
+	public void addNode(Long nodeId, Long parentId) throws DatastoreException;
+
+	/**
+	 * Move a node and all of its descendants to a new parent. This must be
+	 * called in the transaction that changes the parent of the node.
+	 * @param nodeId
+	 * @param newParentId
+	 * @throws IllegalArgumentException if the new parent is the node or one of its descendants.
+	 * @throws DatastoreException
+	 */
+	public void moveNode(Long nodeId, Long newParentId) throws DatastoreException;
+
+	/**
+	 * Make the lineage of a node match the parent of the node in JDONODE,
+	 * adding or moving it as needed. The node row is locked so the node cannot
+	 * be moved by another transaction until this one commits.
+	 * @param nodeId
+	 * @return False if the node does not exist.
+	 * @throws DatastoreException
+	 */
+	public boolean syncNode(Long nodeId) throws DatastoreException;
+
+	/**
+	 * Does the node have lineage rows?
+	 * @param nodeId
+	 * @return
+	 */
+	public boolean doesNodeExist(Long nodeId);
+
+	/**
+	 * The ancestors of a node starting with the root and ending with the parent.
+	 * A root or a node without lineage gets an empty list.
+	 * @param nodeId
+	 * @return
+	 */
+	public List<Long> getAncestors(Long nodeId);
+
+	/**
+	 * The parent of a node.
+	 * @param nodeId
+	 * @return Null for a root or a node without lineage.
+	 */
+	public Long getParent(Long nodeId);
+
+	/**
+	 * One page of the descendants of a node, ordered by distance then ID.
+	 * @param nodeId
+	 * @param limit The max number of descendants to return.
+	 * @param lastDescendantIdExcl The last descendant of the previous page or null for the first page.
+	 * @return
+	 * @throws IllegalArgumentException if the last descendant is not a descendant of the node.
+	 */
+	public List<Long> getDescendants(Long nodeId, long limit, Long lastDescendantIdExcl);
+
+	/**
+	 * One page of the descendants of a node at the given distance, ordered by ID.
+	 * @param nodeId
+	 * @param generation The distance from the node. Children are at distance 1.
+	 * @param limit The max number of descendants to return.
+	 * @param lastDescendantIdExcl The last descendant of the previous page or null for the first page.
+	 * @return
+	 */
+	public List<Long> getDescendants(Long nodeId, int generation, long limit, Long lastDescendantIdExcl);
+
+	/**
+	 * Rebuild the whole table from the parent IDs of the nodes. Use this when
+	 * the node tree is first moved to the repository database, as the nodes that
+	 * already exist get no change messages.
+	 * @return The number of lineage rows.
+	 * @throws DatastoreException
+	 */
+	public long rebuild() throws DatastoreException;
+
+}
@@ -16,9 +16,25 @@ public interface ProcessedMessageDAO {
 
 	/**
 	 * List messages that have been processed. This is used to detect messages that have been sent
-	 * but not processed by a worker.
+	 * but not processed by a worker. Only changes above the processed high-water mark of the queue
+	 * are considered, so callers should advance it first (see {@link #advanceProcessedHighWaterMark(String)}).
 	 * @return
 	 */
 	public List<ChangeMessage> listNotProcessedMessages(String queueName, long limit);
 
+	/**
+	 * Every sent change with a change number less than or equal to the processed high-water mark
+	 * of a queue has been processed by that queue.
+	 * @return The processed high-water mark of the queue or -1 if it has never been advanced.
+	 */
+	public long getProcessedHighWaterMark(String queueName);
+
+	/**
+	 * Move the processed high-water mark of a queue up to the change just before the first sent change
+	 * that has not been processed by the queue.  The processed watermark never passes the sent watermark
+	 * or a change number that the sent watermark passed before it had a change.
+	 * @return The new processed high-water mark of the queue.
+	 */
+	public long advanceProcessedHighWaterMark(String queueName);
+
 }
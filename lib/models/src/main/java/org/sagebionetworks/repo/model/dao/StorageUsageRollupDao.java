@@ -0,0 +1,35 @@
+package org.sagebionetworks.repo.model.dao;
+
+import org.sagebionetworks.repo.model.DatastoreException;
+
+/**
+ * Maintains the storage usage rollups, the total size and number of files for
+ * each user, storage provider and content type. The rollups are updated in the
+ * same transaction as the files so the storage usage queries do not need to
+ * aggregate the entire files table.
+ */
+public interface StorageUsageRollupDao {
+
+	/**
+	 * Adds a file to its rollup.
+	 *
+	 * @param createdBy     The user who created the file
+	 * @param metadataType  The storage provider of the file
+	 * @param contentType   The content type of the file. Can be null.
+	 * @param contentSize   The size of the file. Can be null.
+	 */
+	void addFile(Long createdBy, String metadataType, String contentType, Long contentSize) throws DatastoreException;
+
+	/**
+	 * Removes a file from its rollup. The rollup is removed once it has no files.
+	 */
+	void removeFile(Long createdBy, String metadataType, String contentType, Long contentSize) throws DatastoreException;
+
+	/**
+	 * Verifies the rollups against the files table and corrects the rollups that differ,
+	 * for example after the files table was written by migration.
+	 *
+	 * @return The number of rollups that were corrected.
+	 */
+	long reconcile() throws DatastoreException;
+}
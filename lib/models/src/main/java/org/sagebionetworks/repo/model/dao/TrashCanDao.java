@@ -59,10 +59,45 @@ public interface TrashCanDao {
 	 */
 	List<TrashedEntity> getTrashBefore(Timestamp timestamp) throws DatastoreException;
 
+	/**
+	 * Gets a page of the trash items that were deleted before the specified time stamp
+	 * and whose nodes have no children left. Deleting these nodes does not cascade to
+	 * other nodes. Results are in descending order of node ID.
+	 *
+	 * @param beforeNodeId Only nodes with IDs smaller than this are returned. Null to start from the top.
+	 * @param limit        The max number of items retrieved.
+	 */
+	List<TrashedEntity> getTrashLeavesBefore(Timestamp timestamp, Long beforeNodeId, long limit) throws DatastoreException;
+
+	/**
+	 * Gets a page of the trash items that were deleted before the specified time stamp,
+	 * in descending order of node ID.
+	 *
+	 * @param limit The max number of items retrieved.
+	 */
+	List<TrashedEntity> getTrashBefore(Timestamp timestamp, long limit) throws DatastoreException;
+
 	/**
 	 * Removes a trash item from the trash can table. This happens when the trash item is either restored or purged.
 	 *
 	 * @throws NotFoundException When the item is not deleted by the user.
 	 */
 	void delete(String userGroupId, String nodeId) throws DatastoreException, NotFoundException;
+
+	/**
+	 * Removes a list of trash items from the trash can table with a single statement.
+	 */
+	void delete(List<String> nodeIds) throws DatastoreException;
+
+	/**
+	 * Gets the ID of the last node purged by the trash worker. Null if the next purge
+	 * should start from the top.
+	 */
+	Long getPurgeCheckpoint() throws DatastoreException;
+
+	/**
+	 * Saves the ID of the last node purged by the trash worker so that an interrupted
+	 * purge can resume. Null to start the next purge from the top.
+	 */
+	void setPurgeCheckpoint(Long nodeId) throws DatastoreException;
 }
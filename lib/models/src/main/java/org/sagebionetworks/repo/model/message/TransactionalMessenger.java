@@ -50,6 +50,14 @@ public interface TransactionalMessenger {
 	 */
 	public void registerMessageSent(long changeNumber) throws NotFoundException;
 	
+	/**
+	 * Register that a batch of messages have been sent.  The batch is written with a single insert.
+	 * Change numbers that no longer exist (the change was deleted before it could be registered) are skipped.
+	 * 
+	 * @param changeNumbers
+	 */
+	public void registerMessagesSent(List<Long> changeNumbers);
+	
 	/**
 	 * List messages that have been created but not registered as sent (see {@link #registerMessageSent(long)}).
 	 * This is used to detect messages that need to be sent either for the first time or re-sent on a new stacks.
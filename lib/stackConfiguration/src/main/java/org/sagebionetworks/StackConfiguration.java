@@ -634,6 +634,34 @@ public class StackConfiguration {
 				.getProperty("org.sagebionetworks.search.enabled"));
 	}
 	
+	/**
+	 * Should search use the index embedded in this process instead of CloudSearch?
+	 * @return
+	 */
+	public boolean getLocalSearchEnabled(){
+		return Boolean.parseBoolean(configuration
+				.getProperty("org.sagebionetworks.search.local.enabled"));
+	}
+	
+	/**
+	 * Should the SQS workers consume their queues with long polling?
+	 * @return
+	 */
+	public boolean getLongPollingWorkersEnabled(){
+		return Boolean.parseBoolean(configuration
+				.getProperty("org.sagebionetworks.worker.long.polling.enabled"));
+	}
+	
+	/**
+	 * Should the node tree be kept in the NODE_LINEAGE table of the repository
+	 * database instead of DynamoDB?
+	 * @return
+	 */
+	public boolean getNodeTreeRdsEnabled(){
+		return Boolean.parseBoolean(configuration
+				.getProperty("org.sagebionetworks.node.tree.rds.enabled"));
+	}
+	
 	/**
 	 * Is the Dynamo feature enabled?
 	 * @return
@@ -1214,6 +1242,16 @@ public class StackConfiguration {
 				.getProperty("org.sagebionetworks.table.max.bytes.per.request"));
 	}
 
+	/**
+	 * Should new table change sets be written in the binary columnar format?
+	 * 
+	 * @return
+	 */
+	public boolean getTableWriteBinaryChangeSets() {
+		return Boolean.parseBoolean(configuration
+				.getProperty("org.sagebionetworks.table.write.binary.change.sets"));
+	}
+
 	/**
 	 * Get the name of the audit record bucket.
 	 * 
@@ -60,4 +60,20 @@ public interface MessageManager {
 	 * It is the caller's responsibility to send a bounce message to the user.
 	 */
 	public List<String> sendMessage(String messageId) throws NotFoundException;
+	
+	/**
+	 * Retrieves the IDs of messages that are still being delivered to a large number of recipients, oldest first
+	 */
+	public List<String> getPendingFanOuts(long limit);
+	
+	/**
+	 * Delivers the next batch of recipients of a message that had too many recipients to send in one transaction.
+	 * Recipients are delivered in ascending order of ID and the end of the batch is saved in the same transaction, 
+	 * so an interrupted fan-out continues where it left off.  Once every recipient has the message, 
+	 * the fan-out is removed.
+	 * 
+	 * @return True if the message still has recipients to deliver
+	 * @throws NotFoundException If the message is not being delivered
+	 */
+	public boolean deliverFanOutBatch(String messageId, int batchSize) throws NotFoundException;
 }
@@ -1,11 +1,17 @@
 package org.sagebionetworks.repo.manager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.GroupMembersDAO;
@@ -27,6 +33,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 public class MessageManagerImpl implements MessageManager {
 	
+	static private Log log = LogFactory.getLog(MessageManagerImpl.class);
+	
+	/**
+	 * Messages with more recipients than this are delivered in batches by a worker
+	 * (see {@link #deliverFanOutBatch(String, int)})
+	 */
+	public static final int DEFAULT_MAX_SYNCHRONOUS_RECIPIENTS = 1000;
+	
 	@Autowired
 	private MessageDAO messageDAO;
 	
@@ -41,6 +55,12 @@ public class MessageManagerImpl implements MessageManager {
 	
 	@Autowired
 	private AuthorizationManager authorizationManager;
+	
+	private int maxSynchronousRecipients = DEFAULT_MAX_SYNCHRONOUS_RECIPIENTS;
+	
+	public void setMaxSynchronousRecipients(int maxSynchronousRecipients) {
+		this.maxSynchronousRecipients = maxSynchronousRecipients;
+	}
 
 	@Override
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
@@ -107,16 +127,105 @@ public class MessageManagerImpl implements MessageManager {
 		List<String> errors = new ArrayList<String>();
 		
 		MessageToUser dto = messageDAO.getMessage(messageId);
+		Set<String> recipients = getRecipients(dto, errors);
+		
+		// Mark each message as sent
+		if (recipients.size() > maxSynchronousRecipients) {
+			// Large fan-outs are delivered in batches by a worker after this transaction commits
+			log.info("Message (" + messageId + ") will be delivered to " + recipients.size() + " recipients asynchronously");
+			messageDAO.createFanOut(messageId);
+		} else {
+			//TODO check the recipient's settings
+			//TODO send emails if necessary
+			messageDAO.createMessageStatusBatch(messageId, new ArrayList<String>(recipients));
+		}
+		
+		//TODO Remove the now-sent message from the queue
+		// Note: the queue's implementation is still up in the air
+		// Note: this may be the job of this method's caller, which is not implemented yet 
+		
+		return errors;
+	}
+	
+	@Override
+	public List<String> getPendingFanOuts(long limit) {
+		return messageDAO.getPendingFanOuts(limit);
+	}
+	
+	@Override
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	public boolean deliverFanOutBatch(String messageId, int batchSize) throws NotFoundException {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be greater than zero");
+		}
+		Long resumePoint = messageDAO.getFanOutResumePoint(messageId);
+		long afterId = resumePoint == null ? -1L : resumePoint;
+		MessageToUser dto = messageDAO.getMessage(messageId);
+		
+		// Errors were already reported when the message was sent
+		Set<String> individuals = new HashSet<String>();
+		Set<String> groups = new HashSet<String>();
+		getPermittedRecipients(dto, new ArrayList<String>(), individuals, groups);
+		
+		// Only the next page of group members is read, so each batch costs the same however large the groups are.
+		// One extra recipient is read to tell whether another batch is needed.
+		SortedSet<Long> remaining = new TreeSet<Long>(groupMembersDAO.getMemberIdsAfter(groups, afterId, batchSize + 1));
+		for (String recipient : individuals) {
+			Long id = Long.parseLong(recipient);
+			if (id > afterId) {
+				remaining.add(id);
+			}
+		}
+		
+		List<String> batch = new ArrayList<String>();
+		for (Long id : remaining) {
+			if (batch.size() == batchSize) {
+				break;
+			}
+			batch.add(id.toString());
+		}
+		messageDAO.createFanOutBatch(messageId, batch);
+		
+		if (remaining.size() <= batchSize) {
+			messageDAO.deleteFanOut(messageId);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Resolves the intended recipients of a message into the individuals the sender may send the message to.
+	 * Errors about recipients that are skipped are added to the given list.
+	 */
+	private Set<String> getRecipients(MessageToUser dto, List<String> errors) throws NotFoundException {
+		Set<String> recipients = new HashSet<String>();
+		Set<String> groups = new HashSet<String>();
+		getPermittedRecipients(dto, errors, recipients, groups);
+		
+		// Expand non-individuals into individuals
+		recipients.addAll(groupMembersDAO.getMemberIds(groups));
+		return recipients;
+	}
+	
+	/**
+	 * Splits the intended recipients of a message into the individuals and the groups the sender may send the message to.
+	 * Errors about recipients that are skipped are added to the given list.
+	 */
+	private void getPermittedRecipients(MessageToUser dto, List<String> errors, 
+			Set<String> recipients, Set<String> groups) throws NotFoundException {
 		UserInfo userInfo = userManager.getUserInfo(Long.parseLong(dto.getCreatedBy()));
 		
+		// Fetch all of the intended recipients at once
+		Map<String, UserGroup> principals = new HashMap<String, UserGroup>();
+		for (UserGroup ug : userGroupDAO.get(new ArrayList<String>(dto.getRecipients()))) {
+			principals.put(ug.getId(), ug);
+		}
+		
 		// From the list of intended recipients, filter out the un-permitted recipients
-		Set<String> recipients = new HashSet<String>();
 		for (String principalId : dto.getRecipients()) {
-			UserGroup ug;
-			try {
-				ug = userGroupDAO.get(principalId);
-			} catch (NotFoundException e) {
-				errors.add(e.getMessage());
+			UserGroup ug = principals.get(principalId);
+			if (ug == null) {
+				errors.add("Principal (" + principalId + ") does not exist");
 				continue;
 			}
 			
@@ -132,25 +241,9 @@ public class MessageManagerImpl implements MessageManager {
 			if (ug.getIsIndividual()) {
 				recipients.add(principalId);
 			} else {
-				// Expand non-individuals into individuals
-				for (UserGroup member : groupMembersDAO.getMembers(principalId)) {
-					recipients.add(member.getId());
-				}
+				groups.add(principalId);
 			}
 		}
-		
-		// Mark each message as sent
-		for (String user : recipients) {
-			//TODO check the recipient's settings
-			//TODO send emails if necessary
-			messageDAO.createMessageStatus(messageId, user);
-		}
-		
-		//TODO Remove the now-sent message from the queue
-		// Note: the queue's implementation is still up in the air
-		// Note: this may be the job of this method's caller, which is not implemented yet 
-		
-		return errors;
 	}
 	
 }
@@ -1,8 +1,9 @@
 package org.sagebionetworks.repo.manager;
 
-import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sagebionetworks.repo.model.DatastoreException;
@@ -124,39 +125,29 @@ public class NodeInheritanceManagerImpl implements NodeInheritanceManager {
 	private void changeAllChildrenTo(String currentlyInheritingFromId, String parentId, String changeToInheritFromId) throws NotFoundException, DatastoreException{
 		// This is the set of nodes that will need to change.
 		Set<String> toChange = new HashSet<String>();
-		// Recursively build up the set to change
-		// Now add all children
-		addChildrenToChange(currentlyInheritingFromId, parentId, toChange);
-		// We sort the Ids to prevent deadlock on concurrent updates
-		String[] sortedArrayIds = toChange.toArray(new String[toChange.size()]);
-		Arrays.sort(sortedArrayIds);
-		// Now update each node.
-		for(String idToChange: sortedArrayIds){
-			nodeInheritanceDao.addBeneficiary(idToChange, changeToInheritFromId);
-		}
-	}
-	
-	/**
-	 * This is a recursive method that finds all of the nodes that need to change.
-	 * @param currentBenefactorId
-	 * @param parentId
-	 * @param toChange
-	 * @throws NotFoundException
-	 * @throws DatastoreException 
-	 */
-	private void addChildrenToChange(String currentBenefactorId, String parentId, Set<String> toChange) throws NotFoundException, DatastoreException{
-		// Find find the parent's benefactor
 		String parentCurrentBenefactorId = nodeInheritanceDao.getBenefactor(parentId);
-		if (currentBenefactorId == null || parentCurrentBenefactorId.equals(currentBenefactorId)){
-			toChange.add(parentId);
-			// Now check this node's children
-			Iterator<String> it = nodeDao.getChildrenIds(parentId).iterator();
-			// Add each child
-			while(it.hasNext()){
-				String childId = it.next();
-				addChildrenToChange(currentBenefactorId, childId, toChange);
+		if (currentlyInheritingFromId != null && !parentCurrentBenefactorId.equals(currentlyInheritingFromId)){
+			return;
+		}
+		toChange.add(parentId);
+		// Walk the tree one level at a time, fetching the children of the entire level with one query.
+		List<String> level = new LinkedList<String>();
+		level.add(parentId);
+		while(!level.isEmpty()){
+			Map<String, String> children = nodeInheritanceDao.getChildrenBenefactors(level);
+			List<String> nextLevel = new LinkedList<String>();
+			for(Map.Entry<String, String> child: children.entrySet()){
+				// Only children that inherit from the current benefactor change, along with their children.
+				if (currentlyInheritingFromId == null || child.getValue().equals(currentlyInheritingFromId)){
+					if(toChange.add(child.getKey())){
+						nextLevel.add(child.getKey());
+					}
+				}
 			}
+			level = nextLevel;
 		}
+		// The DAO sorts the IDs to prevent deadlock on concurrent updates
+		nodeInheritanceDao.addBeneficiaries(toChange, changeToInheritFromId);
 	}
 
 	/**
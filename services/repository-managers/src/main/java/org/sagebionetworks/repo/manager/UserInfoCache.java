@@ -0,0 +1,357 @@
+package org.sagebionetworks.repo.manager;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.cloudwatch.Consumer;
+import org.sagebionetworks.cloudwatch.ProfileData;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.User;
+import org.sagebionetworks.repo.model.UserGroup;
+import org.sagebionetworks.repo.model.UserInfo;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.TransactionalMessenger;
+import org.sagebionetworks.repo.model.message.TransactionalMessengerObserver;
+import org.sagebionetworks.repo.web.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * A bounded cache of resolved UserInfo objects.
+ *
+ * Entries are removed when a PRINCIPAL change message is fired for the user or
+ * for any group the user belongs to. Change messages are only fired on the
+ * machine that made the change, so entries also expire after a short time to
+ * pick up changes made by other machines.
+ *
+ * Concurrent misses for the same key are collapsed into a single load.
+ *
+ */
+public class UserInfoCache implements TransactionalMessengerObserver {
+
+	static private Log log = LogFactory.getLog(UserInfoCache.class);
+
+	public static final long DEFAULT_TIME_TO_LIVE_MS = 10*1000;
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	/**
+	 * The minimum time between publishing the hit and miss counts.
+	 */
+	static final long METRICS_INTERVAL_MS = 60*1000;
+	static final String METRICS_NAMESPACE = "UserInfoCache";
+
+	/**
+	 * Loads the UserInfo for a cache miss.
+	 */
+	public interface Loader {
+		public UserInfo load() throws DatastoreException, NotFoundException;
+	}
+
+	private static class Entry {
+		UserInfo userInfo;
+		long expiresOn;
+	}
+
+	@Autowired
+	TransactionalMessenger transactionalMessenger;
+	@Autowired(required = false)
+	Consumer consumer;
+
+	private long timeToLiveMS = DEFAULT_TIME_TO_LIVE_MS;
+	private final LinkedHashMap<String, Entry> map;
+	private final ConcurrentHashMap<String, FutureTask<UserInfo>> pendingLoads = new ConcurrentHashMap<String, FutureTask<UserInfo>>();
+	/**
+	 * Incremented on every invalidation so a load that overlaps an
+	 * invalidation is not added to the cache.
+	 */
+	private long generation = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long publishedHitCount = 0;
+	private long publishedMissCount = 0;
+	private long lastPublished = System.currentTimeMillis();
+
+	public UserInfoCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries
+	 *            The least recently used entries are removed once the cache
+	 *            holds more than this many entries.
+	 */
+	public UserInfoCache(final int maxEntries) {
+		if(maxEntries < 1) throw new IllegalArgumentException("Max entries must be at least one");
+		// Access order makes the eldest entry the least recently used.
+		this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Called by Spring when the bean is created to register as an observer of
+	 * the TransactionalMessenger.
+	 */
+	public void initialize() {
+		// We only want to be in the list once
+		transactionalMessenger.removeObserver(this);
+		transactionalMessenger.registerObserver(this);
+	}
+
+	/**
+	 * How long an entry stays in the cache without being invalidated.
+	 *
+	 * @param timeToLiveMS
+	 */
+	public void setTimeToLiveMS(long timeToLiveMS) {
+		this.timeToLiveMS = timeToLiveMS;
+	}
+
+	public void setConsumer(Consumer consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Get the UserInfo for the given key, loading it on a miss.
+	 *
+	 * @param key
+	 * @param loader
+	 *            Called on a miss. If several threads miss on the same key at
+	 *            the same time only one of them calls its loader.
+	 * @return A copy of the cached UserInfo, so callers can change the returned
+	 *         groups without changing the cache.
+	 * @throws DatastoreException
+	 * @throws NotFoundException
+	 */
+	public UserInfo get(final String key, final Loader loader) throws DatastoreException, NotFoundException {
+		if(key == null) throw new IllegalArgumentException("Key cannot be null");
+		if(loader == null) throw new IllegalArgumentException("Loader cannot be null");
+		final long startGeneration;
+		synchronized (this) {
+			Entry entry = map.get(key);
+			if(entry != null && entry.expiresOn > System.currentTimeMillis()){
+				hitCount++;
+				publishMetricsIfNeeded();
+				return copy(entry.userInfo);
+			}
+			if(entry != null){
+				map.remove(key);
+			}
+			missCount++;
+			publishMetricsIfNeeded();
+			startGeneration = generation;
+		}
+		FutureTask<UserInfo> task = new FutureTask<UserInfo>(new Callable<UserInfo>() {
+			@Override
+			public UserInfo call() throws Exception {
+				return loader.load();
+			}
+		});
+		FutureTask<UserInfo> pending = pendingLoads.putIfAbsent(key, task);
+		if(pending == null){
+			// This thread does the load.
+			try{
+				task.run();
+				UserInfo loaded = unwrap(task);
+				put(key, loaded, startGeneration);
+				return copy(loaded);
+			}finally{
+				pendingLoads.remove(key, task);
+			}
+		}
+		// Wait for the load already in progress.
+		return copy(unwrap(pending));
+	}
+
+	/**
+	 * Add a loaded UserInfo unless there was an invalidation during the load.
+	 */
+	private synchronized void put(String key, UserInfo userInfo, long startGeneration) {
+		if(startGeneration != generation){
+			return;
+		}
+		Entry entry = new Entry();
+		entry.userInfo = userInfo;
+		entry.expiresOn = System.currentTimeMillis()+timeToLiveMS;
+		map.put(key, entry);
+	}
+
+	/**
+	 * Get the result of a load, re-throwing the original exception on failure.
+	 */
+	private static UserInfo unwrap(FutureTask<UserInfo> task) throws DatastoreException, NotFoundException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatastoreException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof NotFoundException) throw (NotFoundException) cause;
+			if(cause instanceof DatastoreException) throw (DatastoreException) cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw new DatastoreException(cause);
+		}
+	}
+
+	/**
+	 * A deep copy, so a caller that changes the returned user or groups does
+	 * not change the cached entry or the copies held by other callers.
+	 */
+	private static UserInfo copy(UserInfo userInfo) {
+		UserInfo copy = new UserInfo(userInfo.isAdmin());
+		UserGroup individualGroup = copy(userInfo.getIndividualGroup());
+		copy.setIndividualGroup(individualGroup);
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		for(UserGroup group: userInfo.getGroups()){
+			// The individual group is also one of the groups.
+			groups.add(group.equals(individualGroup) ? individualGroup : copy(group));
+		}
+		copy.setGroups(groups);
+		copy.setUser(copy(userInfo.getUser()));
+		return copy;
+	}
+
+	private static UserGroup copy(UserGroup group) {
+		if(group == null){
+			return null;
+		}
+		UserGroup copy = new UserGroup();
+		copy.setId(group.getId());
+		copy.setName(group.getName());
+		copy.setIsIndividual(group.getIsIndividual());
+		copy.setEtag(group.getEtag());
+		copy.setUri(group.getUri());
+		copy.setCreationDate(copy(group.getCreationDate()));
+		return copy;
+	}
+
+	private static User copy(User user) {
+		if(user == null){
+			return null;
+		}
+		User copy = new User();
+		copy.setId(user.getId());
+		copy.setUserId(user.getUserId());
+		copy.setUri(user.getUri());
+		copy.setEtag(user.getEtag());
+		copy.setCreationDate(copy(user.getCreationDate()));
+		copy.setAgreesToTermsOfUse(user.isAgreesToTermsOfUse());
+		copy.setFname(user.getFname());
+		copy.setLname(user.getLname());
+		copy.setDisplayName(user.getDisplayName());
+		return copy;
+	}
+
+	private static Date copy(Date date) {
+		return date == null ? null : new Date(date.getTime());
+	}
+
+	/**
+	 * Remove every entry for the given principal and for the members of the
+	 * given principal if it is a group.
+	 *
+	 * @param principalId
+	 */
+	public synchronized void invalidate(String principalId) {
+		if(principalId == null) throw new IllegalArgumentException("Principal ID cannot be null");
+		generation++;
+		Iterator<Entry> it = map.values().iterator();
+		while(it.hasNext()){
+			if(containsPrincipal(it.next().userInfo, principalId)){
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean containsPrincipal(UserInfo userInfo, String principalId) {
+		if(principalId.equals(userInfo.getIndividualGroup().getId())){
+			return true;
+		}
+		for(UserGroup group: userInfo.getGroups()){
+			if(principalId.equals(group.getId())){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		generation++;
+		map.clear();
+	}
+
+	@Override
+	public void fireChangeMessage(ChangeMessage message) {
+		if(ObjectType.PRINCIPAL == message.getObjectType() && message.getObjectId() != null){
+			invalidate(message.getObjectId());
+		}
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Publish the hit and miss counts since the last publish to CloudWatch.
+	 * Must be called while holding the lock.
+	 */
+	private void publishMetricsIfNeeded() {
+		long now = System.currentTimeMillis();
+		if(consumer == null || now - lastPublished < METRICS_INTERVAL_MS){
+			return;
+		}
+		try{
+			addMetric("HitCount", hitCount-publishedHitCount);
+			addMetric("MissCount", missCount-publishedMissCount);
+		}catch(Exception e){
+			// Metrics must never fail a request
+			log.warn("Failed to publish UserInfoCache metrics", e);
+		}
+		publishedHitCount = hitCount;
+		publishedMissCount = missCount;
+		lastPublished = now;
+	}
+
+	private void addMetric(String name, long count) {
+		ProfileData profileData = new ProfileData();
+		profileData.setNamespace(METRICS_NAMESPACE);
+		profileData.setName(name);
+		profileData.setLatency(count);
+		profileData.setUnit("Count");
+		profileData.setTimestamp(new Date());
+		consumer.addProfileData(profileData);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "UserInfoCache [size=" + map.size() + ", hitCount=" + hitCount
+				+ ", missCount=" + missCount + "]";
+	}
+}
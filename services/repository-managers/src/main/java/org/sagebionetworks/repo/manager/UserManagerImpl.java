@@ -42,6 +42,9 @@ public class UserManagerImpl implements UserManager {
 	@Autowired
 	private AuthenticationDAO authDAO;
 	
+	@Autowired
+	private UserInfoCache userInfoCache;
+	
 
 	public void setUserGroupDAO(UserGroupDAO userGroupDAO) {
 		this.userGroupDAO = userGroupDAO;
@@ -90,22 +93,35 @@ public class UserManagerImpl implements UserManager {
 		}
 	}
 
-	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	/**
+	 * Not transactional so a cache hit does not need a database connection.
+	 */
 	@Override
-	public UserInfo getUserInfo(String userName) throws DatastoreException, NotFoundException {
-		UserGroup individualGroup = userGroupDAO.findGroup(userName, true);
-		if (individualGroup==null) throw new NotFoundException("Cannot find user with name "+userName);
-		return getUserInfo(individualGroup);
+	public UserInfo getUserInfo(final String userName) throws DatastoreException, NotFoundException {
+		return userInfoCache.get("name:"+userName, new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				UserGroup individualGroup = userGroupDAO.findGroup(userName, true);
+				if (individualGroup==null) throw new NotFoundException("Cannot find user with name "+userName);
+				return getUserInfo(individualGroup);
+			}
+		});
 	}
 		
-	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	/**
+	 * Not transactional so a cache hit does not need a database connection.
+	 */
 	@Override
-	public UserInfo getUserInfo(Long principalId) throws DatastoreException, NotFoundException {
-		UserGroup individualGroup = userGroupDAO.get(principalId.toString());
-		return getUserInfo(individualGroup);
+	public UserInfo getUserInfo(final Long principalId) throws DatastoreException, NotFoundException {
+		return userInfoCache.get("id:"+principalId, new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				UserGroup individualGroup = userGroupDAO.get(principalId.toString());
+				return getUserInfo(individualGroup);
+			}
+		});
 	}
 		
-	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	private UserInfo getUserInfo(UserGroup individualGroup) throws DatastoreException, NotFoundException {
 		
 		// Check which group(s) of Anonymous, Public, or Authenticated the user belongs to  
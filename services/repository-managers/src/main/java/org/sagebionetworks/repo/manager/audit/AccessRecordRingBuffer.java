@@ -0,0 +1,112 @@
+package org.sagebionetworks.repo.manager.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.sagebionetworks.repo.model.audit.AccessRecord;
+
+/**
+ * A bounded, lock-free buffer of AccessRecords. Any number of request threads
+ * can offer records while a single thread drains them.
+ *
+ * Offering a record never blocks and never allocates. Each producer claims a
+ * slot by advancing the tail with a compare-and-set and then publishes the
+ * record into that slot. The consumer takes records in order from the head
+ * and stops at the first slot that has been claimed but not yet published; it
+ * will be picked up by the next drain. When the buffer is full the offer is
+ * rejected and it is up to the caller to apply an overflow policy.
+ *
+ */
+public class AccessRecordRingBuffer {
+
+	private final AtomicReferenceArray<AccessRecord> slots;
+	private final int mask;
+	/**
+	 * The next slot to be claimed by a producer.
+	 */
+	private final AtomicLong tail = new AtomicLong(0);
+	/**
+	 * The next slot to be taken by the consumer. Only the consumer writes this.
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * @param capacity Will be rounded up to a power of two.
+	 */
+	public AccessRecordRingBuffer(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least one");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size = size << 1;
+		}
+		this.slots = new AtomicReferenceArray<AccessRecord>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Add a record to the buffer. This can be called from any thread.
+	 *
+	 * @param record
+	 * @return False if the buffer is full and the record was not added.
+	 */
+	public boolean offer(AccessRecord record) {
+		if (record == null) throw new IllegalArgumentException("Record cannot be null");
+		while (true) {
+			long current = tail.get();
+			if (current - head >= slots.length()) {
+				return false;
+			}
+			if (tail.compareAndSet(current, current + 1)) {
+				slots.set((int) (current & mask), record);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Move records from the buffer to the given list in the order they were
+	 * claimed. This must only be called from one thread at a time.
+	 *
+	 * @param destination
+	 * @param maxRecords
+	 * @return The number of records moved.
+	 */
+	public int drainTo(List<AccessRecord> destination, int maxRecords) {
+		long next = head;
+		int count = 0;
+		while (count < maxRecords) {
+			int index = (int) (next & mask);
+			AccessRecord record = slots.get(index);
+			if (record == null) {
+				// Either empty or claimed by a producer that has not published yet.
+				break;
+			}
+			slots.set(index, null);
+			destination.add(record);
+			next++;
+			count++;
+		}
+		// The slots are cleared before the head moves so producers never overwrite a record.
+		head = next;
+		return count;
+	}
+
+	/**
+	 * The approximate number of records in the buffer.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	/**
+	 * The maximum number of records the buffer can hold.
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+}
@@ -1,44 +1,86 @@
 package org.sagebionetworks.repo.manager.audit;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.audit.utils.ObjectCSVReader;
+import org.sagebionetworks.audit.utils.ObjectCSVWriter;
 import org.sagebionetworks.repo.model.audit.AccessRecord;
 import org.sagebionetworks.repo.model.audit.AccessRecorder;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * This implementation writes the records to S3
- * 
+ *
  * @author jmhill
- * 
+ *
  */
 public class S3AccessRecorder implements AccessRecorder {
 
 	static private Log log = LogFactory.getLog(S3AccessRecorder.class);
 
+	public static final int DEFAULT_BUFFER_CAPACITY = 1 << 16;
+	public static final int DEFAULT_SEGMENT_SIZE = 10000;
+	public static final long DEFAULT_MAX_WRITE_TIME_MS = 5000;
+	public static final String SPILL_FILE_PREFIX = "accessRecords-";
+	public static final String SPILL_FILE_SUFFIX = ".csv";
+	public static final String TEMP_FILE_SUFFIX = ".tmp";
+	public static final String CORRUPT_FILE_SUFFIX = ".corrupt";
+
+	/**
+	 * What happens to a record when the buffer is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The new record is dropped and counted.
+		 */
+		DROP_NEWEST,
+		/**
+		 * The new record is dropped, counted and logged as an error.
+		 */
+		DROP_NEWEST_AND_LOG
+	}
+
 	/**
 	 * At any given time, there are multiple threads creating new AccessRecords
-	 * as new web services request come in. These AccessRecords are added to
-	 * this batch from the threads where they originated. The batch is then
-	 * processed from a separate timer thread. To ensure no data is lost in this
-	 * multiple thread scenario, we use AtomicReference.getAndSet() method. This
-	 * allows the processing thread to get the current batch for processing and
-	 * replace it with a new empty list as an atomic operation. That way if 
-	 * new records come in during processing no data is lost.
-	 */
-	private AtomicReference<List<AccessRecord>> recordBatch = new AtomicReference<List<AccessRecord>>(
-			Collections.synchronizedList(new LinkedList<AccessRecord>()));
-	
+	 * as new web services request come in. These AccessRecords are offered to
+	 * this bounded buffer from the threads where they originated, without
+	 * blocking. The buffer is then drained in segments from a separate timer
+	 * thread.
+	 */
+	private AccessRecordRingBuffer buffer = new AccessRecordRingBuffer(DEFAULT_BUFFER_CAPACITY);
+
 	@Autowired
 	AccessRecordManager accessRecordManager;
 
 	boolean shouldAccessRecordsBePushedToS3 = true;
+	OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+	int segmentSize = DEFAULT_SEGMENT_SIZE;
+	long maxWriteTimeMS = DEFAULT_MAX_WRITE_TIME_MS;
+	/**
+	 * Segments that could not be written to S3 are saved here and replayed later.
+	 */
+	File spillDirectory = new File(System.getProperty("java.io.tmpdir"), "access-record-spill");
+
+	private AtomicLong droppedRecordCount = new AtomicLong(0);
+	private AtomicLong spilledRecordCount = new AtomicLong(0);
+	private AtomicLong replayedRecordCount = new AtomicLong(0);
+	private long lastReportedDropCount = 0;
+	private long spillSequence = 0;
 
 
 	/**
@@ -52,38 +94,284 @@ public class S3AccessRecorder implements AccessRecorder {
 	}
 
 	/**
-	 * New AccessRecords will come in from 
+	 * The maximum number of records held in memory. Injected via Spring.
+	 * @param bufferCapacity
+	 */
+	public void setBufferCapacity(int bufferCapacity) {
+		this.buffer = new AccessRecordRingBuffer(bufferCapacity);
+	}
+
+	/**
+	 * What to do with new records when the buffer is full. Injected via Spring.
+	 * @param overflowPolicy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if(overflowPolicy == null) throw new IllegalArgumentException("Overflow policy cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * The maximum number of records written to a single S3 batch. Injected via Spring.
+	 * @param segmentSize
+	 */
+	public void setSegmentSize(int segmentSize) {
+		if(segmentSize < 1) throw new IllegalArgumentException("Segment size must be at least one");
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Once a timer fire has spent this long writing to S3, the remaining
+	 * segments are spilled to disk instead. Injected via Spring.
+	 * @param maxWriteTimeMS
+	 */
+	public void setMaxWriteTimeMS(long maxWriteTimeMS) {
+		this.maxWriteTimeMS = maxWriteTimeMS;
+	}
+
+	/**
+	 * Where segments that could not be written to S3 are kept until they can be replayed.
+	 * Injected via Spring.
+	 * @param spillDirectory
+	 */
+	public void setSpillDirectory(String spillDirectory) {
+		if(spillDirectory == null) throw new IllegalArgumentException("Spill directory cannot be null");
+		this.spillDirectory = new File(spillDirectory);
+	}
+
+	/**
+	 * New AccessRecords will come in from the request threads. This never blocks.
 	 */
 	@Override
 	public void save(AccessRecord record) {
-		// add the messages to the queue;
-		recordBatch.get().add(record);
+		// add the messages to the buffer;
+		if(!buffer.offer(record)){
+			long dropped = droppedRecordCount.incrementAndGet();
+			if(overflowPolicy == OverflowPolicy.DROP_NEWEST_AND_LOG){
+				log.error("The access record buffer is full. Total records dropped: "+dropped);
+			}
+		}
 	}
 
 	/**
-	 * When the timer fires we send the messages to S3.
-	 * @throws IOException 
-	 * 
+	 * When the timer fires we send the messages to S3. The buffer is drained
+	 * in segments. Segments that cannot be written to S3, either because a
+	 * write failed or because S3 is too slow, are spilled to disk. Spilled
+	 * segments are replayed once S3 writes succeed again, including after a
+	 * restart.
+	 *
+	 * @return The key of the last batch written from the buffer.
+	 * @throws IOException
+	 *
 	 */
-	public String timerFired() throws IOException {
-		// Get the current batch and replace it with a new empty list as an atomic operation.
-		List<AccessRecord> currentBatch = recordBatch.getAndSet(Collections.synchronizedList(new LinkedList<AccessRecord>()));
-		// There is nothing to do if the batch is empty.
-		if(currentBatch.isEmpty()) return null;
+	public synchronized String timerFired() throws IOException {
+		long start = System.currentTimeMillis();
+		List<List<AccessRecord>> segments = drainSegments();
+		reportDropped();
 		// Check to see if the data should be sent to S3
 		if(!shouldAccessRecordsBePushedToS3){
-			if(log.isDebugEnabled() && currentBatch.size() > 0){
-				log.debug("S3AccessRecorder.shouldAccessMessagesBePushedToS3 = false.  So "+currentBatch.size()+" AccessRecords will be thrown away.");
+			if(log.isDebugEnabled() && !segments.isEmpty()){
+				log.debug("S3AccessRecorder.shouldAccessMessagesBePushedToS3 = false.  So "+countRecords(segments)+" AccessRecords will be thrown away.");
 			}
 			return null;
 		}
+		String lastKey = null;
+		boolean writeToS3 = true;
+		for(List<AccessRecord> segment: segments){
+			if(writeToS3 && System.currentTimeMillis()-start > maxWriteTimeMS){
+				log.warn("Writing access records to S3 took more than "+maxWriteTimeMS+" ms. The remaining records will be spilled to disk");
+				writeToS3 = false;
+			}
+			if(writeToS3){
+				try{
+					lastKey = accessRecordManager.saveBatch(segment);
+					continue;
+				}catch(Exception e){
+					log.error("Failed to write batch. The remaining records will be spilled to disk", e);
+					writeToS3 = false;
+				}
+			}
+			spill(segment);
+		}
+		// Only replay when S3 is healthy.
+		if(writeToS3){
+			replaySpilled(start);
+		}
+		return lastKey;
+	}
+
+	/**
+	 * Called when the bean is destroyed. Anything still in the buffer is
+	 * spilled to disk so it will be replayed after a restart.
+	 * @throws IOException
+	 */
+	public synchronized void destroy() throws IOException {
+		if(!shouldAccessRecordsBePushedToS3) return;
+		for(List<AccessRecord> segment: drainSegments()){
+			spill(segment);
+		}
+	}
+
+	/**
+	 * The total number of records that were dropped because the buffer was full
+	 * or could not be spilled.
+	 * @return
+	 */
+	public long getDroppedRecordCount() {
+		return droppedRecordCount.get();
+	}
+
+	/**
+	 * The total number of records that were spilled to disk.
+	 * @return
+	 */
+	public long getSpilledRecordCount() {
+		return spilledRecordCount.get();
+	}
+
+	/**
+	 * The total number of spilled records that were later written to S3.
+	 * @return
+	 */
+	public long getReplayedRecordCount() {
+		return replayedRecordCount.get();
+	}
+
+	/**
+	 * The approximate number of records waiting in the buffer.
+	 * @return
+	 */
+	public int getBufferedRecordCount() {
+		return buffer.size();
+	}
+
+	/**
+	 * Drain everything currently in the buffer, a segment at a time.
+	 */
+	private List<List<AccessRecord>> drainSegments() {
+		List<List<AccessRecord>> segments = new LinkedList<List<AccessRecord>>();
+		while(true){
+			List<AccessRecord> segment = new ArrayList<AccessRecord>(Math.min(segmentSize, Math.max(1, buffer.size())));
+			if(buffer.drainTo(segment, segmentSize) == 0){
+				return segments;
+			}
+			segments.add(segment);
+		}
+	}
+
+	/**
+	 * Log the number of records dropped since the last report.
+	 */
+	private void reportDropped() {
+		long dropped = droppedRecordCount.get();
+		if(dropped > lastReportedDropCount){
+			log.warn((dropped-lastReportedDropCount)+" access records were dropped because the buffer was full. Total dropped: "+dropped);
+			lastReportedDropCount = dropped;
+		}
+	}
+
+	/**
+	 * Write a segment to a new file in the spill directory. The file is
+	 * written under a temporary name and then renamed, so a crash during the
+	 * write never leaves a partial file to be replayed.
+	 */
+	private void spill(List<AccessRecord> segment) {
 		try{
-			// We are now free to process the current batch with out synchronization or data loss
-			return accessRecordManager.saveBatch(currentBatch);
-		}catch(Exception e){
-			log.error("Failed to write batch", e);
-			return null;
+			if(!spillDirectory.exists() && !spillDirectory.mkdirs()){
+				throw new IOException("Failed to create the spill directory: "+spillDirectory.getAbsolutePath());
+			}
+			// The names sort in the order the segments were spilled.
+			String name = String.format("%1$s%2$020d-%3$010d%4$s", SPILL_FILE_PREFIX, System.currentTimeMillis(), spillSequence++, SPILL_FILE_SUFFIX);
+			File temp = new File(spillDirectory, name+TEMP_FILE_SUFFIX);
+			FileOutputStream fos = new FileOutputStream(temp);
+			try{
+				ObjectCSVWriter<AccessRecord> writer = new ObjectCSVWriter<AccessRecord>(new BufferedWriter(new OutputStreamWriter(fos, "UTF-8")), AccessRecord.class);
+				for(AccessRecord record: segment){
+					writer.append(record);
+				}
+				writer.close();
+			}finally{
+				fos.close();
+			}
+			if(!temp.renameTo(new File(spillDirectory, name))){
+				throw new IOException("Failed to rename spill file: "+temp.getAbsolutePath());
+			}
+			spilledRecordCount.addAndGet(segment.size());
+		}catch(IOException e){
+			log.error("Failed to spill "+segment.size()+" access records to disk. They will be dropped", e);
+			droppedRecordCount.addAndGet(segment.size());
+		}
+	}
+
+	/**
+	 * Write spilled segments to S3, oldest first, until one fails or the time is up.
+	 */
+	private void replaySpilled(long start) {
+		File[] files = spillDirectory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SPILL_FILE_PREFIX) && (name.endsWith(SPILL_FILE_SUFFIX) || name.endsWith(TEMP_FILE_SUFFIX));
+			}
+		});
+		if(files == null) return;
+		Arrays.sort(files);
+		for(File file: files){
+			if(file.getName().endsWith(TEMP_FILE_SUFFIX)){
+				// A partial file left by a crash during a spill.
+				log.warn("Deleting incomplete spill file: "+file.getAbsolutePath());
+				file.delete();
+				continue;
+			}
+			if(System.currentTimeMillis()-start > maxWriteTimeMS){
+				return;
+			}
+			List<AccessRecord> segment;
+			try{
+				segment = readSpillFile(file);
+			}catch(Exception e){
+				log.error("Failed to read spill file: "+file.getAbsolutePath()+". It will be set aside", e);
+				file.renameTo(new File(file.getAbsolutePath()+CORRUPT_FILE_SUFFIX));
+				continue;
+			}
+			try{
+				if(!segment.isEmpty()){
+					accessRecordManager.saveBatch(segment);
+				}
+			}catch(Exception e){
+				log.error("Failed to replay spill file: "+file.getAbsolutePath()+". Will try again later", e);
+				return;
+			}
+			if(!file.delete()){
+				log.error("Failed to delete replayed spill file: "+file.getAbsolutePath());
+			}
+			replayedRecordCount.addAndGet(segment.size());
+		}
+	}
+
+	/**
+	 * Read all of the records from a spill file.
+	 */
+	private static List<AccessRecord> readSpillFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try{
+			ObjectCSVReader<AccessRecord> reader = new ObjectCSVReader<AccessRecord>(new BufferedReader(new InputStreamReader(fis, "UTF-8")), AccessRecord.class);
+			List<AccessRecord> results = new LinkedList<AccessRecord>();
+			AccessRecord record = null;
+			while((record = reader.next()) != null){
+				results.add(record);
+			}
+			reader.close();
+			return results;
+		}finally{
+			fis.close();
+		}
+	}
+
+	private static int countRecords(List<List<AccessRecord>> segments) {
+		int count = 0;
+		for(List<AccessRecord> segment: segments){
+			count += segment.size();
 		}
+		return count;
 	}
-	
+
 }
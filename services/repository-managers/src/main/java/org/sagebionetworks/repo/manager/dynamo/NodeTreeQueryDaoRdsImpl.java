@@ -0,0 +1,113 @@
+package org.sagebionetworks.repo.manager.dynamo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sagebionetworks.dynamo.dao.nodetree.IncompletePathException;
+import org.sagebionetworks.dynamo.dao.nodetree.NodeTreeQueryDao;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
+
+/**
+ * Answers node tree queries from the node lineage table in the repository
+ * database instead of DynamoDB. Node IDs are passed as the string form of
+ * their numeric keys, the same as for the DynamoDB implementation.
+ */
+public class NodeTreeQueryDaoRdsImpl implements NodeTreeQueryDao {
+
+	/**
+	 * The parent reported for a root, the same as the DynamoDB implementation.
+	 */
+	public static final String ROOT = "ROOT";
+
+	/** The maximum number of descendants per page. */
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	private final NodeLineageDAO nodeLineageDao;
+
+	public NodeTreeQueryDaoRdsImpl(NodeLineageDAO nodeLineageDao) {
+		if (nodeLineageDao == null) {
+			throw new IllegalArgumentException("nodeLineageDao cannot be null");
+		}
+		this.nodeLineageDao = nodeLineageDao;
+	}
+
+	@Override
+	public boolean isRoot(String nodeId) {
+		Long id = toKey(nodeId);
+		return nodeLineageDao.doesNodeExist(id) && nodeLineageDao.getParent(id) == null;
+	}
+
+	@Override
+	public List<String> getAncestors(String nodeId) throws IncompletePathException {
+		Long id = toKey(nodeId);
+		if (!nodeLineageDao.doesNodeExist(id)) {
+			throw new IncompletePathException("Node " + nodeId + " does not have a lineage.");
+		}
+		return Collections.unmodifiableList(toStrings(nodeLineageDao.getAncestors(id)));
+	}
+
+	@Override
+	public String getParent(String nodeId) {
+		Long id = toKey(nodeId);
+		Long parent = nodeLineageDao.getParent(id);
+		if (parent != null) {
+			return parent.toString();
+		}
+		return nodeLineageDao.doesNodeExist(id) ? ROOT : null;
+	}
+
+	@Override
+	public List<String> getDescendants(String nodeId, int pageSize, String lastDescIdExcl) {
+		Long id = toKey(nodeId);
+		Long last = lastDescIdExcl == null ? null : toKey(lastDescIdExcl);
+		try {
+			return toStrings(nodeLineageDao.getDescendants(id, validatePageSize(pageSize), last));
+		} catch (IllegalArgumentException e) {
+			// The same as the DynamoDB implementation for a bad paging ID
+			throw new IncompletePathException(e.getMessage());
+		}
+	}
+
+	@Override
+	public List<String> getDescendants(String nodeId, int generation, int pageSize, String lastDescIdExcl) {
+		if (generation < 1) {
+			throw new IllegalArgumentException("Must be at least 1 generation away.");
+		}
+		Long id = toKey(nodeId);
+		Long last = lastDescIdExcl == null ? null : toKey(lastDescIdExcl);
+		return toStrings(nodeLineageDao.getDescendants(id, generation, validatePageSize(pageSize), last));
+	}
+
+	@Override
+	public boolean isDynamoEnabled() {
+		// Nothing here depends on DynamoDB
+		return true;
+	}
+
+	private static int validatePageSize(int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be greater than 0.");
+		}
+		return Math.min(pageSize, MAX_PAGE_SIZE);
+	}
+
+	static Long toKey(String nodeId) {
+		if (nodeId == null || nodeId.isEmpty()) {
+			throw new IllegalArgumentException("Node ID cannot be null or empty.");
+		}
+		try {
+			return Long.parseLong(nodeId);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Node ID must be a number: " + nodeId);
+		}
+	}
+
+	private static List<String> toStrings(List<Long> ids) {
+		List<String> results = new ArrayList<String>(ids.size());
+		for (Long id : ids) {
+			results.add(id.toString());
+		}
+		return results;
+	}
+}
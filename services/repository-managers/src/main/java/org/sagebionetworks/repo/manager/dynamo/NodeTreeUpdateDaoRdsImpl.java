@@ -0,0 +1,73 @@
+package org.sagebionetworks.repo.manager.dynamo;
+
+import java.util.Date;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.dynamo.dao.nodetree.IncompletePathException;
+import org.sagebionetworks.dynamo.dao.nodetree.NodeTreeUpdateDao;
+import org.sagebionetworks.dynamo.dao.nodetree.ObsoleteChangeException;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
+
+/**
+ * Writes the node lineage table from the change messages of the nodes, so
+ * creating or moving a node does not wait for the lineage of its subtree.
+ * Messages can arrive out of order, so the parent in a message is not trusted.
+ * The lineage is made to match the current parent of the node in JDONODE, so
+ * the timestamps are not needed.
+ */
+public class NodeTreeUpdateDaoRdsImpl implements NodeTreeUpdateDao {
+
+	private final Logger logger = LogManager.getLogger(NodeTreeUpdateDaoRdsImpl.class);
+
+	private final NodeLineageDAO nodeLineageDao;
+
+	public NodeTreeUpdateDaoRdsImpl(NodeLineageDAO nodeLineageDao) {
+		if (nodeLineageDao == null) {
+			throw new IllegalArgumentException("nodeLineageDao cannot be null");
+		}
+		this.nodeLineageDao = nodeLineageDao;
+	}
+
+	@Override
+	public boolean create(String child, String parent, Date timestamp) throws IncompletePathException {
+		return update(child, parent, timestamp);
+	}
+
+	@Override
+	public boolean update(String child, String parent, Date timestamp) throws IncompletePathException, ObsoleteChangeException {
+		if (parent == null || parent.isEmpty()) {
+			throw new IllegalArgumentException("Parent node cannot be null or empty.");
+		}
+		if (timestamp == null) {
+			throw new IllegalArgumentException("Timestamp cannot be null.");
+		}
+		Long childId = NodeTreeQueryDaoRdsImpl.toKey(child);
+		NodeTreeQueryDaoRdsImpl.toKey(parent);
+		try {
+			if (!nodeLineageDao.syncNode(childId)) {
+				this.logger.info("Node " + child + " no longer exists");
+			}
+		} catch (DatastoreException e) {
+			throw new IncompletePathException(e.getMessage());
+		}
+		return true;
+	}
+
+	@Override
+	public boolean delete(String nodeId, Date timestamp) throws ObsoleteChangeException {
+		if (timestamp == null) {
+			throw new IllegalArgumentException("Timestamp cannot be null.");
+		}
+		NodeTreeQueryDaoRdsImpl.toKey(nodeId);
+		// The lineage was deleted with the node by the foreign keys
+		return true;
+	}
+
+	@Override
+	public boolean isDynamoEnabled() {
+		// Nothing here depends on DynamoDB
+		return true;
+	}
+}
@@ -1,11 +1,15 @@
 package org.sagebionetworks.repo.manager.file;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,6 +23,10 @@ import org.sagebionetworks.repo.model.file.UploadDaemonStatus;
 
 /**
  * This worker will add each chunk to the larger multi-part file and complete the multi-part process.
+ * 
+ * Each part is copied by a {@link CopyPartWorker} on the secondary thread pool. Only a few parts of
+ * a single upload are in the pool at a time, so one large upload cannot fill the pool's queue
+ * ahead of every other upload. The next part is submitted as soon as a part completes.
  * @author jmhill
  *
  */
@@ -26,6 +34,15 @@ public class CompleteUploadWorker implements Callable<Boolean>{
 	
 	static private Log log = LogFactory.getLog(CopyPartWorker.class);
 	
+	/**
+	 * The default maximum number of parts of a single upload that can be in the thread pool at one time.
+	 */
+	public static final int DEFAULT_MAX_PARTS_IN_FLIGHT = 4;
+	/**
+	 * The default minimum time between updates of the percent complete of the status.
+	 */
+	public static final long DEFAULT_STATUS_UPDATE_INTERVAL_MS = 1000;
+	
 	UploadDaemonStatusDao uploadDaemonStatusDao;
 	ExecutorService uploadFileDaemonThreadPoolSecondary;
 	UploadDaemonStatus uploadStatus;
@@ -34,6 +51,8 @@ public class CompleteUploadWorker implements Callable<Boolean>{
 	String bucket;
 	long maxWaitMS;
 	String userId;
+	int maxPartsInFlight = DEFAULT_MAX_PARTS_IN_FLIGHT;
+	long statusUpdateIntervalMS = DEFAULT_STATUS_UPDATE_INTERVAL_MS;
 
 	/**
 	 * A new worker should be created for each file.
@@ -60,6 +79,23 @@ public class CompleteUploadWorker implements Callable<Boolean>{
 		this.userId = userId;
 	}
 
+	/**
+	 * The maximum number of parts of this upload that can be in the thread pool at one time.
+	 * @param maxPartsInFlight
+	 */
+	public void setMaxPartsInFlight(int maxPartsInFlight) {
+		if(maxPartsInFlight < 1) throw new IllegalArgumentException("Max parts in flight must be at least one");
+		this.maxPartsInFlight = maxPartsInFlight;
+	}
+
+	/**
+	 * The minimum time between updates of the percent complete of the status.
+	 * @param statusUpdateIntervalMS
+	 */
+	public void setStatusUpdateIntervalMS(long statusUpdateIntervalMS) {
+		this.statusUpdateIntervalMS = statusUpdateIntervalMS;
+	}
+
 
 	/**
 	 * Create a new worker that should be used only once.  A new worker should be created for each job.
@@ -75,15 +111,8 @@ public class CompleteUploadWorker implements Callable<Boolean>{
 		try {
 			// First, add each part to the upload
 			long start = System.currentTimeMillis();
-			List<Future<ChunkResult>> futures = new LinkedList<Future<ChunkResult>>();
-			for(Long partNumber: cacf.getChunkNumbers()){
-				// Submit each future
-				CopyPartWorker worker = new CopyPartWorker(multipartManager, cacf.getChunkedFileToken(), partNumber.intValue(), bucket, maxWaitMS);
-				Future<ChunkResult> future = uploadFileDaemonThreadPoolSecondary.submit(worker);
-				futures.add(future);
-			}
-			// Now we need to wait for all of the workers to copy their parts.
-			List<ChunkResult> done = waitForCopyWorkers(futures);
+			// Copy each part to the upload.
+			List<ChunkResult> done = copyParts();
 			// Once the parts are done we can complete the upload
 			CompleteChunkedFileRequest ccfr = new CompleteChunkedFileRequest();
 			ccfr.setChunkedFileToken(cacf.getChunkedFileToken());
@@ -110,56 +139,54 @@ public class CompleteUploadWorker implements Callable<Boolean>{
 	}
 	
 	/**
-	 * Wait for all of the workers to finish the copy of each part.
-	 * @param futures
+	 * Copy each part to the multi-part upload and wait for all of the copies to finish.
+	 * No more than maxPartsInFlight parts are submitted to the thread pool at a time.
+	 * The wait times out if no part completes within maxWaitMS.
 	 * @return
 	 * @throws InterruptedException
 	 * @throws ExecutionException
 	 */
-	private List<ChunkResult> waitForCopyWorkers(List<Future<ChunkResult>> futures) throws InterruptedException, ExecutionException {
-		// Now we need to wait for all of the workers to copy the parts.
+	private List<ChunkResult> copyParts() throws InterruptedException, ExecutionException {
 		long start = System.currentTimeMillis();
-		// We keep a second start time that we can reset as long as we are making progress.
-		long resetableStart = start;
-		int totalCount = futures.size();
-		int doneCount =0;
+		long lastStatusUpdate = start;
+		CompletionService<ChunkResult> completionService = new ExecutorCompletionService<ChunkResult>(uploadFileDaemonThreadPoolSecondary);
+		Iterator<Long> toSubmit = cacf.getChunkNumbers().iterator();
+		List<Future<ChunkResult>> running = new LinkedList<Future<ChunkResult>>();
+		int totalCount = cacf.getChunkNumbers().size();
 		List<ChunkResult> done = new LinkedList<ChunkResult>();
-		while(done.size() < totalCount){
-			// Sleep
-			log.debug("Waiting for copy workers. Done: "+done.size()+" Total: "+totalCount);
-			Thread.sleep(1000);
-			// We are still waiting for the workers to finish
-			if(System.currentTimeMillis() - resetableStart > maxWaitMS){
-				throw new RuntimeException("Timed out waiting for the multi-part load to finish: "+cacf.toString());
-			}
-			List<Future<ChunkResult>> toRemove = new LinkedList<Future<ChunkResult>>();
-			// Find a part that is done
-			for(Future<ChunkResult> future: futures){
-				if(future.isDone()){
-					// Get the result
-					ChunkResult cr = future.get();
-					// Add it to the 
-					done.add(cr);
-					doneCount++;
-					// We need to remove this from the list
-					toRemove.add(future);
+		try{
+			while(done.size() < totalCount){
+				// Keep the pool supplied with parts of this upload.
+				while(running.size() < maxPartsInFlight && toSubmit.hasNext()){
+					Long partNumber = toSubmit.next();
+					CopyPartWorker worker = new CopyPartWorker(multipartManager, cacf.getChunkedFileToken(), partNumber.intValue(), bucket, maxWaitMS);
+					running.add(completionService.submit(worker));
+				}
+				log.debug("Waiting for copy workers. Done: "+done.size()+" Total: "+totalCount);
+				// Block until a part completes. The timeout restarts with each completed part.
+				Future<ChunkResult> future = completionService.poll(maxWaitMS, TimeUnit.MILLISECONDS);
+				if(future == null){
+					throw new RuntimeException("Timed out waiting for the multi-part load to finish: "+cacf.toString());
+				}
+				running.remove(future);
+				done.add(future.get());
+				// Update the status if enough time has passed since the last update.
+				long now = System.currentTimeMillis();
+				if(now - lastStatusUpdate >= statusUpdateIntervalMS){
+					float percent = ((float)done.size())/((float)totalCount+1)*100;
+					uploadStatus.setPercentComplete(new Double(percent));
+					uploadStatus.setRunTimeMS(now-start);
+					uploadDaemonStatusDao.update(uploadStatus);
+					lastStatusUpdate = now;
 				}
 			}
-			// Remove the done futures
-			for(Future<ChunkResult> df: toRemove){
-				futures.remove(df);
-			}
-			// Update the status if it has changed
-			float percent = ((float)doneCount)/((float)totalCount+1)*100;
-			if(percent > uploadStatus.getPercentComplete()){
-				uploadStatus.setPercentComplete(new Double(percent));
-				uploadStatus.setRunTimeMS(System.currentTimeMillis()-start);
-				uploadDaemonStatusDao.update(uploadStatus);
-				// As long as we are making progress reset the timer
-				resetableStart = System.currentTimeMillis();
+			return done;
+		}finally{
+			// On failure, stop any parts that are still waiting or running.
+			for(Future<ChunkResult> future: running){
+				future.cancel(true);
 			}
 		}
-		return done;
 	}
 
 }
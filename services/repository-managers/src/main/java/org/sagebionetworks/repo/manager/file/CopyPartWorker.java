@@ -22,6 +22,12 @@ public class CopyPartWorker implements Callable<ChunkResult> {
 
 	static private Log log = LogFactory.getLog(CopyPartWorker.class);
 	
+	/**
+	 * The first wait for a part to become visible. Each following wait is doubled up to the max.
+	 */
+	static final long INITIAL_VISIBILITY_WAIT_MS = 100;
+	static final long MAX_VISIBILITY_WAIT_MS = 1000;
+	
 	MultipartManager multipartManager;
 	ChunkedFileToken token;
 	int partNumber;
@@ -55,9 +61,11 @@ public class CopyPartWorker implements Callable<ChunkResult> {
 		// So there can be a lag between when the caller uploads the file to S3 and when it
 		// is visible to be added to the multi-part.
 		long start = System.currentTimeMillis();
+		long waitMS = INITIAL_VISIBILITY_WAIT_MS;
 		while(!multipartManager.doesPartExist(token, partNumber, bucket)){
 			log.debug("Waiting for S3 key to become visible.  Key: "+token.getKey()+"/"+partNumber+" bucket: "+bucket);
-			Thread.sleep(1000);
+			Thread.sleep(waitMS);
+			waitMS = Math.min(waitMS*2, MAX_VISIBILITY_WAIT_MS);
 			if(System.currentTimeMillis() - start > maxWaitMS){
 				throw new RuntimeException("Timed out waiting for S3 object to become visible:  Key: "+token.getKey()+"/"+partNumber+" bucket: "+bucket+" token: "+token.toString());
 			}
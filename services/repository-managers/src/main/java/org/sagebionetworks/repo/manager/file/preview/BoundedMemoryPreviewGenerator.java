@@ -0,0 +1,34 @@
+package org.sagebionetworks.repo.manager.file.preview;
+
+/**
+ * A preview generator that, for some files, needs an amount of memory that
+ * does not grow with the size of the file. Whether a file has such a limit
+ * depends on how it is encoded, so the leading bytes of the file are read
+ * before the memory is reserved. The memory reserved for a preview is the
+ * smaller of this limit and the estimate from
+ * {@link PreviewGenerator#getMemoryMultiplierForContentType(String)}.
+ *
+ */
+public interface BoundedMemoryPreviewGenerator extends PreviewGenerator {
+
+	/**
+	 * The number of bytes from the start of a file that are passed to
+	 * {@link #getMaxMemoryNeededBytes(String, byte[])}.
+	 *
+	 * @param contentType
+	 * @return
+	 */
+	public int getHeaderBytesNeeded(String contentType);
+
+	/**
+	 * The maximum amount of memory in bytes needed to generate a preview of a
+	 * file.
+	 *
+	 * @param contentType
+	 * @param header The leading bytes of the file. Might be shorter than
+	 *            requested if the file is small.
+	 * @return Long.MAX_VALUE if the memory needed for this file is not
+	 *         bounded, in which case the multiplier estimate is used.
+	 */
+	public long getMaxMemoryNeededBytes(String contentType, byte[] header);
+}
@@ -6,9 +6,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.imgscalr.Scalr;
 import org.imgscalr.Scalr.Mode;
@@ -20,7 +24,7 @@ import org.sagebionetworks.StackConfiguration;
  * @author John
  *
  */
-public class ImagePreviewGenerator implements PreviewGenerator {
+public class ImagePreviewGenerator implements BoundedMemoryPreviewGenerator {
 	
 	public static final String IMAGE_BMP 	= "image/bmp";
 	public static final String IMAGE_PJPEG	= "image/pjpeg";
@@ -43,18 +47,43 @@ public class ImagePreviewGenerator implements PreviewGenerator {
 		SUPPORTED_CONTENT_TYPES.put(IMAGE_GIF, 19.98f*fudgeFactor);
 		SUPPORTED_CONTENT_TYPES.put(IMAGE_PNG, 46.28f*fudgeFactor);
 	}
+	/**
+	 * The most bytes used by a single decoded pixel (16 bits for each of four bands).
+	 */
+	private static final long MAX_BYTES_PER_PIXEL = 8;
+	/**
+	 * The decoded image, the resized copies made by Scalr and the PNG encoder
+	 * each need at most one subsampled image worth of memory.
+	 */
+	private static final long IMAGE_COPIES = 4;
+	/**
+	 * Decoders buffer rows of the full width image, such as the current and
+	 * previous rows of a PNG. Images with rows wider than this are not previewed.
+	 */
+	public static final long MAX_ROW_BUFFER_BYTES = 8*1024*1024;
+	private static final long ROWS_BUFFERED = 2;
+	/**
+	 * The JPEG start of frame marker can follow large EXIF and ICC segments.
+	 * If it is not found in this many bytes the image is treated as one that
+	 * does not stream.
+	 */
+	public static final int HEADER_BYTES_NEEDED = 64*1024;
+	private static final byte[] PNG_SIGNATURE = new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	/**
+	 * The offset of the interlace method in a PNG file: the signature, the IHDR
+	 * chunk length and type, then width, height, bit depth, color type,
+	 * compression and filter.
+	 */
+	private static final int PNG_INTERLACE_OFFSET = 28;
 
 
 	@Override
 	public PreviewOutputMetadata generatePreview(InputStream from, OutputStream to) throws IOException {
-		// First load the image
-		BufferedImage image = ImageIO.read(from);
-		if(image == null){
-			throw new IllegalArgumentException("The passed input stream was not an image");
-		}
-		// Let image scalar do the heavy lifting!
 		int maxWidthPixels = StackConfiguration.getMaximumPreviewWidthPixels();
 		int maxHeightPixels = StackConfiguration.getMaximumPreviewHeightPixels();
+		// First load the image at close to the preview size
+		BufferedImage image = readSubsampled(from, maxWidthPixels, maxHeightPixels);
+		// Let image scalar do the heavy lifting!
 		//only resize if original image is bigger than our preview max size
 		int height = image.getHeight();
 		int width = image.getWidth();
@@ -71,6 +100,157 @@ public class ImagePreviewGenerator implements PreviewGenerator {
 		return new PreviewOutputMetadata(IMAGE_PNG, ".png");
 	}
 
+	/**
+	 * Read an image, skipping rows and columns so the decoded image is no more
+	 * than twice the preview size in each dimension. The dimensions are read
+	 * from the header before any pixels are decoded.
+	 * 
+	 * @param from
+	 * @param maxWidthPixels
+	 * @param maxHeightPixels
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedImage readSubsampled(InputStream from, int maxWidthPixels, int maxHeightPixels) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(from);
+		if(iis == null){
+			throw new IllegalArgumentException("The passed input stream was not an image");
+		}
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if(!readers.hasNext()){
+				throw new IllegalArgumentException("The passed input stream was not an image");
+			}
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(iis, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				if(((long)width)*MAX_BYTES_PER_PIXEL*ROWS_BUFFERED > MAX_ROW_BUFFER_BYTES){
+					throw new IllegalArgumentException("The image is too wide to preview: "+width+" pixels");
+				}
+				ImageReadParam param = reader.getDefaultReadParam();
+				int subsampling = calculateSubsampling(width, height, maxWidthPixels, maxHeightPixels);
+				if(subsampling > 1){
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+				return reader.read(0, param);
+			}finally{
+				reader.dispose();
+			}
+		}finally{
+			iis.close();
+		}
+	}
+	
+	/**
+	 * The largest whole number of source pixels that can be skipped in each
+	 * dimension while keeping the decoded image at least as large as the
+	 * preview.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param maxWidthPixels
+	 * @param maxHeightPixels
+	 * @return
+	 */
+	public static int calculateSubsampling(int width, int height, int maxWidthPixels, int maxHeightPixels){
+		// The preview is scaled by the smaller of the two ratios.
+		double scale = Math.min(((double)maxWidthPixels)/width, ((double)maxHeightPixels)/height);
+		if(scale >= 1.0){
+			return 1;
+		}
+		return Math.max(1, (int) Math.floor(1.0/scale));
+	}
+
+	@Override
+	public int getHeaderBytesNeeded(String contentType) {
+		return HEADER_BYTES_NEEDED;
+	}
+
+	@Override
+	public long getMaxMemoryNeededBytes(String contentType, byte[] header) {
+		// Decoders of progressive and interlaced images can buffer the full
+		// image even when subsampling, so only images that stream are bounded.
+		if(!isStreamingImage(header)){
+			return Long.MAX_VALUE;
+		}
+		// The decoded image is less than twice the preview size in each dimension.
+		long maxDecodedPixels = 4L*StackConfiguration.getMaximumPreviewWidthPixels()*StackConfiguration.getMaximumPreviewHeightPixels();
+		return maxDecodedPixels*MAX_BYTES_PER_PIXEL*IMAGE_COPIES + MAX_ROW_BUFFER_BYTES;
+	}
+
+	/**
+	 * Is the passed header the start of an image that ImageIO decodes a row at
+	 * a time, so that subsampling bounds the memory used? Only baseline or
+	 * extended sequential JPEG and non-interlaced PNG are known to stream.
+	 * 
+	 * @param header The leading bytes of the image.
+	 * @return
+	 */
+	public static boolean isStreamingImage(byte[] header){
+		if(header == null){
+			return false;
+		}
+		if(startsWith(header, PNG_SIGNATURE)){
+			// Zero is no interlace, one is Adam7.
+			return header.length > PNG_INTERLACE_OFFSET && header[PNG_INTERLACE_OFFSET] == 0;
+		}
+		if(header.length < 2 || (header[0] & 0xff) != 0xff || (header[1] & 0xff) != 0xd8){
+			return false;
+		}
+		// Walk the JPEG segments to the start of frame.
+		int index = 2;
+		while(index + 1 < header.length){
+			if((header[index] & 0xff) != 0xff){
+				// Not a marker so the header is corrupt.
+				return false;
+			}
+			int marker = header[index + 1] & 0xff;
+			if(marker == 0xff){
+				// Fill byte
+				index++;
+				continue;
+			}
+			if(marker == 0xc0 || marker == 0xc1){
+				// Baseline or extended sequential DCT
+				return true;
+			}
+			if(marker >= 0xc2 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc){
+				// Progressive, lossless, differential or arithmetic coded
+				return false;
+			}
+			if(marker == 0xda || marker == 0xd9){
+				// Start of scan or end of image without a frame
+				return false;
+			}
+			if(marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)){
+				// Markers without a length
+				index += 2;
+				continue;
+			}
+			if(index + 3 >= header.length){
+				return false;
+			}
+			int length = ((header[index + 2] & 0xff) << 8) | (header[index + 3] & 0xff);
+			index += 2 + length;
+		}
+		// The start of frame is past the end of the header.
+		return false;
+	}
+
+	private static boolean startsWith(byte[] bytes, byte[] prefix){
+		if(bytes.length < prefix.length){
+			return false;
+		}
+		for(int i=0; i<prefix.length; i++){
+			if(bytes[i] != prefix[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public boolean supportsContentType(String contentType) {
 		return SUPPORTED_CONTENT_TYPES.keySet().contains(contentType.toLowerCase());
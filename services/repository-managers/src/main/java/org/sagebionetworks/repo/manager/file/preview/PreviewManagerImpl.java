@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.repo.manager.file.transfer.TransferUtils;
@@ -26,6 +27,7 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 /**
  * The preview manager tracks memory allocation and bridges preview generators with
  * Actual file data.
@@ -116,9 +118,15 @@ public class PreviewManagerImpl implements  PreviewManager {
 			log.info("No preview generator found for contentType:"+metadata.getContentType());
 			return null;
 		}
+		// Only the start of the file is read by a streaming generator.
+		final long bytesToRead = getBytesToRead(generator, metadata);
 		// First determine how much memory will be need to generate this preview
-		double multiper = generator.getMemoryMultiplierForContentType(metadata.getContentType());
-		long memoryNeededBytes = (long) Math.ceil((((double)metadata.getContentSize())*multiper));
+		byte[] header = null;
+		if(generator instanceof BoundedMemoryPreviewGenerator){
+			// The memory limit depends on how the file is encoded.
+			header = readHeader(metadata, ((BoundedMemoryPreviewGenerator)generator).getHeaderBytesNeeded(metadata.getContentType()));
+		}
+		long memoryNeededBytes = getMemoryNeededBytes(generator, metadata.getContentType(), bytesToRead, header);
 		if(memoryNeededBytes > maxPreviewMemory){
 			log.info(String.format("Preview cannot be generated.  Memory needed: '%1$s' (bytes) exceed preview memory pool size: '%2$s' (bytes). Metadata: %3$s", memoryNeededBytes, maxPreviewMemory, metadata.toString())); ;
 			return null;
@@ -132,7 +140,7 @@ public class PreviewManagerImpl implements  PreviewManager {
 				@Override
 				public PreviewFileHandle call() {
 					// This is where we do all of the work.
-					return generatePreview(generator, metadata);
+					return generatePreview(generator, metadata, bytesToRead);
 				}}, memoryNeededBytes);
 			// 
 		}catch(TemporarilyUnavailableException temp){
@@ -144,14 +152,70 @@ public class PreviewManagerImpl implements  PreviewManager {
 		}
 	}
 		
+	/**
+	 * The memory needed to generate a preview from the given number of bytes.
+	 * @param generator
+	 * @param contentType
+	 * @param bytesToRead
+	 * @param header The leading bytes of the file for a {@link BoundedMemoryPreviewGenerator}.
+	 * @return
+	 */
+	static long getMemoryNeededBytes(PreviewGenerator generator, String contentType, long bytesToRead, byte[] header){
+		double multiper = generator.getMemoryMultiplierForContentType(contentType);
+		long memoryNeededBytes = (long) Math.ceil((((double)bytesToRead)*multiper));
+		if(generator instanceof BoundedMemoryPreviewGenerator){
+			long maxMemory = ((BoundedMemoryPreviewGenerator)generator).getMaxMemoryNeededBytes(contentType, header);
+			memoryNeededBytes = Math.min(memoryNeededBytes, maxMemory);
+		}
+		return memoryNeededBytes;
+	}
+
+	/**
+	 * Read the leading bytes of a file from S3.
+	 * @param metadata
+	 * @param headerBytes
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] readHeader(S3FileHandle metadata, int headerBytes) throws IOException{
+		GetObjectRequest getRequest = new GetObjectRequest(metadata.getBucketName(), metadata.getKey());
+		if(headerBytes < metadata.getContentSize()){
+			getRequest.setRange(0, headerBytes-1);
+		}
+		S3Object object = s3Client.getObject(getRequest);
+		InputStream in = object.getObjectContent();
+		try{
+			return IOUtils.toByteArray(in);
+		}finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * The number of bytes that must be read from the start of the file to generate its preview.
+	 * @param generator
+	 * @param metadata
+	 * @return
+	 */
+	static long getBytesToRead(PreviewGenerator generator, S3FileHandle metadata){
+		if(generator instanceof StreamingPreviewGenerator){
+			long leadingBytes = ((StreamingPreviewGenerator)generator).getLeadingBytesNeeded(metadata.getContentType());
+			if(leadingBytes > 0){
+				return Math.min(leadingBytes, metadata.getContentSize());
+			}
+		}
+		return metadata.getContentSize();
+	}
+		
 	/**
 	 * This is where we actually attempt to generate the preview.  This method should only be called
 	 * within an allocate resource block.
 	 * @param generator
 	 * @param metadata
+	 * @param bytesToRead Only this many bytes are downloaded from the start of the file.
 	 * @throws IOException 
 	 */
-	private PreviewFileHandle generatePreview(PreviewGenerator generator, S3FileHandle metadata){
+	private PreviewFileHandle generatePreview(PreviewGenerator generator, S3FileHandle metadata, long bytesToRead){
 		// First download the file from S3
 		File tempDownload = null;
 		File tempUpload = null;
@@ -162,7 +226,12 @@ public class PreviewManagerImpl implements  PreviewManager {
 			tempDownload = tempFileProvider.createTempFile("PreviewManagerImpl_download", ".tmp");
 			// The upload file will hold the newly created preview file.
 			tempUpload = tempFileProvider.createTempFile("PreviewManagerImpl_upload", ".tmp");
-			ObjectMetadata s3Meta = s3Client.getObject(new GetObjectRequest(metadata.getBucketName(), metadata.getKey()), tempDownload);
+			GetObjectRequest getRequest = new GetObjectRequest(metadata.getBucketName(), metadata.getKey());
+			if(bytesToRead < metadata.getContentSize()){
+				// Only download the range needed by the generator.
+				getRequest.setRange(0, bytesToRead-1);
+			}
+			s3Client.getObject(getRequest, tempDownload);
 			in = tempFileProvider.createFileInputStream(tempDownload);
 			out = tempFileProvider.createFileOutputStream(tempUpload);
 			// Let the preview generator do all of the work.
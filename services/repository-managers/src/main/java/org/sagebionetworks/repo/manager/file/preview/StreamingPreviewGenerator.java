@@ -0,0 +1,21 @@
+package org.sagebionetworks.repo.manager.file.preview;
+
+/**
+ * A preview generator that only reads the start of a file. For such generators
+ * only the leading bytes of the file are downloaded from S3, and the memory
+ * needed is based on the number of bytes downloaded rather than the size of
+ * the file.
+ *
+ */
+public interface StreamingPreviewGenerator extends PreviewGenerator {
+
+	/**
+	 * The maximum number of bytes from the start of a file needed to generate
+	 * a preview. The generator will be passed a stream that ends after this
+	 * many bytes even if the file is larger.
+	 *
+	 * @param contentType
+	 * @return
+	 */
+	public long getLeadingBytesNeeded(String contentType);
+}
@@ -14,7 +14,7 @@ import org.apache.commons.io.IOUtils;
  * @author Jay
  *
  */
-public class TabCsvPreviewGenerator implements PreviewGenerator {
+public class TabCsvPreviewGenerator implements StreamingPreviewGenerator {
 	
 	public static final String TEXT_TAB_SEPARATED_VALUES = "text/tab-separated-values";
 	public static final String TEXT_CSV_SEPARATED_VALUES = "text/csv";
@@ -29,6 +29,12 @@ public class TabCsvPreviewGenerator implements PreviewGenerator {
 	public static final int MAX_ROW_COUNT = 30;
 	public static final int MAX_COLUMN_COUNT = 20;
 	public static final int MAX_CELL_CHARACTER_COUNT = 40;
+	/**
+	 * Only the start of the file is downloaded. Cells longer than MAX_CELL_CHARACTER_COUNT are
+	 * skipped over so this allows for long rows. If the first MAX_ROW_COUNT rows do not fit
+	 * the preview will end where the download ends.
+	 */
+	public static final long LEADING_BYTES_NEEDED = 1024*1024;
 	public Character delimiter;
 	
 	public static Character getComma() {
@@ -171,6 +177,11 @@ public class TabCsvPreviewGenerator implements PreviewGenerator {
 		return 1;
 	}
 	
+	@Override
+	public long getLeadingBytesNeeded(String contentType) {
+		return LEADING_BYTES_NEEDED;
+	}
+	
 	@Override
 	public boolean supportsContentType(String contentType) {
 		if (delimiter == COMMA)
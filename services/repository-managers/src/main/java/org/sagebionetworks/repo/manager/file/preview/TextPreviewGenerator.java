@@ -17,7 +17,7 @@ import org.apache.commons.lang.StringUtils;
  * @author Jay
  *
  */
-public class TextPreviewGenerator implements PreviewGenerator {
+public class TextPreviewGenerator implements StreamingPreviewGenerator {
 	
 	public static final String TEXT_PLAIN 	= "text/plain";
 	public static final String APPLICATION_SH 	= "application/x-sh";
@@ -25,6 +25,10 @@ public class TextPreviewGenerator implements PreviewGenerator {
 	
 	public static final String TEXT_SLASH 	= "text/";
 	public static final int MAX_CHARACTER_COUNT = 1500;
+	/**
+	 * Each character of the preview can take up to four bytes as UTF-8.
+	 */
+	public static final long LEADING_BYTES_NEEDED = (MAX_CHARACTER_COUNT+10)*4;
 	@Override
 	public PreviewOutputMetadata generatePreview(InputStream from, OutputStream to) throws IOException {
 		// load the text
@@ -62,6 +66,11 @@ public class TextPreviewGenerator implements PreviewGenerator {
 	public float getMemoryMultiplierForContentType(String contentType) {
 		return 1;
 	}
+
+	@Override
+	public long getLeadingBytesNeeded(String contentType) {
+		return LEADING_BYTES_NEEDED;
+	}
 	
 	public static void main(String[] args) throws IOException, InterruptedException, InstantiationException, IllegalAccessException{
 		for(String filePath: args){
@@ -0,0 +1,411 @@
+package org.sagebionetworks.repo.manager.file.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+import org.sagebionetworks.repo.web.ServiceUnavailableException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * <p>
+ * This FileTransferStrategy streams a file to S3 as a multi-part upload with
+ * several parts in flight at the same time. Like the
+ * {@link MemoryTransferStrategy} nothing is written to disk, but while one
+ * part is being sent to S3 the next part is already being read from the
+ * stream.
+ * </p><p>
+ * Each part is read into a buffer from a pool that is shared by all
+ * transfers, so the memory used is fixed no matter how many files are
+ * uploaded at once. A transfer must get its first buffer within
+ * firstBufferTimeoutMS or a {@link ServiceUnavailableException} is thrown
+ * before any of the stream is read, so the fall-back strategy can be used.
+ * After that, a transfer waits for buffers to be returned by its own parts or
+ * the parts of other transfers.
+ * </p><p>
+ * The MD5 of the whole file is calculated as it is read. The MD5 of each part
+ * is calculated on the upload thread.
+ * </p>
+ */
+public class ParallelMultipartTransferStrategy implements FileTransferStrategy {
+
+	static private Log log = LogFactory.getLog(ParallelMultipartTransferStrategy.class);
+
+	@Autowired
+	AmazonS3Client s3Client;
+
+	/**
+	 * Uploads the parts. Shared by all transfers.
+	 */
+	ExecutorService partUploadThreadPool;
+
+	private long maxMemoryBytes = -1;
+	private int partSizeBytes = MemoryTransferStrategy.MINIMUM_BLOCK_SIZE_BYTES;
+	private int maxPartsInFlightPerTransfer = 4;
+	private long firstBufferTimeoutMS = 100;
+	private long nextBufferTimeoutMS = 5 * 60 * 1000;
+
+	/**
+	 * Limits the number of buffers that can exist at one time.
+	 */
+	private Semaphore bufferPermits;
+	/**
+	 * Buffers that have been returned and can be reused.
+	 */
+	private ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<byte[]>();
+
+	private AtomicLong totalPartCount = new AtomicLong(0);
+	private AtomicLong totalPartBytes = new AtomicLong(0);
+	private AtomicLong totalPartMS = new AtomicLong(0);
+
+	/**
+	 * Used by Spring.
+	 */
+	public ParallelMultipartTransferStrategy() {
+	}
+
+	/**
+	 * IoC constructor.
+	 *
+	 * @param s3Client
+	 * @param partUploadThreadPool
+	 * @param maxMemoryBytes
+	 * @param partSizeBytes
+	 */
+	public ParallelMultipartTransferStrategy(AmazonS3Client s3Client, ExecutorService partUploadThreadPool, long maxMemoryBytes, int partSizeBytes) {
+		this.s3Client = s3Client;
+		this.partUploadThreadPool = partUploadThreadPool;
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.partSizeBytes = partSizeBytes;
+		initialize();
+	}
+
+	/**
+	 * Called after all dependencies are set.
+	 */
+	public void initialize() {
+		if (partUploadThreadPool == null) throw new IllegalStateException("partUploadThreadPool must be set");
+		if (maxMemoryBytes < 0) throw new IllegalStateException("maxMemoryBytes must be set");
+		if (partSizeBytes < MemoryTransferStrategy.MINIMUM_BLOCK_SIZE_BYTES) throw new IllegalStateException("partSizeBytes cannot be less than 5 MB as that is the miniumn size of a single part in a S3 multi-part upload.");
+		int maxBuffers = (int) (maxMemoryBytes / partSizeBytes);
+		if (maxBuffers < 1) throw new IllegalStateException("maxMemoryBytes must be at least partSizeBytes");
+		bufferPermits = new Semaphore(maxBuffers);
+	}
+
+	@Override
+	public S3FileHandle transferToS3(TransferRequest request) throws ServiceUnavailableException, IOException {
+		// Fail before reading anything if there is no memory so the fall-back can be used.
+		byte[] buffer = checkoutBuffer(firstBufferTimeoutMS);
+		if (buffer == null) {
+			throw new ServiceUnavailableException("Could not check-out a buffer");
+		}
+		// Create the result metadata from the input.
+		S3FileHandle metadata = TransferUtils.prepareS3FileMetadata(request);
+		ObjectMetadata objMeta = TransferUtils.prepareObjectMetadata(request);
+		InitiateMultipartUploadResult initiate;
+		try {
+			// Start the upload.
+			initiate = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(metadata.getBucketName(), metadata.getKey(), objMeta));
+		} catch (RuntimeException e) {
+			checkinBuffer(buffer);
+			throw e;
+		}
+		MessageDigest fullDigest = TransferUtils.createMD5Digest();
+		List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+		LinkedList<Future<PartETag>> inFlight = new LinkedList<Future<PartETag>>();
+		long contentSize = 0;
+		long start = System.currentTimeMillis();
+		boolean success = false;
+		try {
+			int partNumber = 1;
+			while (true) {
+				int read = MemoryTransferStrategy.fillBufferFromStream(buffer, request.getInputStream());
+				if (read == 0 && partNumber > 1) {
+					// The previous part was the last.
+					checkinBuffer(buffer);
+					buffer = null;
+					break;
+				}
+				fullDigest.update(buffer, 0, read);
+				contentSize += read;
+				// The upload task owns the buffer from here on.
+				Future<PartETag> future = partUploadThreadPool.submit(new PartUpload(initiate, partNumber, buffer, read));
+				buffer = null;
+				parts.add(future);
+				inFlight.add(future);
+				partNumber++;
+				if (read < partSizeBytes) {
+					// The end of the stream.
+					break;
+				}
+				// Limit the number of parts this transfer has in flight.
+				while (inFlight.size() >= maxPartsInFlightPerTransfer || (inFlight.size() > 0 && inFlight.peek().isDone())) {
+					waitForPart(inFlight.poll());
+				}
+				buffer = checkoutBuffer(nextBufferTimeoutMS);
+				if (buffer == null) {
+					// Part of the stream has been read so the fall-back cannot be used.
+					throw new IOException("Timed out waiting for a buffer");
+				}
+			}
+			// Wait for all of the parts.
+			List<PartETag> partETags = new ArrayList<PartETag>();
+			for (Future<PartETag> part : parts) {
+				partETags.add(waitForPart(part));
+			}
+			String contentMd5 = BinaryUtils.toHex(fullDigest.digest());
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(initiate.getBucketName(), initiate.getKey(), initiate.getUploadId(), partETags));
+			success = true;
+			// Validate the MD5.
+			try {
+				TransferUtils.validateRequestedMD5(request, contentMd5);
+			} catch (IllegalArgumentException e) {
+				// MD5 Validation failed so delete the file we created in S3
+				s3Client.deleteObject(initiate.getBucketName(), initiate.getKey());
+				throw e;
+			}
+			metadata.setContentMd5(contentMd5);
+			metadata.setContentSize(contentSize);
+			if (log.isDebugEnabled()) {
+				long elapseMS = System.currentTimeMillis() - start;
+				log.debug("Transfered " + contentSize + " bytes in " + parts.size() + " parts in " + elapseMS + " MS to key: " + initiate.getKey());
+			}
+			return metadata;
+		} finally {
+			if (buffer != null) {
+				checkinBuffer(buffer);
+			}
+			if (!success) {
+				abort(initiate, parts);
+			}
+		}
+	}
+
+	/**
+	 * Wait for all of the parts to finish so their buffers are returned, then
+	 * abort the upload.
+	 */
+	private void abort(InitiateMultipartUploadResult initiate, List<Future<PartETag>> parts) {
+		for (Future<PartETag> part : parts) {
+			try {
+				part.get();
+			} catch (Exception e) {
+				// The first failure has already been reported.
+			}
+		}
+		try {
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(initiate.getBucketName(), initiate.getKey(), initiate.getUploadId()));
+		} catch (RuntimeException e) {
+			log.warn("Failed to abort multi-part upload: " + initiate.getUploadId(), e);
+		}
+	}
+
+	/**
+	 * Wait for a part upload and unwrap its failure.
+	 */
+	private static PartETag waitForPart(Future<PartETag> part) throws IOException {
+		try {
+			return part.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Uploads a single part and then returns its buffer to the pool.
+	 */
+	private class PartUpload implements Callable<PartETag> {
+
+		private InitiateMultipartUploadResult initiate;
+		private int partNumber;
+		private byte[] buffer;
+		private int size;
+
+		PartUpload(InitiateMultipartUploadResult initiate, int partNumber, byte[] buffer, int size) {
+			this.initiate = initiate;
+			this.partNumber = partNumber;
+			this.buffer = buffer;
+			this.size = size;
+		}
+
+		@Override
+		public PartETag call() throws Exception {
+			try {
+				MessageDigest partDigest = TransferUtils.createMD5Digest();
+				partDigest.update(buffer, 0, size);
+				String partMD5 = BinaryUtils.toBase64(partDigest.digest());
+				long start = System.currentTimeMillis();
+				UploadPartResult partResult = s3Client.uploadPart(new UploadPartRequest()
+						.withUploadId(initiate.getUploadId())
+						.withBucketName(initiate.getBucketName())
+						.withKey(initiate.getKey())
+						.withPartSize(size)
+						.withMD5Digest(partMD5)
+						.withInputStream(new ByteArrayInputStream(buffer, 0, size))
+						.withPartNumber(partNumber));
+				long elapseMS = System.currentTimeMillis() - start;
+				totalPartCount.incrementAndGet();
+				totalPartBytes.addAndGet(size);
+				totalPartMS.addAndGet(elapseMS);
+				if (log.isDebugEnabled()) {
+					double mbPerSecond = elapseMS > 0 ? (((double) size) / (1024 * 1024)) / (((double) elapseMS) / 1000) : 0;
+					log.debug("Sent part " + partNumber + " of size: " + size + " bytes in " + elapseMS + " MS (" + String.format("%.2f", mbPerSecond) + " MB/s) to key: " + initiate.getKey());
+				}
+				return partResult.getPartETag();
+			} finally {
+				checkinBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Get a buffer from the pool, waiting up to the given time for one to be
+	 * returned.
+	 *
+	 * @return Null if no buffer was available in time.
+	 */
+	private byte[] checkoutBuffer(long timeoutMS) {
+		try {
+			if (!bufferPermits.tryAcquire(timeoutMS, TimeUnit.MILLISECONDS)) {
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		byte[] buffer = freeBuffers.poll();
+		if (buffer == null) {
+			buffer = new byte[partSizeBytes];
+		}
+		return buffer;
+	}
+
+	private void checkinBuffer(byte[] buffer) {
+		freeBuffers.add(buffer);
+		bufferPermits.release();
+	}
+
+	/**
+	 * The number of buffers that are not checked-out.
+	 *
+	 * @return
+	 */
+	public int getAvailableBuffers() {
+		return bufferPermits.availablePermits();
+	}
+
+	/**
+	 * The average upload throughput of all parts sent so far in bytes per
+	 * second.
+	 *
+	 * @return
+	 */
+	public double getAveragePartBytesPerSecond() {
+		long ms = totalPartMS.get();
+		if (ms == 0) {
+			return 0;
+		}
+		return ((double) totalPartBytes.get()) / (((double) ms) / 1000);
+	}
+
+	public long getTotalPartCount() {
+		return totalPartCount.get();
+	}
+
+	public long getTotalPartBytes() {
+		return totalPartBytes.get();
+	}
+
+	/**
+	 * Injected
+	 *
+	 * @param partUploadThreadPool
+	 */
+	public void setPartUploadThreadPool(ExecutorService partUploadThreadPool) {
+		this.partUploadThreadPool = partUploadThreadPool;
+	}
+
+	/**
+	 * Injected. The maximum memory used by the buffers of all transfers.
+	 *
+	 * @param maxMemoryBytes
+	 */
+	public void setMaxMemoryBytes(long maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+	}
+
+	/**
+	 * Injected. Must be at least 5 MB.
+	 *
+	 * @param partSizeBytes
+	 */
+	public void setPartSizeBytes(long partSizeBytes) {
+		if (partSizeBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("partSizeBytes is too large");
+		this.partSizeBytes = (int) partSizeBytes;
+	}
+
+	/**
+	 * The maximum number of parts of a single transfer that can be uploading
+	 * at the same time.
+	 *
+	 * @param maxPartsInFlightPerTransfer
+	 */
+	public void setMaxPartsInFlightPerTransfer(int maxPartsInFlightPerTransfer) {
+		if (maxPartsInFlightPerTransfer < 1) throw new IllegalArgumentException("maxPartsInFlightPerTransfer must be at least one");
+		this.maxPartsInFlightPerTransfer = maxPartsInFlightPerTransfer;
+	}
+
+	/**
+	 * How long to wait for the first buffer before giving up so the fall-back
+	 * strategy can be used.
+	 *
+	 * @param firstBufferTimeoutMS
+	 */
+	public void setFirstBufferTimeoutMS(long firstBufferTimeoutMS) {
+		this.firstBufferTimeoutMS = firstBufferTimeoutMS;
+	}
+
+	/**
+	 * How long to wait for each following buffer before failing the transfer.
+	 *
+	 * @param nextBufferTimeoutMS
+	 */
+	public void setNextBufferTimeoutMS(long nextBufferTimeoutMS) {
+		this.nextBufferTimeoutMS = nextBufferTimeoutMS;
+	}
+}
@@ -1,8 +1,16 @@
 package org.sagebionetworks.repo.manager.message;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -10,7 +18,6 @@ import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.repo.model.dao.semaphore.SemaphoreDao;
 import org.sagebionetworks.repo.model.message.ChangeMessage;
 import org.sagebionetworks.repo.model.message.TransactionalMessenger;
-import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
 import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +37,8 @@ import com.amazonaws.services.sns.model.PublishRequest;
 public class RepositoryMessagePublisherImpl implements RepositoryMessagePublisher {
 
 	public static final String SEMAPHORE_KEY = "UNSENT_MESSAGE_WORKER";
+	public static final int DEFAULT_PUBLISH_THREAD_COUNT = 10;
+	public static final int DEFAULT_MAX_MESSAGES_PER_FLUSH = 1000;
 	static private Log log = LogFactory.getLog(RepositoryMessagePublisherImpl.class);
 
 	@Autowired
@@ -43,6 +52,28 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 	
 	private boolean shouldMessagesBePublishedToTopic;
 	
+	/**
+	 * The number of threads used to publish messages to the topic.
+	 */
+	private int publishThreadCount = DEFAULT_PUBLISH_THREAD_COUNT;
+	
+	/**
+	 * The maximum number of messages published before the batch is registered as sent.
+	 */
+	private int maxMessagesPerFlush = DEFAULT_MAX_MESSAGES_PER_FLUSH;
+	
+	/**
+	 * Publishes the messages of a flush in parallel.
+	 */
+	private ExecutorService publishExecutor;
+	
+	/**
+	 * Metrics for the last flush and the messages waiting to be published.
+	 */
+	private final AtomicLong lastFlushLatencyMS = new AtomicLong(0);
+	private final AtomicInteger lastFlushSize = new AtomicInteger(0);
+	private final AtomicInteger pendingFlushMessages = new AtomicInteger(0);
+	
 	/**
 	 * This is injected from spring.
 	 * 
@@ -53,6 +84,24 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 		this.shouldMessagesBePublishedToTopic = shouldMessagesBePublishedToTopic;
 	}
 
+	/**
+	 * The number of threads used to publish messages to the topic.
+	 * 
+	 * @param publishThreadCount
+	 */
+	public void setPublishThreadCount(int publishThreadCount) {
+		this.publishThreadCount = publishThreadCount;
+	}
+
+	/**
+	 * The maximum number of messages published before the batch is registered as sent.
+	 * 
+	 * @param maxMessagesPerFlush
+	 */
+	public void setMaxMessagesPerFlush(int maxMessagesPerFlush) {
+		this.maxMessagesPerFlush = maxMessagesPerFlush;
+	}
+
 	/**
 	 * Default.
 	 */
@@ -117,6 +166,16 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 		}
 	}
 
+	/**
+	 * This is called by Spring when this bean is destroyed to stop the publishing threads.
+	 * Any message that was not published stays unsent and will be picked up again.
+	 */
+	public synchronized void destroy(){
+		if(publishExecutor != null){
+			publishExecutor.shutdownNow();
+		}
+	}
+
 	/**
 	 * This is the method that the TransactionalMessenger will call after a transaction is committed.
 	 * This is our chance to push these messages to our AWS topic.
@@ -157,37 +216,121 @@ public class RepositoryMessagePublisherImpl implements RepositoryMessagePublishe
 			}
 			return;
 		}
-		// Publish each message to the topic
-		for(ChangeMessage message: currentQueue){
-			publishMessage(message);
+		// Take a copy so late additions to the old queue cannot break the iteration.
+		List<ChangeMessage> toPublish;
+		synchronized (currentQueue) {
+			toPublish = new ArrayList<ChangeMessage>(currentQueue);
+		}
+		pendingFlushMessages.set(toPublish.size());
+		// Publish the messages in flushes so that each flush is registered as sent with a single write.
+		for(int i=0; i<toPublish.size(); i+=maxMessagesPerFlush){
+			List<ChangeMessage> flush = toPublish.subList(i, Math.min(toPublish.size(), i+maxMessagesPerFlush));
+			flush(flush);
+			pendingFlushMessages.addAndGet(-flush.size());
+		}
+	}
+
+	/**
+	 * Publish a batch of messages in parallel then record all that were published as sent.
+	 * 
+	 * @param flush
+	 */
+	private void flush(List<ChangeMessage> flush) {
+		long start = System.currentTimeMillis();
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(flush.size());
+		for(final ChangeMessage message: flush){
+			futures.add(getPublishExecutor().submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return publishMessage(message);
+				}
+			}));
+		}
+		List<Long> sent = new ArrayList<Long>(flush.size());
+		for(Future<Long> future: futures){
+			try {
+				Long changeNumber = future.get();
+				if(changeNumber != null){
+					sent.add(changeNumber);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				// This message will be picked up again as unsent, so keep going with the rest.
+				log.error("Failed to publish a ChangeMessage:", e.getCause());
+			}
+		}
+		// Register the messages that were sent
+		if(!sent.isEmpty()){
+			this.transactionalMessanger.registerMessagesSent(sent);
+		}
+		lastFlushLatencyMS.set(System.currentTimeMillis()-start);
+		lastFlushSize.set(sent.size());
+		if(log.isDebugEnabled()){
+			log.debug("Published "+sent.size()+" of "+flush.size()+" messages in "+lastFlushLatencyMS.get()+" ms");
 		}
 	}
 
 	/**
-	 * Publish the message and recored it as sent.
+	 * Publish the message.
 	 * 
 	 * @param message
+	 * @return The change number of the message if it was published.
 	 */
-	private void publishMessage(ChangeMessage message) {
+	private Long publishMessage(ChangeMessage message) {
 		try {
 			String json = EntityFactory.createJSONStringForEntity(message);
 			if(log.isTraceEnabled()){
 				log.info("Publishing a message: "+json);
 			}
 			awsSNSClient.publish(new PublishRequest(this.topicArn, json));
-			// Register the message was sent
-			this.transactionalMessanger.registerMessageSent(message.getChangeNumber());
+			return message.getChangeNumber();
 		} catch (JSONObjectAdapterException e) {
 			// This should not occur.
 			// If it does we want to log it but continue to send messages
 			// as this is called from a timer and not a web-services.
 			log.error("Failed to parse ChangeMessage:", e);
-		}catch (NotFoundException e){
-			// This can occur when we try to send a message that has already been deleted.
-			// It is not really an error condition but we log it.
-			if(log.isDebugEnabled()){
-				log.debug(e.getMessage());
-			}
+			return null;
+		}
+	}
+
+	/**
+	 * The thread pool used to publish messages.
+	 * 
+	 * @return
+	 */
+	private synchronized ExecutorService getPublishExecutor() {
+		if(publishExecutor == null){
+			publishExecutor = Executors.newFixedThreadPool(publishThreadCount);
 		}
+		return publishExecutor;
+	}
+
+	/**
+	 * How long (MS) the last flush took to publish and register its messages.
+	 * 
+	 * @return
+	 */
+	public long getLastFlushLatencyMS() {
+		return lastFlushLatencyMS.get();
+	}
+
+	/**
+	 * The number of messages published by the last flush.
+	 * 
+	 * @return
+	 */
+	public int getLastFlushSize() {
+		return lastFlushSize.get();
+	}
+
+	/**
+	 * The number of messages waiting to be published, including those queued for the next timer.
+	 * 
+	 * @return
+	 */
+	public int getBacklogSize() {
+		return pendingFlushMessages.get() + messageQueue.get().size();
 	}
 }
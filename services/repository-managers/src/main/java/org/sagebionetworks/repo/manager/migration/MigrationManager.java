@@ -6,6 +6,7 @@ import java.util.List;
 
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 
 /**
@@ -50,6 +51,30 @@ public interface MigrationManager {
 	 */
 	public RowMetadataResult getRowMetadataDeltaForType(UserInfo user, MigrationType type, List<Long> idList);
 	
+	/**
+	 * List one page of the row metadata with IDs in the given range, ordered by ID.
+	 * The next page starts at one more than the last ID of this page.
+	 * 
+	 * @param user
+	 * @param type
+	 * @param minId
+	 * @param maxId
+	 * @param limit
+	 * @return
+	 */
+	public RowMetadataResult getRowMetadataByRangeForType(UserInfo user, MigrationType type, long minId, long maxId, long limit);
+	
+	/**
+	 * The count and aggregate checksum of the rows with IDs in the given range.
+	 * 
+	 * @param user
+	 * @param type
+	 * @param minId
+	 * @param maxId
+	 * @return
+	 */
+	public RangeChecksum getChecksumForIdRange(UserInfo user, MigrationType type, long minId, long maxId);
+	
 	/**
 	 * Get a batch of objects to backup.
 	 * @param clazz
@@ -2,19 +2,23 @@ package org.sagebionetworks.repo.manager.migration;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.sagebionetworks.repo.model.NodeLineageDAO;
 import org.sagebionetworks.repo.model.UnauthorizedException;
 import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.MigratableDatabaseObject;
+import org.sagebionetworks.repo.model.dbo.dao.DBOChangeDAO;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableDAO;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableTranslation;
 import org.sagebionetworks.repo.model.migration.ListBucketProvider;
 import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationUtils;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +35,18 @@ public class MigrationManagerImpl implements MigrationManager {
 	
 	@Autowired
 	MigratableTableDAO migratableTableDao;
+	
+	@Autowired
+	NodeLineageDAO nodeLineageDao;
+	
+	@Autowired
+	DBOChangeDAO changeDAO;
+	
+	/**
+	 * NODE_LINEAGE is not migrated so it must be synchronized with the restored nodes
+	 * when the node tree is kept in the repository database.
+	 */
+	boolean nodeLineageEnabled = false;
 
 	/**
 	 * The maximum size of a backup batch.
@@ -60,6 +76,30 @@ public class MigrationManagerImpl implements MigrationManager {
 	public void setBackupBatchMax(Integer backupBatchMax) {
 		this.backupBatchMax = backupBatchMax;
 	}
+	
+	/**
+	 * Injected via Spring
+	 * @param nodeLineageEnabled
+	 */
+	public void setNodeLineageEnabled(Boolean nodeLineageEnabled) {
+		this.nodeLineageEnabled = nodeLineageEnabled;
+	}
+	
+	/**
+	 * Used for unit testing.
+	 * @param nodeLineageDao
+	 */
+	public void setNodeLineageDao(NodeLineageDAO nodeLineageDao) {
+		this.nodeLineageDao = nodeLineageDao;
+	}
+	
+	/**
+	 * Used for unit testing.
+	 * @param changeDAO
+	 */
+	public void setChangeDAO(DBOChangeDAO changeDAO) {
+		this.changeDAO = changeDAO;
+	}
 
 	@Override
 	public long getCount(UserInfo user, MigrationType type) {
@@ -93,6 +133,23 @@ public class MigrationManagerImpl implements MigrationManager {
 		return result;
 	}
 
+	@Override
+	public RowMetadataResult getRowMetadataByRangeForType(UserInfo user, MigrationType type, long minId, long maxId, long limit) {
+		validateUser(user);
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		List<RowMetadata> list = migratableTableDao.listRowMetadataByRange(type, minId, maxId, limit);
+		RowMetadataResult result = new RowMetadataResult();
+		result.setList(list);
+		return result;
+	}
+
+	@Override
+	public RangeChecksum getChecksumForIdRange(UserInfo user, MigrationType type, long minId, long maxId) {
+		validateUser(user);
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		return migratableTableDao.getChecksumForIdRange(type, minId, maxId);
+	}
+
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	@SuppressWarnings("unchecked")
 	@Override
@@ -112,7 +169,19 @@ public class MigrationManagerImpl implements MigrationManager {
 		if(type == null) throw new IllegalArgumentException("Type cannot be null");
 		// Get the database object from the dao
 		MigratableDatabaseObject mdo = migratableTableDao.getObjectForType(type);
-		return createOrUpdateBatch(mdo, type, in);
+		List<Long> ids = createOrUpdateBatch(mdo, type, in);
+		if(nodeLineageEnabled && MigrationType.NODE == type){
+			// Restored nodes can be new or have a new parent
+			for(Long id: ids){
+				nodeLineageDao.syncNode(id);
+			}
+		}
+		if(MigrationType.CHANGE == type && !ids.isEmpty()){
+			// Restored changes keep their change numbers but SENT_MESSAGES and the watermarks
+			// are not migrated, so the watermarks must not stay above them.
+			changeDAO.lowerWatermarks(Collections.min(ids) - 1);
+		}
+		return ids;
 	}
 
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
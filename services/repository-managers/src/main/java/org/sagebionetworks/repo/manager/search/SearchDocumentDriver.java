@@ -1,5 +1,7 @@
 package org.sagebionetworks.repo.manager.search;
 
+import java.util.List;
+
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.DatastoreException;
 import org.sagebionetworks.repo.model.EntityBundle;
@@ -31,6 +33,16 @@ public interface SearchDocumentDriver {
 	 * @throws NotFoundException
 	 */
 	public Document formulateSearchDocument(String nodeId) throws DatastoreException, NotFoundException;
+	
+	/**
+	 * Create the search documents for a batch of nodes. The nodes, annotations, paths and
+	 * benefactors are loaded with set-based queries and each ACL and display name is only
+	 * looked up once for the whole batch.
+	 * @param nodeIds
+	 * @return A document for each node that exists. Nodes that cannot be found are skipped.
+	 * @throws DatastoreException
+	 */
+	public List<Document> formulateSearchDocuments(List<String> nodeIds) throws DatastoreException;
 	/**
 	 * Create a search document and return it.
 	 * 
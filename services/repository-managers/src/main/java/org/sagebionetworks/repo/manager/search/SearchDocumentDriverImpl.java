@@ -148,6 +148,58 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 		return document;
 	}
 
+	@Override
+	public List<Document> formulateSearchDocuments(List<String> nodeIds)
+			throws DatastoreException {
+		if (nodeIds == null)
+			throw new IllegalArgumentException("NodeIds cannot be null");
+		List<Document> documents = new LinkedList<Document>();
+		List<Node> nodes = nodeDao.getNodes(nodeIds);
+		if (nodes.isEmpty())
+			return documents;
+		List<String> foundIds = new ArrayList<String>(nodes.size());
+		for (Node node : nodes) {
+			foundIds.add(node.getId());
+		}
+		Map<String, NamedAnnotations> annotations = nodeDao
+				.getAnnotations(foundIds);
+		Map<String, List<EntityHeader>> paths = nodeDao
+				.getEntityPaths(foundIds);
+		Map<String, String> benefactors = nodeInheritanceDao
+				.getBenefactors(foundIds);
+		// Most nodes in a batch share a few benefactors and users
+		Map<String, AccessControlList> aclMemo = new HashMap<String, AccessControlList>();
+		Map<Long, String> displayNameMemo = new HashMap<Long, String>();
+		for (Node node : nodes) {
+			NamedAnnotations annos = annotations.get(node.getId());
+			List<EntityHeader> path = paths.get(node.getId());
+			String benefactorId = benefactors.get(node.getId());
+			if (annos == null || path == null || benefactorId == null) {
+				// The node was deleted while the batch was loading
+				log.debug("Node not found for id: " + node.getId());
+				continue;
+			}
+			try {
+				AccessControlList benefactorACL = aclMemo.get(benefactorId);
+				if (benefactorACL == null) {
+					benefactorACL = aclDAO.get(benefactorId, ObjectType.ENTITY);
+					aclMemo.put(benefactorId, benefactorACL);
+				}
+				EntityPath entityPath = new EntityPath();
+				entityPath.setPath(path);
+				String wikiPagesText = getAllWikiPageText(node.getId());
+				documents.add(formulateSearchDocument(node, annos,
+						benefactorACL, entityPath, wikiPagesText,
+						displayNameMemo));
+			} catch (NotFoundException e) {
+				// There is nothing to do if it does not exist
+				log.debug("Node not found for id: " + node.getId()
+						+ " Message:" + e.getMessage());
+			}
+		}
+		return documents;
+	}
+
 	/**
 	 * Get the entity path
 	 * 
@@ -184,6 +236,19 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 	public Document formulateSearchDocument(Node node, NamedAnnotations annos,
 			AccessControlList acl, EntityPath entityPath, String wikiPagesText)
 			throws DatastoreException, NotFoundException {
+		return formulateSearchDocument(node, annos, acl, entityPath,
+				wikiPagesText, new HashMap<Long, String>());
+	}
+
+	/**
+	 * @param displayNameMemo
+	 *            Display names that have already been looked up, shared by
+	 *            all of the documents in a batch.
+	 */
+	private Document formulateSearchDocument(Node node, NamedAnnotations annos,
+			AccessControlList acl, EntityPath entityPath,
+			String wikiPagesText, Map<Long, String> displayNameMemo)
+			throws DatastoreException, NotFoundException {
 		DateTime now = DateTime.now();
 		Document document = new Document();
 		DocumentFields fields = new DocumentFields();
@@ -231,10 +296,10 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 		fields.setDescription(descriptionValue.toString());
 
 		fields.setCreated_by(getDisplayNameForPrincipalId(node
-				.getCreatedByPrincipalId()));
+				.getCreatedByPrincipalId(), displayNameMemo));
 		fields.setCreated_on(node.getCreatedOn().getTime() / 1000);
 		fields.setModified_by(getDisplayNameForPrincipalId(node
-				.getModifiedByPrincipalId()));
+				.getModifiedByPrincipalId(), displayNameMemo));
 		fields.setModified_on(node.getModifiedOn().getTime() / 1000);
 
 		// Stuff in this field any extra copies of data that you would like to
@@ -326,8 +391,13 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 		return document;
 	}
 
-	private String getDisplayNameForPrincipalId(long principalId) {
-		String displayName = "" + principalId;
+	private String getDisplayNameForPrincipalId(long principalId,
+			Map<Long, String> displayNameMemo) {
+		String displayName = displayNameMemo.get(principalId);
+		if (displayName != null) {
+			return displayName;
+		}
+		displayName = "" + principalId;
 		try {
 			displayName = userManager.getDisplayName(principalId);
 		} catch (NotFoundException ex) {
@@ -340,6 +410,7 @@ public class SearchDocumentDriverImpl implements SearchDocumentDriver {
 			log.warn("Unable to get display name for principal id: "
 					+ principalId + ",", ex);
 		}
+		displayNameMemo.put(principalId, displayName);
 		return displayName;
 	}
 
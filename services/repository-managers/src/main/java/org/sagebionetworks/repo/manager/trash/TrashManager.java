@@ -73,7 +73,7 @@ public interface TrashManager {
 	void purgeTrash(UserInfo currentUser) throws DatastoreException,
 	NotFoundException, UnauthorizedException;
 
-	// The following two methods are for the trash worker to clean trash older than a month
+	// The following methods are for the trash worker to clean trash older than a month
 
 	/**
 	 * Gets the list of trashed items that were moved the trash can before
@@ -85,4 +85,15 @@ public interface TrashManager {
 	 * Purges a list of trashed entities. Once purged, the entities will be permanently deleted.
 	 */
 	void purgeTrash(List<TrashedEntity> trashList) throws DatastoreException, NotFoundException;
+
+	/**
+	 * Purges the next chunk of the trash that was moved to the trash can before the
+	 * specified time. Nodes are deleted bottom-up so that a chunk never cascades to a
+	 * large subtree. Each chunk saves a checkpoint in the same transaction so that an
+	 * interrupted purge resumes where it left off.
+	 *
+	 * @param limit The max number of trash items purged in this chunk.
+	 * @return The number of trash items purged. Zero when nothing is left to purge.
+	 */
+	int purgeTrashBefore(Timestamp timestamp, long limit) throws DatastoreException;
 }
@@ -359,6 +359,47 @@ public class TrashManagerImpl implements TrashManager {
 		return trashCanDao.getTrashBefore(timestamp);
 	}
 
+	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+	@Override
+	public int purgeTrashBefore(Timestamp timestamp, long limit) throws DatastoreException {
+
+		if (timestamp == null) {
+			throw new IllegalArgumentException("Time stamp cannot be null.");
+		}
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be greater than zero.");
+		}
+
+		// Children usually have larger IDs than their parents, so walking down
+		// the IDs removes most subtrees bottom-up in a single pass
+		Long checkpoint = trashCanDao.getPurgeCheckpoint();
+		List<TrashedEntity> trashList = trashCanDao.getTrashLeavesBefore(timestamp, checkpoint, limit);
+		if (trashList.isEmpty() && checkpoint != null) {
+			// End of a pass. Purging the leaves may have left new leaves above the checkpoint.
+			trashList = trashCanDao.getTrashLeavesBefore(timestamp, null, limit);
+		}
+		if (trashList.isEmpty()) {
+			// Whatever is left has children that are not in the trash can; let those cascade
+			trashList = trashCanDao.getTrashBefore(timestamp, limit);
+		}
+		if (trashList.isEmpty()) {
+			trashCanDao.setPurgeCheckpoint(null);
+			return 0;
+		}
+
+		List<String> nodeIds = new ArrayList<String>(trashList.size());
+		for (TrashedEntity trash : trashList) {
+			nodeIds.add(trash.getEntityId());
+		}
+		nodeDao.delete(nodeIds);
+		aclDAO.delete(nodeIds);
+		trashCanDao.delete(nodeIds);
+		// The trash is in descending order of ID so the next chunk starts below the last item
+		String last = nodeIds.get(nodeIds.size() - 1);
+		trashCanDao.setPurgeCheckpoint(KeyFactory.stringToKey(last));
+		return nodeIds.size();
+	}
+
 	/**
 	 * Recursively gets the IDs of all the descendants.
 	 */
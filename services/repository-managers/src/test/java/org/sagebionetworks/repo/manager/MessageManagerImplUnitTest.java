@@ -0,0 +1,190 @@
+package org.sagebionetworks.repo.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.repo.model.ACCESS_TYPE;
+import org.sagebionetworks.repo.model.GroupMembersDAO;
+import org.sagebionetworks.repo.model.MessageDAO;
+import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.UserGroup;
+import org.sagebionetworks.repo.model.UserGroupDAO;
+import org.sagebionetworks.repo.model.UserInfo;
+import org.sagebionetworks.repo.model.message.MessageToUser;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MessageManagerImplUnitTest {
+
+	private static final String MESSAGE_ID = "101";
+	private static final String SENDER_ID = "1";
+	private static final String TEAM_ID = "2";
+	private static final String OTHER_TEAM_ID = "3";
+	private static final String USER_ID = "4";
+
+	private MessageDAO mockMessageDAO;
+	private UserGroupDAO mockUserGroupDAO;
+	private GroupMembersDAO mockGroupMembersDAO;
+	private UserManager mockUserManager;
+	private AuthorizationManager mockAuthorizationManager;
+
+	private MessageManagerImpl messageManager;
+	private UserInfo sender;
+	private MessageToUser message;
+
+	@Before
+	public void setUp() throws Exception {
+		mockMessageDAO = mock(MessageDAO.class);
+		mockUserGroupDAO = mock(UserGroupDAO.class);
+		mockGroupMembersDAO = mock(GroupMembersDAO.class);
+		mockUserManager = mock(UserManager.class);
+		mockAuthorizationManager = mock(AuthorizationManager.class);
+
+		messageManager = new MessageManagerImpl();
+		ReflectionTestUtils.setField(messageManager, "messageDAO", mockMessageDAO);
+		ReflectionTestUtils.setField(messageManager, "userGroupDAO", mockUserGroupDAO);
+		ReflectionTestUtils.setField(messageManager, "groupMembersDAO", mockGroupMembersDAO);
+		ReflectionTestUtils.setField(messageManager, "userManager", mockUserManager);
+		ReflectionTestUtils.setField(messageManager, "authorizationManager", mockAuthorizationManager);
+
+		UserGroup senderGroup = createUserGroup(SENDER_ID, true);
+		senderGroup.setName("sender");
+		sender = new UserInfo(false);
+		sender.setIndividualGroup(senderGroup);
+
+		message = new MessageToUser();
+		message.setId(MESSAGE_ID);
+		message.setCreatedBy(SENDER_ID);
+		when(mockMessageDAO.getMessage(MESSAGE_ID)).thenReturn(message);
+		when(mockUserManager.getUserInfo(Long.parseLong(SENDER_ID))).thenReturn(sender);
+		when(mockAuthorizationManager.canAccess(sender, TEAM_ID, ObjectType.TEAM, ACCESS_TYPE.SEND_MESSAGE)).thenReturn(true);
+		when(mockAuthorizationManager.canAccess(sender, OTHER_TEAM_ID, ObjectType.TEAM, ACCESS_TYPE.SEND_MESSAGE)).thenReturn(false);
+	}
+
+	private static UserGroup createUserGroup(String id, boolean isIndividual) {
+		UserGroup ug = new UserGroup();
+		ug.setId(id);
+		ug.setIsIndividual(isIndividual);
+		return ug;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSendMessageBatch() throws Exception {
+		message.setRecipients(new HashSet<String>(Arrays.asList(USER_ID, TEAM_ID, OTHER_TEAM_ID, "5")));
+		when(mockUserGroupDAO.get(anyList())).thenReturn(Arrays.asList(
+				createUserGroup(USER_ID, true), createUserGroup(TEAM_ID, false), createUserGroup(OTHER_TEAM_ID, false)));
+		when(mockGroupMembersDAO.getMemberIds(new HashSet<String>(Arrays.asList(TEAM_ID))))
+				.thenReturn(new HashSet<String>(Arrays.asList(USER_ID, "6", "7")));
+
+		List<String> errors = messageManager.sendMessage(MESSAGE_ID);
+		// One principal does not exist and the sender may not message the other team
+		assertEquals(2, errors.size());
+
+		// All recipients are created with one call
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(mockMessageDAO).createMessageStatusBatch(eq(MESSAGE_ID), captor.capture());
+		Set<String> expected = new HashSet<String>(Arrays.asList(USER_ID, "6", "7"));
+		assertEquals(expected, new HashSet<String>(captor.getValue()));
+		assertEquals(3, captor.getValue().size());
+		verify(mockMessageDAO, never()).createMessageStatus(anyString(), anyString());
+		verify(mockMessageDAO, never()).createFanOut(anyString());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSendMessageLargeFanOut() throws Exception {
+		messageManager.setMaxSynchronousRecipients(2);
+		message.setRecipients(new HashSet<String>(Arrays.asList(TEAM_ID)));
+		when(mockUserGroupDAO.get(anyList())).thenReturn(Arrays.asList(createUserGroup(TEAM_ID, false)));
+		Set<String> members = new HashSet<String>(Arrays.asList("6", "7", "8"));
+		when(mockGroupMembersDAO.getMemberIds(new HashSet<String>(Arrays.asList(TEAM_ID)))).thenReturn(members);
+
+		List<String> errors = messageManager.sendMessage(MESSAGE_ID);
+		assertEquals(0, errors.size());
+
+		// The recipients are delivered by a worker
+		verify(mockMessageDAO, times(1)).createFanOut(MESSAGE_ID);
+		verify(mockMessageDAO, never()).createMessageStatusBatch(anyString(), anyList());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDeliverFanOutBatch() throws Exception {
+		message.setRecipients(new HashSet<String>(Arrays.asList(TEAM_ID, USER_ID)));
+		when(mockUserGroupDAO.get(anyList())).thenReturn(Arrays.asList(
+				createUserGroup(TEAM_ID, false), createUserGroup(USER_ID, true)));
+		Set<String> teams = new HashSet<String>(Arrays.asList(TEAM_ID));
+		when(mockGroupMembersDAO.getMemberIdsAfter(teams, -1L, 3L)).thenReturn(Arrays.asList(6L, 8L, 10L));
+		when(mockGroupMembersDAO.getMemberIdsAfter(teams, 6L, 2L)).thenReturn(Arrays.asList(8L, 10L));
+		when(mockGroupMembersDAO.getMemberIdsAfter(teams, 8L, 3L)).thenReturn(Arrays.asList(10L));
+
+		// Recipients are delivered in ascending order of ID
+		when(mockMessageDAO.getFanOutResumePoint(MESSAGE_ID)).thenReturn(null);
+		assertTrue(messageManager.deliverFanOutBatch(MESSAGE_ID, 2));
+		verify(mockMessageDAO).createFanOutBatch(MESSAGE_ID, Arrays.asList(USER_ID, "6"));
+
+		// The next batch starts after the resume point
+		when(mockMessageDAO.getFanOutResumePoint(MESSAGE_ID)).thenReturn(6L);
+		assertTrue(messageManager.deliverFanOutBatch(MESSAGE_ID, 1));
+		verify(mockMessageDAO).createFanOutBatch(MESSAGE_ID, Arrays.asList("8"));
+		verify(mockMessageDAO, never()).deleteFanOut(anyString());
+
+		// The last batch removes the fan-out
+		when(mockMessageDAO.getFanOutResumePoint(MESSAGE_ID)).thenReturn(8L);
+		assertFalse(messageManager.deliverFanOutBatch(MESSAGE_ID, 2));
+		verify(mockMessageDAO).createFanOutBatch(MESSAGE_ID, Arrays.asList("10"));
+		verify(mockMessageDAO).deleteFanOut(MESSAGE_ID);
+		
+		// The groups are never expanded in full
+		verify(mockGroupMembersDAO, never()).getMemberIds(anyCollection());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDeliverFanOutBatchExactFit() throws Exception {
+		message.setRecipients(new HashSet<String>(Arrays.asList(TEAM_ID)));
+		when(mockUserGroupDAO.get(anyList())).thenReturn(Arrays.asList(createUserGroup(TEAM_ID, false)));
+		when(mockGroupMembersDAO.getMemberIdsAfter(new HashSet<String>(Arrays.asList(TEAM_ID)), -1L, 3L))
+				.thenReturn(Arrays.asList(6L, 7L));
+		when(mockMessageDAO.getFanOutResumePoint(MESSAGE_ID)).thenReturn(null);
+		assertFalse(messageManager.deliverFanOutBatch(MESSAGE_ID, 2));
+		verify(mockMessageDAO).createFanOutBatch(MESSAGE_ID, Arrays.asList("6", "7"));
+		verify(mockMessageDAO).deleteFanOut(MESSAGE_ID);
+	}
+
+	@Test (expected=IllegalArgumentException.class)
+	public void testDeliverFanOutBatchBadBatchSize() throws Exception {
+		messageManager.deliverFanOutBatch(MESSAGE_ID, 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSendMessageNoRecipients() throws Exception {
+		message.setRecipients(new HashSet<String>(Arrays.asList("5")));
+		when(mockUserGroupDAO.get(anyList())).thenReturn(new ArrayList<UserGroup>());
+		when(mockGroupMembersDAO.getMemberIds(new HashSet<String>())).thenReturn(new HashSet<String>());
+
+		List<String> errors = messageManager.sendMessage(MESSAGE_ID);
+		assertEquals(1, errors.size());
+		verify(mockMessageDAO).createMessageStatusBatch(MESSAGE_ID, new ArrayList<String>());
+	}
+}
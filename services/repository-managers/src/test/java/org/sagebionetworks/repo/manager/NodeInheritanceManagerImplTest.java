@@ -0,0 +1,166 @@
+package org.sagebionetworks.repo.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.repo.model.NodeDAO;
+import org.sagebionetworks.repo.model.NodeInheritanceDAO;
+
+/**
+ * Unit tests for NodeInheritanceManagerImpl using an in-memory tree.
+ * The deep and wide tree tests also report the number of queries needed.
+ * The happy cases against the database are tested by NodeInheritanceManagerImplAutowireTest.
+ *
+ */
+public class NodeInheritanceManagerImplTest {
+
+	static private Log log = LogFactory.getLog(NodeInheritanceManagerImplTest.class);
+
+	NodeInheritanceManagerImpl manager;
+	NodeInheritanceDAO mockNodeInheritanceDao;
+	Map<String, List<String>> childrenByParent;
+	Map<String, String> benefactors;
+	int queryCount;
+
+	@Before
+	public void before() throws Exception{
+		childrenByParent = new HashMap<String, List<String>>();
+		benefactors = new HashMap<String, String>();
+		queryCount = 0;
+		mockNodeInheritanceDao = mock(NodeInheritanceDAO.class);
+		when(mockNodeInheritanceDao.getBenefactor(anyString())).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				queryCount++;
+				return benefactors.get(invocation.getArguments()[0]);
+			}
+		});
+		when(mockNodeInheritanceDao.getChildrenBenefactors(any(Collection.class))).thenAnswer(new Answer<Map<String, String>>() {
+			@Override
+			public Map<String, String> answer(InvocationOnMock invocation) throws Throwable {
+				queryCount++;
+				Map<String, String> results = new HashMap<String, String>();
+				for(Object parentId: (Collection<?>) invocation.getArguments()[0]){
+					List<String> children = childrenByParent.get(parentId);
+					if(children != null){
+						for(String child: children){
+							results.put(child, benefactors.get(child));
+						}
+					}
+				}
+				return results;
+			}
+		});
+		manager = new NodeInheritanceManagerImpl();
+		manager.nodeInheritanceDao = mockNodeInheritanceDao;
+		manager.nodeDao = mock(NodeDAO.class);
+	}
+
+	private void addNode(String id, String parentId, String benefactorId){
+		benefactors.put(id, benefactorId);
+		if(parentId != null){
+			List<String> children = childrenByParent.get(parentId);
+			if(children == null){
+				children = new LinkedList<String>();
+				childrenByParent.put(parentId, children);
+			}
+			children.add(id);
+		}
+	}
+
+	@Test
+	public void testSetNodeToInheritFromItselfSkipsOtherBenefactors() throws Exception{
+		addNode("syn1", null, "syn1");
+		addNode("syn2", "syn1", "syn1");
+		addNode("syn3", "syn2", "syn1");
+		// syn4 has its own ACL so it and its children do not change.
+		addNode("syn4", "syn2", "syn4");
+		addNode("syn5", "syn4", "syn4");
+		manager.setNodeToInheritFromItself("syn2");
+		Set<String> expected = new HashSet<String>();
+		expected.add("syn2");
+		expected.add("syn3");
+		verify(mockNodeInheritanceDao).addBeneficiaries(expected, "syn2");
+	}
+
+	@Test
+	public void testSetNodeToInheritFromItselfNoSkip() throws Exception{
+		addNode("syn1", null, "syn1");
+		addNode("syn2", "syn1", "syn1");
+		addNode("syn4", "syn2", "syn4");
+		addNode("syn5", "syn4", "syn4");
+		manager.setNodeToInheritFromItself("syn2", false);
+		Set<String> expected = new HashSet<String>();
+		expected.add("syn2");
+		expected.add("syn4");
+		expected.add("syn5");
+		verify(mockNodeInheritanceDao).addBeneficiaries(expected, "syn2");
+	}
+
+	@Test
+	public void testAlreadyInheritingFromItself() throws Exception{
+		addNode("syn1", null, "syn1");
+		manager.setNodeToInheritFromItself("syn1");
+		verify(mockNodeInheritanceDao, times(0)).addBeneficiaries(any(Collection.class), anyString());
+	}
+
+	@Test
+	public void testDeepTree() throws Exception{
+		int depth = 2000;
+		addNode("syn0", null, "syn0");
+		for(int i=1; i<depth; i++){
+			addNode("syn"+i, "syn"+(i-1), "syn0");
+		}
+		long start = System.nanoTime();
+		manager.setNodeToInheritFromItself("syn1");
+		long elapsedMS = (System.nanoTime()-start)/1000000;
+		// One query for the benefactor, then one per level including the empty level below the leaf.
+		assertEquals(1+1+(depth-1), queryCount);
+		verify(mockNodeInheritanceDao).addBeneficiaries(any(Collection.class), anyString());
+		log.debug("Deep tree of "+depth+" nodes: "+queryCount+" queries and one batched update in "+elapsedMS+" ms. The per-node walk needed "+(depth-1)*5+" statements.");
+	}
+
+	@Test
+	public void testWideTree() throws Exception{
+		int folders = 100;
+		int filesPerFolder = 1000;
+		addNode("syn0", null, "syn0");
+		int next = 1;
+		for(int i=0; i<folders; i++){
+			String folderId = "syn"+(next++);
+			addNode(folderId, "syn0", "syn0");
+			for(int j=0; j<filesPerFolder; j++){
+				addNode("syn"+(next++), folderId, "syn0");
+			}
+		}
+		long start = System.nanoTime();
+		manager.setNodeToInheritFromItself("syn0", false);
+		long elapsedMS = (System.nanoTime()-start)/1000000;
+		int nodeCount = next;
+		// The root, the folders, the files and the empty level below the files.
+		assertEquals(1+3, queryCount);
+		verify(mockNodeInheritanceDao).addBeneficiaries(any(Collection.class), anyString());
+		assertTrue(elapsedMS < 10*1000);
+		log.debug("Wide tree of "+nodeCount+" nodes: "+queryCount+" queries and one batched update in "+elapsedMS+" ms. The per-node walk needed "+nodeCount*5+" statements.");
+	}
+}
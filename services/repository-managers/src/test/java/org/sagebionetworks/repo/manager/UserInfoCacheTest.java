@@ -0,0 +1,259 @@
+package org.sagebionetworks.repo.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.ObjectType;
+import org.sagebionetworks.repo.model.User;
+import org.sagebionetworks.repo.model.UserGroup;
+import org.sagebionetworks.repo.model.UserInfo;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeType;
+import org.sagebionetworks.repo.web.NotFoundException;
+
+public class UserInfoCacheTest {
+
+	UserInfoCache cache;
+	AtomicInteger loadCount;
+
+	@Before
+	public void before(){
+		cache = new UserInfoCache();
+		loadCount = new AtomicInteger(0);
+	}
+
+	private UserInfo createUserInfo(String principalId, String... groupIds){
+		UserInfo info = new UserInfo(false);
+		UserGroup individual = new UserGroup();
+		individual.setId(principalId);
+		info.setIndividualGroup(individual);
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		groups.add(individual);
+		for(String groupId: groupIds){
+			UserGroup group = new UserGroup();
+			group.setId(groupId);
+			groups.add(group);
+		}
+		info.setGroups(groups);
+		return info;
+	}
+
+	private UserInfoCache.Loader createLoader(final String principalId, final String... groupIds){
+		return new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				loadCount.incrementAndGet();
+				return createUserInfo(principalId, groupIds);
+			}
+		};
+	}
+
+	@Test
+	public void testHitAndMiss() throws Exception{
+		UserInfo first = cache.get("id:1", createLoader("1"));
+		UserInfo second = cache.get("id:1", createLoader("1"));
+		assertEquals(1, loadCount.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals("1", second.getIndividualGroup().getId());
+		// Each caller gets its own copy of the groups.
+		assertNotSame(first, second);
+		assertNotSame(first.getGroups(), second.getGroups());
+		second.getGroups().clear();
+		assertEquals(1, cache.get("id:1", createLoader("1")).getGroups().size());
+	}
+
+	@Test
+	public void testCopyIsDeep() throws Exception{
+		UserInfoCache.Loader loader = new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				UserInfo info = createUserInfo("1", "2");
+				info.getIndividualGroup().setName("one");
+				User user = new User();
+				user.setDisplayName("One");
+				info.setUser(user);
+				return info;
+			}
+		};
+		UserInfo first = cache.get("id:1", loader);
+		assertNotSame(first.getUser(), cache.get("id:1", loader).getUser());
+		// The individual group is shared between the copy's fields but not between copies.
+		assertTrue(first.getGroups().contains(first.getIndividualGroup()));
+		first.getUser().setDisplayName("changed");
+		first.getIndividualGroup().setName("changed");
+		for(UserGroup group: first.getGroups()){
+			group.setEtag("changed");
+		}
+		UserInfo second = cache.get("id:1", loader);
+		assertEquals("One", second.getUser().getDisplayName());
+		assertEquals("one", second.getIndividualGroup().getName());
+		for(UserGroup group: second.getGroups()){
+			assertEquals(null, group.getEtag());
+		}
+	}
+
+	@Test
+	public void testTimeToLive() throws Exception{
+		cache.setTimeToLiveMS(0);
+		cache.get("id:1", createLoader("1"));
+		cache.get("id:1", createLoader("1"));
+		assertEquals(2, loadCount.get());
+	}
+
+	@Test
+	public void testMaxEntries() throws Exception{
+		cache = new UserInfoCache(2);
+		cache.get("id:1", createLoader("1"));
+		cache.get("id:2", createLoader("2"));
+		// Use the first so the second is the least recently used.
+		cache.get("id:1", createLoader("1"));
+		cache.get("id:3", createLoader("3"));
+		assertEquals(2, cache.size());
+		assertEquals(3, loadCount.get());
+		cache.get("id:1", createLoader("1"));
+		assertEquals(3, loadCount.get());
+		cache.get("id:2", createLoader("2"));
+		assertEquals(4, loadCount.get());
+	}
+
+	@Test
+	public void testInvalidateByPrincipalMessage() throws Exception{
+		cache.get("id:1", createLoader("1", "100"));
+		cache.get("name:one", createLoader("1", "100"));
+		cache.get("id:2", createLoader("2", "200"));
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectType(ObjectType.PRINCIPAL);
+		message.setChangeType(ChangeType.UPDATE);
+		message.setObjectId("1");
+		cache.fireChangeMessage(message);
+		// Both keys for the user are removed.
+		assertEquals(1, cache.size());
+		cache.get("id:2", createLoader("2", "200"));
+		assertEquals(3, loadCount.get());
+	}
+
+	@Test
+	public void testInvalidateByGroup() throws Exception{
+		cache.get("id:1", createLoader("1", "100"));
+		cache.get("id:2", createLoader("2", "100"));
+		cache.get("id:3", createLoader("3", "200"));
+		// A change to the membership of group 100 removes its members.
+		cache.invalidate("100");
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testOtherMessagesIgnored() throws Exception{
+		cache.get("id:1", createLoader("1"));
+		ChangeMessage message = new ChangeMessage();
+		message.setObjectType(ObjectType.ENTITY);
+		message.setChangeType(ChangeType.UPDATE);
+		message.setObjectId("1");
+		cache.fireChangeMessage(message);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testLoadOverlappingInvalidationNotCached() throws Exception{
+		cache.get("id:1", new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				// The user changes while it is being loaded.
+				cache.invalidate("1");
+				return createUserInfo("1");
+			}
+		});
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testNotFoundNotCached() throws Exception{
+		UserInfoCache.Loader loader = new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				loadCount.incrementAndGet();
+				throw new NotFoundException("no such user");
+			}
+		};
+		for(int i=0; i<2; i++){
+			try{
+				cache.get("name:missing", loader);
+				fail("Expected NotFoundException");
+			}catch(NotFoundException e){
+				// expected
+			}
+		}
+		assertEquals(2, loadCount.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testConcurrentMissesCollapsed() throws Exception{
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final UserInfoCache.Loader slowLoader = new UserInfoCache.Loader() {
+			@Override
+			public UserInfo load() throws DatastoreException, NotFoundException {
+				loadCount.incrementAndGet();
+				loading.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new DatastoreException(e);
+				}
+				return createUserInfo("1");
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(5);
+		try{
+			List<Future<UserInfo>> futures = new LinkedList<Future<UserInfo>>();
+			Callable<UserInfo> getter = new Callable<UserInfo>() {
+				@Override
+				public UserInfo call() throws Exception {
+					return cache.get("id:1", slowLoader);
+				}
+			};
+			futures.add(pool.submit(getter));
+			assertTrue(loading.await(10, TimeUnit.SECONDS));
+			for(int i=0; i<4; i++){
+				futures.add(pool.submit(getter));
+			}
+			// Give the other threads time to join the load in progress.
+			Thread.sleep(100);
+			release.countDown();
+			for(Future<UserInfo> future: futures){
+				assertEquals("1", future.get(10, TimeUnit.SECONDS).getIndividualGroup().getId());
+			}
+			assertEquals(1, loadCount.get());
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testClear() throws Exception{
+		cache.get("id:1", createLoader("1"));
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(cache.toString().isEmpty());
+	}
+}
@@ -0,0 +1,82 @@
+package org.sagebionetworks.repo.manager.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.sagebionetworks.repo.model.audit.AccessRecord;
+
+public class AccessRecordRingBufferTest {
+
+	@Test
+	public void testCapacityRoundedUp() {
+		assertEquals(8, new AccessRecordRingBuffer(5).getCapacity());
+		assertEquals(8, new AccessRecordRingBuffer(8).getCapacity());
+	}
+
+	@Test
+	public void testOfferAndDrainInOrder() {
+		AccessRecordRingBuffer buffer = new AccessRecordRingBuffer(4);
+		List<AccessRecord> input = AuditTestUtils.createList(4, 100);
+		for (AccessRecord ar : input) {
+			assertTrue(buffer.offer(ar));
+		}
+		// Full
+		assertFalse(buffer.offer(new AccessRecord()));
+		assertEquals(4, buffer.size());
+		List<AccessRecord> out = new LinkedList<AccessRecord>();
+		assertEquals(3, buffer.drainTo(out, 3));
+		assertEquals(input.subList(0, 3), out);
+		// There is room again and the ring wraps around.
+		assertTrue(buffer.offer(input.get(0)));
+		out.clear();
+		assertEquals(2, buffer.drainTo(out, 10));
+		assertEquals(input.get(3), out.get(0));
+		assertEquals(input.get(0), out.get(1));
+		assertEquals(0, buffer.size());
+		assertEquals(0, buffer.drainTo(out, 10));
+	}
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		final AccessRecordRingBuffer buffer = new AccessRecordRingBuffer(1024);
+		int threadCount = 4;
+		final int perThread = 5000;
+		final AtomicInteger rejected = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			final long threadStart = t * perThread;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (AccessRecord ar : AuditTestUtils.createList(perThread, threadStart)) {
+						if (!buffer.offer(ar)) {
+							rejected.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		// Drain while the producers run.
+		Set<Long> seen = new HashSet<Long>();
+		List<AccessRecord> out = new LinkedList<AccessRecord>();
+		while (done.getCount() > 0 || buffer.size() > 0) {
+			out.clear();
+			buffer.drainTo(out, 100);
+			for (AccessRecord ar : out) {
+				assertTrue("Record was taken twice", seen.add(ar.getTimestamp()));
+			}
+		}
+		// Every record was either drained once or rejected.
+		assertEquals(threadCount * perThread, seen.size() + rejected.get());
+	}
+}
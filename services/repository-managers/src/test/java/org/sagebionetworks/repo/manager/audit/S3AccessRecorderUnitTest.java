@@ -0,0 +1,162 @@
+package org.sagebionetworks.repo.manager.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.repo.model.audit.AccessRecord;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class S3AccessRecorderUnitTest {
+
+	AccessRecordManager mockManager;
+	S3AccessRecorder recorder;
+	File spillDirectory;
+
+	@Before
+	public void before() throws IOException {
+		mockManager = mock(AccessRecordManager.class);
+		spillDirectory = File.createTempFile("S3AccessRecorderUnitTest", "");
+		spillDirectory.delete();
+		recorder = createRecorder();
+	}
+
+	private S3AccessRecorder createRecorder() {
+		S3AccessRecorder recorder = new S3AccessRecorder();
+		ReflectionTestUtils.setField(recorder, "accessRecordManager", mockManager);
+		recorder.setBufferCapacity(16);
+		recorder.setSegmentSize(5);
+		recorder.setSpillDirectory(spillDirectory.getAbsolutePath());
+		return recorder;
+	}
+
+	@After
+	public void after() {
+		File[] files = spillDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spillDirectory.delete();
+	}
+
+	private int countSpillFiles() {
+		File[] files = spillDirectory.listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSegments() throws IOException {
+		when(mockManager.saveBatch(any(List.class))).thenReturn("one", "two", "three");
+		for (AccessRecord ar : AuditTestUtils.createList(12, 100)) {
+			recorder.save(ar);
+		}
+		assertEquals("three", recorder.timerFired());
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(mockManager, times(3)).saveBatch(captor.capture());
+		assertEquals(5, captor.getAllValues().get(0).size());
+		assertEquals(5, captor.getAllValues().get(1).size());
+		assertEquals(2, captor.getAllValues().get(2).size());
+		assertEquals(0, recorder.getBufferedRecordCount());
+	}
+
+	@Test
+	public void testOverflowIsCounted() throws IOException {
+		for (AccessRecord ar : AuditTestUtils.createList(20, 100)) {
+			recorder.save(ar);
+		}
+		assertEquals(4, recorder.getDroppedRecordCount());
+		assertEquals(16, recorder.getBufferedRecordCount());
+	}
+
+	@Test
+	public void testNotPushed() throws IOException {
+		recorder.setShouldAccessRecordsBePushedToS3(false);
+		recorder.save(new AccessRecord());
+		assertNull(recorder.timerFired());
+		assertEquals(0, recorder.getBufferedRecordCount());
+		assertEquals(0, countSpillFiles());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSpillAndReplay() throws IOException {
+		List<AccessRecord> input = AuditTestUtils.createList(8, 100);
+		// S3 fails
+		when(mockManager.saveBatch(any(List.class))).thenThrow(new IOException("S3 is down"));
+		for (AccessRecord ar : input) {
+			recorder.save(ar);
+		}
+		assertNull(recorder.timerFired());
+		assertEquals(8, recorder.getSpilledRecordCount());
+		assertEquals(2, countSpillFiles());
+		// Simulate a restart with S3 working again.
+		mockManager = mock(AccessRecordManager.class);
+		when(mockManager.saveBatch(any(List.class))).thenReturn("replayed");
+		recorder = createRecorder();
+		recorder.timerFired();
+		assertEquals(8, recorder.getReplayedRecordCount());
+		assertEquals(0, countSpillFiles());
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(mockManager, times(2)).saveBatch(captor.capture());
+		// The records survive the round trip in order.
+		assertEquals(input.subList(0, 5), captor.getAllValues().get(0));
+		assertEquals(input.subList(5, 8), captor.getAllValues().get(1));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSlowWritesSpill() throws IOException {
+		recorder.setMaxWriteTimeMS(10);
+		when(mockManager.saveBatch(any(List.class))).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(20);
+				return "slow";
+			}
+		});
+		for (AccessRecord ar : AuditTestUtils.createList(10, 100)) {
+			recorder.save(ar);
+		}
+		recorder.timerFired();
+		// The first segment was written but the time was up before the second.
+		verify(mockManager, times(1)).saveBatch(any(List.class));
+		assertEquals(5, recorder.getSpilledRecordCount());
+		assertEquals(1, countSpillFiles());
+	}
+
+	@Test
+	public void testDestroySpills() throws IOException {
+		for (AccessRecord ar : AuditTestUtils.createList(3, 100)) {
+			recorder.save(ar);
+		}
+		recorder.destroy();
+		assertEquals(3, recorder.getSpilledRecordCount());
+		assertEquals(1, countSpillFiles());
+	}
+
+	@Test
+	public void testIncompleteSpillFileDeleted() throws IOException {
+		spillDirectory.mkdirs();
+		File partial = new File(spillDirectory, S3AccessRecorder.SPILL_FILE_PREFIX + "1" + S3AccessRecorder.SPILL_FILE_SUFFIX + S3AccessRecorder.TEMP_FILE_SUFFIX);
+		partial.createNewFile();
+		recorder.timerFired();
+		assertEquals(0, countSpillFiles());
+	}
+}
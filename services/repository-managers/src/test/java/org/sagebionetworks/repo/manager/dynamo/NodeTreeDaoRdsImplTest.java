@@ -0,0 +1,139 @@
+package org.sagebionetworks.repo.manager.dynamo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.dynamo.dao.nodetree.IncompletePathException;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
+
+public class NodeTreeDaoRdsImplTest {
+
+	private NodeLineageDAO mockLineageDao;
+	private NodeTreeQueryDaoRdsImpl queryDao;
+	private NodeTreeUpdateDaoRdsImpl updateDao;
+
+	@Before
+	public void before() {
+		mockLineageDao = mock(NodeLineageDAO.class);
+		queryDao = new NodeTreeQueryDaoRdsImpl(mockLineageDao);
+		updateDao = new NodeTreeUpdateDaoRdsImpl(mockLineageDao);
+	}
+
+	@Test
+	public void testIsRoot() {
+		when(mockLineageDao.doesNodeExist(1L)).thenReturn(true);
+		when(mockLineageDao.doesNodeExist(2L)).thenReturn(true);
+		when(mockLineageDao.getParent(2L)).thenReturn(1L);
+		assertTrue(queryDao.isRoot("1"));
+		assertFalse(queryDao.isRoot("2"));
+		assertFalse(queryDao.isRoot("3"));
+	}
+
+	@Test
+	public void testGetParent() {
+		when(mockLineageDao.doesNodeExist(1L)).thenReturn(true);
+		when(mockLineageDao.doesNodeExist(2L)).thenReturn(true);
+		when(mockLineageDao.getParent(2L)).thenReturn(1L);
+		assertEquals(NodeTreeQueryDaoRdsImpl.ROOT, queryDao.getParent("1"));
+		assertEquals("1", queryDao.getParent("2"));
+		assertNull(queryDao.getParent("3"));
+	}
+
+	@Test
+	public void testGetAncestors() {
+		when(mockLineageDao.doesNodeExist(3L)).thenReturn(true);
+		when(mockLineageDao.getAncestors(3L)).thenReturn(Arrays.asList(1L, 2L));
+		assertEquals(Arrays.asList("1", "2"), queryDao.getAncestors("3"));
+	}
+
+	@Test(expected = IncompletePathException.class)
+	public void testGetAncestorsNoLineage() {
+		when(mockLineageDao.doesNodeExist(3L)).thenReturn(false);
+		queryDao.getAncestors("3");
+	}
+
+	@Test
+	public void testGetDescendants() {
+		when(mockLineageDao.getDescendants(1L, 1000L, 5L)).thenReturn(Arrays.asList(6L, 7L));
+		// The page size is capped
+		List<String> results = queryDao.getDescendants("1", 5000, "5");
+		assertEquals(Arrays.asList("6", "7"), results);
+	}
+
+	@Test(expected = IncompletePathException.class)
+	public void testGetDescendantsBadLast() {
+		when(mockLineageDao.getDescendants(1L, 10L, 5L)).thenThrow(new IllegalArgumentException("Not a descendant"));
+		queryDao.getDescendants("1", 10, "5");
+	}
+
+	@Test
+	public void testGetDescendantsGeneration() {
+		when(mockLineageDao.getDescendants(1L, 2, 10L, null)).thenReturn(Arrays.asList(6L));
+		assertEquals(Arrays.asList("6"), queryDao.getDescendants("1", 2, 10, null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetDescendantsGenerationZero() {
+		queryDao.getDescendants("1", 0, 10, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadId() {
+		queryDao.getParent("syn1");
+	}
+
+	@Test
+	public void testCreateRoot() throws Exception {
+		when(mockLineageDao.syncNode(1L)).thenReturn(true);
+		assertTrue(updateDao.create("1", "1", new Date()));
+		verify(mockLineageDao).syncNode(1L);
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		when(mockLineageDao.syncNode(2L)).thenReturn(true);
+		assertTrue(updateDao.update("2", "1", new Date()));
+		verify(mockLineageDao).syncNode(2L);
+	}
+
+	@Test
+	public void testUpdateStaleParent() throws Exception {
+		// The parent in the message is not trusted, the lineage is synced with the node
+		when(mockLineageDao.syncNode(2L)).thenReturn(true);
+		assertTrue(updateDao.update("2", "3", new Date()));
+		verify(mockLineageDao).syncNode(2L);
+		verify(mockLineageDao, never()).moveNode(anyLong(), anyLong());
+		verify(mockLineageDao, never()).addNode(anyLong(), anyLong());
+	}
+
+	@Test
+	public void testUpdateDeletedNode() throws Exception {
+		when(mockLineageDao.syncNode(2L)).thenReturn(false);
+		assertTrue(updateDao.update("2", "1", new Date()));
+	}
+
+	@Test(expected = IncompletePathException.class)
+	public void testUpdateFailure() throws Exception {
+		when(mockLineageDao.syncNode(2L)).thenThrow(new DatastoreException("Failed"));
+		updateDao.update("2", "1", new Date());
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		assertTrue(updateDao.delete("2", new Date()));
+	}
+}
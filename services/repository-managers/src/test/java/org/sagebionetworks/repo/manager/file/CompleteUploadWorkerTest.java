@@ -1,21 +1,25 @@
 package org.sagebionetworks.repo.manager.file;
 
 import java.util.LinkedList;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sagebionetworks.repo.model.dao.UploadDaemonStatusDao;
 import org.sagebionetworks.repo.model.file.ChunkResult;
 import org.sagebionetworks.repo.model.file.ChunkedFileToken;
 import org.sagebionetworks.repo.model.file.CompleteAllChunksRequest;
+import org.sagebionetworks.repo.model.file.CompleteChunkedFileRequest;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.sagebionetworks.repo.model.file.State;
 import org.sagebionetworks.repo.model.file.UploadDaemonStatus;
 
@@ -28,6 +32,7 @@ public class CompleteUploadWorkerTest {
 	
 	UploadDaemonStatusDao stubUploadDaemonStatusDao;
 	ExecutorService mockThreadPool;
+	ExecutorService threadPool;
 	UploadDaemonStatus uploadStatus;
 	ChunkedFileToken token;
 	CompleteAllChunksRequest cacf;
@@ -39,6 +44,7 @@ public class CompleteUploadWorkerTest {
 	@Before
 	public void before(){
 		mockThreadPool = Mockito.mock(ExecutorService.class);
+		threadPool = Executors.newFixedThreadPool(4);
 		mockmulltipartManager = Mockito.mock(MultipartManager.class);
 		stubUploadDaemonStatusDao = new StubUploadDeamonStatusDao();
 		token = new ChunkedFileToken();
@@ -58,11 +64,14 @@ public class CompleteUploadWorkerTest {
 		uploadStatus = stubUploadDaemonStatusDao.create(uploadStatus);
 	}
 	
+	@After
+	public void after(){
+		threadPool.shutdownNow();
+	}
+	
 	@Test
 	public void testTimeout() throws Exception{
-		Future<ChunkResult> mockFuture = Mockito.mock(Future.class);
-		when(mockThreadPool.submit(any(Callable.class))).thenReturn(mockFuture);
-		when(mockFuture.isDone()).thenReturn(false);
+		// The mock pool never runs the workers so no part will complete.
 		CompleteUploadWorker cuw = new CompleteUploadWorker(stubUploadDaemonStatusDao, mockThreadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
 		assertFalse(cuw.call());
 		// The status should be set to failed
@@ -75,12 +84,10 @@ public class CompleteUploadWorkerTest {
 	
 	@Test
 	public void testCopyFailed() throws Exception{
-		Future<ChunkResult> mockFuture = Mockito.mock(Future.class);
-		when(mockThreadPool.submit(any(Callable.class))).thenReturn(mockFuture);
-		when(mockFuture.isDone()).thenReturn(true);
-		when(mockFuture.get()).thenThrow(new ExecutionException("some kind of error", new IllegalArgumentException("foo")));
+		when(mockmulltipartManager.doesPartExist(any(ChunkedFileToken.class), anyInt(), anyString())).thenReturn(true);
+		when(mockmulltipartManager.copyPart(any(ChunkedFileToken.class), anyInt(), anyString())).thenThrow(new IllegalArgumentException("some kind of error"));
 		maxWaitMS = 2000;
-		CompleteUploadWorker cuw = new CompleteUploadWorker(stubUploadDaemonStatusDao, mockThreadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
+		CompleteUploadWorker cuw = new CompleteUploadWorker(stubUploadDaemonStatusDao, threadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
 		assertFalse(cuw.call());
 		// The status should be set to failed
 		UploadDaemonStatus status = stubUploadDaemonStatusDao.get(uploadStatus.getDaemonId());
@@ -89,4 +96,61 @@ public class CompleteUploadWorkerTest {
 		assertNotNull(status.getErrorMessage());
 		assertTrue(status.getErrorMessage().indexOf("some kind of error") > -1);
 	}
+	
+	@Test
+	public void testPartsInFlightBounded() throws Exception{
+		cacf.getChunkNumbers().clear();
+		for(long i=1; i<=20; i++){
+			cacf.getChunkNumbers().add(i);
+		}
+		final AtomicInteger inFlight = new AtomicInteger(0);
+		final AtomicInteger maxInFlight = new AtomicInteger(0);
+		when(mockmulltipartManager.doesPartExist(any(ChunkedFileToken.class), anyInt(), anyString())).thenReturn(true);
+		when(mockmulltipartManager.copyPart(any(ChunkedFileToken.class), anyInt(), anyString())).thenAnswer(new Answer<ChunkResult>() {
+			@Override
+			public ChunkResult answer(InvocationOnMock invocation) throws Throwable {
+				int current = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(maxInFlight.get(), current));
+				}
+				Thread.sleep(5);
+				inFlight.decrementAndGet();
+				ChunkResult cr = new ChunkResult();
+				cr.setChunkNumber(new Long((Integer)invocation.getArguments()[1]));
+				return cr;
+			}
+		});
+		S3FileHandle handle = new S3FileHandle();
+		handle.setId("456");
+		when(mockmulltipartManager.completeChunkFileUpload(any(CompleteChunkedFileRequest.class), anyString(), anyString())).thenReturn(handle);
+		CompleteUploadWorker cuw = new CompleteUploadWorker(stubUploadDaemonStatusDao, threadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
+		cuw.setMaxPartsInFlight(2);
+		assertTrue(cuw.call());
+		assertTrue("Max in flight: "+maxInFlight.get(), maxInFlight.get() <= 2);
+		verify(mockmulltipartManager, times(20)).copyPart(any(ChunkedFileToken.class), anyInt(), anyString());
+		UploadDaemonStatus status = stubUploadDaemonStatusDao.get(uploadStatus.getDaemonId());
+		assertEquals(State.COMPLETED, status.getState());
+		assertEquals("456", status.getFileHandleId());
+	}
+	
+	@Test
+	public void testStatusUpdatesBatched() throws Exception{
+		UploadDaemonStatusDao spyDao = Mockito.spy(stubUploadDaemonStatusDao);
+		when(mockmulltipartManager.doesPartExist(any(ChunkedFileToken.class), anyInt(), anyString())).thenReturn(true);
+		when(mockmulltipartManager.copyPart(any(ChunkedFileToken.class), anyInt(), anyString())).thenReturn(new ChunkResult());
+		S3FileHandle handle = new S3FileHandle();
+		handle.setId("456");
+		when(mockmulltipartManager.completeChunkFileUpload(any(CompleteChunkedFileRequest.class), anyString(), anyString())).thenReturn(handle);
+		CompleteUploadWorker cuw = new CompleteUploadWorker(spyDao, threadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
+		cuw.setStatusUpdateIntervalMS(60*1000);
+		assertTrue(cuw.call());
+		// Only the final status should be written.
+		verify(spyDao, times(1)).update(any(UploadDaemonStatus.class));
+		// The status is written for each part when there is no interval.
+		spyDao = Mockito.spy(stubUploadDaemonStatusDao);
+		cuw = new CompleteUploadWorker(spyDao, threadPool, uploadStatus, cacf, mockmulltipartManager, bucket, maxWaitMS, userId);
+		cuw.setStatusUpdateIntervalMS(0);
+		assertTrue(cuw.call());
+		verify(spyDao, times(4)).update(any(UploadDaemonStatus.class));
+	}
 }
@@ -0,0 +1,163 @@
+package org.sagebionetworks.repo.manager.file.preview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+public class ImagePreviewTest {
+	
+	static private Log log = LogFactory.getLog(ImagePreviewTest.class);
+	
+	private static final int MAX_WIDTH = 425;
+	private static final int MAX_HEIGHT = 200;
+	
+	@Test
+	public void testCalculateSubsampling(){
+		// Small images are not subsampled
+		assertEquals(1, ImagePreviewGenerator.calculateSubsampling(100, 100, MAX_WIDTH, MAX_HEIGHT));
+		assertEquals(1, ImagePreviewGenerator.calculateSubsampling(MAX_WIDTH, MAX_HEIGHT, MAX_WIDTH, MAX_HEIGHT));
+		// The height limits this one
+		assertEquals(4, ImagePreviewGenerator.calculateSubsampling(900, 900, MAX_WIDTH, MAX_HEIGHT));
+		// The width limits this one
+		assertEquals(10, ImagePreviewGenerator.calculateSubsampling(4250, 200, MAX_WIDTH, MAX_HEIGHT));
+	}
+	
+	@Test
+	public void testReadSubsampledResources() throws IOException{
+		String[] names = new String[]{"images/squarish.png", "images/tallSkinny.jpg", "images/shortWide.gif"};
+		for(String name: names){
+			InputStream in = ImagePreviewTest.class.getClassLoader().getResourceAsStream(name);
+			try{
+				BufferedImage image = ImagePreviewGenerator.readSubsampled(in, MAX_WIDTH, MAX_HEIGHT);
+				// The decoded image must be large enough for the preview but less than twice its size.
+				assertTrue(name, image.getWidth() >= MAX_WIDTH || image.getHeight() >= MAX_HEIGHT);
+				assertTrue(name, image.getWidth() < 2*MAX_WIDTH);
+				assertTrue(name, image.getHeight() < 2*MAX_HEIGHT);
+			}finally{
+				in.close();
+			}
+		}
+	}
+	
+	@Test
+	public void testIsStreamingImage() throws IOException{
+		assertTrue(ImagePreviewGenerator.isStreamingImage(createImage(300, 200, "png")));
+		assertTrue(ImagePreviewGenerator.isStreamingImage(createImage(300, 200, "jpg")));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(createProgressiveImage(300, 200, "png")));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(createProgressiveImage(300, 200, "jpg")));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(createImage(300, 200, "gif")));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(createImage(300, 200, "bmp")));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(null));
+		assertFalse(ImagePreviewGenerator.isStreamingImage(new byte[0]));
+		// The start of frame is not in the header
+		byte[] jpg = createImage(300, 200, "jpg");
+		assertFalse(ImagePreviewGenerator.isStreamingImage(Arrays.copyOf(jpg, 4)));
+	}
+	
+	@Test
+	public void testGetMaxMemoryNeededBytes() throws IOException{
+		ImagePreviewGenerator generator = new ImagePreviewGenerator();
+		long bound = generator.getMaxMemoryNeededBytes(ImagePreviewGenerator.IMAGE_JPEG, createImage(300, 200, "jpg"));
+		assertTrue(bound < Long.MAX_VALUE);
+		// The decoders of these might buffer the full image.
+		assertEquals(Long.MAX_VALUE, generator.getMaxMemoryNeededBytes(ImagePreviewGenerator.IMAGE_JPEG, createProgressiveImage(300, 200, "jpg")));
+		assertEquals(Long.MAX_VALUE, generator.getMaxMemoryNeededBytes(ImagePreviewGenerator.IMAGE_PNG, createProgressiveImage(300, 200, "png")));
+		assertEquals(Long.MAX_VALUE, generator.getMaxMemoryNeededBytes(ImagePreviewGenerator.IMAGE_GIF, createImage(300, 200, "gif")));
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void testReadSubsampledNotAnImage() throws IOException{
+		InputStream in = ImagePreviewTest.class.getClassLoader().getResourceAsStream("images/notAnImage.txt");
+		try{
+			ImagePreviewGenerator.readSubsampled(in, MAX_WIDTH, MAX_HEIGHT);
+		}finally{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Compare the time and heap used to decode large images in full with a subsampled decode.
+	 */
+	@Test
+	public void testLargeImages() throws IOException{
+		int[][] sizes = new int[][]{{4000, 3000}, {8000, 1000}, {1500, 6000}};
+		for(int[] size: sizes){
+			for(String format: new String[]{"png", "jpg"}){
+				byte[] data = createImage(size[0], size[1], format);
+				long start = System.nanoTime();
+				BufferedImage full = ImageIO.read(new ByteArrayInputStream(data));
+				long fullMS = (System.nanoTime()-start)/1000000;
+				long fullBytes = rasterBytes(full);
+				full = null;
+				start = System.nanoTime();
+				BufferedImage sub = ImagePreviewGenerator.readSubsampled(new ByteArrayInputStream(data), MAX_WIDTH, MAX_HEIGHT);
+				long subMS = (System.nanoTime()-start)/1000000;
+				long subBytes = rasterBytes(sub);
+				log.debug(String.format("%1$dx%2$d %3$s (%4$d bytes): full decode %5$d ms %6$d bytes, subsampled %7$d ms %8$d bytes",
+						size[0], size[1], format, data.length, fullMS, fullBytes, subMS, subBytes));
+				assertTrue(sub.getWidth() < 2*MAX_WIDTH);
+				assertTrue(sub.getHeight() < 2*MAX_HEIGHT);
+				assertTrue(subBytes < fullBytes);
+			}
+		}
+	}
+	
+	private static long rasterBytes(BufferedImage image){
+		return ((long)image.getWidth())*image.getHeight()*image.getColorModel().getPixelSize()/8;
+	}
+	
+	private static byte[] createImage(int width, int height, String format) throws IOException{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try{
+			for(int i=0; i<20; i++){
+				g.setColor(new Color(i*12, 255-i*12, (i*40)%255));
+				g.fillOval(i*width/20, i*height/20, width/4, height/4);
+			}
+		}finally{
+			g.dispose();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * A progressive JPEG or an interlaced PNG.
+	 */
+	private static byte[] createProgressiveImage(int width, int height, String format) throws IOException{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+		try{
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			writer.write(null, new IIOImage(image, null, null), param);
+		}finally{
+			writer.dispose();
+			ios.close();
+		}
+		return out.toByteArray();
+	}
+}
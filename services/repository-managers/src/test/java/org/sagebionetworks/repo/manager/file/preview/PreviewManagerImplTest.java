@@ -1,8 +1,10 @@
 package org.sagebionetworks.repo.manager.file.preview;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -10,6 +12,7 @@ import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -20,6 +23,7 @@ import java.util.concurrent.Callable;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.sagebionetworks.repo.model.dao.FileHandleDao;
 import org.sagebionetworks.repo.model.file.PreviewFileHandle;
@@ -30,7 +34,9 @@ import org.sagebionetworks.repo.util.TempFileProvider;
 import org.sagebionetworks.repo.web.TemporarilyUnavailableException;
 
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 
 public class PreviewManagerImplTest {
 	
@@ -181,5 +187,83 @@ public class PreviewManagerImplTest {
 		// Make sure the preview is in the dao
 		PreviewFileHandle fromDao = (PreviewFileHandle) stubFileMetadataDao.get(pfm.getId());
 		assertEquals(pfm, fromDao);
+		// The entire file is downloaded
+		ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+		verify(mockS3Client).getObject(captor.capture(), any(File.class));
+		assertNull(captor.getValue().getRange());
+	}
+	
+	@Test
+	public void testStreamingPreviewOfLargeFile() throws Exception{
+		StreamingPreviewGenerator mockStreamingGenerator = Mockito.mock(StreamingPreviewGenerator.class);
+		when(mockStreamingGenerator.supportsContentType(testContentType)).thenReturn(true);
+		when(mockStreamingGenerator.getMemoryMultiplierForContentType(testContentType)).thenReturn(multiplerForContentType);
+		when(mockStreamingGenerator.getLeadingBytesNeeded(testContentType)).thenReturn(50l);
+		when(mockStreamingGenerator.generatePreview(mockInputStream, mockOutputStream)).thenReturn(previewContentType);
+		List<PreviewGenerator> genList = new LinkedList<PreviewGenerator>();
+		genList.add(mockStreamingGenerator);
+		previewManager = new PreviewManagerImpl(stubFileMetadataDao, mockS3Client, mockFileProvider, genList, maxPreviewSize);
+		// This file is far too large to load but only the first 50 bytes are needed.
+		testMetadata.setContentSize(1000l*1000l*1000l);
+		PreviewFileHandle pfm = previewManager.generatePreview(testMetadata);
+		assertNotNull(pfm);
+		// Only the leading bytes are downloaded
+		ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+		verify(mockS3Client).getObject(captor.capture(), any(File.class));
+		assertArrayEquals(new long[]{0, 49}, captor.getValue().getRange());
+	}
+	
+	@Test
+	public void testGetMemoryNeededBytes(){
+		// The multiplier is used for generators without a limit
+		assertEquals(150l, PreviewManagerImpl.getMemoryNeededBytes(mockPreviewGenerator, testContentType, 100l, null));
+		BoundedMemoryPreviewGenerator mockBoundedGenerator = Mockito.mock(BoundedMemoryPreviewGenerator.class);
+		byte[] streaming = new byte[]{1};
+		byte[] notStreaming = new byte[]{2};
+		when(mockBoundedGenerator.getMemoryMultiplierForContentType(testContentType)).thenReturn(multiplerForContentType);
+		when(mockBoundedGenerator.getMaxMemoryNeededBytes(testContentType, streaming)).thenReturn(120l);
+		when(mockBoundedGenerator.getMaxMemoryNeededBytes(testContentType, notStreaming)).thenReturn(Long.MAX_VALUE);
+		// The smaller of the two is used.
+		assertEquals(120l, PreviewManagerImpl.getMemoryNeededBytes(mockBoundedGenerator, testContentType, 100l, streaming));
+		assertEquals(15l, PreviewManagerImpl.getMemoryNeededBytes(mockBoundedGenerator, testContentType, 10l, streaming));
+		// Files without a limit use the multiplier
+		assertEquals(150l, PreviewManagerImpl.getMemoryNeededBytes(mockBoundedGenerator, testContentType, 100l, notStreaming));
+	}
+	
+	@Test
+	public void testBoundedPreviewReadsHeader() throws Exception{
+		BoundedMemoryPreviewGenerator mockBoundedGenerator = Mockito.mock(BoundedMemoryPreviewGenerator.class);
+		when(mockBoundedGenerator.supportsContentType(testContentType)).thenReturn(true);
+		when(mockBoundedGenerator.getMemoryMultiplierForContentType(testContentType)).thenReturn(multiplerForContentType);
+		when(mockBoundedGenerator.getHeaderBytesNeeded(testContentType)).thenReturn(4);
+		when(mockBoundedGenerator.getMaxMemoryNeededBytes(any(String.class), any(byte[].class))).thenReturn(maxPreviewSize);
+		when(mockBoundedGenerator.generatePreview(mockInputStream, mockOutputStream)).thenReturn(previewContentType);
+		S3Object header = new S3Object();
+		header.setObjectContent(new ByteArrayInputStream(new byte[]{1,2,3,4}));
+		when(mockS3Client.getObject(any(GetObjectRequest.class))).thenReturn(header);
+		List<PreviewGenerator> genList = new LinkedList<PreviewGenerator>();
+		genList.add(mockBoundedGenerator);
+		previewManager = new PreviewManagerImpl(stubFileMetadataDao, mockS3Client, mockFileProvider, genList, maxPreviewSize);
+		// Too large for the multiplier but within the limit for this file.
+		testMetadata.setContentSize(1000l);
+		PreviewFileHandle pfm = previewManager.generatePreview(testMetadata);
+		assertNotNull(pfm);
+		ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+		verify(mockS3Client).getObject(captor.capture());
+		assertArrayEquals(new long[]{0, 3}, captor.getValue().getRange());
+		verify(mockBoundedGenerator).getMaxMemoryNeededBytes(testContentType, new byte[]{1,2,3,4});
+	}
+	
+	@Test
+	public void testGetBytesToRead(){
+		StreamingPreviewGenerator mockStreamingGenerator = Mockito.mock(StreamingPreviewGenerator.class);
+		when(mockStreamingGenerator.getLeadingBytesNeeded(testContentType)).thenReturn(50l);
+		// Smaller files are read in full.
+		testMetadata.setContentSize(10l);
+		assertEquals(10l, PreviewManagerImpl.getBytesToRead(mockStreamingGenerator, testMetadata));
+		testMetadata.setContentSize(100l);
+		assertEquals(50l, PreviewManagerImpl.getBytesToRead(mockStreamingGenerator, testMetadata));
+		// Other generators need the entire file.
+		assertEquals(100l, PreviewManagerImpl.getBytesToRead(mockPreviewGenerator, testMetadata));
 	}
 }
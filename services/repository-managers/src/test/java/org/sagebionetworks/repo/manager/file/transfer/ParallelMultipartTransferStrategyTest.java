@@ -0,0 +1,280 @@
+package org.sagebionetworks.repo.manager.file.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
+import org.sagebionetworks.repo.web.ServiceUnavailableException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * Unit test for ParallelMultipartTransferStrategy. The S3 client is a stand-in
+ * that keeps the parts in memory and joins them when the upload is completed.
+ *
+ */
+public class ParallelMultipartTransferStrategyTest {
+
+	public static final int FIVE_MB = ((int) Math.pow(2, 20))*5;
+
+	AmazonS3Client mockS3Client;
+	ExecutorService threadPool;
+	ParallelMultipartTransferStrategy strategy;
+	TransferRequest transferRequest;
+	Map<Integer, byte[]> uploadedParts;
+	byte[] completedObject;
+	AtomicInteger failPartNumber;
+
+	@Before
+	public void before() throws Exception{
+		mockS3Client = Mockito.mock(AmazonS3Client.class);
+		threadPool = Executors.newFixedThreadPool(4);
+		// Room for three buffers.
+		strategy = new ParallelMultipartTransferStrategy(mockS3Client, threadPool, FIVE_MB*3, FIVE_MB);
+		strategy.setMaxPartsInFlightPerTransfer(2);
+		uploadedParts = new ConcurrentHashMap<Integer, byte[]>();
+		failPartNumber = new AtomicInteger(-1);
+		transferRequest = new TransferRequest();
+		transferRequest.setS3bucketName("bucket");
+		transferRequest.setS3key("key");
+		transferRequest.setContentType("contentType");
+		transferRequest.setFileName("foo.txt");
+
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(transferRequest.getS3bucketName());
+		result.setKey(transferRequest.getS3key());
+		result.setUploadId("uploadId");
+		when(mockS3Client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(result);
+		when(mockS3Client.uploadPart(any(UploadPartRequest.class))).thenAnswer(new Answer<UploadPartResult>() {
+			@Override
+			public UploadPartResult answer(InvocationOnMock invocation) throws Throwable {
+				UploadPartRequest request = (UploadPartRequest) invocation.getArguments()[0];
+				if(request.getPartNumber() == failPartNumber.get()){
+					throw new AmazonClientException("Simulated failure");
+				}
+				byte[] data = IOUtils.toByteArray(request.getInputStream());
+				assertEquals(request.getPartSize(), data.length);
+				// Validate the part MD5
+				MessageDigest digest = TransferUtils.createMD5Digest();
+				digest.update(data);
+				assertEquals(request.getMd5Digest(), BinaryUtils.toBase64(digest.digest()));
+				uploadedParts.put(request.getPartNumber(), data);
+				UploadPartResult result = new UploadPartResult();
+				result.setPartNumber(request.getPartNumber());
+				result.setETag("etag"+request.getPartNumber());
+				return result;
+			}
+		});
+		when(mockS3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class))).thenAnswer(new Answer<CompleteMultipartUploadResult>() {
+			@Override
+			public CompleteMultipartUploadResult answer(InvocationOnMock invocation) throws Throwable {
+				CompleteMultipartUploadRequest request = (CompleteMultipartUploadRequest) invocation.getArguments()[0];
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int expectedPartNumber = 1;
+				for(PartETag tag: request.getPartETags()){
+					assertEquals(expectedPartNumber++, tag.getPartNumber());
+					out.write(uploadedParts.get(tag.getPartNumber()));
+				}
+				completedObject = out.toByteArray();
+				return new CompleteMultipartUploadResult();
+			}
+		});
+	}
+
+	@After
+	public void after(){
+		threadPool.shutdownNow();
+	}
+
+	private byte[] createData(int size){
+		byte[] data = new byte[size];
+		new Random(123).nextBytes(data);
+		return data;
+	}
+
+	private String md5Hex(byte[] data){
+		MessageDigest digest = TransferUtils.createMD5Digest();
+		digest.update(data);
+		return BinaryUtils.toHex(digest.digest());
+	}
+
+	@Test
+	public void testMultipleParts() throws Exception{
+		// Eleven full parts and a partial part.
+		byte[] data = createData(FIVE_MB*11+1234);
+		transferRequest.setInputStream(new ByteArrayInputStream(data));
+		S3FileHandle meta = strategy.transferToS3(transferRequest);
+		assertNotNull(meta);
+		assertEquals(new Long(data.length), meta.getContentSize());
+		assertEquals(md5Hex(data), meta.getContentMd5());
+		assertEquals(12, uploadedParts.size());
+		assertArrayEquals(data, completedObject);
+		// All buffers are returned.
+		assertEquals(3, strategy.getAvailableBuffers());
+		assertEquals(12, strategy.getTotalPartCount());
+		assertEquals(data.length, strategy.getTotalPartBytes());
+	}
+
+	@Test
+	public void testExactMultipleOfPartSize() throws Exception{
+		byte[] data = createData(FIVE_MB*2);
+		transferRequest.setInputStream(new ByteArrayInputStream(data));
+		S3FileHandle meta = strategy.transferToS3(transferRequest);
+		assertEquals(new Long(data.length), meta.getContentSize());
+		assertEquals(2, uploadedParts.size());
+		assertArrayEquals(data, completedObject);
+		assertEquals(3, strategy.getAvailableBuffers());
+	}
+
+	@Test
+	public void testSmallFile() throws Exception{
+		byte[] data = "This will be our simple stream".getBytes("UTF-8");
+		transferRequest.setInputStream(new ByteArrayInputStream(data));
+		S3FileHandle meta = strategy.transferToS3(transferRequest);
+		assertEquals(md5Hex(data), meta.getContentMd5());
+		assertEquals(transferRequest.getS3bucketName(), meta.getBucketName());
+		assertEquals(transferRequest.getS3key(), meta.getKey());
+		assertEquals(transferRequest.getContentType(), meta.getContentType());
+		assertEquals(transferRequest.getFileName(), meta.getFileName());
+		assertArrayEquals(data, completedObject);
+	}
+
+	@Test
+	public void testPoolExhausted() throws Exception{
+		strategy = new ParallelMultipartTransferStrategy(mockS3Client, threadPool, FIVE_MB, FIVE_MB);
+		strategy.setFirstBufferTimeoutMS(1);
+		// Hold the only buffer with a transfer that is blocked on its stream.
+		final Object lock = new Object();
+		final ByteArrayInputStream data = new ByteArrayInputStream(createData(100));
+		TransferRequest blocked = new TransferRequest();
+		blocked.setS3bucketName("bucket");
+		blocked.setS3key("key2");
+		blocked.setContentType("contentType");
+		blocked.setFileName("bar.txt");
+		final AtomicInteger reading = new AtomicInteger(0);
+		final AtomicInteger released = new AtomicInteger(0);
+		blocked.setInputStream(new java.io.InputStream() {
+			@Override
+			public int read() throws IOException {
+				return data.read();
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				synchronized(lock){
+					reading.set(1);
+					lock.notifyAll();
+					try {
+						while(released.get() == 0){
+							lock.wait(5000);
+						}
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				return data.read(b, off, len);
+			}
+		});
+		final TransferRequest blockedRequest = blocked;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					strategy.transferToS3(blockedRequest);
+				} catch (Exception e) {
+					// not under test
+				}
+			}
+		});
+		synchronized(lock){
+			thread.start();
+			while(reading.get() == 0){
+				lock.wait(5000);
+			}
+		}
+		try{
+			transferRequest.setInputStream(new ByteArrayInputStream(createData(10)));
+			strategy.transferToS3(transferRequest);
+			fail("The pool should have been exhausted");
+		}catch(ServiceUnavailableException e){
+			// expected
+		}finally{
+			synchronized(lock){
+				released.set(1);
+				lock.notifyAll();
+			}
+			thread.join(5000);
+		}
+	}
+
+	@Test
+	public void testPartFailureAborts() throws Exception{
+		failPartNumber.set(3);
+		byte[] data = createData(FIVE_MB*6);
+		transferRequest.setInputStream(new ByteArrayInputStream(data));
+		try{
+			strategy.transferToS3(transferRequest);
+			fail("The part failure should have been thrown");
+		}catch(AmazonClientException e){
+			// expected
+		}
+		verify(mockS3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		verify(mockS3Client, times(0)).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+		// All buffers are returned.
+		assertEquals(3, strategy.getAvailableBuffers());
+	}
+
+	@Test
+	public void testInvalidPassedMD5DeleteFile() throws Exception{
+		byte[] data = createData(1000);
+		transferRequest.setInputStream(new ByteArrayInputStream(data));
+		transferRequest.setContentMD5("1234");
+		try{
+			strategy.transferToS3(transferRequest);
+			fail("This should have failed as the MD5 did not match");
+		}catch(IllegalArgumentException e){
+			assertTrue(e.getMessage().indexOf("1234") > -1);
+		}
+		verify(mockS3Client, times(1)).deleteObject(transferRequest.getS3bucketName(), transferRequest.getS3key());
+		verify(mockS3Client, times(0)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+	}
+
+	@Test (expected=IllegalStateException.class)
+	public void testPartSizeTooSmall(){
+		new ParallelMultipartTransferStrategy(mockS3Client, threadPool, FIVE_MB*3, FIVE_MB-1);
+	}
+}
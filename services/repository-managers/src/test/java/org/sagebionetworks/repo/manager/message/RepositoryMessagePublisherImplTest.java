@@ -1,6 +1,19 @@
 package org.sagebionetworks.repo.manager.message;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -10,7 +23,9 @@ import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.message.TransactionalMessenger;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.PublishRequest;
 
 /**
  * Unit test for RepositoryMessagePublisherImpl.
@@ -73,4 +88,70 @@ public class RepositoryMessagePublisherImplTest {
 		// This should work
 		messagePublisher.fireChangeMessage(message);
 	}
+	
+	@Test
+	public void testTimerFiredBatchesSent(){
+		messagePublisher.setShouldMessagesBePublishedToTopic(true);
+		messagePublisher.setMaxMessagesPerFlush(2);
+		List<Long> expectedFirst = new LinkedList<Long>();
+		for(long i=0; i<3; i++){
+			ChangeMessage toFire = createMessage(i);
+			messagePublisher.fireChangeMessage(toFire);
+			if(i < 2){
+				expectedFirst.add(i);
+			}
+		}
+		assertEquals(3, messagePublisher.getBacklogSize());
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, times(3)).publish(any(PublishRequest.class));
+		// One write for each flush.
+		verify(mockTransactionalMessanger).registerMessagesSent(expectedFirst);
+		verify(mockTransactionalMessanger).registerMessagesSent(Arrays.asList(2L));
+		verify(mockTransactionalMessanger, never()).registerMessageSent(anyLong());
+		assertEquals(0, messagePublisher.getBacklogSize());
+		assertEquals(1, messagePublisher.getLastFlushSize());
+	}
+	
+	@Test
+	public void testTimerFiredPublishFailure(){
+		messagePublisher.setShouldMessagesBePublishedToTopic(true);
+		messagePublisher.fireChangeMessage(createMessage(1L));
+		when(mockAwsSNSClient.publish(any(PublishRequest.class))).thenThrow(new AmazonClientException("Simulated failure"));
+		messagePublisher.timerFired();
+		// Nothing was sent so nothing should be registered.
+		verify(mockTransactionalMessanger, never()).registerMessagesSent(anyListOf(Long.class));
+	}
+	
+	@Test
+	public void testTimerFiredNotPublishing(){
+		messagePublisher.setShouldMessagesBePublishedToTopic(false);
+		messagePublisher.fireChangeMessage(message);
+		messagePublisher.timerFired();
+		verify(mockAwsSNSClient, never()).publish(any(PublishRequest.class));
+		verify(mockTransactionalMessanger, never()).registerMessagesSent(anyListOf(Long.class));
+	}
+	
+	@Test (expected=RejectedExecutionException.class)
+	public void testDestroy(){
+		// Nothing to stop before the first flush
+		messagePublisher.destroy();
+		messagePublisher.setShouldMessagesBePublishedToTopic(true);
+		messagePublisher.fireChangeMessage(createMessage(1L));
+		messagePublisher.timerFired();
+		messagePublisher.destroy();
+		// The publishing threads are stopped
+		messagePublisher.fireChangeMessage(createMessage(2L));
+		messagePublisher.timerFired();
+	}
+	
+	private ChangeMessage createMessage(long changeNumber){
+		ChangeMessage result = new ChangeMessage();
+		result.setChangeNumber(changeNumber);
+		result.setTimestamp(new Date());
+		result.setChangeType(ChangeType.UPDATE);
+		result.setObjectId("syn"+changeNumber);
+		result.setObjectType(ObjectType.ENTITY);
+		result.setObjectEtag("etag");
+		return result;
+	}
 }
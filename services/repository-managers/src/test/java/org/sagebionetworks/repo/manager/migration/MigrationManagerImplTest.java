@@ -16,17 +16,23 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import org.sagebionetworks.repo.model.MembershipInvtnSubmission;
+import org.sagebionetworks.repo.model.NodeLineageDAO;
 import org.sagebionetworks.repo.model.RestrictableObjectType;
+import org.sagebionetworks.repo.model.UserInfo;
 import org.sagebionetworks.repo.model.dbo.DatabaseObject;
 import org.sagebionetworks.repo.model.dbo.TableMapping;
+import org.sagebionetworks.repo.model.dbo.dao.DBOChangeDAO;
 import org.sagebionetworks.repo.model.dbo.dao.MembershipInvtnSubmissionUtils;
 import org.sagebionetworks.repo.model.dbo.migration.DBOSubjectAccessRequirementBackup;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableDAO;
 import org.sagebionetworks.repo.model.dbo.migration.MigratableTableTranslation;
+import org.sagebionetworks.repo.model.dbo.persistence.DBOChange;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOMembershipInvtnSubmission;
+import org.sagebionetworks.repo.model.dbo.persistence.DBONode;
 import org.sagebionetworks.repo.model.dbo.persistence.DBONodeAccessRequirement;
 import org.sagebionetworks.repo.model.dbo.persistence.DBOSubjectAccessRequirement;
 import org.sagebionetworks.repo.model.jdo.JDOSecondaryPropertyUtils;
+import org.sagebionetworks.repo.model.migration.MigrationType;
 
 /**
  * The Unit test for MigrationManagerImpl;
@@ -230,6 +236,47 @@ public class MigrationManagerImplTest {
 		}
 		
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRestoreNodesSyncsLineage() throws Exception {
+		NodeLineageDAO mockLineageDao = Mockito.mock(NodeLineageDAO.class);
+		manager.setNodeLineageDao(mockLineageDao);
+		DBONode node = new DBONode();
+		node.setId(123L);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BackupMarshalingUtils.writeBackupToStream(Arrays.asList(node), node.getTableMapping().getTableName(), out);
+		out.close();
+		when(mockDao.getObjectForType(MigrationType.NODE)).thenReturn(new DBONode());
+		when(mockDao.createOrUpdateBatch(any(List.class))).thenReturn(Arrays.asList(123L));
+		UserInfo admin = new UserInfo(true);
+		
+		// The lineage is left alone unless the node tree is in the database
+		manager.createOrUpdateBatch(admin, MigrationType.NODE, new ByteArrayInputStream(out.toByteArray()));
+		verify(mockLineageDao, never()).syncNode(anyLong());
+		
+		manager.setNodeLineageEnabled(true);
+		manager.createOrUpdateBatch(admin, MigrationType.NODE, new ByteArrayInputStream(out.toByteArray()));
+		verify(mockLineageDao).syncNode(123L);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRestoreChangesLowersWatermarks() throws Exception {
+		DBOChangeDAO mockChangeDao = Mockito.mock(DBOChangeDAO.class);
+		manager.setChangeDAO(mockChangeDao);
+		DBOChange change = new DBOChange();
+		change.setChangeNumber(7L);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BackupMarshalingUtils.writeBackupToStream(Arrays.asList(change), change.getTableMapping().getTableName(), out);
+		out.close();
+		when(mockDao.getObjectForType(MigrationType.CHANGE)).thenReturn(new DBOChange());
+		when(mockDao.createOrUpdateBatch(any(List.class))).thenReturn(Arrays.asList(9L, 7L, 8L));
+		UserInfo admin = new UserInfo(true);
+		manager.createOrUpdateBatch(admin, MigrationType.CHANGE, new ByteArrayInputStream(out.toByteArray()));
+		// The watermarks are lowered to just below the first restored change
+		verify(mockChangeDao).lowerWatermarks(6L);
+	}
 
 	
 	/**
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -316,6 +317,19 @@ public class SearchDocumentDriverImplAutowireTest {
 		assertEquals(-1, new String(cloudSearchDocument).indexOf("\\u0019"));
 	}
 	
+	@Test
+	public void testFormulateSearchDocuments() throws Exception {
+		Document expected = searchDocumentDriver.formulateSearchDocument(project.getId());
+		List<String> ids = new LinkedList<String>();
+		ids.add(project.getId());
+		// Nodes that do not exist are skipped.
+		ids.add("-123");
+		List<Document> batch = searchDocumentDriver.formulateSearchDocuments(ids);
+		assertEquals(1, batch.size());
+		assertEquals(expected.getId(), batch.get(0).getId());
+		assertEquals(expected.getFields(), batch.get(0).getFields());
+	}
+	
 	@Test
 	public void testGetAllWikiPageText(){
 		// The expected text fo
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -708,6 +709,79 @@ public class TrashManagerImplAutowiredTest {
 		assertFalse(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdC1)));
 	}
 
+	@Test
+	public void testPurgeTrashBefore() throws Exception {
+
+		//
+		//           root
+		//           /  \
+		//          A1  A2
+		//          |
+		//          B1
+		//          |
+		//          C1
+		//
+		final Node nodeA1 = new Node();
+		nodeA1.setName("TrashManagerImplAutowiredTest.testPurgeTrashBefore() A1");
+		nodeA1.setNodeType(EntityType.project.name());
+		final String nodeIdA1 = nodeManager.createNewNode(nodeA1, testUserInfo);
+		assertNotNull(nodeIdA1);
+		toClearList.add(nodeIdA1);
+
+		final Node nodeA2 = new Node();
+		nodeA2.setName("TrashManagerImplAutowiredTest.testPurgeTrashBefore() A2");
+		nodeA2.setNodeType(EntityType.project.name());
+		final String nodeIdA2 = nodeManager.createNewNode(nodeA2, testUserInfo);
+		assertNotNull(nodeIdA2);
+		toClearList.add(nodeIdA2);
+
+		final Node nodeB1 = new Node();
+		nodeB1.setName("TrashManagerImplAutowiredTest.testPurgeTrashBefore() B1");
+		nodeB1.setNodeType(EntityType.folder.name());
+		nodeB1.setParentId(nodeIdA1);
+		final String nodeIdB1 = nodeManager.createNewNode(nodeB1, testUserInfo);
+		assertNotNull(nodeIdB1);
+		toClearList.add(nodeIdB1);
+
+		final Node nodeC1 = new Node();
+		nodeC1.setName("TrashManagerImplAutowiredTest.testPurgeTrashBefore() C1");
+		nodeC1.setNodeType(EntityType.dataset.name());
+		nodeC1.setParentId(nodeIdB1);
+		final String nodeIdC1 = nodeManager.createNewNode(nodeC1, testUserInfo);
+		assertNotNull(nodeIdC1);
+		toClearList.add(nodeIdC1);
+
+		trashManager.moveToTrash(testUserInfo, nodeIdA1);
+		trashManager.moveToTrash(testUserInfo, nodeIdA2);
+
+		// Nothing is old enough
+		Timestamp past = new Timestamp(System.currentTimeMillis() - 1000L * 60L * 60L);
+		assertEquals(0, trashManager.purgeTrashBefore(past, 10L));
+		assertEquals(4, trashManager.viewTrashForUser(testUserInfo, testUserInfo, 0L, 1000L).getResults().size());
+
+		// One at a time, leaves first
+		Timestamp future = new Timestamp(System.currentTimeMillis() + 1000L * 60L * 60L);
+		assertEquals(1, trashManager.purgeTrashBefore(future, 1L));
+		assertFalse(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdC1)));
+		assertTrue(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdB1)));
+		assertEquals(KeyFactory.stringToKey(nodeIdC1), trashCanDao.getPurgeCheckpoint());
+		int purged = 1;
+		for (int i = 0; i < 10; i++) {
+			int count = trashManager.purgeTrashBefore(future, 1L);
+			if (count == 0) {
+				break;
+			}
+			purged += count;
+		}
+		assertEquals(4, purged);
+		assertEquals(0, trashManager.viewTrashForUser(testUserInfo, testUserInfo, 0L, 1000L).getResults().size());
+		assertFalse(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdA1)));
+		assertFalse(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdA2)));
+		assertFalse(nodeDAO.doesNodeExist(KeyFactory.stringToKey(nodeIdB1)));
+		// The next purge starts from the top
+		assertEquals(null, trashCanDao.getPurgeCheckpoint());
+	}
+
 	@Test
 	public void testAdmin() throws Exception {
 
@@ -512,6 +512,8 @@ public class UrlHelpers {
 	public static final String MIGRATION_COUNTS = MIGRATION+"/counts";
 	public static final String MIGRATION_ROWS = MIGRATION+"/rows";
 	public static final String MIGRATION_DELTA = MIGRATION+"/delta";
+	public static final String MIGRATION_RANGE_ROWS = MIGRATION+"/rangerows";
+	public static final String MIGRATION_RANGE_CHECKSUM = MIGRATION+"/rangechecksum";
 	public static final String MIGRATION_BACKUP = MIGRATION+"/backup";
 	public static final String MIGRATION_RESTORE = MIGRATION+"/restore";
 	public static final String MIGRATION_DELETE = MIGRATION+"/delete";
@@ -14,6 +14,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.sagebionetworks.repo.web.UrlHelpers;
@@ -106,6 +107,58 @@ public class MigrationController extends BaseController {
 		return serviceProvider.getMigrationService().getRowMetadataDeltaForType(userId,	MigrationType.valueOf(type), request.getList());
 	}
 
+	/**
+	 * One page of the metadata of the rows with IDs in a range, ordered by
+	 * ID. The next page starts at one more than the last ID of this page, so
+	 * reading a page does not get slower with the number of pages already read.
+	 * 
+	 * @param userId
+	 * @param type
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @param limit
+	 * @return
+	 * @throws DatastoreException
+	 * @throws NotFoundException
+	 */
+	@ResponseStatus(HttpStatus.OK)
+	@RequestMapping(value = UrlHelpers.MIGRATION_RANGE_ROWS, method = RequestMethod.GET)
+	public @ResponseBody
+	RowMetadataResult getRowMetadataByRange(
+			@RequestParam(value = AuthorizationConstants.USER_ID_PARAM, required = true) String userId,
+			@RequestParam(required = true) String type,
+			@RequestParam(required = true) Long minId,
+			@RequestParam(required = true) Long maxId,
+			@RequestParam(required = true) Long limit)
+			throws DatastoreException, NotFoundException {
+		return serviceProvider.getMigrationService().getRowMetadataByRangeForType(userId, MigrationType.valueOf(type), minId, maxId, limit);
+	}
+
+	/**
+	 * The count and aggregate checksum of the IDs and etags of the rows with
+	 * IDs in a range. The migration client compares the checksums of the
+	 * source and destination and only lists the rows of ranges that differ.
+	 * 
+	 * @param userId
+	 * @param type
+	 * @param minId The smallest ID to include.
+	 * @param maxId The largest ID to include.
+	 * @return
+	 * @throws DatastoreException
+	 * @throws NotFoundException
+	 */
+	@ResponseStatus(HttpStatus.OK)
+	@RequestMapping(value = UrlHelpers.MIGRATION_RANGE_CHECKSUM, method = RequestMethod.GET)
+	public @ResponseBody
+	RangeChecksum getChecksumForIdRange(
+			@RequestParam(value = AuthorizationConstants.USER_ID_PARAM, required = true) String userId,
+			@RequestParam(required = true) String type,
+			@RequestParam(required = true) Long minId,
+			@RequestParam(required = true) Long maxId)
+			throws DatastoreException, NotFoundException {
+		return serviceProvider.getMigrationService().getChecksumForIdRange(userId, MigrationType.valueOf(type), minId, maxId);
+	}
+
 	/**
 	 * Start a backup daemon. Monitor the status of the daemon with the
 	 * getStatus method.
@@ -8,6 +8,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.web.NotFoundException;
 
@@ -51,6 +52,31 @@ public interface MigrationService {
 	 */
 	RowMetadataResult getRowMetadataDeltaForType(String userId,	MigrationType valueOf, List<Long> list) throws DatastoreException, NotFoundException;
 
+	/**
+	 * One page of the row metadata with IDs in the given range, ordered by ID.
+	 * @param userId
+	 * @param type
+	 * @param minId
+	 * @param maxId
+	 * @param limit
+	 * @return
+	 * @throws DatastoreException
+	 * @throws NotFoundException
+	 */
+	RowMetadataResult getRowMetadataByRangeForType(String userId, MigrationType type, long minId, long maxId, long limit) throws DatastoreException, NotFoundException;
+
+	/**
+	 * The count and aggregate checksum of the rows with IDs in the given range.
+	 * @param userId
+	 * @param type
+	 * @param minId
+	 * @param maxId
+	 * @return
+	 * @throws DatastoreException
+	 * @throws NotFoundException
+	 */
+	RangeChecksum getChecksumForIdRange(String userId, MigrationType type, long minId, long maxId) throws DatastoreException, NotFoundException;
+
 	/**
 	 * Start the backup of the provided list of Migration type IDs.
 	 * @param userId
@@ -13,6 +13,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.web.NotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,6 +64,20 @@ public class MigrationServiceImpl implements MigrationService {
 		return migrationManager.getRowMetadataDeltaForType(user, type, list);
 	}
 
+	@Override
+	public RowMetadataResult getRowMetadataByRangeForType(String userId, MigrationType type, long minId, long maxId, long limit) throws DatastoreException, NotFoundException {
+		if(userId == null) throw new IllegalArgumentException("userId cannot be null");
+		UserInfo user = userManager.getUserInfo(userId);
+		return migrationManager.getRowMetadataByRangeForType(user, type, minId, maxId, limit);
+	}
+
+	@Override
+	public RangeChecksum getChecksumForIdRange(String userId, MigrationType type, long minId, long maxId) throws DatastoreException, NotFoundException {
+		if(userId == null) throw new IllegalArgumentException("userId cannot be null");
+		UserInfo user = userManager.getUserInfo(userId);
+		return migrationManager.getChecksumForIdRange(user, type, minId, maxId);
+	}
+
 	@Override
 	public BackupRestoreStatus startBackup(String userId, MigrationType type, List<Long> list) throws DatastoreException, NotFoundException {
 		if(userId == null) throw new IllegalArgumentException("userId cannot be null");
@@ -9,7 +9,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sagebionetworks.audit.dao.AccessRecordDAO;
 import org.sagebionetworks.audit.utils.KeyGeneratorUtil;
-import org.sagebionetworks.repo.model.audit.AccessRecord;
 
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -114,16 +113,11 @@ public class MergeWorker {
 		if(data != null){
 			if(data.mergedKeys.size() > 0){
 				try {
-					// Load the data from each file to merge
-					List<AccessRecord> mergedBatches = new LinkedList<AccessRecord>();
-					for(String key: data.mergedKeys){
-						List<AccessRecord> subBatch = accessRecordDAO.getBatch(key);
-						mergedBatches.addAll(subBatch);
+					// Stream the files into a single merged file.
+					String newfileKey = accessRecordDAO.mergeBatches(data.mergedKeys, false);
+					if(newfileKey == null){
+						log.warn("All "+data.mergedKeys.size()+" files for "+data.batchDateString+" were empty and will be deleted");
 					}
-					// Use the time stamp from the first record as the time stamp for the new batch.
-					long timestamp = mergedBatches.get(0).getTimestamp();
-					// Save the merged batches
-					String newfileKey = accessRecordDAO.saveBatch(mergedBatches, timestamp, false);
 					
 					// Now delete all of the files that were merged.
 					for(String key: data.mergedKeys){
@@ -16,6 +16,7 @@ import java.util.zip.GZIPOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sagebionetworks.logging.s3.LogDAO;
+import org.sagebionetworks.logging.s3.LogIndex;
 import org.sagebionetworks.logging.s3.LogKeyUtils;
 import org.sagebionetworks.logging.s3.LogReader;
 
@@ -25,6 +26,7 @@ import com.amazonaws.services.s3.model.S3ObjectSummary;
 
 /**
  * This worker collates all logs based on log type and time.
+ * The indices of the collated logs are merged into the index of the new log.
  * 
  * @author John
  *
@@ -119,6 +121,8 @@ public class LogCollateWorker {
 					BufferedWriter outWriter = null;
 					LogReader[] toCollate = new LogReader[data.mergedKeys.size()];
 					File[] tempFiles = new File[data.mergedKeys.size()];
+					LogIndex mergedIndex = new LogIndex();
+					boolean allIndexed = true;
 					try{
 						// Now setup the writer
 						outWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp))));
@@ -129,6 +133,13 @@ public class LogCollateWorker {
 							ObjectMetadata meta = logDAO.downloadLogFile(key, tempFiles[index]);
 							toCollate[index] = new LogReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(tempFiles[index])))));
 							index++;
+							// Merge the index of this file if it has one.
+							LogIndex logIndex = readIndex(key);
+							if(logIndex == null){
+								allIndexed = false;
+							}else{
+								mergedIndex.merge(logIndex);
+							}
 						}
 						// Now collate all of the files
 						CollateUtils.collateLogs(toCollate, outWriter);
@@ -137,6 +148,8 @@ public class LogCollateWorker {
 						outWriter.close();
 						// Save the results back to s3
 						newFileKey = logDAO.saveLogFile(temp, timestamp);
+						// When any of the files was not indexed the index must be built from the collated data.
+						indexFile(newFileKey, allIndexed ? mergedIndex : null, temp);
 					}finally{
 						// Close the output stream
 						if(outWriter != null){
@@ -175,6 +188,46 @@ public class LogCollateWorker {
 		return false;
 	}
 	
+	/**
+	 * Read the index of a log that is being merged. A log without a readable index
+	 * is treated like a log that was never indexed, so failures are only logged.
+	 * 
+	 * @param key
+	 * @return The index or null if the log does not have a readable index.
+	 */
+	private LogIndex readIndex(String key) {
+		try {
+			return logDAO.getLogIndex(key);
+		} catch (IOException e) {
+			log.warn("Failed to read the index of log file: "+key, e);
+		} catch (RuntimeException e) {
+			log.warn("Failed to read the index of log file: "+key, e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Save the index of a collated log. The new log is already saved, so the merged
+	 * files must still be deleted when this fails. A log without an index is still
+	 * found by a search, it just has to be read, so failures are only logged.
+	 * 
+	 * @param key
+	 * @param index The merged index or null to build the index from the collated file.
+	 * @param collated
+	 */
+	private void indexFile(String key, LogIndex index, File collated) {
+		try {
+			if(index == null){
+				index = LogIndex.buildIndex(collated);
+			}
+			logDAO.saveLogIndex(key, index);
+		} catch (IOException e) {
+			log.warn("Failed to index log file: "+key, e);
+		} catch (RuntimeException e) {
+			log.warn("Failed to index log file: "+key, e);
+		}
+	}
+	
 	/**
 	 * All of the data about a batch.
 	 *
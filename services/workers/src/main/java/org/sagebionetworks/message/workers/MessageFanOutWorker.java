@@ -0,0 +1,87 @@
+package org.sagebionetworks.message.workers;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.repo.manager.MessageManager;
+import org.sagebionetworks.repo.web.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Delivers messages that had too many recipients to send in one transaction.
+ *
+ * The pending fan-outs are stored with the messages, so they survive a restart.  Each batch of
+ * recipients is delivered in its own transaction along with the point to resume from, so a failed
+ * or stopped run continues where it left off on the next run.
+ */
+public class MessageFanOutWorker implements Runnable {
+
+	static private Log log = LogFactory.getLog(MessageFanOutWorker.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_MAX_RUN_TIME_MS = 5 * 60 * 1000;
+
+	/**
+	 * The maximum number of messages looked at in one run
+	 */
+	public static final long MAX_MESSAGES_PER_RUN = 100;
+
+	@Autowired
+	private MessageManager messageManager;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long maxRunTimeMS = DEFAULT_MAX_RUN_TIME_MS;
+
+	/**
+	 * The number of recipients delivered in each transaction
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be greater than zero");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * A run stops after this much time; the next run resumes where it left off.
+	 * This should be less than the semaphore timeout.
+	 */
+	public void setMaxRunTimeMS(long maxRunTimeMS) {
+		this.maxRunTimeMS = maxRunTimeMS;
+	}
+
+	/**
+	 * For testing
+	 */
+	public void setMessageManager(MessageManager messageManager) {
+		this.messageManager = messageManager;
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		List<String> messageIds = messageManager.getPendingFanOuts(MAX_MESSAGES_PER_RUN);
+		for (String messageId : messageIds) {
+			try {
+				long batches = 0;
+				boolean more = true;
+				while (more) {
+					more = messageManager.deliverFanOutBatch(messageId, batchSize);
+					batches++;
+					if (more && System.currentTimeMillis() - start >= maxRunTimeMS) {
+						log.info("Delivered " + batches + " batches of message (" + messageId + ").  Stopping after "
+								+ (System.currentTimeMillis() - start) + " ms; the next run will resume from here.");
+						return;
+					}
+				}
+				log.info("Delivered message (" + messageId + ") to all recipients in " + batches + " batches");
+			} catch (NotFoundException e) {
+				// The message or its fan-out was removed since it was listed
+				log.info("Message (" + messageId + ") is no longer being delivered: " + e.getMessage());
+			} catch (Exception e) {
+				// The fan-out is left in place so the next run retries it
+				log.error("Failed to deliver message (" + messageId + ")", e);
+			}
+		}
+	}
+}
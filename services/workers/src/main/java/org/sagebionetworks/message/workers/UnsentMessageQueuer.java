@@ -35,6 +35,12 @@ public class UnsentMessageQueuer implements Runnable {
 	@Autowired
 	private DBOChangeDAO changeDAO;
 	private Long approxRangeSize;
+	private long gapTimeoutMS = DEFAULT_GAP_TIMEOUT_MS;
+	
+	/**
+	 * A change number passed by the sent high-water mark is looked for until a later change is this old.
+	 */
+	public static final long DEFAULT_GAP_TIMEOUT_MS = 5 * 60 * 1000;
 	
 	public void setApproxRangeSize(long approxRangeSize) {
 		if (approxRangeSize <= 0) {
@@ -43,6 +49,13 @@ public class UnsentMessageQueuer implements Runnable {
 		this.approxRangeSize = approxRangeSize;
 	}
 	
+	public void setGapTimeoutMS(long gapTimeoutMS) {
+		if (gapTimeoutMS < 0) {
+			throw new IllegalArgumentException("Gap timeout cannot be less than zero");
+		}
+		this.gapTimeoutMS = gapTimeoutMS;
+	}
+	
 	/**
 	 * For testing
 	 */
@@ -52,9 +65,12 @@ public class UnsentMessageQueuer implements Runnable {
 	
 	@Override
 	public void run() {
-		long count = changeDAO.getCount();
+		// Everything below the scan start has been sent, so only the changes from there on are queued.
+		long watermark = changeDAO.advanceSentHighWaterMark(gapTimeoutMS);
+		long start = changeDAO.getUnsentScanStart();
+		long count = changeDAO.getCountGreaterThan(start - 1);
 		if (count <= 0) {
-			log.info("No change messages");
+			log.info("No change messages above the sent watermark: " + watermark);
 			return;
 		}
 
@@ -89,11 +105,12 @@ public class UnsentMessageQueuer implements Runnable {
 	}
 	
 	/**
-	 * Builds up a number of ranges based on the state of the CHANGE table
+	 * Builds up a number of ranges based on the state of the CHANGE table from the unsent scan start
 	 */
 	protected List<SendMessageBatchRequestEntry> buildRangeBatch() {
-		long count = changeDAO.getCount();
-		long min = changeDAO.getMinimumChangeNumber();
+		long start = changeDAO.getUnsentScanStart();
+		long count = changeDAO.getCountGreaterThan(start - 1);
+		long min = Math.max(changeDAO.getMinimumChangeNumber(), start);
 		long max = changeDAO.getCurrentChangeNumber();
 		long chunks = 1 + count / approxRangeSize;
 		long chunkSize = 1 + (max - min) / chunks;
@@ -1,9 +1,13 @@
 package org.sagebionetworks.search.workers.sqs.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import org.apache.logging.log4j.LogManager;
@@ -146,22 +150,34 @@ public class SearchQueueWorker implements Callable<List<Message>> {
 	private void processCreateUpdateBatch() throws DatastoreException, ClientProtocolException, IOException, HttpClientHelperException {
 		if(createOrUpdateMessages != null){
 			log.debug("Processing "+createOrUpdateMessages.size()+" create/update messages");
+			// Messages without an etag (wiki changes) must always be sent.
+			Set<String> withoutEtag = new HashSet<String>();
+			Map<String, String> idToEtag = new HashMap<String, String>();
+			Set<String> ids = new LinkedHashSet<String>();
+			for(ChangeMessage message: createOrUpdateMessages){
+				ids.add(message.getObjectId());
+				if(message.getObjectEtag() == null){
+					withoutEtag.add(message.getObjectId());
+				}else{
+					idToEtag.put(message.getObjectId(), message.getObjectEtag());
+				}
+			}
+			// We want to ignore a message if a document with this ID and Etag already exists in the search index.
+			Set<String> alreadyIndexed = searchDao.getExistingDocumentIds(idToEtag);
+			List<String> toFormulate = new ArrayList<String>(ids.size());
+			for(String id: ids){
+				if(withoutEtag.contains(id) || !alreadyIndexed.contains(id)){
+					toFormulate.add(id);
+				}
+			}
 			// Prepare a batch of documents
 			List<Document> batch = new LinkedList<Document>();
-			for(ChangeMessage message: createOrUpdateMessages){
-				// We want to ignore this message if a document with this ID and Etag already exists in the search index.
-				if(!searchDao.doesDocumentExist(message.getObjectId(), message.getObjectEtag())){
-					// We want to ignore this message if a document with this ID and Etag are not in the repository as it is an old message.
-					if(message.getObjectEtag() == null || documentProvider.doesDocumentExist(message.getObjectId(), message.getObjectEtag())){
-						// Create a document for this
-						Document newDoc;
-						try {
-							newDoc = documentProvider.formulateSearchDocument(message.getObjectId());
-							batch.add(newDoc);
-						} catch (NotFoundException e) {
-							// There is nothing to do if it does not exist
-							log.debug("Node not found for id: "+message.getObjectId()+" Message:"+e.getMessage());
-						}
+			if(!toFormulate.isEmpty()){
+				for(Document document: documentProvider.formulateSearchDocuments(toFormulate)){
+					// We want to ignore a message if the Etag is not the current Etag in the repository as it is an old message.
+					String etag = idToEtag.get(document.getId());
+					if(etag == null || withoutEtag.contains(document.getId()) || etag.equals(document.getFields().getEtag())){
+						batch.add(document);
 					}
 				}
 			}
@@ -0,0 +1,45 @@
+package org.sagebionetworks.storage.worker;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.dao.StorageUsageRollupDao;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Checks the storage usage rollups against the files table and corrects any drift,
+ * for example after files were written by migration.
+ */
+public class StorageUsageReconciliationWorker implements Runnable {
+
+	private final Logger logger = LogManager.getLogger(StorageUsageReconciliationWorker.class);
+
+	@Autowired
+	private StorageUsageRollupDao storageUsageRollupDao;
+
+	public StorageUsageReconciliationWorker() {
+	}
+
+	/**
+	 * For testing.
+	 */
+	StorageUsageReconciliationWorker(StorageUsageRollupDao storageUsageRollupDao) {
+		this.storageUsageRollupDao = storageUsageRollupDao;
+	}
+
+	@Override
+	public void run() {
+		try {
+			long start = System.currentTimeMillis();
+			long corrected = storageUsageRollupDao.reconcile();
+			long elapsed = System.currentTimeMillis() - start;
+			if (corrected > 0L) {
+				logger.warn("Corrected " + corrected + " storage usage rollups in " + elapsed + " ms.");
+			} else {
+				logger.info("Storage usage rollups are consistent. Checked in " + elapsed + " ms.");
+			}
+		} catch (DatastoreException e) {
+			logger.error(e.getMessage());
+		}
+	}
+}
@@ -1,39 +1,96 @@
 package org.sagebionetworks.trash.worker;
 
 import java.sql.Timestamp;
-import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.sagebionetworks.repo.manager.trash.TrashManager;
 import org.sagebionetworks.repo.model.DatastoreException;
-import org.sagebionetworks.repo.model.TrashedEntity;
 import org.sagebionetworks.repo.web.NotFoundException;
 
+/**
+ * Purges the trash older than a month in chunks. Each chunk is its own transaction
+ * so the purge never holds locks on a large part of the database, and the rate is
+ * throttled to a budget of rows per second. A run stops after a maximum time and
+ * the next run resumes from the checkpoint saved by the last chunk.
+ */
 public class TrashWorker {
 
+	public static final long DEFAULT_CHUNK_SIZE = 100L;
+	public static final long DEFAULT_MAX_ROWS_PER_SECOND = 200L;
+	public static final long DEFAULT_MAX_RUN_TIME_MS = 1000L * 60L * 30L;
+
 	private final static long SHIFT_ONE_DAY = 26;
 	private final static long MONTH = 1000L * 60L * 60L * 24L * 30L;
 	private final Logger logger = LogManager.getLogger(TrashWorker.class);
 	private final TrashManager trashManager;
+	private final long chunkSize;
+	private final long maxRowsPerSecond;
+	private final long maxRunTimeMS;
 
 	public TrashWorker(TrashManager trashManager) {
+		this(trashManager, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_ROWS_PER_SECOND, DEFAULT_MAX_RUN_TIME_MS);
+	}
+
+	/**
+	 * @param chunkSize The max number of trash items purged in a single transaction.
+	 * @param maxRowsPerSecond The max number of trash items purged per second.
+	 * @param maxRunTimeMS The purge stops after this much time and resumes on the next run.
+	 */
+	public TrashWorker(TrashManager trashManager, long chunkSize, long maxRowsPerSecond, long maxRunTimeMS) {
 		if (trashManager == null) {
 			throw new IllegalArgumentException("Trash manager cannot be null.");
 		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be greater than zero.");
+		}
+		if (maxRowsPerSecond < 1) {
+			throw new IllegalArgumentException("Max rows per second must be greater than zero.");
+		}
 		this.trashManager = trashManager;
+		this.chunkSize = chunkSize;
+		this.maxRowsPerSecond = maxRowsPerSecond;
+		this.maxRunTimeMS = maxRunTimeMS;
 	}
 
-	public void purgeTrash() throws DatastoreException, NotFoundException {
+	/**
+	 * @return The number of trash items purged by this run.
+	 */
+	public long purgeTrash() throws DatastoreException, NotFoundException {
 		long now = System.currentTimeMillis();
 		// Drop (very roughly) the hours, minutes, seconds so that the two workers,
 		// one in prod and the other in staging, will have a good chance
 		// to use the same timestamp to purge the trash can.
 		long today = (now >> SHIFT_ONE_DAY) << SHIFT_ONE_DAY;
 		final Timestamp timestamp = new Timestamp(today - MONTH);
-		List<TrashedEntity> trashList = trashManager.getTrashBefore(timestamp);
-		logger.info("Purging " + trashList.size() + " entities, before " +
-					timestamp + ", from the trash can.");
-		trashManager.purgeTrash(trashList);
+		logger.info("Purging entities, before " + timestamp + ", from the trash can.");
+		long purged = 0L;
+		while (true) {
+			long chunkStart = System.currentTimeMillis();
+			int count = trashManager.purgeTrashBefore(timestamp, chunkSize);
+			if (count == 0) {
+				logger.info("Purged " + purged + " entities from the trash can. The trash can is clean.");
+				break;
+			}
+			purged += count;
+			long chunkEnd = System.currentTimeMillis();
+			if (chunkEnd - now >= maxRunTimeMS) {
+				logger.info("Purged " + purged + " entities from the trash can. Stopping after "
+						+ (chunkEnd - now) + " ms; the next run will resume from here.");
+				break;
+			}
+			// Throttle to the budget
+			long sleepMS = count * 1000L / maxRowsPerSecond - (chunkEnd - chunkStart);
+			if (sleepMS > 0) {
+				try {
+					Thread.sleep(sleepMS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.info("Purged " + purged + " entities from the trash can before being interrupted.");
+					break;
+				}
+			}
+		}
+		return purged;
 	}
 }
@@ -14,9 +14,35 @@ public class TrashWorkerFactory implements Runnable {
 	@Autowired
 	private TrashManager trashManager;
 
+	private long chunkSize = TrashWorker.DEFAULT_CHUNK_SIZE;
+	private long maxRowsPerSecond = TrashWorker.DEFAULT_MAX_ROWS_PER_SECOND;
+	private long maxRunTimeMS = TrashWorker.DEFAULT_MAX_RUN_TIME_MS;
+
+	/**
+	 * The max number of trash items purged in a single transaction.
+	 */
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * The max number of trash items purged per second.
+	 */
+	public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+		this.maxRowsPerSecond = maxRowsPerSecond;
+	}
+
+	/**
+	 * A run stops after this much time; the next run resumes where it left off.
+	 * This should be less than the semaphore timeout.
+	 */
+	public void setMaxRunTimeMS(long maxRunTimeMS) {
+		this.maxRunTimeMS = maxRunTimeMS;
+	}
+
 	@Override
 	public void run() {
-		TrashWorker worker = new TrashWorker(trashManager);
+		TrashWorker worker = new TrashWorker(trashManager, chunkSize, maxRowsPerSecond, maxRunTimeMS);
 		try {
 			worker.purgeTrash();
 		} catch (DatastoreException e) {
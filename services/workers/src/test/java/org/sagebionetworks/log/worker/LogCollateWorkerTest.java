@@ -0,0 +1,124 @@
+package org.sagebionetworks.log.worker;
+
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sagebionetworks.logging.s3.LogDAO;
+import org.sagebionetworks.logging.s3.LogIndex;
+import org.sagebionetworks.logging.s3.LogKeyUtils;
+
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Index failures must not stop the merged logs from being deleted.
+ */
+public class LogCollateWorkerTest {
+
+	private static final String NEW_KEY = "newKey";
+
+	private LogDAO mockLogDAO;
+	private LogCollateWorker worker;
+	private Map<String, File> files;
+	private String keyOne;
+	private String keyTwo;
+
+	@Before
+	public void before() throws Exception {
+		mockLogDAO = mock(LogDAO.class);
+		worker = new LogCollateWorker(mockLogDAO);
+		String tempDir = System.getProperty("java.io.tmpdir");
+		File one = LogTestUtils.createSampleLogFile(tempDir, "collatetest", new String[]{"one.1", "one.2"}, 1);
+		File two = LogTestUtils.createSampleLogFile(tempDir, "collatetest", new String[]{"two.1"}, 2);
+		keyOne = LogKeyUtils.createKeyForFile(1, one.getName(), 1);
+		keyTwo = LogKeyUtils.createKeyForFile(1, two.getName(), 2);
+		files = new HashMap<String, File>();
+		files.put(keyOne, one);
+		files.put(keyTwo, two);
+
+		ObjectListing listing = new ObjectListing();
+		for (String key : new String[]{keyOne, keyTwo}) {
+			S3ObjectSummary summary = new S3ObjectSummary();
+			summary.setKey(key);
+			listing.getObjectSummaries().add(summary);
+		}
+		when(mockLogDAO.listAllStackInstanceLogs(null)).thenReturn(listing);
+		when(mockLogDAO.downloadLogFile(anyString(), any(File.class))).thenAnswer(new Answer<ObjectMetadata>() {
+			@Override
+			public ObjectMetadata answer(InvocationOnMock invocation) throws Throwable {
+				File source = files.get(invocation.getArguments()[0]);
+				copy(source, (File) invocation.getArguments()[1]);
+				return new ObjectMetadata();
+			}
+		});
+		when(mockLogDAO.saveLogFile(any(File.class), anyLong())).thenReturn(NEW_KEY);
+	}
+
+	@After
+	public void after() {
+		for (File file : files.values()) {
+			file.delete();
+		}
+	}
+
+	private static void copy(File source, File destination) throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			OutputStream out = new FileOutputStream(destination);
+			try {
+				byte[] buffer = new byte[1024];
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testUnreadableIndex() throws Exception {
+		when(mockLogDAO.getLogIndex(keyOne)).thenThrow(new IOException("Corrupt index"));
+		when(mockLogDAO.getLogIndex(keyTwo)).thenReturn(new LogIndex());
+		assertFalse(worker.mergeOneBatch());
+		// The index is built from the collated data instead
+		verify(mockLogDAO).saveLogIndex(eq(NEW_KEY), any(LogIndex.class));
+		verify(mockLogDAO).deleteLogFile(keyOne);
+		verify(mockLogDAO).deleteLogFile(keyTwo);
+	}
+
+	@Test
+	public void testSaveIndexFailure() throws Exception {
+		doThrow(new IOException("S3 is down")).when(mockLogDAO).saveLogIndex(anyString(), any(LogIndex.class));
+		assertFalse(worker.mergeOneBatch());
+		// The collated log was saved so the merged logs must still be deleted
+		verify(mockLogDAO).saveLogFile(any(File.class), anyLong());
+		verify(mockLogDAO).deleteLogFile(keyOne);
+		verify(mockLogDAO).deleteLogFile(keyTwo);
+	}
+}
@@ -0,0 +1,66 @@
+package org.sagebionetworks.message.workers;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.manager.MessageManager;
+import org.sagebionetworks.repo.web.NotFoundException;
+
+public class MessageFanOutWorkerTest {
+
+	private MessageManager mockMessageManager;
+	private MessageFanOutWorker worker;
+
+	@Before
+	public void before() {
+		mockMessageManager = mock(MessageManager.class);
+		worker = new MessageFanOutWorker();
+		worker.setMessageManager(mockMessageManager);
+		worker.setBatchSize(10);
+		worker.setMaxRunTimeMS(60000L);
+	}
+
+	@Test
+	public void testDeliverAll() throws Exception {
+		when(mockMessageManager.getPendingFanOuts(MessageFanOutWorker.MAX_MESSAGES_PER_RUN)).thenReturn(Arrays.asList("1", "2"));
+		when(mockMessageManager.deliverFanOutBatch("1", 10)).thenReturn(true, true, false);
+		when(mockMessageManager.deliverFanOutBatch("2", 10)).thenReturn(false);
+		worker.run();
+		verify(mockMessageManager, times(3)).deliverFanOutBatch("1", 10);
+		verify(mockMessageManager, times(1)).deliverFanOutBatch("2", 10);
+	}
+
+	@Test
+	public void testFailureDoesNotStopOtherMessages() throws Exception {
+		when(mockMessageManager.getPendingFanOuts(MessageFanOutWorker.MAX_MESSAGES_PER_RUN)).thenReturn(Arrays.asList("1", "2", "3"));
+		when(mockMessageManager.deliverFanOutBatch("1", 10)).thenThrow(new IllegalStateException("Database is down"));
+		when(mockMessageManager.deliverFanOutBatch("2", 10)).thenThrow(new NotFoundException("Message was deleted"));
+		when(mockMessageManager.deliverFanOutBatch("3", 10)).thenReturn(false);
+		worker.run();
+		verify(mockMessageManager, times(1)).deliverFanOutBatch("1", 10);
+		verify(mockMessageManager, times(1)).deliverFanOutBatch("3", 10);
+	}
+
+	@Test
+	public void testMaxRunTime() throws Exception {
+		worker.setMaxRunTimeMS(0L);
+		when(mockMessageManager.getPendingFanOuts(MessageFanOutWorker.MAX_MESSAGES_PER_RUN)).thenReturn(Arrays.asList("1", "2"));
+		when(mockMessageManager.deliverFanOutBatch(anyString(), anyInt())).thenReturn(true);
+		// Stops after the first batch and leaves the rest for the next run
+		worker.run();
+		verify(mockMessageManager, times(1)).deliverFanOutBatch(anyString(), anyInt());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadBatchSize() {
+		worker.setBatchSize(0);
+	}
+}
@@ -1,5 +1,6 @@
 package org.sagebionetworks.message.workers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.times;
@@ -105,6 +106,36 @@ public class UnsentMessageQueuerTest {
 		}
 	}
 	
+	@Test
+	public void testRangeStartsAboveWatermark() throws Exception {
+		List<ChangeMessage> batch = unsentMessageQueuerTestHelper.createList(NUM_MESSAGES_TO_CREATE, 
+				ObjectType.ENTITY, 0, 2 * NUM_MESSAGES_TO_CREATE);
+		changeDAO.replaceChange(batch);
+		
+		// Send the older half of the changes
+		List<Long> sorted = new ArrayList<Long>();
+		for (ChangeMessage change : changeDAO.listUnsentMessages(2 * NUM_MESSAGES_TO_CREATE)) {
+			sorted.add(change.getChangeNumber());
+		}
+		List<Long> sent = sorted.subList(0, sorted.size() / 2);
+		changeDAO.registerMessagesSent(sent);
+		long watermark = changeDAO.advanceSentHighWaterMark(0L);
+		assertEquals(sent.get(sent.size() - 1).longValue(), watermark);
+		
+		List<SendMessageBatchRequestEntry> queued = unsentMessageQueuer.buildRangeBatch();
+		List<UnsentMessageRange> ranges = new ArrayList<UnsentMessageRange>();
+		for (int i = 0; i < queued.size(); i++) {
+			UnsentMessageRange range = extractMessageBody(queued.get(i));
+			assertTrue("Range below the watermark: " + range, range.getLowerBound() > watermark);
+			ranges.add(range);
+		}
+		
+		// The unsent changes are all covered
+		Set<Long> outaRange = new HashSet<Long>(sorted.subList(sent.size(), sorted.size()));
+		removeRangeFromSet(outaRange, ranges);
+		assertTrue("Not queued: " + outaRange, outaRange.isEmpty());
+	}
+	
 	private UnsentMessageRange extractMessageBody(SendMessageBatchRequestEntry message) {
 		JSONObject object;
 		try {
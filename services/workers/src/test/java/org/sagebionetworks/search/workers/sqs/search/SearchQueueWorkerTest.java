@@ -3,9 +3,11 @@ package org.sagebionetworks.search.workers.sqs.search;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
@@ -14,8 +16,12 @@ import static org.mockito.Mockito.*;
 import org.mockito.Mockito;
 import org.sagebionetworks.asynchronous.workers.sqs.MessageUtils;
 import org.sagebionetworks.repo.manager.search.SearchDocumentDriver;
+import org.sagebionetworks.repo.model.ObjectType;
 import org.sagebionetworks.repo.model.dao.WikiPageDao;
+import org.sagebionetworks.repo.model.message.ChangeMessage;
+import org.sagebionetworks.repo.model.message.ChangeType;
 import org.sagebionetworks.repo.model.search.Document;
+import org.sagebionetworks.repo.model.search.DocumentFields;
 import org.sagebionetworks.search.SearchDao;
 
 import com.amazonaws.services.sqs.model.Message;
@@ -35,6 +41,14 @@ public class SearchQueueWorkerTest {
 		messageList = new LinkedList<Message>();
 	}
 	
+	private Document createDocument(String id, String etag){
+		Document doc = new Document();
+		doc.setId(id);
+		doc.setFields(new DocumentFields());
+		doc.getFields().setEtag(etag);
+		return doc;
+	}
+	
 	@Test
 	public void testDelete() throws Exception{
 		// create a few delete messages.
@@ -61,23 +75,21 @@ public class SearchQueueWorkerTest {
 		messageList.add(MessageUtils.buildCreateEntityMessage("one", "parent1", "etag1", "1", "handle1"));
 		messageList.add(MessageUtils.buildCreateEntityMessage("two", "parent2", "etag2", "1", "handle2"));
 		
-		Document docOne = new Document();
-		docOne.setId("one");
-		when(mockDocumentProvider.formulateSearchDocument("one")).thenReturn(docOne);
-		Document docTwo = new Document();
-		docTwo.setId("two");
-		when(mockDocumentProvider.formulateSearchDocument("two")).thenReturn(docTwo);
+		Document docOne = createDocument("one", "etag1");
+		Document docTwo = createDocument("two", "etag2");
 		List<Document> expectedDocs = new LinkedList<Document>();
 		expectedDocs.add(docOne);
 		expectedDocs.add(docTwo);
-		
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(true);
-		when(mockDocumentProvider.doesDocumentExist("two", "etag2")).thenReturn(true);
+		List<String> ids = new LinkedList<String>();
+		ids.add("one");
+		ids.add("two");
+		when(mockDocumentProvider.formulateSearchDocuments(ids)).thenReturn(expectedDocs);
 		
 		// Create only occurs if it is not already in the search index
-		when(mockSeachDao.doesDocumentExist("one", "etag1")).thenReturn(false);
-		when(mockSeachDao.doesDocumentExist("two", "etag2")).thenReturn(false);
+		Map<String, String> idToEtag = new HashMap<String, String>();
+		idToEtag.put("one", "etag1");
+		idToEtag.put("two", "etag2");
+		when(mockSeachDao.getExistingDocumentIds(idToEtag)).thenReturn(new HashSet<String>());
 		
 		SearchQueueWorker worker = new SearchQueueWorker(mockSeachDao, mockDocumentProvider, messageList, mockWikiPageDao);
 		List<Message> results = worker.call();
@@ -88,6 +100,9 @@ public class SearchQueueWorkerTest {
 		verify(mockSeachDao, never()).deleteDocuments(any(Set.class));
 		// create should be called once
 		verify(mockSeachDao, times(1)).createOrUpdateSearchDocument(expectedDocs);
+		// The whole batch is checked and loaded at once.
+		verify(mockSeachDao, never()).doesDocumentExist(anyString(), anyString());
+		verify(mockDocumentProvider, never()).formulateSearchDocument(anyString());
 	}
 	
 	/**
@@ -99,10 +114,10 @@ public class SearchQueueWorkerTest {
 		// create a few delete messages.
 		messageList.add(MessageUtils.buildCreateEntityMessage("one", "parent1", "etag1", "1", "handle1"));
 		
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(true);
 		// Create only occurs if it is not already in the search index
-		when(mockSeachDao.doesDocumentExist("one", "etag1")).thenReturn(true);
+		Set<String> existing = new HashSet<String>();
+		existing.add("one");
+		when(mockSeachDao.getExistingDocumentIds(any(Map.class))).thenReturn(existing);
 
 		SearchQueueWorker worker = new SearchQueueWorker(mockSeachDao, mockDocumentProvider, messageList, mockWikiPageDao);
 		List<Message> results = worker.call();
@@ -113,8 +128,8 @@ public class SearchQueueWorkerTest {
 		verify(mockSeachDao, never()).deleteDocuments(any(Set.class));
 		// create should not be called
 		verify(mockSeachDao, never()).createOrUpdateSearchDocument(any(List.class));
-		// We should not call doesDocumentExist() on the repository when it already exists in the search index.
-		verify(mockDocumentProvider, never()).doesDocumentExist("one", "etag1");
+		// We should not load the document from the repository when it already exists in the search index.
+		verify(mockDocumentProvider, never()).formulateSearchDocuments(any(List.class));
 	}
 	
 	/**
@@ -126,10 +141,12 @@ public class SearchQueueWorkerTest {
 		// create a few delete messages.
 		messageList.add(MessageUtils.buildCreateEntityMessage("one", "parent1", "etag1", "1", "handle1"));
 		
-		// Create only occurs if the document exists in the repository
-		when(mockDocumentProvider.doesDocumentExist("one", "etag1")).thenReturn(false);
+		// The repository has a newer etag so this is an old message.
+		List<Document> docs = new LinkedList<Document>();
+		docs.add(createDocument("one", "etag2"));
+		when(mockDocumentProvider.formulateSearchDocuments(any(List.class))).thenReturn(docs);
 		// Create only occurs if it is not already in the search index
-		when(mockSeachDao.doesDocumentExist("one", "etag1")).thenReturn(false);
+		when(mockSeachDao.getExistingDocumentIds(any(Map.class))).thenReturn(new HashSet<String>());
 
 		SearchQueueWorker worker = new SearchQueueWorker(mockSeachDao, mockDocumentProvider, messageList, mockWikiPageDao);
 		List<Message> results = worker.call();
@@ -140,7 +157,32 @@ public class SearchQueueWorkerTest {
 		verify(mockSeachDao, never()).deleteDocuments(any(Set.class));
 		// create should not be called
 		verify(mockSeachDao, never()).createOrUpdateSearchDocument(any(List.class));
-		// We should not call doesDocumentExist() one time.
-		verify(mockDocumentProvider, times(1)).doesDocumentExist("one", "etag1");
+	}
+	
+	/**
+	 * A wiki change has no etag so the document must be sent even if the entity is already in the search index.
+	 * @throws Exception
+	 */
+	@Test
+	public void testUpdateWithoutEtag() throws Exception{
+		messageList.add(MessageUtils.buildCreateEntityMessage("one", "parent1", "etag1", "1", "handle1"));
+		ChangeMessage change = new ChangeMessage();
+		change.setChangeType(ChangeType.UPDATE);
+		change.setObjectType(ObjectType.ENTITY);
+		change.setObjectId("one");
+		messageList.add(MessageUtils.createMessage(change, "2", "handle2"));
+		
+		Set<String> existing = new HashSet<String>();
+		existing.add("one");
+		when(mockSeachDao.getExistingDocumentIds(any(Map.class))).thenReturn(existing);
+		List<Document> docs = new LinkedList<Document>();
+		docs.add(createDocument("one", "etag1"));
+		List<String> ids = new LinkedList<String>();
+		ids.add("one");
+		when(mockDocumentProvider.formulateSearchDocuments(ids)).thenReturn(docs);
+		
+		SearchQueueWorker worker = new SearchQueueWorker(mockSeachDao, mockDocumentProvider, messageList, mockWikiPageDao);
+		worker.call();
+		verify(mockSeachDao, times(1)).createOrUpdateSearchDocument(docs);
 	}
 }
@@ -0,0 +1,38 @@
+package org.sagebionetworks.storage.worker;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.DatastoreException;
+import org.sagebionetworks.repo.model.dao.StorageUsageRollupDao;
+
+public class StorageUsageReconciliationWorkerTest {
+
+	private StorageUsageRollupDao mockRollupDao;
+	private StorageUsageReconciliationWorker worker;
+
+	@Before
+	public void before() {
+		mockRollupDao = mock(StorageUsageRollupDao.class);
+		worker = new StorageUsageReconciliationWorker(mockRollupDao);
+	}
+
+	@Test
+	public void testRun() {
+		when(mockRollupDao.reconcile()).thenReturn(3L);
+		worker.run();
+		verify(mockRollupDao, times(1)).reconcile();
+	}
+
+	@Test
+	public void testRunDatastoreException() {
+		// Errors are logged so the scheduler keeps running the worker
+		when(mockRollupDao.reconcile()).thenThrow(new DatastoreException("error"));
+		worker.run();
+		verify(mockRollupDao, times(1)).reconcile();
+	}
+}
@@ -1,10 +1,13 @@
 package org.sagebionetworks.trash.worker;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.sql.Timestamp;
 
@@ -15,9 +18,36 @@ public class TrashWorkerTest {
 	@Test
 	public void test() throws Exception {
 		TrashManager mockManager = mock(TrashManager.class);
-		TrashWorker worker = new TrashWorker(mockManager);
-		worker.purgeTrash();
-		verify(mockManager, times(1)).getTrashBefore(any(Timestamp.class));
-		verify(mockManager, times(1)).purgeTrash(anyList());
+		when(mockManager.purgeTrashBefore(any(Timestamp.class), anyLong())).thenReturn(10, 10, 3, 0);
+		TrashWorker worker = new TrashWorker(mockManager, 10L, 1000000L, 60000L);
+		assertEquals(23L, worker.purgeTrash());
+		verify(mockManager, times(4)).purgeTrashBefore(any(Timestamp.class), eq(10L));
+	}
+
+	@Test
+	public void testMaxRunTime() throws Exception {
+		TrashManager mockManager = mock(TrashManager.class);
+		when(mockManager.purgeTrashBefore(any(Timestamp.class), anyLong())).thenReturn(10);
+		// Stops after the first chunk and leaves the rest for the next run
+		TrashWorker worker = new TrashWorker(mockManager, 10L, 1000000L, 0L);
+		assertEquals(10L, worker.purgeTrash());
+		verify(mockManager, times(1)).purgeTrashBefore(any(Timestamp.class), anyLong());
+	}
+
+	@Test
+	public void testThrottle() throws Exception {
+		TrashManager mockManager = mock(TrashManager.class);
+		when(mockManager.purgeTrashBefore(any(Timestamp.class), anyLong())).thenReturn(10, 10, 0);
+		// 10 rows per second, so each chunk of 10 takes at least a second
+		TrashWorker worker = new TrashWorker(mockManager, 10L, 10L, 60000L);
+		long start = System.currentTimeMillis();
+		assertEquals(20L, worker.purgeTrash());
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(true, elapsed >= 2000L);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadChunkSize() throws Exception {
+		new TrashWorker(mock(TrashManager.class), 0L, 10L, 60000L);
 	}
 }
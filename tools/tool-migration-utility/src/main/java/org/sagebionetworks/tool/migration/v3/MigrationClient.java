@@ -11,6 +11,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -328,9 +329,18 @@ public class MigrationClient {
 			createOut = new BufferedRowMetadataWriter(new FileWriter(createTemp));
 			updateOut = new BufferedRowMetadataWriter(new FileWriter(updateTemp));
 			deleteOut = new BufferedRowMetadataWriter(new FileWriter(deleteTemp));
-			MetadataIterator sourceIt = new MetadataIterator(type, factory.createNewSourceClient(), batchSize, sourceProgress);
-			MetadataIterator destIt = new MetadataIterator(type, factory.createNewDestinationClient(), batchSize, destProgress);
-			DeltaBuilder builder  = new DeltaBuilder(sourceIt, destIt, createOut, updateOut, deleteOut);
+			SynapseAdminClient source = factory.createNewSourceClient();
+			SynapseAdminClient destination = factory.createNewDestinationClient();
+			Callable<DeltaCounts> builder;
+			if(supportsRangeChecksums(type, source) && supportsRangeChecksums(type, destination)){
+				// Only the ranges that differ are listed
+				builder = new RangeDeltaBuilder(type, source, destination, batchSize, createOut, updateOut, deleteOut, sourceProgress);
+			}else{
+				// Compare every row
+				MetadataIterator sourceIt = new MetadataIterator(type, source, batchSize, sourceProgress);
+				MetadataIterator destIt = new MetadataIterator(type, destination, batchSize, destProgress);
+				builder  = new DeltaBuilder(sourceIt, destIt, createOut, updateOut, deleteOut);
+			}
 			// Do the work on a separate thread
 			Future<DeltaCounts> future = this.threadPool.submit(builder);
 			// Wait for the future to finish
@@ -361,6 +371,25 @@ public class MigrationClient {
 		}
 	}
 	
+	/**
+	 * A stack from an older release does not have range checksums.
+	 * @param type
+	 * @param client
+	 * @return
+	 */
+	private static boolean supportsRangeChecksums(MigrationType type, SynapseAdminClient client) {
+		try {
+			client.getChecksumForIdRange(type, 0L, 0L);
+			return true;
+		} catch (SynapseException e) {
+			log.warn("Range checksums are not supported by "+client.getRepoEndpoint()+" so every row of type: "+type.name()+" will be compared", e);
+			return false;
+		} catch (JSONObjectAdapterException e) {
+			log.warn("Range checksums are not supported by "+client.getRepoEndpoint()+" so every row of type: "+type.name()+" will be compared", e);
+			return false;
+		}
+	}
+
 	/**
 	 * Delete the requested object from the destination.
 	 * @throws IOException 
@@ -0,0 +1,169 @@
+package org.sagebionetworks.tool.migration.v3;
+
+import java.util.concurrent.Callable;
+
+import org.sagebionetworks.client.SynapseAdminClient;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
+import org.sagebionetworks.repo.model.migration.RowMetadata;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+import org.sagebionetworks.tool.migration.Progress.BasicProgress;
+import org.sagebionetworks.tool.migration.v3.stream.RowWriter;
+
+/**
+ * Builds the deltas between the two stacks by comparing the checksums of ID ranges
+ * rather than every row. A range with the same checksum on both stacks is skipped.
+ * A range that differs is split in half until it is small enough to list, so the
+ * number of calls depends on the number of changes rather than the size of the table.
+ *
+ * The deltas are written in ID order, the same as the DeltaBuilder.
+ *
+ */
+public class RangeDeltaBuilder implements Callable<DeltaCounts> {
+
+	MigrationType type;
+	SynapseAdminClient source;
+	SynapseAdminClient destination;
+	long batchSize;
+	RowWriter<RowMetadata> toCreate;
+	RowWriter<RowMetadata> toUpdate;
+	RowWriter<RowMetadata> toDelete;
+	BasicProgress progress;
+
+	long createCount;
+	long updateCount;
+	long deleteCount;
+
+	/**
+	 *
+	 * @param type - The type to compare.
+	 * @param source
+	 * @param destination
+	 * @param batchSize - Ranges with no more than this number of rows on either stack are listed rather than split.
+	 * @param toCreate
+	 * @param toUpdate
+	 * @param toDelete
+	 * @param progress - Tracks the number of source rows that have been compared.
+	 */
+	public RangeDeltaBuilder(MigrationType type, SynapseAdminClient source, SynapseAdminClient destination, long batchSize,
+			RowWriter<RowMetadata> toCreate, RowWriter<RowMetadata> toUpdate, RowWriter<RowMetadata> toDelete, BasicProgress progress) {
+		super();
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(source == null) throw new IllegalArgumentException("Source cannot be null");
+		if(destination == null) throw new IllegalArgumentException("Destination cannot be null");
+		if(batchSize < 1) throw new IllegalArgumentException("Batch size must be greater than zero");
+		if(progress == null) throw new IllegalArgumentException("Progress cannot be null");
+		this.type = type;
+		this.source = source;
+		this.destination = destination;
+		this.batchSize = batchSize;
+		this.toCreate = toCreate;
+		this.toUpdate = toUpdate;
+		this.toDelete = toDelete;
+		this.progress = progress;
+	}
+
+	@Override
+	public DeltaCounts call() throws Exception {
+		createCount = 0;
+		updateCount = 0;
+		deleteCount = 0;
+		RangeChecksum sourceAll = source.getChecksumForIdRange(type, Long.MIN_VALUE, Long.MAX_VALUE);
+		RangeChecksum destAll = destination.getChecksumForIdRange(type, Long.MIN_VALUE, Long.MAX_VALUE);
+		progress.setTotal(sourceAll.getCount());
+		progress.setCurrent(0);
+		compareRange(sourceAll, destAll);
+		progress.setDone();
+		return new DeltaCounts(createCount, updateCount, deleteCount);
+	}
+
+	/**
+	 * Compare one range of the two stacks.  Both checksums must be for the same range.
+	 *
+	 * @param sourceRange
+	 * @param destRange
+	 * @throws Exception
+	 */
+	private void compareRange(RangeChecksum sourceRange, RangeChecksum destRange) throws Exception {
+		if(isSame(sourceRange, destRange)){
+			progress.setCurrent(progress.getCurrent()+sourceRange.getCount());
+			return;
+		}
+		// Narrow the range to the rows that actually exist on either stack.
+		long minId = minFirstId(sourceRange, destRange);
+		long maxId = maxLastId(sourceRange, destRange);
+		if(sourceRange.getCount() == 0 || destRange.getCount() == 0
+				|| Math.max(sourceRange.getCount(), destRange.getCount()) <= batchSize || minId == maxId){
+			listRange(minId, maxId);
+			progress.setCurrent(progress.getCurrent()+sourceRange.getCount());
+			return;
+		}
+		long middle = middle(minId, maxId);
+		RangeChecksum sourceLow = getChecksum(source, minId, middle);
+		RangeChecksum destLow = getChecksum(destination, minId, middle);
+		compareRange(sourceLow, destLow);
+		RangeChecksum sourceHigh = getChecksum(source, middle+1, maxId);
+		RangeChecksum destHigh = getChecksum(destination, middle+1, maxId);
+		compareRange(sourceHigh, destHigh);
+	}
+
+	/**
+	 * List both sides of a range and compare each row.
+	 *
+	 * @param minId
+	 * @param maxId
+	 * @throws Exception
+	 */
+	private void listRange(long minId, long maxId) throws Exception {
+		RangeMetadataIterator sourceIt = new RangeMetadataIterator(type, source, minId, maxId, batchSize);
+		RangeMetadataIterator destIt = new RangeMetadataIterator(type, destination, minId, maxId, batchSize);
+		DeltaCounts counts = new DeltaBuilder(sourceIt, destIt, toCreate, toUpdate, toDelete).call();
+		createCount += counts.getCreate();
+		updateCount += counts.getUpdate();
+		deleteCount += counts.getDelete();
+	}
+
+	private RangeChecksum getChecksum(SynapseAdminClient client, long minId, long maxId) throws SynapseException, JSONObjectAdapterException {
+		return client.getChecksumForIdRange(type, minId, maxId);
+	}
+
+	/**
+	 * Two ranges are the same when they have the same number of rows and the same checksum.
+	 *
+	 * @param one
+	 * @param two
+	 * @return
+	 */
+	static boolean isSame(RangeChecksum one, RangeChecksum two) {
+		if(!one.getCount().equals(two.getCount())) return false;
+		if(one.getChecksum() == null){
+			return two.getChecksum() == null;
+		}
+		return one.getChecksum().equals(two.getChecksum());
+	}
+
+	/**
+	 * The middle of a range without overflow.
+	 *
+	 * @param minId
+	 * @param maxId
+	 * @return
+	 */
+	static long middle(long minId, long maxId) {
+		return (minId >> 1) + (maxId >> 1) + (minId & maxId & 1);
+	}
+
+	private static long minFirstId(RangeChecksum one, RangeChecksum two) {
+		if(one.getFirstId() == null) return two.getFirstId();
+		if(two.getFirstId() == null) return one.getFirstId();
+		return Math.min(one.getFirstId(), two.getFirstId());
+	}
+
+	private static long maxLastId(RangeChecksum one, RangeChecksum two) {
+		if(one.getLastId() == null) return two.getLastId();
+		if(two.getLastId() == null) return one.getLastId();
+		return Math.max(one.getLastId(), two.getLastId());
+	}
+
+}
@@ -0,0 +1,127 @@
+package org.sagebionetworks.tool.migration.v3;
+
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sagebionetworks.client.SynapseAdminClient;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RowMetadata;
+import org.sagebionetworks.repo.model.migration.RowMetadataResult;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+
+/**
+ * A buffered Iterator over the metadata of the rows of one type with IDs in a range.
+ * Each page starts at one more than the last ID of the previous page, so unlike the
+ * MetadataIterator a page does not get slower with the number of pages already read.
+ * This iterator is state-full and should only be used for one pass.
+ *
+ */
+public class RangeMetadataIterator implements Iterator<RowMetadata> {
+
+	static private Log log = LogFactory.getLog(RangeMetadataIterator.class);
+
+	MigrationType type;
+	SynapseAdminClient client;
+	long batchSize;
+	long nextMinId;
+	long maxId;
+	Iterator<RowMetadata> lastPageIterator;
+	boolean lastPage = false;
+	boolean done = false;
+
+	/**
+	 * Create a new iterator that can be used for one pass over the data.
+	 *
+	 * @param type - The type of data to iterate over.
+	 * @param client - The Synapse client used to get the real data.
+	 * @param minId - The smallest ID to include.
+	 * @param maxId - The largest ID to include.
+	 * @param batchSize - The batch size is the page size of data fetched from a stack.
+	 */
+	public RangeMetadataIterator(MigrationType type, SynapseAdminClient client, long minId, long maxId, long batchSize) {
+		super();
+		if(type == null) throw new IllegalArgumentException("Type cannot be null");
+		if(client == null) throw new IllegalArgumentException("Client cannot be null");
+		if(batchSize < 1) throw new IllegalArgumentException("Batch size must be greater than zero");
+		this.type = type;
+		this.client = client;
+		this.nextMinId = minId;
+		this.maxId = maxId;
+		this.batchSize = batchSize;
+		this.done = minId > maxId;
+	}
+
+	/**
+	 * Get the next page, trying again after one and ten seconds when it fails.
+	 */
+	private void getNextPageWithBackupoff() {
+		try {
+			getNextPage();
+		} catch (Exception e) {
+			try {
+				log.warn("Failed to get a page of metadata from client: "+client.getRepoEndpoint()+" will attempt again in one second", e);
+				Thread.sleep(1000);
+				getNextPage();
+			} catch (Exception e1) {
+				try {
+					log.warn("Failed to get a page of metadata from client: "+client.getRepoEndpoint()+" for a second time.  Will attempt again in ten seconds", e);
+					Thread.sleep(10000);
+					getNextPage();
+				} catch (Exception e2) {
+					throw new RuntimeException("Failed to get a page of metadata from "+client.getRepoEndpoint(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the next page.
+	 * @throws SynapseException
+	 * @throws JSONObjectAdapterException
+	 */
+	private void getNextPage() throws SynapseException, JSONObjectAdapterException {
+		RowMetadataResult page = client.getRowMetadataByRange(type, nextMinId, maxId, batchSize);
+		if(page.getList() == null || page.getList().isEmpty()){
+			done = true;
+			return;
+		}
+		long lastId = page.getList().get(page.getList().size()-1).getId();
+		if(page.getList().size() < batchSize || lastId >= maxId){
+			// There is no need to ask for another page.
+			lastPage = true;
+		}else{
+			nextMinId = lastId + 1;
+		}
+		lastPageIterator = page.getList().iterator();
+	}
+
+	/**
+	 * Get the next row metadata
+	 * @return Returns non-null as long as there is more data to read. Returns null when there is no more data to read.
+	 */
+	public RowMetadata next() {
+		if(done) return null;
+		if(lastPageIterator == null || !lastPageIterator.hasNext()){
+			if(lastPage){
+				done = true;
+				return null;
+			}
+			getNextPageWithBackupoff();
+			if(done) return null;
+		}
+		return lastPageIterator.next();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !done;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Not supported");
+	}
+
+}
@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.zip.CRC32;
 
 import org.apache.http.client.ClientProtocolException;
 import org.json.JSONObject;
@@ -99,6 +100,7 @@ import org.sagebionetworks.repo.model.migration.MigrationType;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCount;
 import org.sagebionetworks.repo.model.migration.MigrationTypeCounts;
 import org.sagebionetworks.repo.model.migration.MigrationTypeList;
+import org.sagebionetworks.repo.model.migration.RangeChecksum;
 import org.sagebionetworks.repo.model.migration.RowMetadata;
 import org.sagebionetworks.repo.model.migration.RowMetadataResult;
 import org.sagebionetworks.repo.model.migration.WikiMigrationResult;
@@ -138,6 +140,8 @@ public class StubSynapseAdministration implements SynapseAdminClient {
 	Stack<StackStatus> statusHistory;
 	String endpoint;
 	LinkedHashMap<MigrationType, List<RowMetadata>> metadata;
+	long rangeRowCalls = 0;
+	long rangeChecksumCalls = 0;
 	BackupRestoreStatus status;
 	long statusSequence = 0;
 	
@@ -289,6 +293,84 @@ public class StubSynapseAdministration implements SynapseAdminClient {
 		return result;
 	}
 
+	@Override
+	public RowMetadataResult getRowMetadataByRange(MigrationType migrationType,
+			Long minId, Long maxId, Long limit) throws SynapseException,
+			JSONObjectAdapterException {
+		if (migrationType == null)
+			throw new IllegalArgumentException("Type cannot be null");
+		List<RowMetadata> page = new LinkedList<RowMetadata>();
+		for (RowMetadata row : this.metadata.get(migrationType)) {
+			if (page.size() >= limit) {
+				break;
+			}
+			if (row.getId() >= minId && row.getId() <= maxId) {
+				page.add(row);
+			}
+		}
+		rangeRowCalls++;
+		RowMetadataResult result = new RowMetadataResult();
+		result.setList(page);
+		return result;
+	}
+
+	@Override
+	public RangeChecksum getChecksumForIdRange(MigrationType migrationType,
+			Long minId, Long maxId) throws SynapseException,
+			JSONObjectAdapterException {
+		if (migrationType == null)
+			throw new IllegalArgumentException("Type cannot be null");
+		// The same checksum as the repository: the sum and the xor of the CRC32 of each row
+		RangeChecksum checksum = new RangeChecksum();
+		checksum.setType(migrationType);
+		checksum.setMinId(minId);
+		checksum.setMaxId(maxId);
+		long count = 0;
+		long sum = 0;
+		long xor = 0;
+		for (RowMetadata row : this.metadata.get(migrationType)) {
+			if (row.getId() < minId || row.getId() > maxId) {
+				continue;
+			}
+			if (count == 0) {
+				checksum.setFirstId(row.getId());
+			}
+			checksum.setLastId(row.getId());
+			CRC32 crc = new CRC32();
+			String value = row.getId() + "@" + (row.getEtag() == null ? "NULL" : row.getEtag());
+			try {
+				crc.update(value.getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			sum += crc.getValue();
+			xor ^= crc.getValue();
+			count++;
+		}
+		checksum.setCount(count);
+		if (count > 0) {
+			checksum.setChecksum(sum + "-" + xor);
+		}
+		rangeChecksumCalls++;
+		return checksum;
+	}
+
+	/**
+	 * The number of calls to getRowMetadataByRange().
+	 * @return
+	 */
+	public long getRangeRowCalls() {
+		return rangeRowCalls;
+	}
+
+	/**
+	 * The number of calls to getChecksumForIdRange().
+	 * @return
+	 */
+	public long getRangeChecksumCalls() {
+		return rangeChecksumCalls;
+	}
+
 	@Override
 	public String getRepoEndpoint() {
 		return this.endpoint;
@@ -0,0 +1,138 @@
+package org.sagebionetworks.tool.migration.v3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sagebionetworks.repo.model.migration.MigrationType;
+import org.sagebionetworks.repo.model.migration.RowMetadata;
+import org.sagebionetworks.tool.migration.Progress.BasicProgress;
+import org.sagebionetworks.tool.migration.v3.stream.ListRowMetadataWriter;
+
+/**
+ * Test for the range checksum delta detection.
+ *
+ */
+public class RangeDeltaBuilderTest {
+
+	int rowCount = 10000;
+	long batchSize = 50;
+	MigrationType type;
+	StubSynapseAdministration source;
+	StubSynapseAdministration destination;
+	List<RowMetadata> sourceRows;
+	List<RowMetadata> destRows;
+	ListRowMetadataWriter create;
+	ListRowMetadataWriter update;
+	ListRowMetadataWriter delete;
+
+	@Before
+	public void before(){
+		type = MigrationType.values()[0];
+		source = new StubSynapseAdministration("source");
+		destination = new StubSynapseAdministration("destination");
+		sourceRows = new LinkedList<RowMetadata>();
+		destRows = new LinkedList<RowMetadata>();
+		// IDs are sparse like the IDs of a real table.
+		for(int i=0; i<rowCount; i++){
+			sourceRows.add(createRow(i*3L, "etag"+i));
+			destRows.add(createRow(i*3L, "etag"+i));
+		}
+		LinkedHashMap<MigrationType, List<RowMetadata>> sourceData = new LinkedHashMap<MigrationType, List<RowMetadata>>();
+		sourceData.put(type, sourceRows);
+		source.setMetadata(sourceData);
+		LinkedHashMap<MigrationType, List<RowMetadata>> destData = new LinkedHashMap<MigrationType, List<RowMetadata>>();
+		destData.put(type, destRows);
+		destination.setMetadata(destData);
+		create = new ListRowMetadataWriter();
+		update = new ListRowMetadataWriter();
+		delete = new ListRowMetadataWriter();
+	}
+
+	private static RowMetadata createRow(Long id, String etag){
+		RowMetadata row = new RowMetadata();
+		row.setId(id);
+		row.setEtag(etag);
+		return row;
+	}
+
+	private DeltaCounts build() throws Exception {
+		RangeDeltaBuilder builder = new RangeDeltaBuilder(type, source, destination, batchSize, create, update, delete, new BasicProgress());
+		return builder.call();
+	}
+
+	@Test
+	public void testNoDelta() throws Exception{
+		DeltaCounts counts = build();
+		assertEquals(0, counts.getCreate());
+		assertEquals(0, counts.getUpdate());
+		assertEquals(0, counts.getDelete());
+		// Nothing should be listed
+		assertEquals(0, source.getRangeRowCalls());
+		assertEquals(1, source.getRangeChecksumCalls());
+	}
+
+	@Test
+	public void testFewChanges() throws Exception{
+		// update
+		sourceRows.get(17).setEtag("changed");
+		// delete
+		sourceRows.remove(9000);
+		RowMetadata deleted = destRows.get(9000);
+		// create
+		RowMetadata created = createRow(5002L, "new");
+		sourceRows.add(1668, created);
+		// create past the end of the destination
+		RowMetadata last = createRow(rowCount*3L, "last");
+		sourceRows.add(last);
+
+		DeltaCounts counts = build();
+		assertEquals(2, counts.getCreate());
+		assertEquals(1, counts.getUpdate());
+		assertEquals(1, counts.getDelete());
+		List<RowMetadata> expectedCreate = new LinkedList<RowMetadata>();
+		expectedCreate.add(created);
+		expectedCreate.add(last);
+		assertEquals(expectedCreate, create.getList());
+		assertEquals(sourceRows.get(17), update.getList().get(0));
+		assertEquals(deleted, delete.getList().get(0));
+		// Only the ranges with changes should be listed
+		assertTrue(source.getRangeRowCalls() <= 4);
+		assertTrue(source.getRangeChecksumCalls() < 4*2*20);
+	}
+
+	@Test
+	public void testEmptyDestination() throws Exception{
+		destRows.clear();
+		DeltaCounts counts = build();
+		assertEquals(rowCount, counts.getCreate());
+		assertEquals(0, counts.getUpdate());
+		assertEquals(0, counts.getDelete());
+		// Created in ID order
+		assertEquals(sourceRows, create.getList());
+	}
+
+	@Test
+	public void testEmptySource() throws Exception{
+		sourceRows.clear();
+		DeltaCounts counts = build();
+		assertEquals(0, counts.getCreate());
+		assertEquals(0, counts.getUpdate());
+		assertEquals(rowCount, counts.getDelete());
+		assertEquals(destRows, delete.getList());
+	}
+
+	@Test
+	public void testMiddle(){
+		assertEquals(5, RangeDeltaBuilder.middle(0, 10));
+		assertEquals(5, RangeDeltaBuilder.middle(0, 11));
+		assertEquals(-1, RangeDeltaBuilder.middle(-2, 1));
+		assertEquals(-1, RangeDeltaBuilder.middle(Long.MIN_VALUE, Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE-1, RangeDeltaBuilder.middle(Long.MAX_VALUE-1, Long.MAX_VALUE));
+	}
+}